@@ -0,0 +1,48 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+
+/**
+ * Access to the data used by the benchmarks.
+ *
+ * All the content comes from the fhir-test-cases release nominated in the pom
+ * (validator_test_case_version) - including the R5 core package that the context is
+ * loaded from - so that the benchmarks measure the same work from one release to the
+ * next. Don't change the content of the corpus without recording that the results
+ * can't be compared with earlier runs.
+ */
+public class BenchmarkData {
+
+  /**
+   * The R5 examples used for parsing, FHIRPath and validation. (These are duplicated in the
+   * @Param annotations, which have to be literals)
+   */
+  public static final String[] R5_CORPUS = {
+    "patient-example.xml",
+    "observation-example.xml",
+    "observation-example-20minute-apgar-score.xml",
+    "questionnaire-example.xml",
+    "valueset-example-expansion.xml"
+  };
+
+  /**
+   * The R4 examples used for parsing and conversion
+   */
+  public static final String[] R4_CORPUS = {
+    "patient-example.xml",
+    "observation-example.xml",
+    "questionnaire-example.xml",
+    "valueset-example-expansion.xml"
+  };
+
+  public static byte[] load(String version, String name) throws IOException {
+    return TestingUtilities.loadTestResourceBytes(version, name);
+  }
+
+  public static IWorkerContext r5Context() {
+    return TestingUtilities.getSharedWorkerContext();
+  }
+}
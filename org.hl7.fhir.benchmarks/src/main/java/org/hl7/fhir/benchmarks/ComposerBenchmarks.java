@@ -0,0 +1,81 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.formats.IParser.OutputStyle;
+import org.hl7.fhir.r5.formats.JsonCreator;
+import org.hl7.fhir.r5.formats.JsonCreatorDirect;
+import org.hl7.fhir.r5.formats.JsonCreatorStream;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.formats.XmlParser;
+import org.hl7.fhir.r5.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Composing R5 resources as JSON, with the JsonCreatorDirect through an OutputStreamWriter
+ * (how JsonParser used to compose) and with the JsonCreatorStream that JsonParser now uses.
+ *
+ * The output is discarded, so this measures the composer rather than the stream. Run with
+ * -prof gc to compare the allocation rates
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComposerBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class R5Data {
+    @Param({"patient-example.xml", "observation-example.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+    public String resource;
+
+    @Param({"NORMAL", "PRETTY"})
+    public OutputStyle style;
+
+    public Resource model;
+
+    @Setup
+    public void setup() throws IOException {
+      model = new XmlParser().parse(BenchmarkData.load("r5", resource));
+    }
+  }
+
+  @Benchmark
+  public void composeDirect(R5Data data) throws IOException {
+    OutputStreamWriter osw = new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+    compose(data, new JsonCreatorDirect(osw, data.style == OutputStyle.PRETTY, false));
+    osw.flush();
+  }
+
+  @Benchmark
+  public void composeStream(R5Data data) throws IOException {
+    compose(data, new JsonCreatorStream(OutputStream.nullOutputStream(), data.style == OutputStyle.PRETTY, false));
+  }
+
+  @Benchmark
+  public byte[] composeBytes(R5Data data) throws IOException {
+    return new JsonParser().setOutputStyle(data.style).composeBytes(data.model);
+  }
+
+  private void compose(R5Data data, JsonCreator json) throws IOException {
+    json.beginObject();
+    new JsonParser().compose(json, data.model);
+    json.endObject();
+    json.finish();
+  }
+}
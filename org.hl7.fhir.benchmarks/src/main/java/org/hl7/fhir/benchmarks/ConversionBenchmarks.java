@@ -0,0 +1,56 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.convertors.factory.VersionConvertorFactory_40_50;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * R4 <-> R5 conversion with VersionConvertorFactory_40_50
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmarks {
+
+  @Param({"patient-example.xml", "observation-example.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+  public String resource;
+
+  private org.hl7.fhir.r4.model.Resource r4;
+  private org.hl7.fhir.r5.model.Resource r5;
+
+  @Setup
+  public void setup() throws IOException {
+    r4 = new org.hl7.fhir.r4.formats.XmlParser().parse(BenchmarkData.load("r4", resource));
+    r5 = VersionConvertorFactory_40_50.convertResource(r4);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r5.model.Resource r4ToR5() {
+    return VersionConvertorFactory_40_50.convertResource(r4);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r4.model.Resource r5ToR4() {
+    return VersionConvertorFactory_40_50.convertResource(r5);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r4.model.Resource roundTrip() {
+    return VersionConvertorFactory_40_50.convertResource(VersionConvertorFactory_40_50.convertResource(r4));
+  }
+}
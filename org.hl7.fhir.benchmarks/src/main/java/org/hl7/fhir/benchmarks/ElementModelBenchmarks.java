@@ -0,0 +1,77 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.formats.IParser.OutputStyle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and composing with the element model (the parsers the validator uses)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ElementModelBenchmarks {
+
+  @Param({"patient-example.xml", "observation-example.xml", "observation-example-20minute-apgar-score.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+  public String resource;
+
+  private IWorkerContext context;
+  private byte[] xml;
+  private byte[] json;
+  private Element element;
+
+  @Setup
+  public void setup() throws IOException {
+    context = BenchmarkData.r5Context();
+    xml = BenchmarkData.load("r5", resource);
+    element = Manager.parseSingle(context, new ByteArrayInputStream(xml), FhirFormat.XML);
+    json = compose(FhirFormat.JSON);
+  }
+
+  @Benchmark
+  public Element parseXml() throws IOException {
+    return Manager.parseSingle(context, new ByteArrayInputStream(xml), FhirFormat.XML);
+  }
+
+  @Benchmark
+  public Element parseJson() throws IOException {
+    return Manager.parseSingle(context, new ByteArrayInputStream(json), FhirFormat.JSON);
+  }
+
+  @Benchmark
+  public byte[] composeXml() throws IOException {
+    return compose(FhirFormat.XML);
+  }
+
+  @Benchmark
+  public byte[] composeJson() throws IOException {
+    return compose(FhirFormat.JSON);
+  }
+
+  private byte[] compose(FhirFormat format) throws IOException {
+    ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    Manager.compose(context, element, bs, format, OutputStyle.NORMAL, null);
+    return bs.toByteArray();
+  }
+}
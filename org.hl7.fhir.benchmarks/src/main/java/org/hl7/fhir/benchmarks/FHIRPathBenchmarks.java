@@ -0,0 +1,82 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
+import org.hl7.fhir.r5.formats.XmlParser;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FHIRPathEngine.evaluate on patient-example.xml, with and without parsing the expression each time,
+ * and with the parsed expressions cached
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FHIRPathBenchmarks {
+
+  @Param({
+    "name.given",
+    "name.where(use = 'official').family",
+    "telecom.where(system = 'phone' and use = 'mobile').exists()",
+    "birthDate < today() and active",
+    "descendants().count()",
+    "descendants().distinct().count()",
+    "descendants().union(descendants()).count()",
+    "contact.relationship.coding.where(system = 'http://terminology.hl7.org/CodeSystem/v2-0131').code"
+  })
+  public String expression;
+
+  private FHIRPathEngine engine;
+  private FHIRPathEngine cachingEngine;
+  private Resource resource;
+  private ExpressionNode parsed;
+
+  @Setup
+  public void setup() throws IOException {
+    engine = new FHIRPathEngine(BenchmarkData.r5Context());
+    resource = new XmlParser().parse(BenchmarkData.load("r5", "patient-example.xml"));
+    parsed = engine.parse(expression);
+    cachingEngine = new FHIRPathEngine(BenchmarkData.r5Context());
+    cachingEngine.setExpressionCache(new FHIRPathExpressionCache(FHIRPathExpressionCache.DEFAULT_MAX_SIZE));
+  }
+
+  @Benchmark
+  public ExpressionNode parse() {
+    return engine.parse(expression);
+  }
+
+  @Benchmark
+  public List<Base> evaluate() {
+    return engine.evaluate(resource, parsed);
+  }
+
+  @Benchmark
+  public List<Base> parseAndEvaluate() {
+    return engine.evaluate(resource, engine.parse(expression));
+  }
+
+  @Benchmark
+  public List<Base> parseAndEvaluateCached() {
+    return cachingEngine.evaluate(resource, cachingEngine.parse(expression));
+  }
+}
@@ -0,0 +1,114 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and composing resources with the R4 and R5 JsonParser and XmlParser, and parsing
+ * with the JsonStreamParser.
+ *
+ * The JSON form of each example is produced from the XML form when the benchmark is set up
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmarks {
+
+  @State(Scope.Benchmark)
+  public static class R4Data {
+    @Param({"patient-example.xml", "observation-example.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+    public String resource;
+
+    public byte[] xml;
+    public byte[] json;
+    public org.hl7.fhir.r4.model.Resource model;
+
+    @Setup
+    public void setup() throws IOException {
+      xml = BenchmarkData.load("r4", resource);
+      model = new org.hl7.fhir.r4.formats.XmlParser().parse(xml);
+      json = new org.hl7.fhir.r4.formats.JsonParser().composeBytes(model);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class R5Data {
+    @Param({"patient-example.xml", "observation-example.xml", "observation-example-20minute-apgar-score.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+    public String resource;
+
+    public byte[] xml;
+    public byte[] json;
+    public org.hl7.fhir.r5.model.Resource model;
+
+    @Setup
+    public void setup() throws IOException {
+      xml = BenchmarkData.load("r5", resource);
+      model = new org.hl7.fhir.r5.formats.XmlParser().parse(xml);
+      json = new org.hl7.fhir.r5.formats.JsonParser().composeBytes(model);
+    }
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r4.model.Resource r4ParseXml(R4Data data) throws IOException {
+    return new org.hl7.fhir.r4.formats.XmlParser().parse(data.xml);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r4.model.Resource r4ParseJson(R4Data data) throws IOException {
+    return new org.hl7.fhir.r4.formats.JsonParser().parse(data.json);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r4.model.Resource r4ParseJsonStream(R4Data data) throws IOException {
+    return new org.hl7.fhir.r4.formats.JsonStreamParser().parse(data.json);
+  }
+
+  @Benchmark
+  public byte[] r4ComposeXml(R4Data data) throws IOException {
+    return new org.hl7.fhir.r4.formats.XmlParser().composeBytes(data.model);
+  }
+
+  @Benchmark
+  public byte[] r4ComposeJson(R4Data data) throws IOException {
+    return new org.hl7.fhir.r4.formats.JsonParser().composeBytes(data.model);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r5.model.Resource r5ParseXml(R5Data data) throws IOException {
+    return new org.hl7.fhir.r5.formats.XmlParser().parse(data.xml);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r5.model.Resource r5ParseJson(R5Data data) throws IOException {
+    return new org.hl7.fhir.r5.formats.JsonParser().parse(data.json);
+  }
+
+  @Benchmark
+  public org.hl7.fhir.r5.model.Resource r5ParseJsonStream(R5Data data) throws IOException {
+    return new org.hl7.fhir.r5.formats.JsonStreamParser().parse(data.json);
+  }
+
+  @Benchmark
+  public byte[] r5ComposeXml(R5Data data) throws IOException {
+    return new org.hl7.fhir.r5.formats.XmlParser().composeBytes(data.model);
+  }
+
+  @Benchmark
+  public byte[] r5ComposeJson(R5Data data) throws IOException {
+    return new org.hl7.fhir.r5.formats.JsonParser().composeBytes(data.model);
+  }
+}
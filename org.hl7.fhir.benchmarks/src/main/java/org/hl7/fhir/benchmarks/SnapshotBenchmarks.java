@@ -0,0 +1,66 @@
+package org.hl7.fhir.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.context.ContextUtilities;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ProfileUtilities.generateSnapshot, regenerating the snapshots of some of the profiles
+ * in the core package (which comes from the test cases, so it's fixed)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmarks {
+
+  @Param({"vitalsigns", "bp", "heartrate", "bodyweight", "bodytemp", "shareablevalueset"})
+  public String profile;
+
+  private IWorkerContext context;
+  private ContextUtilities cu;
+  private StructureDefinition source;
+  private StructureDefinition base;
+
+  @Setup
+  public void setup() {
+    context = BenchmarkData.r5Context();
+    cu = new ContextUtilities(context);
+    source = context.fetchResource(StructureDefinition.class, "http://hl7.org/fhir/StructureDefinition/"+profile);
+    if (source == null) {
+      throw new Error("Unable to find the profile "+profile);
+    }
+    base = context.fetchResource(StructureDefinition.class, source.getBaseDefinition());
+  }
+
+  @Benchmark
+  public StructureDefinition generateSnapshot() {
+    StructureDefinition sd = source.copy();
+    sd.setSnapshot(null);
+    List<ValidationMessage> messages = new ArrayList<>();
+    ProfileUtilities pu = new ProfileUtilities(context, messages, cu);
+    pu.setAutoFixSliceNames(true);
+    pu.setThrowException(false);
+    pu.generateSnapshot(base, sd, sd.getUrl(), "http://hl7.org/fhir", sd.getName());
+    return sd;
+  }
+}
@@ -0,0 +1,144 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.utils.sql.Provider;
+import org.hl7.fhir.r5.utils.sql.Runner;
+import org.hl7.fhir.r5.utils.sql.StorageSqlite3;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading SQL-on-FHIR views of synthetic patients into a SQLite database on disk, one row at a
+ * time (batchSize = 0) and in batches, and with the views run one after the other or in a single
+ * pass over the data. Each invocation loads a new database.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlOnFhirBenchmarks {
+
+  private static final String PATIENT_VIEW = "{\"resource\":\"Patient\",\"name\":\"patient\","+
+      "\"select\":[{\"column\":[{\"name\":\"id\",\"path\":\"id\"},{\"name\":\"gender\",\"path\":\"gender\"},{\"name\":\"birthDate\",\"path\":\"birthDate\"}]}]}";
+  private static final String NAME_VIEW = "{\"resource\":\"Patient\",\"name\":\"patient_name\","+
+      "\"select\":[{\"column\":[{\"name\":\"id\",\"path\":\"id\"}]},{\"forEach\":\"name\",\"column\":[{\"name\":\"family\",\"path\":\"family\"},{\"name\":\"given\",\"path\":\"given.first()\"}]}]}";
+
+  @Param({"10000"})
+  public int count;
+
+  @Param({"0", "1000", "10000"})
+  public int batchSize;
+
+  private File file;
+  private Connection conn;
+
+  /**
+   * makes the patients as they are read
+   */
+  private class SyntheticProvider implements Provider {
+
+    @Override
+    public List<Base> fetch(String resourceType) {
+      List<Base> list = new ArrayList<>();
+      iterate(resourceType).forEachRemaining(list::add);
+      return list;
+    }
+
+    @Override
+    public Iterator<Base> iterate(String resourceType) {
+      return new Iterator<Base>() {
+        private int i = 0;
+
+        @Override
+        public boolean hasNext() {
+          return i < count;
+        }
+
+        @Override
+        public Base next() {
+          Patient p = new Patient();
+          p.setId("p"+i);
+          p.setGender(i % 2 == 0 ? AdministrativeGender.FEMALE : AdministrativeGender.MALE);
+          p.setBirthDateElement(new DateType(String.format("19%02d-%02d-%02d", i % 100, i % 12 + 1, i % 28 + 1)));
+          p.addName().setFamily("Family"+i).addGiven("Given"+i);
+          if (i % 4 == 0) {
+            p.addName().setFamily("Maiden"+i).addGiven("Given"+i);
+          }
+          i++;
+          return p;
+        }
+      };
+    }
+
+    @Override
+    public Base resolveReference(Base rootResource, String ref, String specifiedResourceType) {
+      return null;
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setup() throws IOException, SQLException {
+    file = ManagedFileAccess.fromPath(Files.createTempFile("sql-on-fhir", ".db"));
+    file.delete();
+    conn = DriverManager.getConnection("jdbc:sqlite:"+file.getAbsolutePath());
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() throws SQLException {
+    conn.close();
+    file.delete();
+  }
+
+  private Runner makeRunner() {
+    Runner runner = new Runner();
+    runner.setContext(BenchmarkData.r5Context());
+    runner.setProvider(new SyntheticProvider());
+    runner.setStorage(batchSize == 0 ? new StorageSqlite3(conn) : new StorageSqlite3(conn, batchSize));
+    return runner;
+  }
+
+  @Benchmark
+  public void separateViews() throws IOException {
+    Runner runner = makeRunner();
+    runner.execute(JsonParser.parseObject(PATIENT_VIEW));
+    runner.execute(JsonParser.parseObject(NAME_VIEW));
+  }
+
+  @Benchmark
+  public void onePass() throws IOException {
+    List<JsonObject> views = new ArrayList<>();
+    views.add(JsonParser.parseObject(PATIENT_VIEW));
+    views.add(JsonParser.parseObject(NAME_VIEW));
+    makeRunner().execute(views);
+  }
+}
@@ -0,0 +1,64 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.tests.TestConstants;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.instance.InstanceValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InstanceValidator.validate on the R5 corpus.
+ *
+ * There's no terminology server, so that the results don't depend on the network; this
+ * measures the structural validation, not terminology round trips
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmarks {
+
+  @Param({"patient-example.xml", "observation-example.xml", "observation-example-20minute-apgar-score.xml", "questionnaire-example.xml", "valueset-example-expansion.xml"})
+  public String resource;
+
+  private InstanceValidator validator;
+  private byte[] source;
+
+  @Setup
+  public void setup() throws Exception {
+    TestingUtilities.injectCorePackageLoader();
+    ValidationEngine engine = new ValidationEngine.ValidationEngineBuilder()
+      .withVersion("5.0.0")
+      .withUserAgent(TestConstants.USER_AGENT)
+      .withNoTerminologyServer()
+      .fromSource("hl7.fhir.r5.core#5.0.0");
+    validator = engine.getValidator(FhirFormat.XML);
+    source = BenchmarkData.load("r5", resource);
+  }
+
+  @Benchmark
+  public List<ValidationMessage> validate() throws Exception {
+    List<ValidationMessage> messages = new ArrayList<>();
+    validator.validate(null, messages, new ByteArrayInputStream(source), FhirFormat.XML, new ArrayList<>());
+    return messages;
+  }
+}
@@ -95,6 +95,12 @@ public class R5ToR5Loader extends BaseLoaderR5 {
     return b;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    // nothing is kept between calls to loadBundle()
+    return true;
+  }
+
   @Override
   public Resource loadResource(InputStream stream, boolean isJson) throws FHIRException, IOException {
     Resource r5 = null;
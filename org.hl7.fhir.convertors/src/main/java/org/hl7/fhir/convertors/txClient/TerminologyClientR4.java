@@ -5,6 +5,7 @@ import java.net.URISyntaxException;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.hl7.fhir.convertors.factory.VersionConvertorFactory_40_50;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -20,6 +21,7 @@ import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
+import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext;
 import org.hl7.fhir.r5.utils.client.network.ClientHeaders;
 import org.hl7.fhir.utilities.FhirPublication;
 import org.hl7.fhir.utilities.ToolingClientLogger;
@@ -149,6 +151,17 @@ public class TerminologyClientR4 implements ITerminologyClient {
     }
   }
 
+  // there's no non-blocking client for this version, so the call is made on another thread
+  @Override
+  public CompletableFuture<Parameters> validateCSAsync(Parameters pin) {
+    return CompletableFuture.supplyAsync(() -> validateCS(pin), TerminologyClientContext.getBlockingCallExecutor());
+  }
+
+  @Override
+  public CompletableFuture<Parameters> validateVSAsync(Parameters pin) {
+    return CompletableFuture.supplyAsync(() -> validateVS(pin), TerminologyClientContext.getBlockingCallExecutor());
+  }
+
   @Override
   public ITerminologyClient setTimeoutFactor(int i) {
     client.setTimeoutFactor(i);
@@ -0,0 +1,347 @@
+package org.hl7.fhir.r4.formats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.exceptions.FHIRFormatError;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.Narrative;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceFactory;
+import org.hl7.fhir.utilities.Utilities;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A JSON parser that builds the resource straight from the JSON tokens, instead of
+ * loading the whole source into a JSON object tree first and then walking the tree.
+ * This roughly halves the memory used while parsing.
+ *
+ * The properties are found using the model classes' own property accessors (makeProperty,
+ * setProperty), so there's nothing generated to keep in sync with the model. The results
+ * are the same as JsonParser: unknown properties are skipped, and primitives are merged
+ * with their _[name] element content (including arrays of primitives, where the two
+ * arrays are matched by index), whichever order they appear in.
+ *
+ * The only case that needs a tree is a resource where resourceType isn't the first
+ * property - those resources are read into a tree and passed to JsonParser.
+ *
+ * Composing, and parsing types, is the same as JsonParser
+ */
+public class JsonStreamParser extends JsonParser {
+
+  private enum PropertyKind {
+    PRIMITIVE, COMPLEX, RESOURCE, WILDCARD
+  }
+
+  /**
+   * What the parser needs to know about a JSON property. For choice properties, there's one
+   * of these for each type (valueString, valueQuantity etc)
+   */
+  private static class StreamProperty {
+    private final String name;
+    private final int hash;
+    private final String baseName;
+    private final String type;
+    private final PropertyKind kind;
+    private final boolean list;
+    private final boolean choice;
+
+    private StreamProperty(String name, String type, boolean list, boolean choice) {
+      super();
+      this.name = name;
+      this.hash = name.hashCode();
+      this.baseName = choice ? name.substring(0, name.length() - 3) : name;
+      this.type = type;
+      this.list = list;
+      this.choice = choice;
+      if ("*".equals(type)) {
+        kind = PropertyKind.WILDCARD;
+      } else if (Utilities.existsInList(type, "Resource", "DomainResource")) {
+        kind = PropertyKind.RESOURCE;
+      } else if (!Utilities.noString(type) && Character.isLowerCase(type.charAt(0))) {
+        kind = PropertyKind.PRIMITIVE;
+      } else {
+        kind = PropertyKind.COMPLEX;
+      }
+    }
+  }
+
+  private static final Map<Class<?>, Map<String, StreamProperty>> PROPERTIES = new ConcurrentHashMap<>();
+
+  public JsonStreamParser() {
+    super();
+  }
+
+  public JsonStreamParser(boolean allowUnknownContent) {
+    super(allowUnknownContent);
+  }
+
+  public JsonStreamParser(boolean allowUnknownContent, boolean allowComments) {
+    super(allowUnknownContent, allowComments);
+  }
+
+  @Override
+  public Resource parse(InputStream input) throws IOException, FHIRFormatError {
+    JsonReader reader = new JsonReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    reader.setLenient(allowComments);
+    Resource res = parse(reader);
+    if (reader.peek() != JsonToken.END_DOCUMENT) {
+      throw new FHIRFormatError("Unexpected content following the resource at "+reader.getPath());
+    }
+    return res;
+  }
+
+  /**
+   * parse the resource that starts at the current position of the reader, and leave the reader
+   * positioned after it (e.g. to read resources from a larger JSON document one at a time)
+   */
+  public Resource parse(JsonReader reader) throws IOException, FHIRFormatError {
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      throw new FHIRFormatError("Unable to find resource type - maybe not a FHIR resource?");
+    }
+    reader.beginObject();
+    if (!reader.hasNext()) {
+      throw new FHIRFormatError("Unable to find resource type - maybe not a FHIR resource?");
+    }
+    String name = reader.nextName();
+    if (!"resourceType".equals(name)) {
+      // the type isn't known until resourceType is found, so this resource has to be read as a tree
+      JsonObject json = new JsonObject();
+      json.add(name, com.google.gson.JsonParser.parseReader(reader));
+      while (reader.hasNext()) {
+        name = reader.nextName();
+        json.add(name, com.google.gson.JsonParser.parseReader(reader));
+      }
+      reader.endObject();
+      return parseResource(json);
+    }
+    String t = readPrimitive(reader, name);
+    if (Utilities.noString(t)) {
+      throw new FHIRFormatError("Unable to find resource type - maybe not a FHIR resource?");
+    }
+    Resource res;
+    try {
+      res = ResourceFactory.createResource(t);
+    } catch (FHIRException e) {
+      throw new FHIRFormatError("Unknown.Unrecognised resource type '"+t+"' (in property 'resourceType')");
+    }
+    parseProperties(reader, res);
+    reader.endObject();
+    return res;
+  }
+
+  private void parseProperties(JsonReader reader, Base target) throws IOException, FHIRFormatError {
+    Map<String, StreamProperty> properties = propertiesFor(target);
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      boolean extras = name.startsWith("_");
+      StreamProperty p = getProperty(properties, extras ? name.substring(1) : name);
+      if (target instanceof Narrative && "div".equals(name)) {
+        // not all the versions list the div as a property
+        String value = readPrimitive(reader, name);
+        if (value != null) {
+          ((Narrative) target).setDiv(parseXhtml(value));
+        }
+      } else if (p == null || (extras && p.kind != PropertyKind.PRIMITIVE)) {
+        // same as JsonParser: anything that isn't a known property (including resourceType and fhir_comments) is ignored
+        reader.skipValue();
+      } else if (p.kind == PropertyKind.PRIMITIVE) {
+        if (p.list) {
+          parsePrimitiveList(reader, target, p, extras);
+        } else if (extras) {
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+          } else {
+            parseElement(reader, makeProperty(target, p), name);
+          }
+        } else {
+          String value = readPrimitive(reader, name);
+          if (value != null) {
+            ((PrimitiveType<?>) makeProperty(target, p)).setValueAsString(value);
+          }
+        }
+      } else if (p.kind == PropertyKind.COMPLEX) {
+        if (p.list) {
+          checkToken(reader, name, JsonToken.BEGIN_ARRAY);
+          reader.beginArray();
+          while (reader.hasNext()) {
+            parseElement(reader, makeProperty(target, p), name);
+          }
+          reader.endArray();
+        } else {
+          checkToken(reader, name, JsonToken.BEGIN_OBJECT);
+          parseElement(reader, makeProperty(target, p), name);
+        }
+      } else if (p.kind == PropertyKind.RESOURCE) {
+        if (p.list) {
+          checkToken(reader, name, JsonToken.BEGIN_ARRAY);
+          reader.beginArray();
+          while (reader.hasNext()) {
+            target.setProperty(p.name, parse(reader));
+          }
+          reader.endArray();
+        } else {
+          target.setProperty(p.name, parse(reader));
+        }
+      } else {
+        reader.skipValue();
+      }
+    }
+  }
+
+  private void parsePrimitiveList(JsonReader reader, Base target, StreamProperty p, boolean extras) throws IOException, FHIRFormatError {
+    String name = extras ? "_"+p.name : p.name;
+    checkToken(reader, name, JsonToken.BEGIN_ARRAY);
+    // the value array and the _ array can come in either order, so the items already created by the other are reused
+    Base[] existing = target.getProperty(p.hash, p.name, false);
+    int i = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      Base item = i < existing.length ? existing[i] : makeProperty(target, p);
+      if (extras) {
+        if (reader.peek() == JsonToken.NULL) {
+          reader.nextNull();
+        } else {
+          parseElement(reader, item, name);
+        }
+      } else {
+        String value = readPrimitive(reader, name);
+        if (value != null) {
+          ((PrimitiveType<?>) item).setValueAsString(value);
+        }
+      }
+      i++;
+    }
+    reader.endArray();
+  }
+
+  private void parseElement(JsonReader reader, Base element, String name) throws IOException, FHIRFormatError {
+    if (reader.peek() == JsonToken.NULL) {
+      // JsonParser treats a null in an array as an empty object
+      reader.nextNull();
+      return;
+    }
+    checkToken(reader, name, JsonToken.BEGIN_OBJECT);
+    reader.beginObject();
+    parseProperties(reader, element);
+    reader.endObject();
+  }
+
+  private Base makeProperty(Base target, StreamProperty p) throws FHIRException {
+    if (p.choice) {
+      Base[] current = target.getProperty(p.baseName.hashCode(), p.baseName, false);
+      if (current.length == 1 && current[0] != null && p.type.equals(current[0].fhirType())) {
+        return current[0];
+      }
+      Base value = ResourceFactory.createType(p.type);
+      target.setProperty(p.name, value);
+      return value;
+    }
+    Base res = target.makeProperty(p.hash, p.name);
+    if (res == null) {
+      throw new FHIRException("Unable to create the property "+p.name+" on "+target.fhirType());
+    }
+    return res;
+  }
+
+  private String readPrimitive(JsonReader reader, String name) throws IOException, FHIRFormatError {
+    switch (reader.peek()) {
+    case STRING:
+    case NUMBER:
+      return reader.nextString();
+    case BOOLEAN:
+      return Boolean.toString(reader.nextBoolean());
+    case NULL:
+      reader.nextNull();
+      return null;
+    default:
+      throw new FHIRFormatError("The property "+name+" at "+reader.getPath()+" is a "+reader.peek()+" looking for a primitive value");
+    }
+  }
+
+  private void checkToken(JsonReader reader, String name, JsonToken token) throws IOException, FHIRFormatError {
+    if (reader.peek() != token) {
+      throw new FHIRFormatError("The property "+name+" at "+reader.getPath()+" is a "+reader.peek()+" looking for "+(token == JsonToken.BEGIN_ARRAY ? "an Array" : "an Object"));
+    }
+  }
+
+  // --- property metadata ------------------------------------------------------------
+
+  private Map<String, StreamProperty> propertiesFor(Base target) {
+    Map<String, StreamProperty> res = PROPERTIES.get(target.getClass());
+    if (res == null) {
+      res = new ConcurrentHashMap<>();
+      for (Property p : target.children()) {
+        String name = p.getName();
+        boolean list = p.getMaxCardinality() > 1;
+        // Reference(Patient|Group) -> Reference
+        String tc = p.getTypeCode() == null ? "" : p.getTypeCode().replaceAll("\\([^)]*\\)", "");
+        if (name.endsWith("[x]")) {
+          String prefix = name.substring(0, name.length() - 3);
+          if ("*".equals(tc)) {
+            res.put(name, new StreamProperty(name, tc, list, true));
+          } else {
+            for (String t : tc.split("\\|")) {
+              t = t.trim();
+              res.put(prefix+Utilities.capitalize(t), new StreamProperty(name, t, list, true));
+            }
+          }
+        } else {
+          res.put(name, new StreamProperty(name, tc.contains("|") ? tc.substring(0, tc.indexOf("|")).trim() : tc.trim(), list, false));
+        }
+      }
+      Map<String, StreamProperty> existing = PROPERTIES.putIfAbsent(target.getClass(), res);
+      if (existing != null) {
+        res = existing;
+      }
+    }
+    return res;
+  }
+
+  private StreamProperty getProperty(Map<String, StreamProperty> properties, String name) {
+    StreamProperty res = properties.get(name);
+    if (res == null || res.kind == PropertyKind.WILDCARD) {
+      return res == null ? getWildcardProperty(properties, name) : null;
+    }
+    return res;
+  }
+
+  /**
+   * choice properties that can be any type (value[x] : *) are worked out from the JSON name the first time they're seen
+   */
+  private StreamProperty getWildcardProperty(Map<String, StreamProperty> properties, String name) {
+    for (StreamProperty p : properties.values()) {
+      if (p.kind == PropertyKind.WILDCARD && name.length() > p.baseName.length() && name.startsWith(p.baseName) && Character.isUpperCase(name.charAt(p.baseName.length()))) {
+        String t = typeForSuffix(name.substring(p.baseName.length()));
+        if (t != null) {
+          StreamProperty res = new StreamProperty(p.name, t, p.list, true);
+          properties.put(name, res);
+          return res;
+        }
+      }
+    }
+    return null;
+  }
+
+  private String typeForSuffix(String suffix) {
+    for (String t : new String[] { Utilities.uncapitalize(suffix), suffix }) {
+      try {
+        ResourceFactory.createType(t);
+        return t;
+      } catch (FHIRException e) {
+        // not this one
+      }
+    }
+    return null;
+  }
+}
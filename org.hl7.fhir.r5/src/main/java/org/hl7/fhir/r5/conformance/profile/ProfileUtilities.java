@@ -504,24 +504,38 @@ public class ProfileUtilities {
         throw new DefinitionException("unable to process contentReference '"+element.getContentReference()+"' on element '"+element.getId()+"'");
       }
         
-      for (ElementDefinition e : list) {
-        if (id.equals(e.getId()))
+      SnapshotIndex index = SnapshotIndex.get(src);
+      if (index != null) {
+        ElementDefinition e = index.getById(id);
+        if (e != null) {
           return getChildMap(profile, e);
+        }
+      } else {
+        for (ElementDefinition e : list) {
+          if (id.equals(e.getId()))
+            return getChildMap(profile, e);
+        }
       }
       throw new DefinitionException(context.formatMessage(I18nConstants.UNABLE_TO_RESOLVE_NAME_REFERENCE__AT_PATH_, element.getContentReference(), element.getPath()));
 
     } else {
       List<ElementDefinition> res = new ArrayList<ElementDefinition>();
-      List<ElementDefinition> elements = profile.getSnapshot().getElement();
-      String path = element.getPath();
-      for (int index = elements.indexOf(element) + 1; index < elements.size(); index++) {
-        ElementDefinition e = elements.get(index);
-        if (e.getPath().startsWith(path + ".")) {
-          // We only want direct children, not all descendants
-          if (!e.getPath().substring(path.length()+1).contains("."))
-            res.add(e);
-        } else
-          break;
+      SnapshotIndex index = SnapshotIndex.get(profile);
+      int pos = index == null ? -1 : index.indexOf(element);
+      if (pos > -1) {
+        res.addAll(index.getChildren(pos));
+      } else {
+        List<ElementDefinition> elements = profile.getSnapshot().getElement();
+        String path = element.getPath();
+        for (int i = elements.indexOf(element) + 1; i < elements.size(); i++) {
+          ElementDefinition e = elements.get(i);
+          if (e.getPath().startsWith(path + ".")) {
+            // We only want direct children, not all descendants
+            if (!e.getPath().substring(path.length()+1).contains("."))
+              res.add(e);
+          } else
+            break;
+        }
       }
       SourcedChildDefinitions result  = new SourcedChildDefinitions(src, res);
       childMapCache.put(cacheKey, result);
@@ -534,6 +548,11 @@ public class ProfileUtilities {
     if (!element.hasSlicing())
       throw new Error(context.formatMessage(I18nConstants.GETSLICELIST_SHOULD_ONLY_BE_CALLED_WHEN_THE_ELEMENT_HAS_SLICING));
 
+    SnapshotIndex si = SnapshotIndex.get(profile);
+    int pos = si == null ? -1 : si.indexOf(element);
+    if (pos > -1) {
+      return new ArrayList<ElementDefinition>(si.getSlices(pos));
+    }
     List<ElementDefinition> res = new ArrayList<ElementDefinition>();
     List<ElementDefinition> elements = profile.getSnapshot().getElement();
     String path = element.getPath();
@@ -566,6 +585,12 @@ public class ProfileUtilities {
   }
   
   public List<ElementDefinition> getChildList(StructureDefinition profile, String path, String id, boolean diff, boolean refs) {
+    if (!diff) {
+      List<ElementDefinition> res = getIndexedChildList(profile, path, id, refs);
+      if (res != null) {
+        return res;
+      }
+    }
     List<ElementDefinition> res = new ArrayList<ElementDefinition>();
 
     boolean capturing = id==null;
@@ -618,6 +643,33 @@ public class ProfileUtilities {
     return res;
   }
 
+  /**
+   * the same as scanning the snapshot in getChildList, but using the snapshot index. Returns null
+   * if the index can't be used, and the snapshot has to be scanned
+   */
+  private List<ElementDefinition> getIndexedChildList(StructureDefinition profile, String path, String id, boolean refs) {
+    SnapshotIndex index = SnapshotIndex.get(profile);
+    if (index == null) {
+      return null;
+    }
+    if (id == null) {
+      if (refs && index.followsContentReference(path, 0)) {
+        return null;
+      }
+      return new ArrayList<ElementDefinition>(index.getChildrenOfPath(path));
+    } else {
+      ElementDefinition ed = index.getById(id);
+      if (ed == null || !ed.getPath().equals(path)) {
+        return null;
+      }
+      int pos = index.indexOf(ed);
+      if (refs && index.followsContentReference(path, pos)) {
+        return null;
+      }
+      return new ArrayList<ElementDefinition>(index.getChildren(pos));
+    }
+  }
+
   public List<ElementDefinition> getChildList(StructureDefinition structure, ElementDefinition element, boolean diff, boolean refs) {
     return getChildList(structure, element.getPath(), element.getId(), diff, refs);
   }
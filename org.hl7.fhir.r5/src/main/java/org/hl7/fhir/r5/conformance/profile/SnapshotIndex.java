@@ -0,0 +1,251 @@
+package org.hl7.fhir.r5.conformance.profile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.Utilities;
+
+/**
+ * An index of the elements in the snapshot of a StructureDefinition, so that an element's
+ * children and slices, and elements by id or path, can be found without scanning the
+ * whole snapshot each time.
+ *
+ * The index is built in a single pass the first time it's needed, and kept in the user
+ * data of the structure definition, so it's shared by everything that uses the profile.
+ * It's rebuilt if the snapshot is replaced, or elements are added or removed, and it's
+ * never used while the snapshot is being generated. Like the other user data caches, this
+ * assumes that the elements aren't otherwise changed once the snapshot is in use.
+ *
+ * The results are the same as scanning a well formed snapshot (where the descendants of an
+ * element immediately follow it). Where the results of a scan depend on a contentReference,
+ * the callers fall back to scanning the snapshot
+ */
+public class SnapshotIndex {
+
+  public static final String UD_SNAPSHOT_INDEX = "profileutilities.snapshot.index";
+
+  private final List<ElementDefinition> elements;
+  private final int size;
+  private final boolean valid;
+  private final Map<ElementDefinition, Integer> positions = new IdentityHashMap<>();
+  private final Map<String, Integer> byId = new HashMap<>();
+  private final Map<String, Integer> byPath = new HashMap<>();
+  private final Map<String, List<ElementDefinition>> byParentPath = new HashMap<>();
+  private final List<ElementDefinition>[] children;
+  private final Map<Integer, List<ElementDefinition>> slices = new HashMap<>();
+  private final List<Integer> contentReferences = new ArrayList<>();
+
+  @SuppressWarnings("unchecked")
+  private SnapshotIndex(List<ElementDefinition> elements) {
+    super();
+    this.elements = elements;
+    this.size = elements.size();
+    this.children = new List[size];
+    this.valid = build();
+  }
+
+  /**
+   * @return the index for the snapshot of the structure definition, or null if it doesn't have a snapshot,
+   * or the snapshot is being generated
+   */
+  public static SnapshotIndex get(StructureDefinition sd) {
+    if (sd == null || !sd.hasSnapshot() || sd.hasUserData("profileutils.snapshot.generating")) {
+      return null;
+    }
+    List<ElementDefinition> list = sd.getSnapshot().getElement();
+    synchronized (sd) {
+      SnapshotIndex index = (SnapshotIndex) sd.getUserData(UD_SNAPSHOT_INDEX);
+      if (index == null || index.elements != list || index.size != list.size()) {
+        index = new SnapshotIndex(list);
+        sd.setUserData(UD_SNAPSHOT_INDEX, index);
+      }
+      return index.valid ? index : null;
+    }
+  }
+
+  /**
+   * @return the first element in the snapshot with the id
+   */
+  public static ElementDefinition findById(StructureDefinition sd, String id) {
+    SnapshotIndex index = get(sd);
+    if (index != null) {
+      return index.getById(id);
+    }
+    return sd.getSnapshot().getElementById(id);
+  }
+
+  /**
+   * @return the first element in the snapshot with the path
+   */
+  public static ElementDefinition findByPath(StructureDefinition sd, String path) {
+    SnapshotIndex index = get(sd);
+    if (index != null) {
+      return index.getByPath(path);
+    }
+    for (ElementDefinition ed : sd.getSnapshot().getElement()) {
+      if (ed.getPath().equals(path)) {
+        return ed;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return all the elements in the snapshot with the path (an element and its slices), in snapshot order
+   */
+  public static List<ElementDefinition> findAllByPath(StructureDefinition sd, String path) {
+    List<ElementDefinition> res = new ArrayList<>();
+    SnapshotIndex index = get(sd);
+    if (index != null) {
+      if (!path.contains(".")) {
+        ElementDefinition ed = index.getByPath(path);
+        if (ed != null) {
+          res.add(ed);
+        }
+      } else {
+        for (ElementDefinition ed : index.getChildrenOfPath(path.substring(0, path.lastIndexOf(".")))) {
+          if (ed.getPath().equals(path)) {
+            res.add(ed);
+          }
+        }
+      }
+      return res;
+    }
+    for (ElementDefinition ed : sd.getSnapshot().getElement()) {
+      if (ed.getPath().equals(path)) {
+        res.add(ed);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * @return the position of the element in the snapshot, or -1
+   */
+  public static int indexOf(StructureDefinition sd, ElementDefinition ed) {
+    SnapshotIndex index = get(sd);
+    if (index != null) {
+      return index.indexOf(ed);
+    }
+    return sd.getSnapshot().getElement().indexOf(ed);
+  }
+
+  private boolean build() {
+    List<Integer> open = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      ElementDefinition ed = elements.get(i);
+      if (ed == null || ed.getId() == null || ed.getPath() == null) {
+        // the scans report these as errors
+        return false;
+      }
+      String path = ed.getPath();
+      positions.put(ed, i);
+      byId.putIfAbsent(ed.getId(), i);
+      byPath.putIfAbsent(path, i);
+      if (path.contains(".")) {
+        byParentPath.computeIfAbsent(path.substring(0, path.lastIndexOf(".")), k -> new ArrayList<>()).add(ed);
+      }
+      if (!Utilities.noString(ed.getContentReference())) {
+        contentReferences.add(i);
+      }
+
+      // the elements that are still open are the ones whose descendants (path + ".") this element continues
+      while (!open.isEmpty() && !path.startsWith(elements.get(open.get(open.size() - 1)).getPath() + ".")) {
+        open.remove(open.size() - 1);
+      }
+      for (int o : open) {
+        String op = elements.get(o).getPath();
+        if (path.indexOf('.', op.length() + 1) == -1) {
+          if (children[o] == null) {
+            children[o] = new ArrayList<>();
+          }
+          children[o].add(ed);
+        }
+      }
+      open.add(i);
+
+      if (ed.hasSlicing()) {
+        slices.put(i, scanSlices(i));
+      }
+    }
+    return true;
+  }
+
+  private List<ElementDefinition> scanSlices(int i) {
+    List<ElementDefinition> res = new ArrayList<>();
+    String path = elements.get(i).getPath();
+    for (int index = i + 1; index < size; index++) {
+      ElementDefinition e = elements.get(index);
+      if (e.getPath().startsWith(path + ".") || e.getPath().equals(path)) {
+        if (e.getPath().equals(path)) {
+          res.add(e);
+        }
+      } else {
+        break;
+      }
+    }
+    return res;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int indexOf(ElementDefinition ed) {
+    Integer i = positions.get(ed);
+    return i == null ? -1 : i;
+  }
+
+  public ElementDefinition getById(String id) {
+    Integer i = id == null ? null : byId.get(id);
+    return i == null ? null : elements.get(i);
+  }
+
+  public ElementDefinition getByPath(String path) {
+    Integer i = path == null ? null : byPath.get(path);
+    return i == null ? null : elements.get(i);
+  }
+
+  /**
+   * @return the direct children of the element at position i - the elements that follow it, and have a path
+   * of [path].[name]. Don't modify the list
+   */
+  public List<ElementDefinition> getChildren(int i) {
+    return children[i] == null ? Collections.emptyList() : children[i];
+  }
+
+  /**
+   * @return all the elements in the snapshot with a path of [path].[name], whatever slice they are in. Don't modify the list
+   */
+  public List<ElementDefinition> getChildrenOfPath(String path) {
+    List<ElementDefinition> res = byParentPath.get(path);
+    return res == null ? Collections.emptyList() : res;
+  }
+
+  /**
+   * @return the slices that follow the (sliced) element at position i. Don't modify the list
+   */
+  public List<ElementDefinition> getSlices(int i) {
+    List<ElementDefinition> res = slices.get(i);
+    return res == null ? Collections.emptyList() : res;
+  }
+
+  /**
+   * @return true if a scan for the children of path, starting at position start, would follow
+   * a contentReference
+   */
+  public boolean followsContentReference(String path, int start) {
+    for (int i : contentReferences) {
+      if (i >= start && path.startsWith(elements.get(i).getPath())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -44,11 +44,15 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
@@ -235,11 +239,11 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   protected final TerminologyClientManager terminologyClientManager = new TerminologyClientManager(new TerminologyClientR5.TerminologyClientR5Factory(), UUID.randomUUID().toString());
   private boolean minimalMemory = false;
 
-  private Map<String, Map<String, ResourceProxy>> allResourcesById = new HashMap<String, Map<String, ResourceProxy>>();
+  private Map<String, Map<String, ResourceProxy>> allResourcesById = new ConcurrentHashMap<String, Map<String, ResourceProxy>>();
   // all maps are to the full URI
   private CanonicalResourceManager<CodeSystem> codeSystems = new CanonicalResourceManager<CodeSystem>(false, minimalMemory);
-  private final Set<String> supportedCodeSystems = new HashSet<String>();
-  private final Set<String> unsupportedCodeSystems = new HashSet<String>(); // know that the terminology server doesn't support them
+  private final Set<String> supportedCodeSystems = ConcurrentHashMap.newKeySet();
+  private final Set<String> unsupportedCodeSystems = ConcurrentHashMap.newKeySet(); // know that the terminology server doesn't support them (updated from the async client threads too)
   private CanonicalResourceManager<ValueSet> valueSets = new CanonicalResourceManager<ValueSet>(false, minimalMemory);
   private CanonicalResourceManager<ConceptMap> maps = new CanonicalResourceManager<ConceptMap>(false, minimalMemory);
   protected CanonicalResourceManager<StructureMap> transforms = new CanonicalResourceManager<StructureMap>(false, minimalMemory);
@@ -268,21 +272,23 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   protected String name;
   private boolean allowLoadingDuplicates;
 
-  private final Set<String> codeSystemsUsed = new HashSet<>();
+  private final Set<String> codeSystemsUsed = ConcurrentHashMap.newKeySet();
   protected ToolingClientLogger txLog;
   protected boolean canRunWithoutTerminology;
   protected boolean noTerminologyServer;
   private int expandCodesLimit = 1000;
   protected ILoggingService logger = new SystemOutLoggingService();
   protected Parameters expParameters;
-  private Map<String, PackageInformation> packages = new HashMap<>();
+  private Map<String, PackageInformation> packages = new ConcurrentHashMap<>();
+  private Map<String, List<String>> pvlists = new ConcurrentHashMap<>(); // cache for populatePVList, cleared when packages change
 
   @Getter
-  protected TerminologyCache txCache = new TerminologyCache(this, null);
+  protected TerminologyCache txCache = new TerminologyCache((String) null);
   protected TimeTracker clock;
   private boolean tlogging = true;
   private IWorkerContextManager.ICanonicalResourceLocator locator;
   protected String userAgent;
+  private ResidentResourceSet residentSet;
 
   protected BaseWorkerContext() throws FileNotFoundException, IOException, FHIRException {
     setValidationMessageLanguage(getLocale());
@@ -307,24 +313,42 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   protected void copy(BaseWorkerContext other) {
+    copy(other, false);
+  }
+
+  /**
+   * @param layered if true, the canonical resources aren't copied: this context is a layer over the 
+   *   other one, and only holds what is loaded into it after this (see CanonicalResourceManager.layerOver). 
+   *   The other context is shared by all the layers over it, and must not change after this 
+   */
+  protected void copy(BaseWorkerContext other, boolean layered) {
     synchronized (other.lock) { // tricky, because you need to lock this as well, but it's really not in use yet 
-      allResourcesById.putAll(other.allResourcesById);
-      codeSystems.copy(other.codeSystems);
-      valueSets.copy(other.valueSets);
-      maps.copy(other.maps);
-      transforms.copy(other.transforms);
-      structures.copy(other.structures);
+      if (layered) {
+        // the maps for each type are changed when resources are loaded, so they can't be shared
+        for (String type : other.allResourcesById.keySet()) {
+          allResourcesById.put(type, new ConcurrentHashMap<>(other.allResourcesById.get(type)));
+        }
+      } else {
+        allResourcesById.putAll(other.allResourcesById);
+      }
+      copy(codeSystems, other.codeSystems, layered);
+      copy(valueSets, other.valueSets, layered);
+      copy(maps, other.maps, layered);
+      copy(transforms, other.transforms, layered);
+      copy(structures, other.structures, layered);
       typeManager = new TypeManager(structures);
-      searchParameters.copy(other.searchParameters);
-      plans.copy(other.plans);
-      questionnaires.copy(other.questionnaires);
-      operations.copy(other.operations);
-      systems.copy(other.systems);
+      copy(searchParameters, other.searchParameters, layered);
+      copy(plans, other.plans, layered);
+      copy(questionnaires, other.questionnaires, layered);
+      copy(operations, other.operations, layered);
+      copy(systems, other.systems, layered);
       systemUrlMap = null;
-      guides.copy(other.guides);
-      capstmts.copy(other.capstmts);
-      measures.copy(other.measures);
-      libraries.copy(libraries);
+      copy(guides, other.guides, layered);
+      copy(capstmts, other.capstmts, layered);
+      copy(measures, other.measures, layered);
+      copy(libraries, other.libraries, layered);
+      copy(actors, other.actors, layered);
+      copy(requirements, other.requirements, layered);
 
       allowLoadingDuplicates = other.allowLoadingDuplicates;
       name = other.name;
@@ -350,6 +374,15 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       userAgent = other.userAgent;
       terminologyClientManager.copy(other.terminologyClientManager);
       cachingAllowed = other.cachingAllowed;
+      setResidentSet(other.residentSet);
+    }
+  }
+
+  private <T extends CanonicalResource> void copy(CanonicalResourceManager<T> manager, CanonicalResourceManager<T> source, boolean layered) {
+    if (layered) {
+      manager.layerOver(source);
+    } else {
+      manager.copy(source);
     }
   }
   
@@ -365,11 +398,12 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     synchronized (lock) {
       if (packageInfo != null) {
         packages.put(packageInfo.getVID(), packageInfo);
+        pvlists.clear();
       }
       if (r.getId() != null) {
         Map<String, ResourceProxy> map = allResourcesById.get(r.getType());
         if (map == null) {
-          map = new HashMap<String, ResourceProxy>();
+          map = new ConcurrentHashMap<String, ResourceProxy>();
           allResourcesById.put(r.getType(), map);
         }
         if ((packageInfo == null || !packageInfo.isExamplesPackage()) || !map.containsKey(r.getId())) {
@@ -450,12 +484,13 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     synchronized (lock) {   
       if (packageInfo != null) {
         packages.put(packageInfo.getVID(), packageInfo);
+        pvlists.clear();
       }
 
       if (r.getId() != null) {
         Map<String, ResourceProxy> map = allResourcesById.get(r.fhirType());
         if (map == null) {
-          map = new HashMap<String, ResourceProxy>();
+          map = new ConcurrentHashMap<String, ResourceProxy>();
           allResourcesById.put(r.fhirType(), map);
         }
         if ((packageInfo == null || !packageInfo.isExamplesPackage()) || !map.containsKey(r.getId())) {
@@ -687,15 +722,10 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       String v = system.substring(system.indexOf("|")+1);
       return fetchCodeSystem(s, v);
     }
-    CodeSystem cs;
-    synchronized (lock) {
-      cs = codeSystems.get(system);
-    }
+    CodeSystem cs = codeSystems.get(system);
     if (cs == null && locator != null) {
       locator.findResource(this, system);
-      synchronized (lock) {
-        cs = codeSystems.get(system);
-      }
+      cs = codeSystems.get(system);
     }
     return cs;
   } 
@@ -709,15 +739,10 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     if (version == null) {
       return fetchCodeSystem(system);
     }
-    CodeSystem cs;
-    synchronized (lock) {
-      cs = codeSystems.get(system, version);
-    }
+    CodeSystem cs = codeSystems.get(system, version);
     if (cs == null && locator != null) {
       locator.findResource(this, system);
-      synchronized (lock) {
-        cs = codeSystems.get(system);
-      }
+      cs = codeSystems.get(system);
     }
     return cs;
   } 
@@ -1261,21 +1286,71 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
   
   public ValidationResult validateCode(final ValidationOptions optionsArg, String path, final Coding code, final ValueSet vs, final ValidationContextCarrier ctxt) {
+    PendingValidation pv = startValidation(optionsArg, path, code, vs, ctxt);
+    if (pv.result != null) {
+      return pv.result;
+    }
+    ValidationResult res;
+    try {
+      res = validateOnServer(pv.tc, vs, pv.pIn, pv.options);
+    } catch (Exception e) {
+      res = serverError(pv, e);
+    }
+    return finishValidation(pv, res);
+  }
+
+  /**
+   * Where a validateCode call is up to, if it has to go to the terminology server. This is so that the 
+   * server calls for a set of codes can be batched, and everything else is the same as validating them
+   * one at a time
+   */
+  private class PendingValidation {
+    private ValidationOptions options;
+    private Coding code;
+    private ValueSet vs;
+    private CacheToken cacheToken;
+    private ValidationResult result;
+    private TerminologyClientContext tc;
+    private Parameters pIn;
+    private String localError;
+    private String localWarning;
+    private TerminologyServiceErrorClass type = TerminologyServiceErrorClass.UNKNOWN;
+    private CodingValidationRequest request;
+
+    private PendingValidation(ValidationOptions options, Coding code, ValueSet vs) {
+      this.options = options;
+      this.code = code;
+      this.vs = vs;
+    }
+
+    private PendingValidation done(ValidationResult result) {
+      this.result = result;
+      return this;
+    }
+  }
+
+  /**
+   * Everything validateCode does before it goes to the server. If the outcome is known without 
+   * the server, it's in the result 
+   */
+  private PendingValidation startValidation(final ValidationOptions optionsArg, String path, final Coding code, final ValueSet vs, final ValidationContextCarrier ctxt) {
 
     ValidationOptions options = optionsArg != null ? optionsArg : ValidationOptions.defaults();
+    PendingValidation pv = new PendingValidation(options, code, vs);
 
     if (code.hasSystem()) {
       codeSystemsUsed.add(code.getSystem());
     }
 
     final CacheToken cacheToken = cachingAllowed && txCache != null ? txCache.generateValidationToken(options, code, vs, expParameters) : null;
+    pv.cacheToken = cacheToken;
     ValidationResult res = null;
     if (cachingAllowed && txCache != null) {
       res = txCache.getValidation(cacheToken);
     }
     if (res != null) {
       updateUnsupportedCodeSystems(res, code, getCodeKey(code));
-      return res;
+      return pv.done(res);
     }
 
     List<OperationOutcomeIssueComponent> issues = new ArrayList<>();
@@ -1295,7 +1370,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
           if (txCache != null && cachingAllowed) {
             txCache.cacheValidation(cacheToken, res, TerminologyCache.TRANSIENT);
           }
-          return res;
+          return pv.done(res);
         }
       } catch (VSCheckerException e) {
         if (e.isWarning()) {
@@ -1311,7 +1386,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         OperationOutcomeIssueComponent iss = new OperationOutcomeIssueComponent(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.ERROR, e.getType());
         iss.getDetails().setText(e.getMessage());
         issues.add(iss);
-        return new ValidationResult(IssueSeverity.FATAL, e.getMessage(), e.getError(), issues);
+        return pv.done(new ValidationResult(IssueSeverity.FATAL, e.getMessage(), e.getError(), issues));
       } catch (Exception e) {
 //        e.printStackTrace();
         localError = e.getMessage();
@@ -1320,29 +1395,29 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     
     if (localError != null && !terminologyClientManager.hasClient()) {
       if (unknownSystems.size() > 0) {
-        return new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues).setUnknownSystems(unknownSystems);
+        return pv.done(new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues).setUnknownSystems(unknownSystems));
       } else {
-        return new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.UNKNOWN, issues);
+        return pv.done(new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.UNKNOWN, issues));
       }
     }
     if (localWarning != null && !terminologyClientManager.hasClient()) {
-      return new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues);       
+      return pv.done(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues));       
     }
     if (!options.isUseServer()) {
       if (localWarning != null) {
-        return new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues);       
+        return pv.done(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues));       
       } else {
-        return new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localError), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues);
+        return pv.done(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localError), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues));
       }
     }
     String codeKey = getCodeKey(code);
     if (unsupportedCodeSystems.contains(codeKey)) {
-      return new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.TERMINOLOGY_TX_SYSTEM_NOTKNOWN, code.getSystem()), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues);      
+      return pv.done(new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.TERMINOLOGY_TX_SYSTEM_NOTKNOWN, code.getSystem()), TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues));      
     }
     
     // if that failed, we try to validate on the server
     if (noTerminologyServer) {
-      return new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.ERROR_VALIDATING_CODE_RUNNING_WITHOUT_TERMINOLOGY_SERVICES), TerminologyServiceErrorClass.NOSERVICE, issues);
+      return pv.done(new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.ERROR_VALIDATING_CODE_RUNNING_WITHOUT_TERMINOLOGY_SERVICES), TerminologyServiceErrorClass.NOSERVICE, issues));
     }
 
     Set<String> systems = findRelevantSystems(code, vs);
@@ -1354,14 +1429,38 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     } else {
       txLog("$validate "+csumm+" before cache exists on "+tc.getAddress());
     }
-    try {
-      Parameters pIn = constructParameters(options, code);
-      res = validateOnServer(tc, vs, pIn, options);
-    } catch (Exception e) {
-      res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
+    pv.tc = tc;
+    pv.pIn = constructParameters(options, code);
+    pv.localError = localError;
+    pv.localWarning = localWarning;
+    pv.type = type;
+    return pv;
+  }
+
+  private ValidationResult serverError(PendingValidation pv, Exception e) {
+    if (pv.code == null) {
+      return new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId());
+    } else {
+      return new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
     }
+  }
+
+  /**
+   * Everything validateCode does once the server has answered
+   */
+  private ValidationResult finishValidation(PendingValidation pv, ValidationResult res) {
+    if (pv.code == null) {
+      // a codeable concept
+      if (cachingAllowed) {
+        txCache.cacheValidation(pv.cacheToken, res, TerminologyCache.PERMANENT);
+      }
+      return res;
+    }
+    String localError = pv.localError;
+    String localWarning = pv.localWarning;
+    String codeKey = getCodeKey(pv.code);
     if (!res.isOk() && res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED && (localError != null && !localError.equals(ValueSetValidator.NO_TRY_THE_SERVER))) {
-      res = new ValidationResult(IssueSeverity.ERROR, localError, null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(type);
+      res = new ValidationResult(IssueSeverity.ERROR, localError, null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(pv.type);
     } 
     if (!res.isOk() && localError != null) {
       res.setDiagnostics("Local Error: "+localError.trim()+". Server Error: "+res.getMessage());
@@ -1371,13 +1470,118 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       res.setDiagnostics("Local Warning: "+localWarning.trim()+". Server Error: "+res.getMessage());
       return res;
     }
-    updateUnsupportedCodeSystems(res, code, codeKey);
+    updateUnsupportedCodeSystems(res, pv.code, codeKey);
     if (cachingAllowed && txCache != null) { // we never cache unsupported code systems - we always keep trying (but only once per run)
-      txCache.cacheValidation(cacheToken, res, TerminologyCache.PERMANENT);
+      txCache.cacheValidation(pv.cacheToken, res, TerminologyCache.PERMANENT);
     }
     return res;
   }
 
+  @Override
+  public void validateCodeBatch(ValidationOptions options, List<? extends CodingValidationRequest> codes) {
+    if (options == null) {
+      options = ValidationOptions.defaults();
+    }
+    // everything that can be done without the server is done as validateCode would, and then the
+    // server calls are sent as one batch per server (in the order the codes were presented)
+    Map<TerminologyClientContext, List<PendingValidation>> servers = new LinkedHashMap<>();
+    for (CodingValidationRequest t : codes) {
+      ValidationOptions o = t.getOptions() != null ? t.getOptions() : options;
+      PendingValidation pv = t.isCodeableConcept() ? startValidation(o, t.getCodeableConcept(), t.getVsObj()) : startValidation(o, "Coding", t.getCoding(), t.getVsObj(), new ValidationContextCarrier());
+      pv.request = t;
+      if (pv.result != null) {
+        t.setResult(pv.result);
+      } else {
+        List<PendingValidation> list = servers.get(pv.tc);
+        if (list == null) {
+          list = new ArrayList<>();
+          servers.put(pv.tc, list);
+        }
+        list.add(pv);
+      }
+    }
+    for (TerminologyClientContext tc : servers.keySet()) {
+      List<PendingValidation> list = servers.get(tc);
+      if (list.size() == 1) {
+        PendingValidation pv = list.get(0);
+        ValidationResult res;
+        try {
+          res = validateOnServer(tc, pv.vs, pv.pIn, pv.options);
+        } catch (Exception e) {
+          res = serverError(pv, e);
+        }
+        pv.request.setResult(finishValidation(pv, res));
+      } else {
+        validateBatchOnServer(tc, list);
+      }
+    }
+  }
+
+  private void validateBatchOnServer(TerminologyClientContext tc, List<PendingValidation> list) {
+    Bundle resp = null;
+    Exception error = null;
+    Set<String> cached = tc == null ? null : new HashSet<>(tc.getCached());
+    try {
+      if (tc == null) {
+        throw new FHIRException(formatMessage(I18nConstants.ATTEMPT_TO_USE_TERMINOLOGY_SERVER_WHEN_NO_TERMINOLOGY_SERVER_IS_AVAILABLE));
+      }
+      Bundle batch = new Bundle();
+      batch.setType(BundleType.BATCH);
+      for (PendingValidation pv : list) {
+        // prepared on a copy, so that the parameters are still clean if we have to fall back to individual calls
+        Parameters pIn = pv.pIn.copy();
+        prepareServerValidation(tc, pv.vs, pIn, pv.options);
+        BundleEntryComponent be = batch.addEntry();
+        be.setResource(pIn);
+        be.getRequest().setMethod(HTTPVerb.POST);
+        be.getRequest().setUrl(pv.vs == null ? "CodeSystem/$validate-code" : "ValueSet/$validate-code");
+      }
+      txLog("$batch validate for "+list.size()+" codes on "+tc.getAddress());
+      if (txLog != null) {
+        txLog.clearLastId();
+      }
+      resp = tc.getClient().validateBatch(batch);
+      if (resp == null || resp.getEntry().size() != list.size()) {
+        throw new FHIRException(formatMessage(I18nConstants.TX_SERVER_NO_BATCH_RESPONSE));
+      }
+    } catch (Exception e) {
+      error = e;
+    }
+    if (error != null && tc != null) {
+      // the server can't (or won't) do $batch, so the codes go as individual calls, as many at once 
+      // as the client context allows. Anything the batch said was cached on the server wasn't
+      tc.getCached().retainAll(cached);
+      txLog("$batch failed on "+tc.getAddress()+" ("+error.getMessage()+"), validating the codes individually");
+      List<CompletableFuture<ValidationResult>> calls = new ArrayList<>();
+      for (PendingValidation pv : list) {
+        calls.add(validateAsync(pv));
+      }
+      for (int i = 0; i < list.size(); i++) {
+        list.get(i).request.setResult(calls.get(i).join());
+      }
+      return;
+    }
+    for (int i = 0; i < list.size(); i++) {
+      PendingValidation pv = list.get(i);
+      ValidationResult res;
+      if (error != null) {
+        res = serverError(pv, error);
+      } else {
+        BundleEntryComponent r = resp.getEntry().get(i);
+        if (r.getResource() instanceof Parameters) {
+          try {
+            res = processValidationResult((Parameters) r.getResource(), pv.vs == null ? null : pv.vs.getUrl(), tc.getClient().getAddress());
+          } catch (Exception e) {
+            res = serverError(pv, e);
+          }
+        } else {
+          res = new ValidationResult(IssueSeverity.ERROR, getResponseText(r.getResource()), null).setTxLink(txLog == null ? null : txLog.getLastId());
+        }
+      }
+      pv.request.setResult(finishValidation(pv, res));
+    }
+  }
+
 
   /**
    * ask the terminology system whether parent subsumes child. 
@@ -1544,12 +1748,74 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
   @Override
   public ValidationResult validateCode(ValidationOptions options, CodeableConcept code, ValueSet vs) {
+    PendingValidation pv = startValidation(options, code, vs);
+    if (pv.result != null) {
+      return pv.result;
+    }
+    ValidationResult res;
+    try {
+      res = validateOnServer(pv.tc, vs, pv.pIn, pv.options);
+    } catch (Exception e) {
+      res = serverError(pv, e);
+    }
+    return finishValidation(pv, res);
+  }
+
+  @Override
+  public CompletableFuture<ValidationResult> validateCodeAsync(ValidationOptions options, Coding code, ValueSet vs) {
+    return validateAsync(startValidation(options, "Coding", code, vs, new ValidationContextCarrier()));
+  }
+
+  @Override
+  public CompletableFuture<ValidationResult> validateCodeAsync(ValidationOptions options, CodeableConcept code, ValueSet vs) {
+    return validateAsync(startValidation(options, code, vs));
+  }
+
+  /**
+   * the same as validateOnServer, but the server call goes through the client context, which shares 
+   * identical calls that are already in flight, and limits how many calls are made at once
+   */
+  private CompletableFuture<ValidationResult> validateAsync(PendingValidation pv) {
+    if (pv.result != null) {
+      return CompletableFuture.completedFuture(pv.result);
+    }
+    CompletableFuture<Parameters> call;
+    try {
+      if (pv.tc == null) {
+        throw new FHIRException(formatMessage(I18nConstants.ATTEMPT_TO_USE_TERMINOLOGY_SERVER_WHEN_NO_TERMINOLOGY_SERVER_IS_AVAILABLE));
+      }
+      prepareServerValidation(pv.tc, pv.vs, pv.pIn, pv.options);
+      if (txLog != null) {
+        txLog.clearLastId();
+      }
+      call = pv.tc.validateAsync(pv.cacheToken == null ? null : pv.cacheToken.getKey(), pv.vs != null, pv.pIn);
+    } catch (Exception e) {
+      call = CompletableFuture.failedFuture(e);
+    }
+    return call.handle((pOut, t) -> {
+      ValidationResult res;
+      try {
+        if (t != null) {
+          Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+          throw cause instanceof Exception ? (Exception) cause : new FHIRException(cause);
+        }
+        res = processValidationResult(pOut, pv.vs == null ? null : pv.vs.getUrl(), pv.tc.getClient().getAddress());
+      } catch (Exception e) {
+        res = serverError(pv, e);
+      }
+      return finishValidation(pv, res);
+    });
+  }
+
+  private PendingValidation startValidation(ValidationOptions options, CodeableConcept code, ValueSet vs) {
+    PendingValidation pv = new PendingValidation(options, null, vs);
     CacheToken cacheToken = txCache.generateValidationToken(options, code, vs, expParameters);
+    pv.cacheToken = cacheToken;
     ValidationResult res = null;
     if (cachingAllowed) {
       res = txCache.getValidation(cacheToken);
       if (res != null) {
-        return res;
+        return pv.done(res);
       }
     }
     for (Coding c : code.getCoding()) {
@@ -1574,7 +1840,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         if (cachingAllowed) {
           txCache.cacheValidation(cacheToken, res, TerminologyCache.TRANSIENT);
         }
-        return res;
+        return pv.done(res);
       } catch (VSCheckerException e) {
         if (e.isWarning()) {
           localWarning = e.getMessage();
@@ -1588,7 +1854,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
         OperationOutcomeIssueComponent iss = new OperationOutcomeIssueComponent(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.ERROR, e.getType());
         iss.getDetails().setText(e.getMessage());
         issues.add(iss);
-        return new ValidationResult(IssueSeverity.FATAL, e.getMessage(), e.getError(), issues);
+        return pv.done(new ValidationResult(IssueSeverity.FATAL, e.getMessage(), e.getError(), issues));
       } catch (Exception e) {
 //        e.printStackTrace();
         localError = e.getMessage();
@@ -1597,37 +1863,30 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
     if (localError != null && !terminologyClientManager.hasClient()) {
       if (unknownSystems.size() > 0) {
-        return new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues).setUnknownSystems(unknownSystems);
+        return pv.done(new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED, issues).setUnknownSystems(unknownSystems));
       } else {
-        return new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.UNKNOWN, issues);
+        return pv.done(new ValidationResult(IssueSeverity.ERROR, localError, TerminologyServiceErrorClass.UNKNOWN, issues));
       }
     }
     if (localWarning != null && !terminologyClientManager.hasClient()) {
-      return new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues);       
+      return pv.done(new ValidationResult(IssueSeverity.WARNING,formatMessage(I18nConstants.UNABLE_TO_VALIDATE_CODE_WITHOUT_USING_SERVER, localWarning), TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, issues));       
     }
     
     if (!options.isUseServer()) {
-      return new ValidationResult(IssueSeverity.WARNING, "Unable to validate code without using server", TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null);      
+      return pv.done(new ValidationResult(IssueSeverity.WARNING, "Unable to validate code without using server", TerminologyServiceErrorClass.BLOCKED_BY_OPTIONS, null));      
     }
     
     // if that failed, we try to validate on the server
     if (noTerminologyServer) {
-      return new ValidationResult(IssueSeverity.ERROR, "Error validating code: running without terminology services", TerminologyServiceErrorClass.NOSERVICE, null);
+      return pv.done(new ValidationResult(IssueSeverity.ERROR, "Error validating code: running without terminology services", TerminologyServiceErrorClass.NOSERVICE, null));
     }
     Set<String> systems = findRelevantSystems(code, vs);
     TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
 
     txLog("$validate "+txCache.summary(code)+" for "+ txCache.summary(vs)+" on "+tc.getAddress());
-    try {
-      Parameters pIn = constructParameters(options, code);
-      res = validateOnServer(tc, vs, pIn, options);
-    } catch (Exception e) {
-      res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId());
-    }
-    if (cachingAllowed) {
-      txCache.cacheValidation(cacheToken, res, TerminologyCache.PERMANENT);
-    }
-    return res;
+    pv.tc = tc;
+    pv.pIn = constructParameters(options, code);
+    return pv;
   }
 
   private Set<String> findRelevantSystems(ValueSet vs) {
@@ -1699,16 +1958,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
   protected ValidationResult validateOnServer(TerminologyClientContext tc, ValueSet vs, Parameters pin, ValidationOptions options) throws FHIRException {
 
-    if (vs != null) {
-      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
-        codeSystemsUsed.add(inc.getSystem());
-      }
-      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
-        codeSystemsUsed.add(inc.getSystem());
-      }
-    }
-
-    addServerValidationParameters(tc, vs, pin, options);
+    prepareServerValidation(tc, vs, pin, options);
 
     if (txLog != null) {
       txLog.clearLastId();
@@ -1725,6 +1975,19 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     return processValidationResult(pOut, vs == null ? null : vs.getUrl(), tc.getClient().getAddress());
   }
 
+  private void prepareServerValidation(TerminologyClientContext tc, ValueSet vs, Parameters pin, ValidationOptions options) {
+    if (vs != null) {
+      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
+        codeSystemsUsed.add(inc.getSystem());
+      }
+      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
+        codeSystemsUsed.add(inc.getSystem());
+      }
+    }
+
+    addServerValidationParameters(tc, vs, pin, options);
+  }
+
   protected void addServerValidationParameters(TerminologyClientContext terminologyClientContext, ValueSet vs, Parameters pin, ValidationOptions options) {
     boolean cache = false;
     if (vs != null) {
@@ -1950,7 +2213,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
   public void initTxCache(String cachePath) throws FileNotFoundException, FHIRException, IOException {
     if (cachePath != null) {
-      txCache = new TerminologyCache(lock, cachePath);
+      txCache = new TerminologyCache(cachePath);
       initTxCache(txCache);
     }
   }
@@ -2026,6 +2289,50 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     this.allowLoadingDuplicates = allowLoadingDuplicates;
   }
 
+  public ResidentResourceSet getResidentSet() {
+    return residentSet;
+  }
+
+  /**
+   * Limit how many of the resources that are loaded lazily from packages (or a context snapshot) 
+   * are kept in memory. Resources that are dropped are loaded again when they are next used. 
+   * Resources that have already been loaded are not affected, so this should be set before loading packages
+   */
+  public void setResidentSet(ResidentResourceSet residentSet) {
+    this.residentSet = residentSet;
+    for (CanonicalResourceManager<?> m : allManagers()) {
+      m.setResidentSet(residentSet);
+    }
+  }
+
+  /**
+   * Keep the resource(s) with this url in memory until they are unpinned (see setResidentSet())
+   * 
+   * @return false if there is no resource with this url
+   */
+  public boolean pinResource(String url) {
+    boolean found = false;
+    for (CanonicalResourceManager<?> m : allManagers()) {
+      found = m.pin(url) || found;
+    }
+    return found;
+  }
+
+  public boolean unpinResource(String url) {
+    boolean found = false;
+    for (CanonicalResourceManager<?> m : allManagers()) {
+      found = m.unpin(url) || found;
+    }
+    return found;
+  }
+
+  private List<CanonicalResourceManager<?>> allManagers() {
+    List<CanonicalResourceManager<?>> list = new ArrayList<>();
+    Collections.addAll(list, codeSystems, valueSets, maps, transforms, structures, measures, libraries, guides, capstmts, 
+        searchParameters, questionnaires, operations, plans, actors, requirements, systems);
+    return list;
+  }
+
   @Override
   public <T extends Resource> T fetchResourceWithException(Class<T> class_, String uri) throws FHIRException {
     return fetchResourceWithException(class_, uri, null);
@@ -2073,148 +2380,157 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       }
     }
    
-    List<String> pvlist = new ArrayList<>();
-    if (sourceForReference != null && sourceForReference.getSourcePackage() != null) {
-      populatePVList(pvlist, sourceForReference.getSourcePackage());
-    }
+    List<String> pvlist = sourceForReference != null && sourceForReference.getSourcePackage() != null ? getPVList(sourceForReference.getSourcePackage()) : Collections.emptyList();
     
     if (class_ == StructureDefinition.class) {
       uri = ProfileUtilities.sdNs(uri, null);
     }
-    synchronized (lock) {
 
-      if (version == null) {
-        if (uri.contains("|")) {
-          version = uri.substring(uri.lastIndexOf("|")+1);
-          uri = uri.substring(0, uri.lastIndexOf("|"));
-        }
-      } else {
-        assert !uri.contains("|");
+    if (version == null) {
+      if (uri.contains("|")) {
+        version = uri.substring(uri.lastIndexOf("|")+1);
+        uri = uri.substring(0, uri.lastIndexOf("|"));
       }
-      if (uri.contains("#")) {
-        uri = uri.substring(0, uri.indexOf("#"));
-      } 
-      if (class_ == Resource.class || class_ == null) {
-        if (structures.has(uri)) {
-          return (T) structures.get(uri, version, pvlist);
-        }        
-        if (guides.has(uri)) {
-          return (T) guides.get(uri, version, pvlist);
-        } 
-        if (capstmts.has(uri)) {
-          return (T) capstmts.get(uri, version, pvlist);
-        } 
-        if (measures.has(uri)) {
-          return (T) measures.get(uri, version, pvlist);
-        } 
-        if (libraries.has(uri)) {
-          return (T) libraries.get(uri, version, pvlist);
-        } 
-        if (valueSets.has(uri)) {
-          return (T) valueSets.get(uri, version, pvlist);
-        } 
-        if (codeSystems.has(uri)) {
-          return (T) codeSystems.get(uri, version, pvlist);
-        } 
-        if (systems.has(uri)) {
-          return (T) systems.get(uri, version, pvlist);
-        } 
-        if (operations.has(uri)) {
-          return (T) operations.get(uri, version, pvlist);
-        } 
-        if (searchParameters.has(uri)) {
-          return (T) searchParameters.get(uri, version, pvlist);
-        } 
-        if (plans.has(uri)) {
-          return (T) plans.get(uri, version, pvlist);
-        } 
-        if (maps.has(uri)) {
-          return (T) maps.get(uri, version, pvlist);
-        } 
-        if (transforms.has(uri)) {
-          return (T) transforms.get(uri, version, pvlist);
-        } 
-        if (actors.has(uri)) {
-          return (T) transforms.get(uri, version, pvlist);
-        } 
-        if (requirements.has(uri)) {
-          return (T) transforms.get(uri, version, pvlist);
-        } 
-        if (questionnaires.has(uri)) {
-          return (T) questionnaires.get(uri, version, pvlist);
-        } 
-
-        for (Map<String, ResourceProxy> rt : allResourcesById.values()) {
-          for (ResourceProxy r : rt.values()) {
-            if (uri.equals(r.getUrl())) {
-              if (version == null || version == r.getResource().getMeta().getVersionId()) {
-                return (T) r.getResource();
-              }
-            }
-          }            
-        }
-        if (uri.matches(Constants.URI_REGEX) && !uri.contains("ValueSet")) {
-          return null;
-        }
-
-        // it might be a special URL.
-//        if (Utilities.isAbsoluteUrl(uri) || uri.startsWith("ValueSet/")) {
-//          Resource res = null; // findTxValueSet(uri);
-//          if (res != null) {
-//            return (T) res;
-//          }
-//        }
-        return null;      
-      } else if (class_ == ImplementationGuide.class) {
+    } else {
+      assert !uri.contains("|");
+    }
+    if (uri.contains("#")) {
+      uri = uri.substring(0, uri.indexOf("#"));
+    } 
+    if (class_ == Resource.class || class_ == null) {
+      if (structures.has(uri)) {
+        return (T) structures.get(uri, version, pvlist);
+      }        
+      if (guides.has(uri)) {
         return (T) guides.get(uri, version, pvlist);
-      } else if (class_ == CapabilityStatement.class) {
+      } 
+      if (capstmts.has(uri)) {
         return (T) capstmts.get(uri, version, pvlist);
-      } else if (class_ == Measure.class) {
+      } 
+      if (measures.has(uri)) {
         return (T) measures.get(uri, version, pvlist);
-      } else if (class_ == Library.class) {
+      } 
+      if (libraries.has(uri)) {
         return (T) libraries.get(uri, version, pvlist);
-      } else if (class_ == StructureDefinition.class) {
-        return (T) structures.get(uri, version, pvlist);
-      } else if (class_ == StructureMap.class) {
-        return (T) transforms.get(uri, version, pvlist);
-      } else if (class_ == NamingSystem.class) {
-        return (T) systems.get(uri, version, pvlist);
-      } else if (class_ == ValueSet.class) {
+      } 
+      if (valueSets.has(uri)) {
         return (T) valueSets.get(uri, version, pvlist);
-      } else if (class_ == CodeSystem.class) {
+      } 
+      if (codeSystems.has(uri)) {
         return (T) codeSystems.get(uri, version, pvlist);
-      } else if (class_ == ConceptMap.class) {
-        return (T) maps.get(uri, version, pvlist);
-      } else if (class_ == ActorDefinition.class) {
-        return (T) actors.get(uri, version, pvlist);
-      } else if (class_ == Requirements.class) {
-        return (T) requirements.get(uri, version, pvlist);
-      } else if (class_ == PlanDefinition.class) {
+      } 
+      if (systems.has(uri)) {
+        return (T) systems.get(uri, version, pvlist);
+      } 
+      if (operations.has(uri)) {
+        return (T) operations.get(uri, version, pvlist);
+      } 
+      if (searchParameters.has(uri)) {
+        return (T) searchParameters.get(uri, version, pvlist);
+      } 
+      if (plans.has(uri)) {
         return (T) plans.get(uri, version, pvlist);
-      } else if (class_ == OperationDefinition.class) {
-        OperationDefinition od = operations.get(uri, version);
-        return (T) od;
-      } else if (class_ == Questionnaire.class) {
-        return (T) questionnaires.get(uri, version, pvlist);
-      } else if (class_ == SearchParameter.class) {
-        SearchParameter res = searchParameters.get(uri, version, pvlist);
-        return (T) res;
-      }
-      if (class_ == CodeSystem.class && codeSystems.has(uri)) { 
-        return (T) codeSystems.get(uri, version, pvlist);
-      }
-      if (class_ == ValueSet.class && valueSets.has(uri)) {
-        return (T) valueSets.get(uri, version, pvlist);
       } 
-      
-      if (class_ == Questionnaire.class) {
+      if (maps.has(uri)) {
+        return (T) maps.get(uri, version, pvlist);
+      } 
+      if (transforms.has(uri)) {
+        return (T) transforms.get(uri, version, pvlist);
+      } 
+      if (actors.has(uri)) {
+        return (T) transforms.get(uri, version, pvlist);
+      } 
+      if (requirements.has(uri)) {
+        return (T) transforms.get(uri, version, pvlist);
+      } 
+      if (questionnaires.has(uri)) {
         return (T) questionnaires.get(uri, version, pvlist);
       } 
-      if (supportedCodeSystems.contains(uri)) {
+
+      for (Map<String, ResourceProxy> rt : allResourcesById.values()) {
+        for (ResourceProxy r : rt.values()) {
+          if (uri.equals(r.getUrl())) {
+            if (version == null || version == r.getResource().getMeta().getVersionId()) {
+              return (T) r.getResource();
+            }
+          }
+        }            
+      }
+      if (uri.matches(Constants.URI_REGEX) && !uri.contains("ValueSet")) {
         return null;
-      } 
-      throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
+      }
+
+      // it might be a special URL.
+//        if (Utilities.isAbsoluteUrl(uri) || uri.startsWith("ValueSet/")) {
+//          Resource res = null; // findTxValueSet(uri);
+//          if (res != null) {
+//            return (T) res;
+//          }
+//        }
+      return null;      
+    } else if (class_ == ImplementationGuide.class) {
+      return (T) guides.get(uri, version, pvlist);
+    } else if (class_ == CapabilityStatement.class) {
+      return (T) capstmts.get(uri, version, pvlist);
+    } else if (class_ == Measure.class) {
+      return (T) measures.get(uri, version, pvlist);
+    } else if (class_ == Library.class) {
+      return (T) libraries.get(uri, version, pvlist);
+    } else if (class_ == StructureDefinition.class) {
+      return (T) structures.get(uri, version, pvlist);
+    } else if (class_ == StructureMap.class) {
+      return (T) transforms.get(uri, version, pvlist);
+    } else if (class_ == NamingSystem.class) {
+      return (T) systems.get(uri, version, pvlist);
+    } else if (class_ == ValueSet.class) {
+      return (T) valueSets.get(uri, version, pvlist);
+    } else if (class_ == CodeSystem.class) {
+      return (T) codeSystems.get(uri, version, pvlist);
+    } else if (class_ == ConceptMap.class) {
+      return (T) maps.get(uri, version, pvlist);
+    } else if (class_ == ActorDefinition.class) {
+      return (T) actors.get(uri, version, pvlist);
+    } else if (class_ == Requirements.class) {
+      return (T) requirements.get(uri, version, pvlist);
+    } else if (class_ == PlanDefinition.class) {
+      return (T) plans.get(uri, version, pvlist);
+    } else if (class_ == OperationDefinition.class) {
+      OperationDefinition od = operations.get(uri, version);
+      return (T) od;
+    } else if (class_ == Questionnaire.class) {
+      return (T) questionnaires.get(uri, version, pvlist);
+    } else if (class_ == SearchParameter.class) {
+      SearchParameter res = searchParameters.get(uri, version, pvlist);
+      return (T) res;
+    }
+    if (class_ == CodeSystem.class && codeSystems.has(uri)) { 
+      return (T) codeSystems.get(uri, version, pvlist);
+    }
+    if (class_ == ValueSet.class && valueSets.has(uri)) {
+      return (T) valueSets.get(uri, version, pvlist);
+    } 
+    
+    if (class_ == Questionnaire.class) {
+      return (T) questionnaires.get(uri, version, pvlist);
+    } 
+    if (supportedCodeSystems.contains(uri)) {
+      return null;
+    } 
+    throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
+  }
+
+  /**
+   * @return the package and all its dependencies. This is worked out once per package, since it's needed for every reference
+   */
+  private List<String> getPVList(PackageInformation sourcePackage) {
+    List<String> pvlist = pvlists.get(sourcePackage.getVID());
+    if (pvlist == null) {
+      pvlist = new ArrayList<>();
+      populatePVList(pvlist, sourcePackage);
+      pvlist = Collections.unmodifiableList(pvlist);
+      pvlists.put(sourcePackage.getVID(), pvlist);
     }
+    return pvlist;
   }
 
   private void populatePVList(List<String> pvlist, PackageInformation sourcePackage) {
@@ -2242,203 +2558,199 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }
     uri = ProfileUtilities.sdNs(uri, null);
 
-    synchronized (lock) {
 
-      String version = null;
+    String version = null;
+    if (uri.contains("|")) {
+      version = uri.substring(uri.lastIndexOf("|")+1);
+      uri = uri.substring(0, uri.lastIndexOf("|"));
+    }
+    if (uri.contains("#")) {
+      uri = uri.substring(0, uri.indexOf("#"));
+    } 
+    if (structures.has(uri)) {
+      return structures.getPackageInfo(uri, version);
+    }        
+    if (guides.has(uri)) {
+      return guides.getPackageInfo(uri, version);
+    } 
+    if (capstmts.has(uri)) {
+      return capstmts.getPackageInfo(uri, version);
+    } 
+    if (measures.has(uri)) {
+      return measures.getPackageInfo(uri, version);
+    } 
+    if (libraries.has(uri)) {
+      return libraries.getPackageInfo(uri, version);
+    } 
+    if (valueSets.has(uri)) {
+      return valueSets.getPackageInfo(uri, version);
+    } 
+    if (codeSystems.has(uri)) {
+      return codeSystems.getPackageInfo(uri, version);
+    } 
+    if (operations.has(uri)) {
+      return operations.getPackageInfo(uri, version);
+    } 
+    if (searchParameters.has(uri)) {
+      return searchParameters.getPackageInfo(uri, version);
+    } 
+    if (plans.has(uri)) {
+      return plans.getPackageInfo(uri, version);
+    } 
+    if (maps.has(uri)) {
+      return maps.getPackageInfo(uri, version);
+    } 
+    if (transforms.has(uri)) {
+      return transforms.getPackageInfo(uri, version);
+    } 
+    if (actors.has(uri)) {
+      return actors.getPackageInfo(uri, version);
+    } 
+    if (requirements.has(uri)) {
+      return requirements.getPackageInfo(uri, version);
+    } 
+    if (questionnaires.has(uri)) {
+      return questionnaires.getPackageInfo(uri, version);
+    }         
+    return null;
+  }
+  
+  @SuppressWarnings("unchecked")
+  public <T extends Resource> T fetchResourceWithExceptionByVersion(String cls, String uri, String version, CanonicalResource source) throws FHIRException {
+    if (uri == null) {
+      return null;
+    }
+   
+    if ("StructureDefinition".equals(cls)) {
+      uri = ProfileUtilities.sdNs(uri, null);
+    }
+
+    if (version == null) {
       if (uri.contains("|")) {
         version = uri.substring(uri.lastIndexOf("|")+1);
         uri = uri.substring(0, uri.lastIndexOf("|"));
       }
-      if (uri.contains("#")) {
-        uri = uri.substring(0, uri.indexOf("#"));
-      } 
+    } else {
+      boolean b = !uri.contains("|");
+      assert b;
+    }
+    if (uri.contains("#")) {
+      uri = uri.substring(0, uri.indexOf("#"));
+    } 
+    if (cls == null || "Resource".equals(cls)) {
       if (structures.has(uri)) {
-        return structures.getPackageInfo(uri, version);
-      }        
+        return (T) structures.get(uri, version);
+      } 
       if (guides.has(uri)) {
-        return guides.getPackageInfo(uri, version);
+        return (T) guides.get(uri, version);
       } 
       if (capstmts.has(uri)) {
-        return capstmts.getPackageInfo(uri, version);
+        return (T) capstmts.get(uri, version);
       } 
       if (measures.has(uri)) {
-        return measures.getPackageInfo(uri, version);
+        return (T) measures.get(uri, version);
       } 
       if (libraries.has(uri)) {
-        return libraries.getPackageInfo(uri, version);
+        return (T) libraries.get(uri, version);
       } 
       if (valueSets.has(uri)) {
-        return valueSets.getPackageInfo(uri, version);
+        return (T) valueSets.get(uri, version);
       } 
       if (codeSystems.has(uri)) {
-        return codeSystems.getPackageInfo(uri, version);
+        return (T) codeSystems.get(uri, version);
       } 
       if (operations.has(uri)) {
-        return operations.getPackageInfo(uri, version);
+        return (T) operations.get(uri, version);
       } 
       if (searchParameters.has(uri)) {
-        return searchParameters.getPackageInfo(uri, version);
+        return (T) searchParameters.get(uri, version);
       } 
       if (plans.has(uri)) {
-        return plans.getPackageInfo(uri, version);
+        return (T) plans.get(uri, version);
       } 
       if (maps.has(uri)) {
-        return maps.getPackageInfo(uri, version);
+        return (T) maps.get(uri, version);
       } 
       if (transforms.has(uri)) {
-        return transforms.getPackageInfo(uri, version);
+        return (T) transforms.get(uri, version);
       } 
       if (actors.has(uri)) {
-        return actors.getPackageInfo(uri, version);
+        return (T) actors.get(uri, version);
       } 
       if (requirements.has(uri)) {
-        return requirements.getPackageInfo(uri, version);
-      } 
-      if (questionnaires.has(uri)) {
-        return questionnaires.getPackageInfo(uri, version);
-      }         
-      return null;
-    }
-  }
-  
-  @SuppressWarnings("unchecked")
-  public <T extends Resource> T fetchResourceWithExceptionByVersion(String cls, String uri, String version, CanonicalResource source) throws FHIRException {
-    if (uri == null) {
-      return null;
-    }
-   
-    if ("StructureDefinition".equals(cls)) {
-      uri = ProfileUtilities.sdNs(uri, null);
-    }
-    synchronized (lock) {
-
-      if (version == null) {
-        if (uri.contains("|")) {
-          version = uri.substring(uri.lastIndexOf("|")+1);
-          uri = uri.substring(0, uri.lastIndexOf("|"));
-        }
-      } else {
-        boolean b = !uri.contains("|");
-        assert b;
-      }
-      if (uri.contains("#")) {
-        uri = uri.substring(0, uri.indexOf("#"));
-      } 
-      if (cls == null || "Resource".equals(cls)) {
-        if (structures.has(uri)) {
-          return (T) structures.get(uri, version);
-        } 
-        if (guides.has(uri)) {
-          return (T) guides.get(uri, version);
-        } 
-        if (capstmts.has(uri)) {
-          return (T) capstmts.get(uri, version);
-        } 
-        if (measures.has(uri)) {
-          return (T) measures.get(uri, version);
-        } 
-        if (libraries.has(uri)) {
-          return (T) libraries.get(uri, version);
-        } 
-        if (valueSets.has(uri)) {
-          return (T) valueSets.get(uri, version);
-        } 
-        if (codeSystems.has(uri)) {
-          return (T) codeSystems.get(uri, version);
-        } 
-        if (operations.has(uri)) {
-          return (T) operations.get(uri, version);
-        } 
-        if (searchParameters.has(uri)) {
-          return (T) searchParameters.get(uri, version);
-        } 
-        if (plans.has(uri)) {
-          return (T) plans.get(uri, version);
-        } 
-        if (maps.has(uri)) {
-          return (T) maps.get(uri, version);
-        } 
-        if (transforms.has(uri)) {
-          return (T) transforms.get(uri, version);
-        } 
-        if (actors.has(uri)) {
-          return (T) actors.get(uri, version);
-        } 
-        if (requirements.has(uri)) {
-          return (T) requirements.get(uri, version);
-        } 
-        if (questionnaires.has(uri)) {
-          return (T) questionnaires.get(uri, version);
-        } 
-        for (Map<String, ResourceProxy> rt : allResourcesById.values()) {
-          for (ResourceProxy r : rt.values()) {
-            if (uri.equals(r.getUrl())) {
-              return (T) r.getResource();
-            }
-          }            
-        }
-      } else if ("ImplementationGuide".equals(cls)) {
-        return (T) guides.get(uri, version);
-      } else if ("CapabilityStatement".equals(cls)) {
-        return (T) capstmts.get(uri, version);
-      } else if ("Measure".equals(cls)) {
-        return (T) measures.get(uri, version);
-      } else if ("Library".equals(cls)) {
-        return (T) libraries.get(uri, version);
-      } else if ("StructureDefinition".equals(cls)) {
-        return (T) structures.get(uri, version);
-      } else if ("StructureMap".equals(cls)) {
-        return (T) transforms.get(uri, version);
-      } else if ("Requirements".equals(cls)) {
         return (T) requirements.get(uri, version);
-      } else if ("ActorDefinition".equals(cls)) {
-        return (T) actors.get(uri, version);
-      } else if ("ValueSet".equals(cls)) {
-        return (T) valueSets.get(uri, version);
-      } else if ("CodeSystem".equals(cls)) {
-        return (T) codeSystems.get(uri, version);
-      } else if ("ConceptMap".equals(cls)) {
-        return (T) maps.get(uri, version);
-      } else if ("PlanDefinition".equals(cls)) {
-        return (T) plans.get(uri, version);
-      } else if ("OperationDefinition".equals(cls)) {
-        OperationDefinition od = operations.get(uri, version);
-        return (T) od;
-      } else if ("Questionnaire.class".equals(cls)) {
-        return (T) questionnaires.get(uri, version);
-      } else if ("SearchParameter.class".equals(cls)) {
-        SearchParameter res = searchParameters.get(uri, version);
-        return (T) res;
-      }
-      if ("CodeSystem".equals(cls) && codeSystems.has(uri)) {
-        return (T) codeSystems.get(uri, version);
-      } 
-      if ("ValueSet".equals(cls) && valueSets.has(uri)) {
-        return (T) valueSets.get(uri, version);
       } 
-      
-      if ("Questionnaire".equals(cls)) {
+      if (questionnaires.has(uri)) {
         return (T) questionnaires.get(uri, version);
       } 
-      if (cls == null) {
-        if (uri.matches(Constants.URI_REGEX) && !uri.contains("ValueSet")) {
-          return null;
-        } 
-
-        // it might be a special URL.
-        if (Utilities.isAbsoluteUrl(uri) || uri.startsWith("ValueSet/")) {
-          Resource res = null; // findTxValueSet(uri);
-          if (res != null) {
-            return (T) res;
-          } 
-        }
-        return null;      
-      }    
-      if (supportedCodeSystems.contains(uri)) {
+      for (Map<String, ResourceProxy> rt : allResourcesById.values()) {
+        for (ResourceProxy r : rt.values()) {
+          if (uri.equals(r.getUrl())) {
+            return (T) r.getResource();
+          }
+        }            
+      }
+    } else if ("ImplementationGuide".equals(cls)) {
+      return (T) guides.get(uri, version);
+    } else if ("CapabilityStatement".equals(cls)) {
+      return (T) capstmts.get(uri, version);
+    } else if ("Measure".equals(cls)) {
+      return (T) measures.get(uri, version);
+    } else if ("Library".equals(cls)) {
+      return (T) libraries.get(uri, version);
+    } else if ("StructureDefinition".equals(cls)) {
+      return (T) structures.get(uri, version);
+    } else if ("StructureMap".equals(cls)) {
+      return (T) transforms.get(uri, version);
+    } else if ("Requirements".equals(cls)) {
+      return (T) requirements.get(uri, version);
+    } else if ("ActorDefinition".equals(cls)) {
+      return (T) actors.get(uri, version);
+    } else if ("ValueSet".equals(cls)) {
+      return (T) valueSets.get(uri, version);
+    } else if ("CodeSystem".equals(cls)) {
+      return (T) codeSystems.get(uri, version);
+    } else if ("ConceptMap".equals(cls)) {
+      return (T) maps.get(uri, version);
+    } else if ("PlanDefinition".equals(cls)) {
+      return (T) plans.get(uri, version);
+    } else if ("OperationDefinition".equals(cls)) {
+      OperationDefinition od = operations.get(uri, version);
+      return (T) od;
+    } else if ("Questionnaire.class".equals(cls)) {
+      return (T) questionnaires.get(uri, version);
+    } else if ("SearchParameter.class".equals(cls)) {
+      SearchParameter res = searchParameters.get(uri, version);
+      return (T) res;
+    }
+    if ("CodeSystem".equals(cls) && codeSystems.has(uri)) {
+      return (T) codeSystems.get(uri, version);
+    } 
+    if ("ValueSet".equals(cls) && valueSets.has(uri)) {
+      return (T) valueSets.get(uri, version);
+    } 
+    
+    if ("Questionnaire".equals(cls)) {
+      return (T) questionnaires.get(uri, version);
+    } 
+    if (cls == null) {
+      if (uri.matches(Constants.URI_REGEX) && !uri.contains("ValueSet")) {
         return null;
       } 
-      throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
-    }
+
+      // it might be a special URL.
+      if (Utilities.isAbsoluteUrl(uri) || uri.startsWith("ValueSet/")) {
+        Resource res = null; // findTxValueSet(uri);
+        if (res != null) {
+          return (T) res;
+        } 
+      }
+      return null;      
+    }    
+    if (supportedCodeSystems.contains(uri)) {
+      return null;
+    } 
+    throw new FHIRException(formatMessage(I18nConstants.NOT_DONE_YET_CANT_FETCH_, uri));
   }
   
   public <T extends Resource> List<T> fetchResourcesByType(Class<T> class_, FhirPublication fhirVersion) {
@@ -2518,25 +2830,23 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   
   @Override
   public Resource fetchResourceById(String type, String uri) {
-    synchronized (lock) {
-      String[] parts = uri.split("\\/");
-      if (!Utilities.noString(type) && parts.length == 1) {
-        if (allResourcesById.containsKey(type)) {
-          return allResourcesById.get(type).get(parts[0]).getResource();
-        } else {
-          return null;
-        }
+    String[] parts = uri.split("\\/");
+    if (!Utilities.noString(type) && parts.length == 1) {
+      if (allResourcesById.containsKey(type)) {
+        return allResourcesById.get(type).get(parts[0]).getResource();
+      } else {
+        return null;
       }
-      if (parts.length >= 2) {
-        if (!Utilities.noString(type)) {
-          if (!type.equals(parts[parts.length-2])) { 
-            throw new Error(formatMessage(I18nConstants.RESOURCE_TYPE_MISMATCH_FOR___, type, uri));
-          }
+    }
+    if (parts.length >= 2) {
+      if (!Utilities.noString(type)) {
+        if (!type.equals(parts[parts.length-2])) { 
+          throw new Error(formatMessage(I18nConstants.RESOURCE_TYPE_MISMATCH_FOR___, type, uri));
         }
-        return allResourcesById.get(parts[parts.length-2]).get(parts[parts.length-1]).getResource();
-      } else {
-        throw new Error(formatMessage(I18nConstants.UNABLE_TO_PROCESS_REQUEST_FOR_RESOURCE_FOR___, type, uri));
       }
+      return allResourcesById.get(parts[parts.length-2]).get(parts[parts.length-1]).getResource();
+    } else {
+      throw new Error(formatMessage(I18nConstants.UNABLE_TO_PROCESS_REQUEST_FOR_RESOURCE_FOR___, type, uri));
     }
   }
 
@@ -2669,7 +2979,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
       Map<String, ResourceProxy> map = allResourcesById.get(fhirType);
       if (map == null) {
-        map = new HashMap<String, ResourceProxy>();
+        map = new ConcurrentHashMap<String, ResourceProxy>();
         allResourcesById.put(fhirType, map);
       }
       if (map.containsKey(id)) {
@@ -1,6 +1,8 @@
 package org.hl7.fhir.r5.context;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.model.CanonicalResource;
@@ -8,6 +10,7 @@ import org.hl7.fhir.r5.model.CodeSystem;
 import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
 import org.hl7.fhir.r5.model.PackageInformation;
 import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.TypeDerivationRule;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
 import org.hl7.fhir.utilities.VersionUtilities;
 
@@ -15,6 +18,13 @@ import org.hl7.fhir.utilities.VersionUtilities;
  * This manages a cached list of resources, and provides high speed access by URL / URL+version, and assumes that patch version doesn't matter for access
  * note, though, that not all resources have semver versions
  * 
+ * Changes to the list are synchronized, but reading doesn't take a lock: the indexes are concurrent maps of 
+ * copy-on-write lists, and the result of each lookup by url / version / package list is remembered until 
+ * the next change
+ * 
+ * A manager can also be a layer over another manager (see layerOver()): the base is shared, not copied, 
+ * and anything not found in the layer is looked up in the base
+ * 
  * @author graha
  *
  */
@@ -34,7 +44,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     private String version;
     private String supplements;
     private String derivation;
-    private CanonicalResource resource;
+    private volatile CanonicalResource resource;
     private boolean hacked;
     private String content;
     
@@ -94,16 +104,25 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
 
     public CanonicalResource getResource() throws FHIRException {
-      if (resource == null) {
-        resource = loadResource();
-        if (hacked) {
-          resource.setUrl(url).setVersion(version);
-        }
-        if (resource instanceof CodeSystem) {
-          CodeSystemUtilities.crossLinkCodeSystem((CodeSystem) resource);
+      CanonicalResource res = resource;
+      if (res == null) {
+        // the context may be shared between threads (see layerOver()), so only one of them loads the 
+        // resource, and the others don't see it until it's ready
+        synchronized (this) {
+          res = resource;
+          if (res == null) {
+            res = loadResource();
+            if (hacked) {
+              res.setUrl(url).setVersion(version);
+            }
+            if (res instanceof CodeSystem) {
+              CodeSystemUtilities.crossLinkCodeSystem((CodeSystem) res);
+            }
+            resource = res;
+          }
         }
       }
-      return resource;
+      return res;
     }
 
     public void setResource(CanonicalResource resource) {
@@ -112,6 +131,20 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
 
     public abstract CanonicalResource loadResource() throws FHIRException;
 
+    /**
+     * @return the size of the source of the resource, if known, or -1. Used to decide what to keep in memory (see ResidentResourceSet)
+     */
+    public long getSize() {
+      return -1;
+    }
+
+    /**
+     * forget the resource, so it will be loaded again next time it's needed
+     */
+    public void unload() {
+      resource = null;
+    }
+
     @Override
     public String toString() {
       return type+"/"+id+": "+url+"|"+version;
@@ -136,9 +169,12 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public class CachedCanonicalResource<T1 extends CanonicalResource> {
-    private T1 resource;
+    private volatile T1 resource;
     private CanonicalResourceProxy proxy;
     private PackageInformation packageInfo;
+    private volatile boolean evictable;
+    private int loadCount;
+    private volatile int pins;
 
     public CachedCanonicalResource(T1 resource, PackageInformation packageInfo) {
       super();
@@ -153,39 +189,102 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
     
     public T1 getResource() {
-      if (resource == null) {
-        @SuppressWarnings("unchecked")
-        T1 res = (T1) proxy.getResource();
-        if (res == null) {
-          throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
+      T1 res = resource;
+      if (res != null) {
+        if (evictable && residentSet != null) {
+          residentSet.touch(this);
         }
-        synchronized (this) {
-          resource = res;
+        return res;
+      }
+      @SuppressWarnings("unchecked")
+      T1 loaded = (T1) proxy.getResource();
+      if (loaded == null) {
+        throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
+      }
+      loaded.setSourcePackage(packageInfo);
+      boolean reload;
+      synchronized (this) {
+        T1 current = resource;
+        if (current != null) {
+          return current;
         }
-        resource.setSourcePackage(packageInfo);
-        proxy = null;
+        resource = loaded;
+        reload = loadCount > 0;
+        loadCount++;
+        evictable = residentSet != null && isReloadable(loaded);
+      }
+      if (evictable) {
+        residentSet.loaded(this, proxy.getSize(), reload);
+      }
+      return loaded;
+    }
+
+    /**
+     * the proxy will load the resource the same way again, unless it's been changed after it was loaded. 
+     * The base type definitions are also held by the TypeManager, and profiles without snapshots will 
+     * have them generated in place, so neither of those are reloadable
+     */
+    private boolean isReloadable(T1 res) {
+      if (res instanceof StructureDefinition) {
+        StructureDefinition sd = (StructureDefinition) res;
+        return sd.getDerivation() == TypeDerivationRule.CONSTRAINT && sd.hasSnapshot();
+      } else {
+        return true;
+      }
+    }
+
+    /**
+     * A pinned resource stays in memory until it is unpinned. Pins are counted
+     */
+    public synchronized void pin() {
+      pins++;
+    }
+
+    public synchronized void unpin() {
+      if (pins > 0) {
+        pins--;
+      }
+    }
+
+    public boolean isPinned() {
+      return pins > 0;
+    }
+
+    public boolean isLoaded() {
+      return resource != null;
+    }
+
+    protected synchronized void evict() {
+      if (proxy != null && pins == 0) {
+        resource = null;
+        proxy.unload();
       }
-      return resource;
     }
     
     public PackageInformation getPackageInfo() {
       return packageInfo;
     }
+    // the resource may be evicted at any time (see ResidentResourceSet), so these read it once
     public String getUrl() {
-      return resource != null ? resource.getUrl() : proxy.getUrl();
+      T1 res = resource;
+      return res != null ? res.getUrl() : proxy.getUrl();
     }
     public String getId() {
-      return resource != null ? resource.getId() : proxy.getId();
+      T1 res = resource;
+      return res != null ? res.getId() : proxy.getId();
     }
     public String getVersion() {
-      return resource != null ? resource.getVersion() : proxy.getVersion();
+      T1 res = resource;
+      return res != null ? res.getVersion() : proxy.getVersion();
     }
     public boolean hasVersion() {
-      return resource != null ? resource.hasVersion() : proxy.getVersion() != null;
+      T1 res = resource;
+      return res != null ? res.hasVersion() : proxy.getVersion() != null;
     }
     public String getContent() {
-      if (resource != null && resource instanceof CodeSystem) {
-        CodeSystemContentMode cnt = ((CodeSystem) resource).getContent();
+      T1 res = resource;
+      if (res != null && res instanceof CodeSystem) {
+        CodeSystemContentMode cnt = ((CodeSystem) res).getContent();
         return cnt == null ? null : cnt.toCode();
       } else if (proxy != null) {
         return proxy.getContent();
@@ -196,28 +295,35 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     
     @Override
     public String toString() {
-      return resource != null ? resource.fhirType()+"/"+resource.getId()+"["+resource.getUrl()+"|"+resource.getVersion()+"]" : proxy.toString();
+      T1 res = resource;
+      return res != null ? res.fhirType()+"/"+res.getId()+"["+res.getUrl()+"|"+res.getVersion()+"]" : proxy.toString();
     }
 
     public String supplements() {
-      if (resource == null) {
+      T1 res = resource;
+      if (res == null) {
         return proxy.getSupplements(); 
       } else {
-        return resource instanceof CodeSystem ? ((CodeSystem) resource).getSupplements() : null;
+        return res instanceof CodeSystem ? ((CodeSystem) res).getSupplements() : null;
       }
     }
 
     public Object getDerivation() {
-      if (resource == null) {
+      T1 res = resource;
+      if (res == null) {
         return proxy.getDerivation(); 
       } else {
-        return resource instanceof StructureDefinition ? ((StructureDefinition) resource).getDerivationElement().primitiveValue() : null;
+        return res instanceof StructureDefinition ? ((StructureDefinition) res).getDerivationElement().primitiveValue() : null;
       }
     }
 
     public void unload() {
       if (proxy != null) {
         resource = null;
+        proxy.unload();
+        if (residentSet != null) {
+          residentSet.remove(this);
+        }
       }      
     }  
   }
@@ -263,6 +369,61 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
   }
 
+  /**
+   * A concurrent map that ignores null keys (resources without a url can only be found by id)
+   */
+  private static class IndexMap<V> extends ConcurrentHashMap<String, V> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public V get(Object key) {
+      return key == null ? null : super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key != null && super.containsKey(key);
+    }
+
+    @Override
+    public V put(String key, V value) {
+      return key == null ? null : super.put(key, value);
+    }
+  }
+
+  /**
+   * The key for a remembered lookup
+   */
+  private static class ResolutionKey {
+    private final String url;
+    private final String version;
+    private final List<String> pvlist;
+    private final int hash;
+
+    private ResolutionKey(String url, String version, List<String> pvlist) {
+      this.url = url;
+      this.version = version;
+      this.pvlist = pvlist;
+      this.hash = Objects.hash(url, version, pvlist);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ResolutionKey)) {
+        return false;
+      }
+      ResolutionKey other = (ResolutionKey) obj;
+      return hash == other.hash && url.equals(other.url) && Objects.equals(version, other.version) && Objects.equals(pvlist, other.pvlist);
+    }
+  }
+
+  private static final Object NOT_FOUND = new Object();
+
   private boolean minimalMemory;
   private boolean enforceUniqueId; 
   private List<CachedCanonicalResource<T>> list = new ArrayList<>();
@@ -270,7 +431,11 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   private Map<String, List<CachedCanonicalResource<T>>> listForUrl;
   private Map<String, CachedCanonicalResource<T>> map;
   private Map<String, List<CachedCanonicalResource<T>>> supplements; // general index based on CodeSystem.supplements
+  private volatile Map<ResolutionKey, Object> resolved = new ConcurrentHashMap<>(); // replaced whenever the list changes
   private String version; // for debugging purposes
+  private ResidentResourceSet residentSet;
+  private CanonicalResourceManager<T> base; // shared, and read only - see layerOver()
+  private Set<CachedCanonicalResource<T>> hidden = ConcurrentHashMap.newKeySet(); // resources in the base that have been dropped from this layer
   
   
   public CanonicalResourceManager(boolean enforceUniqueId, boolean minimalMemory) {
@@ -278,10 +443,10 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     this.enforceUniqueId = enforceUniqueId;
     this.minimalMemory = minimalMemory;
     list = new ArrayList<>();
-    listForId = new HashMap<>();
-    listForUrl = new HashMap<>();
-    map = new HashMap<>();
-    supplements = new HashMap<>(); // general index based on CodeSystem.supplements
+    listForId = new IndexMap<>();
+    listForUrl = new IndexMap<>();
+    map = new IndexMap<>();
+    supplements = new IndexMap<>(); // general index based on CodeSystem.supplements
   }
 
   
@@ -295,11 +460,107 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
 
-  public void copy(CanonicalResourceManager<T> source) {
+  public ResidentResourceSet getResidentSet() {
+    return residentSet;
+  }
+
+
+  /**
+   * Limit the resources loaded through proxies that are kept in memory. Resources that 
+   * have already been loaded are not affected
+   */
+  public void setResidentSet(ResidentResourceSet residentSet) {
+    this.residentSet = residentSet;
+  }
+
+
+  public synchronized void copy(CanonicalResourceManager<T> source) {
+    resolved = new ConcurrentHashMap<>();
     list.clear();
     map.clear();
-    list.addAll(source.list);
-    map.putAll(source.map);
+    synchronized (source) {
+      list.addAll(source.list);
+      map.putAll(source.map);
+      base = source.base;
+      hidden.clear();
+      hidden.addAll(source.hidden);
+    }
+  }
+
+  /**
+   * Make this manager an empty layer over the base. Lookups that don't find anything in this layer 
+   * fall through to the base, and resources seen or dropped after this only change this layer, so 
+   * many layers can share one base. The base is not copied, so it must not change once there are 
+   * layers over it. 
+   * 
+   * A layer orders the versions of a resource along with the versions in the base, and dropping a 
+   * resource that's in the base just hides it from the layer, so a layer finds the same resources 
+   * as a copy of the base would. The layers may be used from different threads; loading resources 
+   * from their proxies, and evicting them (see ResidentResourceSet), is safe to do concurrently 
+   */
+  public synchronized void layerOver(CanonicalResourceManager<T> base) {
+    clear();
+    this.base = base;
+  }
+
+  /**
+   * @return the resource for the key in this layer, or else in the base
+   */
+  private CachedCanonicalResource<T> lookup(String key) {
+    CachedCanonicalResource<T> cr = map.get(key);
+    if (cr != null || base == null) {
+      return cr;
+    }
+    cr = base.lookup(key);
+    return cr == null || hidden.contains(cr) ? null : cr;
+  }
+
+  /**
+   * @return the resources for the url, in this layer and the base, in version order (the latest last)
+   */
+  private List<CachedCanonicalResource<T>> urlList(String url) {
+    List<CachedCanonicalResource<T>> set = listForUrl.get(url);
+    return set != null || base == null ? set : base.urlList(url);
+  }
+
+  /**
+   * @return the list for the url that belongs to this manager. In a layer, it starts with the 
+   * resources for the url in the base, so that new versions are ordered against them as well
+   */
+  private List<CachedCanonicalResource<T>> ownUrlList(String url) {
+    List<CachedCanonicalResource<T>> set = listForUrl.get(url);
+    if (set == null) {
+      List<CachedCanonicalResource<T>> inBase = base == null ? null : base.urlList(url);
+      set = inBase == null ? new CopyOnWriteArrayList<>() : new CopyOnWriteArrayList<>(inBase);
+      listForUrl.put(url, set);
+    }
+    return set;
+  }
+
+  /**
+   * @return the resources with the id, in this layer and the base
+   */
+  private List<CachedCanonicalResource<T>> idList(String id) {
+    List<CachedCanonicalResource<T>> res = new ArrayList<>();
+    if (base != null) {
+      for (CachedCanonicalResource<T> t : base.idList(id)) {
+        if (!hidden.contains(t)) {
+          res.add(t);
+        }
+      }
+    }
+    List<CachedCanonicalResource<T>> set = listForId.get(id);
+    if (set != null) {
+      res.addAll(set);
+    }
+    return res;
+  }
+
+  /**
+   * @return true if the resource is in the base (and not already hidden from this layer)
+   */
+  private boolean inBase(CachedCanonicalResource<T> cr) {
+    return base != null && !hidden.contains(cr) && (base.list.contains(cr) || base.inBase(cr));
   }
   
   public void register(CanonicalResourceProxy r, PackageInformation packgeInfo) {
@@ -320,7 +581,9 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
   }
 
-  public void see(CachedCanonicalResource<T> cr) {
+  public synchronized void see(CachedCanonicalResource<T> cr) {
+    resolved = new ConcurrentHashMap<>();
+    
     // -- 1. exit conditions -----------------------------------------------------------------------------
 
     // ignore UTG NUCC erroneous code system
@@ -330,7 +593,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
       && Arrays.stream(INVALID_TERMINOLOGY_URLS).anyMatch((it)->it.equals(cr.getUrl()))) {
       return;
     }  
-    if (map.get(cr.getUrl()) != null && (cr.getPackageInfo() != null && cr.getPackageInfo().isExamplesPackage())) {
+    if (lookup(cr.getUrl()) != null && (cr.getPackageInfo() != null && cr.getPackageInfo().isExamplesPackage())) {
       return;
     }
     
@@ -340,16 +603,19 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }      
 
     // -- 3. deleting existing content ---------------------------------------------------------------
-    if (enforceUniqueId && map.containsKey(cr.getId())) {
+    if (enforceUniqueId && lookup(cr.getId()) != null) {
       drop(cr.getId());      
     }
     
     // special case logic for UTG support prior to version 5
     if (cr.getPackageInfo() != null && cr.getPackageInfo().getId().startsWith("hl7.terminology")) {
       List<CachedCanonicalResource<T>> toDrop = new ArrayList<>();
-      for (CachedCanonicalResource<T> n : list) {
-        if (n.getUrl() != null && n.getUrl().equals(cr.getUrl()) && isBasePackage(n.getPackageInfo())) {
-          toDrop.add(n);
+      List<CachedCanonicalResource<T>> existing = cr.getUrl() == null ? null : urlList(cr.getUrl());
+      if (existing != null) {
+        for (CachedCanonicalResource<T> n : existing) {
+          if (isBasePackage(n.getPackageInfo())) {
+            toDrop.add(n);
+          }
         }
       }
       for (CachedCanonicalResource<T> n : toDrop) {
@@ -364,17 +630,14 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     // -- 4. ok we add it to the list ---------------------------------------------------------------
     if (!enforceUniqueId) {
       if (!listForId.containsKey(cr.getId())) {
-        listForId.put(cr.getId(), new ArrayList<>());
+        listForId.put(cr.getId(), new CopyOnWriteArrayList<>());
       }    
       List<CachedCanonicalResource<T>> set = listForId.get(cr.getId());
       set.add(cr);      
     }
     list.add(cr);
-    if (!listForUrl.containsKey(cr.getUrl())) {
-      listForUrl.put(cr.getUrl(), new ArrayList<>());
-    }    
     addToSupplements(cr);
-    List<CachedCanonicalResource<T>> set = listForUrl.get(cr.getUrl());
+    List<CachedCanonicalResource<T>> set = cr.getUrl() == null ? new ArrayList<>() : ownUrlList(cr.getUrl());
     set.add(cr);
     if (set.size() > 1) {
       Collections.sort(set, new MetadataResourceVersionComparator<CachedCanonicalResource<T>>());
@@ -417,7 +680,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     if (surl != null) {
       List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(surl);
       if (list == null) {
-        list = new ArrayList<>();
+        list = new CopyOnWriteArrayList<>();
         supplements.put(surl, list);
       }
       list.add(cr);
@@ -425,16 +688,25 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
 
-  public void drop(CachedCanonicalResource<T> cr) {
+  public synchronized void drop(CachedCanonicalResource<T> cr) {
+    resolved = new ConcurrentHashMap<>();
+    if (inBase(cr)) {
+      // the base is shared, so the resource is only hidden from this layer 
+      hidden.add(cr);
+    } else if (residentSet != null) {
+      residentSet.remove(cr);
+    }
     while (map.values().remove(cr)); 
-    while (listForId.values().remove(cr)); 
-    while (listForUrl.values().remove(cr)); 
+    List<CachedCanonicalResource<T>> ids = listForId.get(cr.getId());
+    if (ids != null) {
+      ids.remove(cr);
+    }
     String surl = cr.supplements();
-    if (surl != null) {
+    if (surl != null && supplements.get(surl) != null) {
       supplements.get(surl).remove(cr);
     }
     list.remove(cr);
-    List<CachedCanonicalResource<T>> set = listForUrl.get(cr.getUrl());
+    List<CachedCanonicalResource<T>> set = cr.getUrl() == null ? null : ownUrlList(cr.getUrl());
     if (set != null) { // it really should be
       boolean last = set.indexOf(cr) == set.size()-1;
       set.remove(cr);
@@ -456,18 +728,15 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
   }
   
-  public void drop(String id) {
+  public synchronized void drop(String id) {
     if (enforceUniqueId) {
-      CachedCanonicalResource<T> cr = map.get(id);
+      CachedCanonicalResource<T> cr = lookup(id);
       if (cr != null) {
         drop(cr);
       }
     } else {
-      List<CachedCanonicalResource<T>> set = listForId.get(id);
-      if (set != null) { // it really should be
-        for (CachedCanonicalResource<T> i : set) {
-          drop(i);
-        }
+      for (CachedCanonicalResource<T> i : idList(id)) {
+        drop(i);
       }
     }
   }  
@@ -506,40 +775,55 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
  
 
   public boolean has(String url) {
-    return map.containsKey(url);
+    return lookup(url) != null;
+  }
+
+  /**
+   * Keep the resource in memory until it is unpinned (see ResidentResourceSet)
+   * 
+   * @return false if there is no resource with this url
+   */
+  public boolean pin(String url) {
+    CachedCanonicalResource<T> cr = lookup(url);
+    if (cr == null) {
+      return false;
+    }
+    cr.pin();
+    return true;
+  }
+
+  public boolean unpin(String url) {
+    CachedCanonicalResource<T> cr = lookup(url);
+    if (cr == null) {
+      return false;
+    }
+    cr.unpin();
+    return true;
   }
 
   public boolean has(String system, String version) {
-    if (map.containsKey(system+"|"+version))
+    if (lookup(system+"|"+version) != null)
       return true;
     String mm = VersionUtilities.getMajMin(version);
     if (mm != null)
-      return map.containsKey(system+"|"+mm);
+      return lookup(system+"|"+mm) != null;
     else
       return false;
   }
   
   public T get(String url) {
-    return map.containsKey(url) ? map.get(url).getResource() : null;
+    CachedCanonicalResource<T> cr = lookup(url);
+    return cr == null ? null : cr.getResource();
   }
   
   public T get(String system, String version) {
-    if (version == null) {
-      return get(system);
-    } else {
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getResource();
-      String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getResource();
-      else
-        return null;
-    }
+    CachedCanonicalResource<T> cr = resolve(system, version, null);
+    return cr == null ? null : cr.getResource();
   }
   
   public List<T> getForUrl(String url) {
     List<T> res = new ArrayList<>();
-    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = listForUrl.get(url);
+    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = urlList(url);
     if (list != null) {
       for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
         res.add(t.getResource());
@@ -560,71 +844,96 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
    * @return
    */
   public T get(String url, List<String> pvlist) {
-    for (String pv : pvlist) {
-      if (map.containsKey(pv+":"+url)) {
-        return map.get(pv+":"+url).getResource();
-      }      
-    }
-    return map.containsKey(url) ? map.get(url).getResource() : null;
+    CachedCanonicalResource<T> cr = resolve(url, null, pvlist);
+    return cr == null ? null : cr.getResource();
   }
   
   public T get(String system, String version, List<String> pvlist) {
-    if (version == null) {
-      return get(system, pvlist);
-    } else {
+    CachedCanonicalResource<T> cr = resolve(system, version, pvlist);
+    return cr == null ? null : cr.getResource();
+  }
+  
+  /**
+   * Find the resource for the url, version (may be null) and package list (may be null). 
+   * This is called for every reference, so the result is remembered until the list changes 
+   */
+  @SuppressWarnings("unchecked")
+  private CachedCanonicalResource<T> resolve(String url, String version, List<String> pvlist) {
+    if (url == null) {
+      return null;
+    }
+    Map<ResolutionKey, Object> cache = resolved;
+    ResolutionKey key = new ResolutionKey(url, version, pvlist == null || pvlist.isEmpty() ? null : pvlist);
+    Object res = cache.get(key);
+    if (res == null) {
+      CachedCanonicalResource<T> cr = version == null ? findLatest(url, key.pvlist) : findVersion(url, version, key.pvlist);
+      res = cr == null ? NOT_FOUND : cr;
+      // if the list changed while looking, this goes into the old cache, which is no longer used 
+      cache.put(key.pvlist == null ? key : new ResolutionKey(url, version, new ArrayList<>(key.pvlist)), res);
+    }
+    return res == NOT_FOUND ? null : (CachedCanonicalResource<T>) res;
+  }
+
+  private CachedCanonicalResource<T> findLatest(String url, List<String> pvlist) {
+    if (pvlist != null) {
       for (String pv : pvlist) {
-        if (map.containsKey(pv+":"+system+"|"+version))
-          return map.get(pv+":"+system+"|"+version).getResource();
+        CachedCanonicalResource<T> cr = lookup(pv+":"+url);
+        if (cr != null) {
+          return cr;
+        }      
       }
-      String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
+    }
+    return lookup(url);
+  }
+
+  private CachedCanonicalResource<T> findVersion(String system, String version, List<String> pvlist) {
+    CachedCanonicalResource<T> cr;
+    String mm = VersionUtilities.getMajMin(version);
+    if (pvlist != null) {
+      for (String pv : pvlist) {
+        cr = lookup(pv+":"+system+"|"+version);
+        if (cr != null) {
+          return cr;
+        }
+      }
+      if (mm != null && lookup(system+"|"+mm) != null) {
         for (String pv : pvlist) {
-          if (map.containsKey(pv+":"+system+"|"+mm))
-            return map.get(pv+":"+system+"|"+mm).getResource();
+          cr = lookup(pv+":"+system+"|"+mm);
+          if (cr != null) {
+            return cr;
+          }
+        }
       }
-
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getResource();
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getResource();
-      else
-        return null;
     }
+    cr = lookup(system+"|"+version);
+    if (cr != null) {
+      return cr;
+    }
+    return mm == null ? null : lookup(system+"|"+mm);
   }
-  
-  
  
   public PackageInformation getPackageInfo(String system, String version) {
-    if (version == null) {
-      return map.containsKey(system) ? map.get(system).getPackageInfo() : null;
-    } else {
-      if (map.containsKey(system+"|"+version))
-        return map.get(system+"|"+version).getPackageInfo();
-      String mm = VersionUtilities.getMajMin(version);
-      if (mm != null && map.containsKey(system+"|"+mm))
-        return map.get(system+"|"+mm).getPackageInfo();
-      else
-        return null;
-    }
+    CachedCanonicalResource<T> cr = version == null ? lookup(system) : resolve(system, version, null);
+    return cr == null ? null : cr.getPackageInfo();
   }
   
  
   
   
   public int size() {
-    return list.size();
+    return list.size() + (base == null ? 0 : base.size() - hidden.size());
   }
   
 
   
   public void listAll(List<T> result) {
-    for (CachedCanonicalResource<T>  t : list) {
+    for (CachedCanonicalResource<T>  t : getCachedList()) {
       result.add(t.getResource()); 
     }
   }
 
   public void listAllM(List<CanonicalResource> result) {
-    for (CachedCanonicalResource<T>  t : list) {
+    for (CachedCanonicalResource<T>  t : getCachedList()) {
       result.add(t.getResource()); 
     }
   }
@@ -651,7 +960,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     boolean possibleMatches = false;
     List<T> res = new ArrayList<>();
     if (version != null) {
-      List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(url+"|"+version);
+      List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplementsFor(url+"|"+version);
       if (list != null) {
         for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
           possibleMatches = true;
@@ -661,7 +970,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
         }
       }      
     }
-    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplements.get(url);
+    List<CanonicalResourceManager<T>.CachedCanonicalResource<T>> list = supplementsFor(url);
     if (list != null) {
       for (CanonicalResourceManager<T>.CachedCanonicalResource<T> t : list) {
         possibleMatches = true;
@@ -676,20 +985,55 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
       return res;
     }
   }
+
+  private List<CachedCanonicalResource<T>> supplementsFor(String url) {
+    List<CachedCanonicalResource<T>> res = supplements.get(url);
+    List<CachedCanonicalResource<T>> inBase = base == null ? null : base.supplementsFor(url);
+    if (inBase != null && !hidden.isEmpty()) {
+      inBase = new ArrayList<>(inBase);
+      inBase.removeIf(hidden::contains);
+    }
+    if (inBase == null || inBase.isEmpty()) {
+      return res;
+    } else if (res == null) {
+      return inBase;
+    } else {
+      List<CachedCanonicalResource<T>> all = new ArrayList<>(inBase);
+      all.addAll(res);
+      return all;
+    }
+  }
   
-  public void clear() {
+  public synchronized void clear() {
+    resolved = new ConcurrentHashMap<>();
     list.clear();
     map.clear();
+    listForId.clear();
+    listForUrl.clear();
+    supplements.clear();
+    base = null;
+    hidden.clear();
     
   }
 
-  public List<CachedCanonicalResource<T>> getCachedList() {
-    return list;
+  /**
+   * @return a copy of the list, since it may change while it's being used
+   */
+  public synchronized List<CachedCanonicalResource<T>> getCachedList() {
+    if (base == null) {
+      return new ArrayList<>(list);
+    }
+    List<CachedCanonicalResource<T>> res = base.getCachedList();
+    if (!hidden.isEmpty()) {
+      res.removeIf(hidden::contains);
+    }
+    res.addAll(list);
+    return res;
   }
 
   public List<T> getList() {
     List<T> res = new ArrayList<>();
-    for (CachedCanonicalResource<T> t : list) {
+    for (CachedCanonicalResource<T> t : getCachedList()) {
       if (!res.contains(t.getResource())) {
         res.add(t.getResource());
       }
@@ -704,7 +1048,15 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public Set<String> keys() {
-    return map.keySet();
+    if (base == null) {
+      return map.keySet();
+    }
+    Set<String> res = new HashSet<>(base.keys());
+    res.addAll(map.keySet());
+    if (!hidden.isEmpty()) {
+      res.removeIf(k -> lookup(k) == null);
+    }
+    return res;
   }
 
   public boolean isEnforceUniqueId() {
@@ -713,11 +1065,11 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
 
 
   public void unload() {
-    for (CachedCanonicalResource<T> t : list) {
+    for (CachedCanonicalResource<T> t : getCachedList()) {
       t.unload();
     }
    
   }
 
 
-}
\ No newline at end of file
+}
\ No newline at end of file
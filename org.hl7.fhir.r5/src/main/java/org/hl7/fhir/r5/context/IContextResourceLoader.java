@@ -104,4 +104,14 @@ public interface IContextResourceLoader {
    * @return
    */
   boolean wantLoad(NpmPackage pi, PackageResourceInformation pri);
+
+  /**
+   * If this is true, loadBundle() may be called from more than one thread at the same time 
+   * (see SimpleWorkerContext.setParallelLoading()). Otherwise, it's only called for one file at a time
+   * 
+   * default is false 
+   */
+  default boolean isThreadSafe() {
+    return false;
+  }
 }
\ No newline at end of file
@@ -40,6 +40,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.fhir.ucum.UcumService;
 import org.hl7.fhir.exceptions.DefinitionException;
@@ -504,6 +505,32 @@ public interface IWorkerContext {
   public void validateCodeBatch(ValidationOptions options, List<? extends CodingValidationRequest> codes, ValueSet vs);
   public void validateCodeBatchByRef(ValidationOptions options, List<? extends CodingValidationRequest> codes, String vsUrl);
 
+  /**
+   * Batch validate codings and codeable concepts, each against its own value set (getVsObj()), and with its own 
+   * options if it has them. The outcomes are the same as validateCode, and are cached the same way, but the 
+   * ones that have to go to a terminology server are sent in a single batch for each server
+   * 
+   * @param options
+   * @param codes
+   */
+  public void validateCodeBatch(ValidationOptions options, List<? extends CodingValidationRequest> codes);
+
+  /**
+   * validateCode without blocking the calling thread. The outcome is the same as validateCode, and is cached 
+   * the same way. When the server has to be asked, the call is queued for the server, along with any other 
+   * calls in progress - identical calls are only made once, and there's a limit on how many calls are made 
+   * to any one server at once 
+   * 
+   * The future may be completed on another thread
+   * 
+   * @param options
+   * @param code
+   * @param vs
+   * @return
+   */
+  public CompletableFuture<ValidationResult> validateCodeAsync(ValidationOptions options, Coding code, ValueSet vs);
+  public CompletableFuture<ValidationResult> validateCodeAsync(ValidationOptions options, CodeableConcept code, ValueSet vs);
+
 
   // todo: figure these out
   public Map<String, NamingSystem> getNSUrlMap();
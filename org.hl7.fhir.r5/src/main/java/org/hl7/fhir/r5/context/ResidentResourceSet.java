@@ -0,0 +1,131 @@
+package org.hl7.fhir.r5.context;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits how much of the content of the lazily loaded resources in a worker context is held in memory.
+ *
+ * Resources that are loaded through a proxy (from a package, or a context snapshot) are tracked in least
+ * recently used order. When the total size goes over the limit, the least recently used resources are dropped,
+ * and they are loaded again from the proxy the next time they are used.
+ *
+ * The size of a resource is the size of its source (e.g. the JSON file in the package), so the limit
+ * is approximate; the parsed resource takes several times that on the heap.
+ *
+ * Resources are never dropped while they are pinned, or if they can't be loaded again the same way
+ * (resources that were cached directly, the base type definitions, and profiles that didn't have
+ * a snapshot when they were loaded)
+ */
+public class ResidentResourceSet {
+
+  /**
+   * used when the proxy doesn't know how big the source is
+   */
+  public static final long DEFAULT_RESOURCE_SIZE = 16 * 1024;
+
+  private final long maxSize;
+  private long size;
+  private final Map<CanonicalResourceManager<?>.CachedCanonicalResource<?>, Long> resident = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long hits;
+  private long loads;
+  private long reloads;
+  private long evictions;
+
+  /**
+   * @param maxSize the total size, in bytes of source, of the resources to keep in memory
+   */
+  public ResidentResourceSet(long maxSize) {
+    super();
+    this.maxSize = maxSize;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public synchronized int getCount() {
+    return resident.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getLoads() {
+    return loads;
+  }
+
+  public synchronized long getReloads() {
+    return reloads;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return the proportion of uses of a tracked resource that found it already in memory
+   */
+  public synchronized double getHitRate() {
+    long total = hits + loads + reloads;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  protected synchronized void touch(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr) {
+    if (resident.get(cr) != null) {
+      hits++;
+    }
+  }
+
+  protected void loaded(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr, long resourceSize, boolean reload) {
+    List<CanonicalResourceManager<?>.CachedCanonicalResource<?>> evict = new ArrayList<>();
+    synchronized (this) {
+      if (reload) {
+        reloads++;
+      } else {
+        loads++;
+      }
+      long s = resourceSize < 0 ? DEFAULT_RESOURCE_SIZE : resourceSize;
+      Long existing = resident.put(cr, s);
+      size = size + s - (existing == null ? 0 : existing);
+      // iterating doesn't change the order, but get() would
+      for (Map.Entry<CanonicalResourceManager<?>.CachedCanonicalResource<?>, Long> e : resident.entrySet()) {
+        if (size <= maxSize) {
+          break;
+        }
+        if (e.getKey() != cr && !e.getKey().isPinned()) {
+          evict.add(e.getKey());
+          size = size - e.getValue();
+        }
+      }
+      for (CanonicalResourceManager<?>.CachedCanonicalResource<?> t : evict) {
+        resident.remove(t);
+      }
+      evictions = evictions + evict.size();
+    }
+    // outside the lock, since the resources synchronize on themselves while loading
+    for (CanonicalResourceManager<?>.CachedCanonicalResource<?> t : evict) {
+      t.evict();
+    }
+  }
+
+  protected synchronized void remove(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr) {
+    Long s = resident.remove(cr);
+    if (s != null) {
+      size = size - s;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return resident.size()+" resources, "+size+"/"+maxSize+" bytes, "+hits+" hits, "+loads+" loads, "+reloads+" reloads, "+evictions+" evictions";
+  }
+}
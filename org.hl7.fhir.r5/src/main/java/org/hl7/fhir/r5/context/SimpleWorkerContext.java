@@ -31,17 +31,20 @@ package org.hl7.fhir.r5.context;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -85,6 +88,7 @@ import org.hl7.fhir.utilities.i18n.I18nConstants;
 import org.hl7.fhir.utilities.npm.BasePackageCacheManager;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.npm.NpmPackage.PackageResourceInformation;
+import org.hl7.fhir.utilities.npm.NpmPackageArchive;
 
 import ca.uhn.fhir.parser.DataFormatException;
 
@@ -98,12 +102,14 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
 
   public static class PackageResourceLoader extends CanonicalResourceProxy {
 
+    private final PackageResourceInformation pri;
     private final String filename;
     private final IContextResourceLoader loader;
     private PackageInformation pi;
 
     public PackageResourceLoader(PackageResourceInformation pri, IContextResourceLoader loader, PackageInformation pi) {
       super(pri.getResourceType(), pri.getId(), loader == null ? pri.getUrl() :loader.patchUrl(pri.getUrl(), pri.getResourceType()), pri.getVersion(), pri.getSupplements(), pri.getDerivation(), pri.getContent());
+      this.pri = pri;
       this.filename = pri.getFilename();
       this.loader = loader;
       this.pi = pi;
@@ -112,7 +118,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     @Override
     public CanonicalResource loadResource() {
       try {
-        FileInputStream f = ManagedFileAccess.inStream(filename);
+        InputStream f = pri.open();
         try  {
           if (loader != null) {
             return setPi(R5Hacker.fixR5BrokenResource((CanonicalResource) loader.loadResource(f, true)));
@@ -131,6 +137,17 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       cr.setSourcePackage(pi);
       return cr;
     }
+
+    @Override
+    public long getSize() {
+      try {
+        // files in a package archive don't have a size of their own
+        File f = ManagedFileAccess.file(filename);
+        return f.exists() ? f.length() : -1;
+      } catch (IOException e) {
+        return -1;
+      }
+    }
   }
 
   public interface ILoadFilter {
@@ -149,9 +166,11 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   private IValidatorFactory validatorFactory;
   private boolean progress;
   private final List<String> loadedPackages = new ArrayList<>();
+  private final Map<String, String> packageSources = new HashMap<>(); // the folder or archive each package was loaded from
   private boolean canNoTS;
   private XVerExtensionManager xverManager;
   private boolean allowLazyLoading = true;
+  private boolean parallelLoading;
 
   private SimpleWorkerContext() throws IOException, FHIRException {
     super();
@@ -170,9 +189,23 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     super(locale);
     copy(other);
   }
+
+  /**
+   * @param layered if true, this context doesn't copy the definitions in the other context, it looks 
+   *   them up there, and only keeps the definitions that are loaded into it. Many contexts can be layered 
+   *   over one base context this way, but the base context must not be changed while they are in use
+   */
+  public SimpleWorkerContext(SimpleWorkerContext other, boolean layered) throws IOException, FHIRException {
+    super();
+    copy(other, layered);
+  }
   
   protected void copy(SimpleWorkerContext other) {
-    super.copy(other);
+    copy(other, false);
+  }
+
+  protected void copy(SimpleWorkerContext other, boolean layered) {
+    super.copy(other, layered);
     binaries.putAll(other.binaries);
     version = other.version;
     revision = other.revision;
@@ -180,9 +213,11 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     validatorFactory = other.validatorFactory;
     progress = other.progress;
     loadedPackages.addAll(other.loadedPackages);
+    packageSources.putAll(other.packageSources);
     canNoTS = other.canNoTS;
     xverManager = other.xverManager;
     allowLazyLoading = other.allowLazyLoading;
+    parallelLoading = other.parallelLoading;
   }
 
 
@@ -216,6 +251,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     @With
     private final ILoggingService loggingService;
 
+    @With
+    private final boolean parallelLoading;
+
     public SimpleWorkerContextBuilder() {
       cacheTerminologyClientErrors = false;
       alwaysUseTerminologyServer = false;
@@ -225,6 +263,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       userAgent = null;
       allowLoadingDuplicates = false;
       loggingService = new SystemOutLoggingService();
+      parallelLoading = false;
     }
 
     private SimpleWorkerContext getSimpleWorkerContextInstance() throws IOException {
@@ -251,6 +290,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     public SimpleWorkerContext fromPackage(NpmPackage pi) throws IOException, FHIRException {
       SimpleWorkerContext context = getSimpleWorkerContextInstance();
       context.setAllowLoadingDuplicates(allowLoadingDuplicates);
+      context.setParallelLoading(parallelLoading);
       context.terminologyClientManager.setFactory(TerminologyClientR5.factory());
       context.loadFromPackage(pi, null);
       return build(context);
@@ -259,6 +299,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     public SimpleWorkerContext fromPackage(NpmPackage pi, IContextResourceLoader loader, boolean genSnapshots) throws IOException, FHIRException {
       SimpleWorkerContext context = getSimpleWorkerContextInstance();
       context.setAllowLoadingDuplicates(allowLoadingDuplicates);      
+      context.setParallelLoading(parallelLoading);
       context.version = pi.getNpm().asString("version");
       context.terminologyClientManager.setFactory(loader.txFactory());
       context.loadFromPackage(pi, loader);
@@ -266,6 +307,21 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       return build(context);
     }
 
+    /**
+     * Load the working context from a snapshot saved by saveSnapshot(). The resources are 
+     * only read from the snapshot when they are used
+     */
+    public SimpleWorkerContext fromSnapshot(WorkerContextSnapshot snapshot, IContextResourceLoader loader) throws IOException, FHIRException {
+      SimpleWorkerContext context = getSimpleWorkerContextInstance();
+      context.setAllowLoadingDuplicates(allowLoadingDuplicates);
+      context.version = snapshot.getVersion();
+      if (loader != null) {
+        context.terminologyClientManager.setFactory(loader.txFactory());
+      }
+      context.loadFromSnapshot(snapshot);
+      return build(context);
+    }
+
     /**
      * Load the working context from the validation pack
      *
@@ -382,19 +438,25 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   }
   
 	public void loadFromFile(InputStream stream, String name, IContextResourceLoader loader, ILoadFilter filter) throws FHIRException {
-		Resource f;
-		try {
-		  if (loader != null)
-		    f = loader.loadBundle(stream, false);
-		  else {
-		    XmlParser xml = new XmlParser();
-		    f = xml.parse(stream);
-		  }
+	  registerFromFile(name, parseFromFile(stream, name, loader), loader, filter);
+	}
+
+  private Resource parseFromFile(InputStream stream, String name, IContextResourceLoader loader) throws FHIRException {
+    try {
+      if (loader != null) {
+        return loader.loadBundle(stream, false);
+      } else {
+        XmlParser xml = new XmlParser();
+        return xml.parse(stream);
+      }
     } catch (DataFormatException e1) {
       throw new org.hl7.fhir.exceptions.FHIRFormatError(formatMessage(I18nConstants.ERROR_PARSING_, name, e1.getMessage()), e1);
     } catch (Exception e1) {
-			throw new org.hl7.fhir.exceptions.FHIRFormatError(formatMessage(I18nConstants.ERROR_PARSING_, name, e1.getMessage()), e1);
-		}
+      throw new org.hl7.fhir.exceptions.FHIRFormatError(formatMessage(I18nConstants.ERROR_PARSING_, name, e1.getMessage()), e1);
+    }
+  }
+
+  private void registerFromFile(String name, Resource f, IContextResourceLoader loader, ILoadFilter filter) throws FHIRException {
 		if (f instanceof Bundle) {
 		  Bundle bnd = (Bundle) f;
 		  for (BundleEntryComponent e : bnd.getEntry()) {
@@ -421,22 +483,29 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
 	}
 
   private void loadFromFileJson(InputStream stream, String name, IContextResourceLoader loader, ILoadFilter filter, PackageInformation pi) throws IOException, FHIRException {
-    Bundle f = null;
+    registerFromFileJson(parseFromFileJson(stream, loader), loader, filter, pi);
+  }
+
+  private Resource parseFromFileJson(InputStream stream, IContextResourceLoader loader) throws IOException, FHIRException {
     try {
-      if (loader != null)
-        f = loader.loadBundle(stream, true);
-      else {
+      if (loader != null) {
+        return loader.loadBundle(stream, true);
+      } else {
         JsonParser json = new JsonParser();
-        Resource r = json.parse(stream);
-        if (r instanceof Bundle)
-          f = (Bundle) r;
-        else if (filter == null || filter.isOkToLoad(f)) {
-          cacheResourceFromPackage(r, pi);
-        }
+        return json.parse(stream);
       }
     } catch (FHIRFormatError e1) {
       throw new org.hl7.fhir.exceptions.FHIRFormatError(e1.getMessage(), e1);
     }
+  }
+
+  private void registerFromFileJson(Resource r, IContextResourceLoader loader, ILoadFilter filter, PackageInformation pi) throws FHIRException {
+    Bundle f = null;
+    if (r instanceof Bundle) {
+      f = (Bundle) r;
+    } else if (r != null && (filter == null || filter.isOkToLoad(r))) {
+      cacheResourceFromPackage(r, pi);
+    }
     if (f != null)
       for (BundleEntryComponent e : f.getEntry()) {
         if (filter == null || filter.isOkToLoad(e.getResource())) {
@@ -477,6 +546,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     return loadFromPackageAndDependenciesInt(pi, loader, pcm, pi.name()+"#"+pi.version());
   }
   public int loadFromPackageAndDependenciesInt(NpmPackage pi, IContextResourceLoader loader, BasePackageCacheManager pcm, String path) throws IOException, FHIRException {
+    if (parallelLoading) {
+      return loadFromPackageAndDependenciesParallel(pi, loader, pcm, path);
+    }
     int t = 0;
 
     for (String e : pi.dependencies()) {
@@ -493,41 +565,122 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   }
 
 
-  public int loadFromPackageInt(NpmPackage pi, IContextResourceLoader loader, List<String> types) throws IOException, FHIRException {
+  /**
+   * Same as the above, but all the packages are worked out first, and then read at the same time on the 
+   * fork-join pool. They're registered in the same order as above, so the outcome is the same
+   */
+  private int loadFromPackageAndDependenciesParallel(NpmPackage pi, IContextResourceLoader loader, BasePackageCacheManager pcm, String path) throws IOException, FHIRException {
+    PackageLoadPlanner planner = new PackageLoadPlanner(pcm);
+    planner.plan(pi, loader, path);
     int t = 0;
+    for (CompletableFuture<PackageLoad> f : planner.packages) {
+      PackageLoad pl = join(f);
+      if (progress) {
+        System.out.println("Load Package "+pl.npm.name()+"#"+pl.npm.version());
+      }
+      if (!loadedPackages.contains(pl.npm.id()+"#"+pl.npm.version())) {
+        t = t + loadPackage(pl);
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Works out which packages loadFromPackageAndDependenciesInt() would load, and in what order, and 
+   * starts reading them 
+   */
+  private class PackageLoadPlanner {
+    private final BasePackageCacheManager pcm;
+    private final List<CompletableFuture<PackageLoad>> packages = new ArrayList<>();
+    private final Set<String> planned = new HashSet<>();
+    private String version; // what the context version will be when the package is loaded
+
+    private PackageLoadPlanner(BasePackageCacheManager pcm) {
+      this.pcm = pcm;
+      this.version = SimpleWorkerContext.this.version;
+    }
+
+    private void plan(NpmPackage pi, IContextResourceLoader loader, String path) throws IOException {
+      for (String e : pi.dependencies()) {
+        if (!loadedPackages.contains(e) && !planned.contains(e) && !VersionUtilities.isCorePackage(e)) {
+          NpmPackage npm = pcm.loadPackage(e);
+          if (!VersionUtilities.versionsMatch(version, npm.fhirVersion())) {
+            System.out.println(formatMessage(I18nConstants.PACKAGE_VERSION_MISMATCH, e, version, npm.fhirVersion(), path));  
+          }
+          plan(npm, loader.getNewLoader(npm), path+" -> "+npm.name()+"#"+npm.version());
+        }
+      }
+      if (planned.add(pi.id()+"#"+pi.version())) {
+        packages.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            return preparePackage(pi, loader, loader.getTypes());
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        }, ForkJoinPool.commonPool()));
+        if (version == null && !loadedPackages.contains(pi.id()+"#"+pi.version())) {
+          version = pi.version().equals("current") ? "5.0.0" : pi.version();
+        }
+      }
+    }
+  }
+
+  /**
+   * The content of a package that is going to be loaded. When loading in parallel, the 
+   * files that have to be parsed now (rather than lazy loaded) are already being read
+   */
+  private static class PackageLoad {
+    private final NpmPackage npm;
+    private final IContextResourceLoader loader;
+    private final PackageInformation pii;
+    private final List<PackageLoadItem> items = new ArrayList<>();
+
+    private PackageLoad(NpmPackage npm, IContextResourceLoader loader) {
+      this.npm = npm;
+      this.loader = loader;
+      this.pii = new PackageInformation(npm);
+    }
+  }
+
+  private static class PackageLoadItem {
+    private final String name;
+    private final PackageResourceInformation pri; // if it's from the index
+    private final boolean lazy;
+    private CompletableFuture<Resource> parsed; // if it's being read on the fork-join pool
+
+    private PackageLoadItem(String name, PackageResourceInformation pri, boolean lazy) {
+      this.name = name;
+      this.pri = pri;
+      this.lazy = lazy;
+    }
+
+    private InputStream open(NpmPackage npm) throws IOException {
+      return pri != null ? pri.open() : npm.load("package", name);
+    }
+  }
+
+  public int loadFromPackageInt(NpmPackage pi, IContextResourceLoader loader, List<String> types) throws IOException, FHIRException {
     if (progress) {
       System.out.println("Load Package "+pi.name()+"#"+pi.version());
     }
     if (loadedPackages.contains(pi.id()+"#"+pi.version())) {
       return 0;
     }
-    
-    loadedPackages.add(pi.id()+"#"+pi.version());
-    if (packageTracker != null) {
-      packageTracker.packageLoaded(pi.id(), pi.version());
-    }
-    
-    String of = pi.getFolders().get("package").getFolderPath();
-    if (of != null) {
-      oidSources.add(new OIDSource(of));
-    }
-    
+    return loadPackage(preparePackage(pi, loader, types));
+  }
+
+  private PackageLoad preparePackage(NpmPackage pi, IContextResourceLoader loader, List<String> types) throws IOException {
     if ((types == null || types.size() == 0) &&  loader != null) {
       types = loader.getTypes();
     }
-    PackageInformation pii = new PackageInformation(pi);
+    PackageLoad pl = new PackageLoad(pi, loader);
     if (VersionUtilities.isR2Ver(pi.fhirVersion()) || !pi.canLazyLoad() || !allowLazyLoading) {
       // can't lazy load R2 because of valueset/codesystem implementation
       if (types == null || types.size() == 0) {
         types = Utilities.strings("StructureDefinition", "ValueSet", "SearchParameter", "OperationDefinition", "Questionnaire", "ConceptMap", "StructureMap", "NamingSystem" );
       }
       for (String s : pi.listResources(types)) {
-        try {
-          loadDefinitionItem(s, pi.load("package", s), loader, null, pii);
-          t++;
-        } catch (Exception e) {
-          throw new FHIRException(formatMessage(I18nConstants.ERROR_READING__FROM_PACKAGE__, s, pi.name(), pi.version(), e.getMessage()), e);
-        }      
+        pl.items.add(new PackageLoadItem(s, null, false));
       }
     } else {
       if (types == null || types.size() == 0) {
@@ -535,16 +688,105 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       }
       for (PackageResourceInformation pri : pi.listIndexedResources(types)) {
         if (!pri.getFilename().contains("ig-r4") && (loader == null || loader.wantLoad(pi, pri))) {
-          try {
-            if (!pri.hasId()) {
-              loadDefinitionItem(pri.getFilename(), ManagedFileAccess.inStream(pri.getFilename()), loader, null, pii);
-            } else {
-              registerResourceFromPackage(new PackageResourceLoader(pri, loader, pii), pii);
-            }
-            t++;
-          } catch (FHIRException e) {
-            throw new FHIRException(formatMessage(I18nConstants.ERROR_READING__FROM_PACKAGE__, pri.getFilename(), pi.name(), pi.version(), e.getMessage()), e);
+          pl.items.add(new PackageLoadItem(pri.getFilename(), pri, pri.hasId()));
+        }
+      }
+    }
+    if (parallelLoading) {
+      for (PackageLoadItem item : pl.items) {
+        if (!item.lazy && (item.name.endsWith(".json") || item.name.endsWith(".xml"))) {
+          item.parsed = parseAsync(pl, item);
+        }
+      }
+    }
+    return pl;
+  }
+
+  private CompletableFuture<Resource> parseAsync(PackageLoad pl, PackageLoadItem item) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        InputStream stream;
+        try (InputStream f = item.open(pl.npm)) {
+          stream = new ByteArrayInputStream(TextFile.streamToBytes(f));
+        }
+        if (pl.loader == null || pl.loader.isThreadSafe()) {
+          return parseDefinitionItem(item.name, stream, pl.loader);
+        }
+        synchronized (pl.loader) {
+          return parseDefinitionItem(item.name, stream, pl.loader);
+        }
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, ForkJoinPool.commonPool());
+  }
+
+  private Resource parseDefinitionItem(String name, InputStream stream, IContextResourceLoader loader) throws IOException, FHIRException {
+    return name.endsWith(".xml") ? parseFromFile(stream, name, loader) : parseFromFileJson(stream, loader);
+  }
+
+  private void registerDefinitionItem(String name, Resource r, IContextResourceLoader loader, PackageInformation pi) throws FHIRException {
+    if (name.endsWith(".xml")) {
+      registerFromFile(name, r, loader, null);
+    } else {
+      registerFromFileJson(r, loader, null, pi);
+    }
+  }
+
+  private <T> T join(CompletableFuture<T> f) throws IOException {
+    try {
+      return f.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      } else if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  private int loadPackage(PackageLoad pl) throws IOException, FHIRException {
+    NpmPackage pi = pl.npm;
+    int t = 0;
+    loadedPackages.add(pi.id()+"#"+pi.version());
+    if (packageTracker != null) {
+      packageTracker.packageLoaded(pi.id(), pi.version());
+    }
+    
+    String of = pi.getFolders().get("package").getFolderPath();
+    if (of != null) {
+      oidSources.add(new OIDSource(of));
+      packageSources.put(pi.id()+"#"+pi.version(), of);
+    } else if (pi.getPath() != null && pi.getPath().endsWith(NpmPackageArchive.FILENAME)) {
+      packageSources.put(pi.id()+"#"+pi.version(), pi.getPath());
+    }
+    
+    for (PackageLoadItem item : pl.items) {
+      if (item.pri == null) {
+        try {
+          if (item.parsed != null) {
+            registerDefinitionItem(item.name, join(item.parsed), pl.loader, pl.pii);
+          } else {
+            loadDefinitionItem(item.name, pi.load("package", item.name), pl.loader, null, pl.pii);
+          }
+          t++;
+        } catch (Exception e) {
+          throw new FHIRException(formatMessage(I18nConstants.ERROR_READING__FROM_PACKAGE__, item.name, pi.name(), pi.version(), e.getMessage()), e);
+        }      
+      } else {
+        try {
+          if (item.lazy) {
+            registerResourceFromPackage(new PackageResourceLoader(item.pri, pl.loader, pl.pii), pl.pii);
+          } else if (item.parsed != null) {
+            registerDefinitionItem(item.name, join(item.parsed), pl.loader, pl.pii);
+          } else {
+            loadDefinitionItem(item.name, item.pri.open(), pl.loader, null, pl.pii);
           }
+          t++;
+        } catch (FHIRException e) {
+          throw new FHIRException(formatMessage(I18nConstants.ERROR_READING__FROM_PACKAGE__, item.name, pi.name(), pi.version(), e.getMessage()), e);
         }
       }
     }
@@ -557,12 +799,69 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
 	      version = "5.0.0";
 	    }
 	  }
-	  if (loader != null && terminologyClientManager.getFactory() == null) {
-	    terminologyClientManager.setFactory(loader.txFactory());
+	  if (pl.loader != null && terminologyClientManager.getFactory() == null) {
+	    terminologyClientManager.setFactory(pl.loader.txFactory());
 	  }
 	  return t;
 	}
 
+  /**
+   * Save the resources that have been loaded from packages, along with the package details, so that 
+   * another context can be loaded from them quickly (see SimpleWorkerContextBuilder.fromSnapshot()).
+   * Snapshots are generated for all the structure definitions first
+   * 
+   * Resources that weren't loaded from a package aren't saved
+   */
+  public void saveSnapshot(File file) throws IOException {
+    saveSnapshot(file, null);
+  }
+
+  /**
+   * @param key recorded in the snapshot, for the application to check when it's loaded (see WorkerContextSnapshot.getKey())
+   */
+  public void saveSnapshot(File file, String key) throws IOException {
+    new ContextUtilities(this).allStructures();
+    WorkerContextSnapshot.save(file, key, version, loadedPackages, packageSources, binaries, oidCacheManual, fetchResourcesByType(CanonicalResource.class));
+  }
+
+  public void loadFromSnapshot(WorkerContextSnapshot snapshot) throws IOException, FHIRException {
+    if (version == null) {
+      version = snapshot.getVersion();
+    }
+    for (String vid : snapshot.getLoadedPackages()) {
+      if (!loadedPackages.contains(vid)) {
+        loadedPackages.add(vid);
+        if (packageTracker != null) {
+          packageTracker.packageLoaded(vid.substring(0, vid.indexOf("#")), vid.substring(vid.indexOf("#")+1));
+        }
+        String source = snapshot.getPackageSources().get(vid);
+        if (source != null) {
+          if (ManagedFileAccess.file(source).isDirectory()) {
+            oidSources.add(new OIDSource(source));
+          }
+          packageSources.put(vid, source);
+        }
+      }
+    }
+    binaries.putAll(snapshot.getBinaries());
+    for (String oid : snapshot.getOids().keySet()) {
+      if (!oidCacheManual.containsKey(oid)) {
+        oidCacheManual.put(oid, new HashSet<>());
+      }
+      oidCacheManual.get(oid).addAll(snapshot.getOids().get(oid));
+    }
+    // the snapshot has whatever the original context had, including duplicates if they were allowed
+    boolean allow = isAllowLoadingDuplicates();
+    setAllowLoadingDuplicates(true);
+    try {
+      for (WorkerContextSnapshot.SnapshotEntry entry : snapshot.getEntries()) {
+        registerResourceFromPackage(new WorkerContextSnapshot.SnapshotResourceLoader(snapshot, entry), snapshot.getPackage(entry));
+      }
+    } finally {
+      setAllowLoadingDuplicates(allow);
+    }
+  }
+
   public void loadFromFile(String file, IContextResourceLoader loader) throws IOException, FHIRException {
     loadDefinitionItem(file, new CSFileInputStream(file), loader, null, null);
   }
@@ -827,6 +1126,22 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     this.allowLazyLoading = allowLazyLoading;
   }
 
+  public boolean isParallelLoading() {
+    return parallelLoading;
+  }
+
+  /**
+   * If this is true, the files in a package that have to be parsed when it's loaded are read and parsed 
+   * on the fork-join pool, and loadFromPackageAndDependencies() reads all the packages at once. 
+   * The resources are still registered in the same order, so the outcome is the same either way. 
+   * 
+   * Loaders that aren't thread safe (see IContextResourceLoader.isThreadSafe()) only parse one file 
+   * at a time, and getTypes() and wantLoad() may be called from the pool 
+   */
+  public void setParallelLoading(boolean parallelLoading) {
+    this.parallelLoading = parallelLoading;
+  }
+
   public String loadedPackageSummary() {
      return loadedPackages.toString();
   }
@@ -0,0 +1,603 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.VersionUtil;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.npm.NpmPackageArchive;
+
+/**
+ * A fully loaded worker context, saved to a single file, so that a process can start from
+ * it instead of reading and converting the packages again.
+ *
+ * The file has the resource bodies first (as R5 JSON, with the snapshots already generated),
+ * then an index of the packages, binaries, OIDs and resources, and then the offset of the index.
+ * The file is memory mapped when it's read, and the resources are registered with the context
+ * as proxies, so each body is only parsed when the resource is first used.
+ *
+ * The index includes a checksum of the package.json and .index.json of each package that was
+ * loaded (or the index of the package archive), from the package cache, and of the version of this
+ * library, so a snapshot can be checked against the packages and the code it came from (see isCurrent()).
+ * It also has a key, which the application can use to record what was asked for when the snapshot
+ * was made (e.g. the packages and igs), since that's not necessarily the same as what got loaded
+ */
+public class WorkerContextSnapshot {
+
+  private static final byte[] MAGIC = "FHIRWCS".getBytes();
+  private static final int FORMAT_VERSION = 2;
+  private static final int TRAILER_SIZE = 12;
+
+  public static class SnapshotEntry {
+    private String type;
+    private String id;
+    private String url;
+    private String version;
+    private String supplements;
+    private String derivation;
+    private String content;
+    private int packageIndex;
+    private String webPath;
+    private String webRoot;
+    private boolean oldLoadMode;
+    private long offset;
+    private int length;
+    private int crc;
+
+    public String getType() {
+      return type;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public String getVersion() {
+      return version;
+    }
+  }
+
+  public static class SnapshotResourceLoader extends CanonicalResourceProxy {
+
+    private final WorkerContextSnapshot snapshot;
+    private final SnapshotEntry entry;
+
+    public SnapshotResourceLoader(WorkerContextSnapshot snapshot, SnapshotEntry entry) {
+      super(entry.type, entry.id, entry.url, entry.version, entry.supplements, entry.derivation, entry.content);
+      setDerivation(entry.derivation);
+      this.snapshot = snapshot;
+      this.entry = entry;
+    }
+
+    @Override
+    public CanonicalResource loadResource() throws FHIRException {
+      return snapshot.loadResource(entry);
+    }
+
+    @Override
+    public long getSize() {
+      return entry.length;
+    }
+  }
+
+  private File file;
+  private ByteBuffer buffer;
+  private String key;
+  private String version;
+  private String checksum;
+  private List<String> loadedPackages = new ArrayList<>();
+  private Map<String, String> packageSources = new LinkedHashMap<>();
+  private List<PackageInformation> packages = new ArrayList<>();
+  private Map<String, byte[]> binaries = new LinkedHashMap<>();
+  private Map<String, Set<String>> oids = new LinkedHashMap<>();
+  private List<SnapshotEntry> entries = new ArrayList<>();
+
+  private WorkerContextSnapshot(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public List<String> getLoadedPackages() {
+    return loadedPackages;
+  }
+
+  /**
+   * @return where each package was loaded from - either its folder, or its archive (see NpmPackageArchive)
+   */
+  public Map<String, String> getPackageSources() {
+    return packageSources;
+  }
+
+  public List<PackageInformation> getPackages() {
+    return packages;
+  }
+
+  public Map<String, byte[]> getBinaries() {
+    return binaries;
+  }
+
+  public Map<String, Set<String>> getOids() {
+    return oids;
+  }
+
+  public List<SnapshotEntry> getEntries() {
+    return entries;
+  }
+
+  public PackageInformation getPackage(SnapshotEntry entry) {
+    return entry.packageIndex < 0 ? null : packages.get(entry.packageIndex);
+  }
+
+  public boolean hasPackage(String vid) {
+    return loadedPackages.contains(vid);
+  }
+
+  /**
+   * @return true if the packages in the package cache, and the version of this library, are the same as when the snapshot was saved
+   */
+  public boolean isCurrent() throws IOException {
+    return checksum.equals(checksum(loadedPackages, packageSources));
+  }
+
+  /**
+   * The checksum of the packages that the snapshot was made from, and of the code that made it. A package 
+   * in a folder is represented by its package.json and .index.json, which change whenever the package cache 
+   * is updated. A package in an archive is represented by the end of the archive, which has the offset and 
+   * CRC of the archive's index (and the index has the CRC of every file)
+   */
+  public static String checksum(List<String> loadedPackages, Map<String, String> packageSources) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    // a different build might compose the resources or generate the snapshots differently
+    md.update(Integer.toString(FORMAT_VERSION).getBytes("UTF-8"));
+    md.update((byte) 0);
+    md.update(String.valueOf(VersionUtil.getVersion()).getBytes("UTF-8"));
+    md.update((byte) 0);
+    md.update(String.valueOf(VersionUtil.getBuildNumber()).getBytes("UTF-8"));
+    md.update((byte) 0);
+    for (String vid : loadedPackages) {
+      md.update(vid.getBytes("UTF-8"));
+      md.update((byte) 0);
+      String source = packageSources.get(vid);
+      if (source != null) {
+        File f = ManagedFileAccess.file(source);
+        if (f.isDirectory()) {
+          for (String name : new String[] { "package.json", ".index.json" }) {
+            File pf = ManagedFileAccess.file(source, name);
+            if (pf.exists()) {
+              md.update(TextFile.fileToBytes(pf));
+            }
+            md.update((byte) 0);
+          }
+        } else if (f.exists()) {
+          md.update(archiveTrailer(f));
+        }
+        md.update((byte) 0);
+      }
+    }
+    StringBuilder b = new StringBuilder();
+    for (byte v : md.digest()) {
+      b.append(String.format("%02x", v));
+    }
+    return b.toString();
+  }
+
+  /**
+   * The length of the archive and its last few bytes, which is where it keeps the offset and CRC of its index
+   */
+  private static byte[] archiveTrailer(File f) throws IOException {
+    long length = f.length();
+    int size = (int) Math.min(length, NpmPackageArchive.TRAILER_SIZE);
+    ByteBuffer res = ByteBuffer.allocate(8 + size);
+    res.putLong(length);
+    FileInputStream stream = ManagedFileAccess.inStream(f);
+    try {
+      FileChannel channel = stream.getChannel();
+      channel.position(length - size);
+      while (res.hasRemaining() && channel.read(res) >= 0) {
+        // keep reading
+      }
+    } finally {
+      stream.close();
+    }
+    return res.array();
+  }
+
+  // -- writing ------------------------------------------------------------------------------------------
+
+  /**
+   * Save the resources and the package details to the file. The resources should have their snapshots
+   * generated already. The file is written alongside and then moved into place, so a process that is
+   * reading the old file isn't affected
+   * 
+   * @param key whatever the application wants to record about what the snapshot was made for (can be null)
+   */
+  public static void save(File file, String key, String version, List<String> loadedPackages, Map<String, String> packageSources, Map<String, byte[]> binaries,
+      Map<String, Set<String>> oids, List<CanonicalResource> resources) throws IOException {
+    File tmp = ManagedFileAccess.file(file.getAbsolutePath()+".tmp");
+    Map<String, Integer> packageIndexes = new LinkedHashMap<>();
+    List<PackageInformation> packages = new ArrayList<>();
+    List<SnapshotEntry> entries = new ArrayList<>();
+    JsonParser json = new JsonParser();
+
+    OutputStream stream = ManagedFileAccess.outStream(tmp);
+    try {
+      CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(stream));
+      DataOutputStream out = new DataOutputStream(counter);
+      out.write(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      for (CanonicalResource cr : resources) {
+        if (cr.getSourcePackage() == null || !cr.hasId()) {
+          continue;
+        }
+        PackageInformation pi = cr.getSourcePackage();
+        Integer index = packageIndexes.get(pi.getVID());
+        if (index == null) {
+          index = packages.size();
+          packageIndexes.put(pi.getVID(), index);
+          packages.add(pi);
+        }
+        byte[] body = json.composeBytes(cr);
+        SnapshotEntry e = new SnapshotEntry();
+        e.type = cr.fhirType();
+        e.id = cr.getId();
+        e.url = cr.getUrl();
+        e.version = cr.getVersion();
+        if (cr instanceof CodeSystem) {
+          CodeSystem cs = (CodeSystem) cr;
+          e.supplements = cs.getSupplements();
+          e.content = cs.hasContent() ? cs.getContent().toCode() : null;
+        }
+        if (cr instanceof StructureDefinition) {
+          e.derivation = ((StructureDefinition) cr).getDerivationElement().primitiveValue();
+        }
+        e.packageIndex = index;
+        e.webPath = cr.getWebPath();
+        e.webRoot = cr.getUserString("webroot");
+        e.oldLoadMode = cr.hasUserData("old.load.mode");
+        e.offset = counter.getCount();
+        e.length = body.length;
+        e.crc = crc(body, 0, body.length);
+        out.write(body);
+        entries.add(e);
+      }
+
+      out.flush();
+      long indexOffset = counter.getCount();
+      CRC32 indexCrc = new CRC32();
+      DataOutputStream idx = new DataOutputStream(new CheckedOutputStream(counter, indexCrc));
+      writeString(idx, key);
+      writeString(idx, version);
+      writeString(idx, checksum(loadedPackages, packageSources));
+      idx.writeInt(loadedPackages.size());
+      for (String vid : loadedPackages) {
+        writeString(idx, vid);
+        writeString(idx, packageSources.get(vid));
+      }
+      idx.writeInt(packages.size());
+      for (PackageInformation pi : packages) {
+        writeString(idx, pi.getId());
+        writeString(idx, pi.getVersion());
+        writeString(idx, pi.getFhirVersion());
+        idx.writeLong(pi.getDate() == null ? -1 : pi.getDate().getTime());
+        writeString(idx, pi.getName());
+        writeString(idx, pi.getCanonical());
+        writeString(idx, pi.getWeb());
+        idx.writeInt(pi.getDependencies().size());
+        for (String d : pi.getDependencies()) {
+          writeString(idx, d);
+        }
+      }
+      idx.writeInt(binaries.size());
+      for (String name : binaries.keySet()) {
+        byte[] b = binaries.get(name);
+        writeString(idx, name);
+        idx.writeInt(b.length);
+        idx.write(b);
+      }
+      idx.writeInt(oids.size());
+      for (String oid : oids.keySet()) {
+        writeString(idx, oid);
+        idx.writeInt(oids.get(oid).size());
+        for (String url : oids.get(oid)) {
+          writeString(idx, url);
+        }
+      }
+      idx.writeInt(entries.size());
+      for (SnapshotEntry e : entries) {
+        writeString(idx, e.type);
+        writeString(idx, e.id);
+        writeString(idx, e.url);
+        writeString(idx, e.version);
+        writeString(idx, e.supplements);
+        writeString(idx, e.derivation);
+        writeString(idx, e.content);
+        idx.writeInt(e.packageIndex);
+        writeString(idx, e.webPath);
+        writeString(idx, e.webRoot);
+        idx.writeBoolean(e.oldLoadMode);
+        idx.writeLong(e.offset);
+        idx.writeInt(e.length);
+        idx.writeInt(e.crc);
+      }
+      idx.flush();
+      out.writeLong(indexOffset);
+      out.writeInt((int) indexCrc.getValue());
+      out.flush();
+    } finally {
+      stream.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  // -- reading ------------------------------------------------------------------------------------------
+
+  /**
+   * Map the file and read the index. The resources themselves are read when they are first used
+   */
+  public static WorkerContextSnapshot open(File file) throws IOException {
+    WorkerContextSnapshot snapshot = new WorkerContextSnapshot(file);
+    FileInputStream stream = ManagedFileAccess.inStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("The context snapshot "+file.getAbsolutePath()+" is too large");
+      }
+      snapshot.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      stream.close();
+    }
+    snapshot.readIndex();
+    return snapshot;
+  }
+
+  private void readIndex() throws IOException {
+    int size = buffer.capacity();
+    if (size < MAGIC.length + 4 + TRAILER_SIZE) {
+      throw new IOException("The file "+file.getAbsolutePath()+" is not a context snapshot");
+    }
+    ByteBuffer b = buffer.duplicate();
+    byte[] magic = new byte[MAGIC.length];
+    b.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("The file "+file.getAbsolutePath()+" is not a context snapshot");
+    }
+    int fv = b.getInt();
+    if (fv != FORMAT_VERSION) {
+      throw new IOException("The context snapshot "+file.getAbsolutePath()+" is format version "+fv+", not "+FORMAT_VERSION);
+    }
+    long indexOffset = b.getLong(size - TRAILER_SIZE);
+    int indexCrc = b.getInt(size - TRAILER_SIZE + 8);
+    if (indexOffset < MAGIC.length + 4 || indexOffset > size - TRAILER_SIZE) {
+      throw new IOException("The context snapshot "+file.getAbsolutePath()+" is corrupt");
+    }
+    if (crc(buffer, (int) indexOffset, size - TRAILER_SIZE - (int) indexOffset) != indexCrc) {
+      throw new IOException("The context snapshot "+file.getAbsolutePath()+" is corrupt");
+    }
+    b.position((int) indexOffset);
+    b.limit(size - TRAILER_SIZE);
+    DataInputStream in = new DataInputStream(new ByteBufferInputStream(b));
+    key = readString(in);
+    version = readString(in);
+    checksum = readString(in);
+    int c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String vid = readString(in);
+      loadedPackages.add(vid);
+      packageSources.put(vid, readString(in));
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String id = readString(in);
+      String ver = readString(in);
+      String fhirVersion = readString(in);
+      long date = in.readLong();
+      String name = readString(in);
+      String canonical = readString(in);
+      String web = readString(in);
+      PackageInformation pi = new PackageInformation(id, ver, fhirVersion, date == -1 ? null : new Date(date), name, canonical, web);
+      int dc = in.readInt();
+      for (int j = 0; j < dc; j++) {
+        pi.getDependencies().add(readString(in));
+      }
+      packages.add(pi);
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String name = readString(in);
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      binaries.put(name, bytes);
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String oid = readString(in);
+      Set<String> urls = new HashSet<>();
+      int uc = in.readInt();
+      for (int j = 0; j < uc; j++) {
+        urls.add(readString(in));
+      }
+      oids.put(oid, urls);
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      SnapshotEntry e = new SnapshotEntry();
+      e.type = readString(in);
+      e.id = readString(in);
+      e.url = readString(in);
+      e.version = readString(in);
+      e.supplements = readString(in);
+      e.derivation = readString(in);
+      e.content = readString(in);
+      e.packageIndex = in.readInt();
+      e.webPath = readString(in);
+      e.webRoot = readString(in);
+      e.oldLoadMode = in.readBoolean();
+      e.offset = in.readLong();
+      e.length = in.readInt();
+      e.crc = in.readInt();
+      entries.add(e);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private CanonicalResource loadResource(SnapshotEntry entry) {
+    byte[] body = new byte[entry.length];
+    ByteBuffer b = buffer.duplicate();
+    b.position((int) entry.offset);
+    b.get(body);
+    if (crc(body, 0, body.length) != entry.crc) {
+      throw new FHIRException("Error loading "+entry.type+"/"+entry.id+" from "+file.getAbsolutePath()+": the snapshot is corrupt");
+    }
+    try {
+      CanonicalResource cr = (CanonicalResource) new JsonParser().parse(body);
+      cr.setWebPath(entry.webPath);
+      if (entry.webRoot != null) {
+        cr.setUserData("webroot", entry.webRoot);
+      }
+      if (entry.oldLoadMode) {
+        cr.setUserData("old.load.mode", true);
+      }
+      cr.setSourcePackage(getPackage(entry));
+      return cr;
+    } catch (Exception e) {
+      throw new FHIRException("Error loading "+entry.type+"/"+entry.id+" from "+file.getAbsolutePath()+": "+e.getMessage(), e);
+    }
+  }
+
+  private static int crc(byte[] bytes, int offset, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static int crc(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer b = buffer.duplicate();
+    b.position(offset);
+    b.limit(offset + length);
+    CRC32 crc = new CRC32();
+    crc.update(b);
+    return (int) crc.getValue();
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long count;
+
+    private CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count = count + len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+}
@@ -135,7 +135,29 @@ public class Element extends Base implements NamedItem {
     }
 	}
 
-	private List<String> comments;// not relevant for production, but useful in documentation
+  /**
+   * Fields that are only used on a few elements. These are kept in a side object that is 
+   * only created when one of them is set, rather than taking space on every element in 
+   * a large tree
+   */
+  private static class Extras {
+    private List<String> comments;// not relevant for production, but useful in documentation
+    private XhtmlNode xhtml; // if this is populated, then value will also hold the string representation
+    private String explicitType; // for xsi:type attribute
+    private Element parentForValidator;
+    private List<ValidationMessage> messages;
+    private Base source;
+    private Object nativeObject;
+    private List<SliceDefinition> sliceDefinitions;
+    private String webPath;
+  }
+
+  private static final int FLAG_PROHIBITED = 1;
+  private static final int FLAG_REQUIRED = 2;
+  private static final int FLAG_NULL = 4;
+  private static final int FLAG_IGNORE_PROPERTY_ORDER = 8;
+  private static final int FLAG_HAS_PARENT_FOR_VALIDATOR = 16;
+
 	private String name;
 	private String type;
 	private String value;
@@ -146,26 +168,16 @@ public class Element extends Base implements NamedItem {
 	private int line;
 	private int col;
 	private SpecialElement special;
-	private XhtmlNode xhtml; // if this is populated, then value will also hold the string representation
-	private String explicitType; // for xsi:type attribute
-	private Element parentForValidator;
-	private boolean hasParentForValidator;
 	private String path;
-	private List<ValidationMessage> messages;
-	private boolean prohibited;
-	private boolean required;
   private int descendentCount;
   private int instanceId;
-  private boolean isNull;
-  private Base source;
-  private boolean ignorePropertyOrder;
+  private byte flags;
   private FhirFormat format;
-  private Object nativeObject;
-  private List<SliceDefinition> sliceDefinitions;
+  private Extras extras;
 
 	public Element(String name) {
 		super();
-		this.name = name;
+		this.name = StringPool.intern(name);
 	}
 
   public Element(Element other) {
@@ -179,7 +191,7 @@ public class Element extends Base implements NamedItem {
   
   public Element(String name, Property property) {
 		super();
-		this.name = name;
+		this.name = StringPool.intern(name);
 		this.property = property;
 		if (property.isResource()) {
 		  children = new NamedItemList<>();
@@ -188,10 +200,10 @@ public class Element extends Base implements NamedItem {
 
 	public Element(String name, Property property, String type, String value) {
 		super();
-		this.name = name;
+		this.name = StringPool.intern(name);
 		this.property = property;
 		this.type = type;
-		this.value = value;
+		this.value = StringPool.intern(value);
 	}
 
 	public void updateProperty(Property property, SpecialElement special, Property elementProperty) {
@@ -230,13 +242,13 @@ public class Element extends Base implements NamedItem {
 	}
 
 	public boolean hasComments() {
-		return !(comments == null || comments.isEmpty());
+		return !(extras == null || extras.comments == null || extras.comments.isEmpty());
 	}
 
 	public List<String> getComments() {
-		if (comments == null)
-			comments = new ArrayList<String>();
-		return comments;
+		if (extras().comments == null)
+			extras.comments = new ArrayList<String>();
+		return extras.comments;
 	}
 
 	public Property getProperty() {
@@ -244,9 +256,28 @@ public class Element extends Base implements NamedItem {
 	}
 
 	public void setValue(String value) {
-		this.value = value;
+		this.value = StringPool.intern(value); // short values (codes, booleans etc) are shared across the tree
 	}
 
+  private XhtmlNode xhtmlValue() {
+    return extras == null ? null : extras.xhtml;
+  }
+
+  private Extras extras() {
+    if (extras == null) {
+      extras = new Extras();
+    }
+    return extras;
+  }
+
+  private boolean flag(int flag) {
+    return (flags & flag) != 0;
+  }
+
+  private void setFlag(int flag, boolean value) {
+    flags = (byte) (value ? flags | flag : flags & ~flag);
+  }
+
 	public Element setType(String type) {
 		this.type = type;
 		return this;
@@ -254,11 +285,11 @@ public class Element extends Base implements NamedItem {
 	}
 
 	public boolean isNull() {
-    return isNull;
+    return flag(FLAG_NULL);
   }
 
   public void setNull(boolean isNull) {
-    this.isNull = isNull;
+    setFlag(FLAG_NULL, isNull);
   }
 
   public boolean hasValue() {
@@ -426,7 +457,7 @@ public class Element extends Base implements NamedItem {
   @Override
   public Base setProperty(int hash, String name, Base value) throws FHIRException {
     if ("xhtml".equals(getType()) && (hash == "value".hashCode())) {
-      this.xhtml = TypeConvertor.castToXhtml(value);
+      extras().xhtml = TypeConvertor.castToXhtml(value);
       this.value =  TypeConvertor.castToXhtmlString(value);
       return this;
     }
@@ -755,11 +786,13 @@ public class Element extends Base implements NamedItem {
 
   
 	public XhtmlNode getXhtml() {
-		return xhtml;
+		return xhtmlValue();
 	}
 
 	public Element setXhtml(XhtmlNode xhtml) {
-		this.xhtml = xhtml;
+	  if (xhtml != null || extras != null) {
+	    extras().xhtml = xhtml;
+	  }
 		return this;
  	}
 
@@ -842,17 +875,24 @@ public class Element extends Base implements NamedItem {
       if (!equalsDeep(p, o))
         return false;
     }
-    for (org.hl7.fhir.r5.model.Property p : children()) {
-      String name = p.getName();
-      if (!processed.contains(name)) {
-        org.hl7.fhir.r5.model.Property o = other.getChildByName(name);
-        if (!equalsDeep(p, o))
-          return false;
+    // and other can't have content that this doesn't (else equality - and hashDeep - would depend on which way around the comparison is done)
+    for (org.hl7.fhir.r5.model.Property o : other.children()) {
+      if (!processed.contains(o.getName()) && hasContent(o)) {
+        return false;
       }
     }
     return true;
   }
 
+  private boolean hasContent(org.hl7.fhir.r5.model.Property p) {
+    for (Base v : p.getValues()) {
+      if (v != null && !v.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean equalsDeep(org.hl7.fhir.r5.model.Property p, org.hl7.fhir.r5.model.Property o) {
     if (o == null || p == null)
       return false;
@@ -1045,11 +1085,13 @@ public class Element extends Base implements NamedItem {
   }
 
   public String getExplicitType() {
-    return explicitType;
+    return extras == null ? null : extras.explicitType;
   }
 
   public void setExplicitType(String explicitType) {
-    this.explicitType = explicitType;
+    if (explicitType != null || extras != null) {
+      extras().explicitType = explicitType;
+    }
   }
 
   public boolean hasDescendant(Element element) {
@@ -1109,27 +1151,29 @@ public class Element extends Base implements NamedItem {
    * this is set by the instance validator. There's no reason to maintain this when working with an element tree, and so it should be ignored outside the validator
    */
   public Element getParentForValidator() {
-    if (!hasParentForValidator) {
+    if (!flag(FLAG_HAS_PARENT_FOR_VALIDATOR)) {
       throw new Error("Parent not set");
     }
-    return parentForValidator;
+    return extras.parentForValidator;
   }
 
   public void setParentForValidator(Element parentForValidator) {
-    this.parentForValidator = parentForValidator;
-    this.hasParentForValidator = true;
+    extras().parentForValidator = parentForValidator;
+    setFlag(FLAG_HAS_PARENT_FOR_VALIDATOR, true);
   }
   
   public boolean hasParentForValidator() {
-    return hasParentForValidator;
+    return flag(FLAG_HAS_PARENT_FOR_VALIDATOR);
   }
 
   public void clear() {
-    comments = null;
+    if (extras != null) {
+      extras.comments = null;
+      extras.xhtml = null;
+    }
     children.clear();
     property = null;
     elementProperty = null;
-    xhtml = null;
     path = null;
   }
 
@@ -1142,18 +1186,18 @@ public class Element extends Base implements NamedItem {
   }  
   
   public void addMessage(ValidationMessage vm) {
-    if (messages == null) {
-      messages = new ArrayList<>();
+    if (extras().messages == null) {
+      extras.messages = new ArrayList<>();
     }
-    messages.add(vm);
+    extras.messages.add(vm);
   }
 
   public boolean hasMessages() {
-    return messages != null && !messages.isEmpty();
+    return extras != null && extras.messages != null && !extras.messages.isEmpty();
   }
 
   public List<ValidationMessage> getMessages() {
-    return messages;
+    return extras == null ? null : extras.messages;
   }
 
   public void removeChild(String name) {
@@ -1161,19 +1205,19 @@ public class Element extends Base implements NamedItem {
   }
 
   public boolean isProhibited() {
-    return prohibited;
+    return flag(FLAG_PROHIBITED);
   }
 
   public void setProhibited(boolean prohibited) {
-    this.prohibited = prohibited;
+    setFlag(FLAG_PROHIBITED, prohibited);
   }
 
   public boolean isRequired() {
-    return required;
+    return flag(FLAG_REQUIRED);
   }
 
   public void setRequired(boolean required) {
-    this.required = required;
+    setFlag(FLAG_REQUIRED, required);
   }
 
   public int getDescendentCount() {
@@ -1209,34 +1253,36 @@ public class Element extends Base implements NamedItem {
 
   @Override
   public boolean hasValidationInfo() {
-    return hasSource() ? source.hasValidationInfo() : super.hasValidationInfo();
+    return hasSource() ? extras.source.hasValidationInfo() : super.hasValidationInfo();
   }
 
   @Override
   public List<ValidationInfo> getValidationInfo() {
-    return hasSource() ? source.getValidationInfo() : super.getValidationInfo();
+    return hasSource() ? extras.source.getValidationInfo() : super.getValidationInfo();
   }
 
   @Override
   public ValidationInfo addDefinition(StructureDefinition source, ElementDefinition defn, ValidationMode mode) {
-    if (this.source != null) {
-      return this.source.addDefinition(source, defn, mode);
+    if (hasSource()) {
+      return extras.source.addDefinition(source, defn, mode);
     } else {
       return super.addDefinition(source, defn, mode);
     }
   }
 
   public boolean hasSource() {
-    return source != null;
+    return extras != null && extras.source != null;
   }
 
   
   public Base getSource() {
-    return source;
+    return extras == null ? null : extras.source;
   }
 
   public void setSource(Base source) {
-    this.source = source;
+    if (source != null || extras != null) {
+      extras().source = source;
+    }
   }
 
   public void printToOutput() {
@@ -1250,12 +1296,13 @@ public class Element extends Base implements NamedItem {
   }
 
   private void printToOutput(PrintStream out, String indent) {
+    String explicitType = getExplicitType();
     String s = indent+name +(index == -1 ? "" : "["+index+"]") +(special != null ? "$"+special.toHuman(): "")+ (type!= null || explicitType != null ? " : "+type+(explicitType != null ? "/'"+explicitType+"'" : "") : "");
-    if (isNull) {
+    if (isNull()) {
       s = s + " = (null)";
     } else if (value != null) {
       s = s + " = '"+value+"'";      
-    } else if (xhtml != null) {
+    } else if (xhtmlValue() != null) {
       s = s + " = (xhtml)";
     }
     if (property != null) {
@@ -1281,7 +1328,7 @@ public class Element extends Base implements NamedItem {
     int e = 0;
     int w = 0;
     int h = 0;
-    for (ValidationMessage msg : messages) {
+    for (ValidationMessage msg : getMessages()) {
       switch (msg.getLevel()) {
       case ERROR:
         e++;
@@ -1376,11 +1423,11 @@ public class Element extends Base implements NamedItem {
     super.copyValues(dst);
     
     Element dest = (Element) dst;
-    if (comments != null) {
-      dest.comments = new ArrayList<>();
-      dest.comments.addAll(comments);
-    } else {
-      dest.comments = null;
+    if (hasComments()) {
+      dest.extras().comments = new ArrayList<>();
+      dest.extras.comments.addAll(extras.comments);
+    } else if (dest.extras != null) {
+      dest.extras.comments = null;
     }
     dest.value = value;
     if (children != null) {
@@ -1393,17 +1440,19 @@ public class Element extends Base implements NamedItem {
     }    
     dest.line = line;
     dest.col = col;
-    dest.xhtml = xhtml;
-    dest.explicitType = explicitType;
-    dest.hasParentForValidator = false;
+    dest.setXhtml(getXhtml());
+    dest.setExplicitType(getExplicitType());
+    dest.setFlag(FLAG_HAS_PARENT_FOR_VALIDATOR, false);
     dest.path = path;
-    dest.messages = null;
-    dest.prohibited = prohibited;
-    dest.required = required;
+    if (dest.extras != null) {
+      dest.extras.messages = null;
+    }
+    dest.setProhibited(isProhibited());
+    dest.setRequired(isRequired());
     dest.descendentCount = descendentCount;
     dest.instanceId = instanceId;
-    dest.isNull = isNull;
-    dest.source = source;
+    dest.setNull(isNull());
+    dest.setSource(getSource());
     dest.format = format;
   }
   
@@ -1413,11 +1462,11 @@ public class Element extends Base implements NamedItem {
   }
 
   public boolean isIgnorePropertyOrder() {
-    return ignorePropertyOrder;
+    return flag(FLAG_IGNORE_PROPERTY_ORDER);
   }
 
   public void setIgnorePropertyOrder(boolean ignorePropertyOrder) {
-    this.ignorePropertyOrder = ignorePropertyOrder;
+    setFlag(FLAG_IGNORE_PROPERTY_ORDER, ignorePropertyOrder);
     if (children != null) {
       for (Element e : children) {
         e.setIgnorePropertyOrder(ignorePropertyOrder);
@@ -1426,15 +1475,16 @@ public class Element extends Base implements NamedItem {
   }
   
 
-  private String webPath;
   public boolean hasWebPath() {
-    return webPath != null;
+    return extras != null && extras.webPath != null;
   }
   public String getWebPath() {
-    return webPath;
+    return extras == null ? null : extras.webPath;
   }
   public void setWebPath(String webPath) {
-    this.webPath = webPath;
+    if (webPath != null || extras != null) {
+      extras().webPath = webPath;
+    }
   }
 
   public String getTranslation(String lang) {
@@ -1537,11 +1587,13 @@ public class Element extends Base implements NamedItem {
   }
 
   public Object getNativeObject() {
-    return nativeObject;
+    return extras == null ? null : extras.nativeObject;
   }
 
   public Element setNativeObject(Object nativeObject) {
-    this.nativeObject = nativeObject;
+    if (nativeObject != null || extras != null) {
+      extras().nativeObject = nativeObject;
+    }
     return this;
   }
 
@@ -1556,15 +1608,15 @@ public class Element extends Base implements NamedItem {
   }
 
   public void addSliceDefinition(StructureDefinition profile, ElementDefinition definition, ElementDefinition slice) {
-    if (sliceDefinitions == null) {
-      sliceDefinitions = new ArrayList<>();
+    if (extras().sliceDefinitions == null) {
+      extras.sliceDefinitions = new ArrayList<>();
     }
-    sliceDefinitions.add(new SliceDefinition(profile, definition, slice));
+    extras.sliceDefinitions.add(new SliceDefinition(profile, definition, slice));
   }
 
   public boolean hasSlice(StructureDefinition sd, String sliceName) {
-    if (sliceDefinitions != null) {
-      for (SliceDefinition def : sliceDefinitions) {
+    if (extras != null && extras.sliceDefinitions != null) {
+      for (SliceDefinition def : extras.sliceDefinitions) {
         if (def.profile == sd && sliceName.equals(def.definition.getSliceName())) {
           return true;
         }
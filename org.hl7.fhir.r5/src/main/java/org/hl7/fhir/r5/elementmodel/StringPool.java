@@ -0,0 +1,38 @@
+package org.hl7.fhir.r5.elementmodel;
+
+/**
+ * A fixed size, lossy string pool used to share the strings that are repeated over
+ * and over in a large element tree - element names, codes, booleans, etc.
+ *
+ * Unlike String.intern() or a map, the pool never grows: each string hashes to
+ * one slot, and a string that doesn't match what is in its slot replaces it. So
+ * the common strings end up being shared, and unique strings (ids, text) just
+ * pass through and don't get retained.
+ *
+ * The slots are written without locking; this is safe because strings are immutable,
+ * and the worst that can happen is that a string doesn't get shared
+ */
+public class StringPool {
+
+  public static final int MAX_LENGTH = 64;
+
+  private static final int SIZE = 1 << 14;
+  private static final String[] POOL = new String[SIZE];
+
+  /**
+   * @return a shared copy of the string, if it is short enough to be worth sharing
+   */
+  public static String intern(String s) {
+    if (s == null || s.length() > MAX_LENGTH) {
+      return s;
+    }
+    int h = s.hashCode();
+    int slot = (h ^ (h >>> 16)) & (SIZE - 1);
+    String e = POOL[slot];
+    if (e != null && e.equals(s)) {
+      return e;
+    }
+    POOL[slot] = s;
+    return s;
+  }
+}
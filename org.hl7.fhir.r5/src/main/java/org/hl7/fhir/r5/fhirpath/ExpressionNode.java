@@ -397,6 +397,50 @@ public class ExpressionNode {
 		this.uniqueId = Integer.toString(uniqueId);
 	}
 
+	/**
+	 * A copy of the tree, without any types from checking it, so that a parsed tree can be 
+	 * handed out more than once (see FHIRPathExpressionCache). Constants and source locations 
+	 * are not changed after parsing, so they are shared
+	 */
+	public ExpressionNode copy() {
+		return copy(false);
+	}
+
+	/**
+	 * A copy of the tree, including the types from checking it (see FHIRPathExpressionCache) 
+	 */
+	public ExpressionNode copyWithTypes() {
+		return copy(true);
+	}
+
+	private ExpressionNode copy(boolean withTypes) {
+		ExpressionNode res = new ExpressionNode(0);
+		res.uniqueId = uniqueId;
+		res.kind = kind;
+		res.name = name;
+		res.constant = constant;
+		res.function = function;
+		if (parameters != null) {
+			res.parameters = new ArrayList<ExpressionNode>();
+			for (ExpressionNode p : parameters)
+				res.parameters.add(p.copy(withTypes));
+		}
+		res.inner = inner == null ? null : inner.copy(withTypes);
+		res.group = group == null ? null : group.copy(withTypes);
+		res.operation = operation;
+		res.proximal = proximal;
+		res.opNext = opNext == null ? null : opNext.copy(withTypes);
+		res.start = start;
+		res.end = end;
+		res.opStart = opStart;
+		res.opEnd = opEnd;
+		if (withTypes) {
+			res.types = types == null ? null : types.copy();
+			res.opTypes = opTypes == null ? null : opTypes.copy();
+		}
+		return res;
+	}
+
 	public String toString() {
 		StringBuilder b = new StringBuilder();
 		switch (kind) {
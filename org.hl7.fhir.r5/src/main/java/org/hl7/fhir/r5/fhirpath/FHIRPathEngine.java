@@ -13,6 +13,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -185,6 +186,7 @@ public class FHIRPathEngine {
   private boolean allowDoubleQuotes;
   private List<IssueMessage> typeWarnings = new ArrayList<>();
   private boolean emitSQLonFHIRWarning;
+  private FHIRPathExpressionCache expressionCache;
 
   // if the fhir path expressions are allowed to use constants beyond those defined in the specification
   // the application can implement them by providing a constant resolver 
@@ -404,9 +406,65 @@ public class FHIRPathEngine {
    * @throws Exception
    */
   public ExpressionNode parse(String path) throws FHIRLexerException {
+    if (expressionCache != null) {
+      return expressionCache.parse(this, path);
+    }
     return parse(path, null);
   }
 
+  /**
+   * Parse a path and check it against a context (see check(Object, String, String, ExpressionNode)), 
+   * using the expression cache if there is one. The types are set on the tree that is returned
+   */
+  public ExpressionNode parseAndCheck(Object appContext, String resourceType, String context, String path) throws FHIRLexerException, PathEngineException, DefinitionException {
+    if (expressionCache != null) {
+      return expressionCache.check(this, appContext, resourceType, context, path);
+    }
+    ExpressionNode node = parse(path, null);
+    check(appContext, resourceType, context, node);
+    return node;
+  }
+
+  /**
+   * true if parsing the expression resolved a custom function from the host services
+   */
+  boolean usesCustomFunctions(ExpressionNode exp) {
+    return uses(exp, false);
+  }
+
+  /**
+   * true if checking the expression depends on the host services: it uses custom functions, 
+   * or constants that aren't built in (see resolveConstantType)
+   */
+  boolean usesHostServices(ExpressionNode exp) {
+    return uses(exp, true);
+  }
+
+  private boolean uses(ExpressionNode exp, boolean constants) {
+    if (exp == null) {
+      return false;
+    }
+    if (exp.getKind() == Kind.Function && exp.getFunction() == Function.Custom) {
+      return true;
+    }
+    if (constants && exp.getKind() == Kind.Constant && exp.getConstant() instanceof FHIRConstant && !isBuiltInConstant(((FHIRConstant) exp.getConstant()).getValue())) {
+      return true;
+    }
+    if (exp.getParameters() != null) {
+      for (ExpressionNode p : exp.getParameters()) {
+        if (uses(p, constants)) {
+          return true;
+        }
+      }
+    }
+    return uses(exp.getInner(), constants) || uses(exp.getGroup(), constants) || uses(exp.getOpNext(), constants);
+  }
+
+  private boolean isBuiltInConstant(String s) {
+    return s.startsWith("@") || Utilities.existsInList(s, "%sct", "%loinc", "%ucum", "%resource", "%rootResource", "%context", "%map-codes", "%us-zip") 
+        || s.startsWith("%`vs-") || s.startsWith("%`cs-") || s.startsWith("%`ext-");
+  }
+
   public ExpressionNode parse(String path, String name) throws FHIRLexerException {
     FHIRLexer lexer = new FHIRLexer(path, name, false, allowDoubleQuotes);
     if (lexer.done()) {
@@ -2888,27 +2946,143 @@ public class FHIRPathEngine {
 
   private List<Base> opUnion(List<Base> left, List<Base> right, ExpressionNode expr) {
     List<Base> result = new ArrayList<Base>();
+    EqualityIndex index = new EqualityIndex(true);
     for (Base item : left) {
-      if (!doContains(result, item)) {
+      if (!index.contains(item, this::isEqual)) {
+        index.add(item);
         result.add(item);
       }
     }
     for (Base item : right) {
-      if (!doContains(result, item)) {
+      if (!index.contains(item, this::isEqual)) {
+        index.add(item);
         result.add(item);
       }
     }
     return result;
   }
 
-  private boolean doContains(List<Base> list, Base item) {
-    for (Base test : list) {
-      Boolean eq = doEquals(test, item);
-      if (eq != null && eq == true) {
-        return true;
+  private boolean isEqual(Base test, Base item) {
+    Boolean eq = doEquals(test, item);
+    return eq != null && eq == true;
+  }
+
+  /**
+   * An index of a collection by hashDeep(), so that distinct(), union() etc only have to test
+   * equality against the items that might be equal, instead of against all of them.
+   *
+   * Items that are equal have the same hashDeep, but FHIRPath equality (doEquals) has special cases:
+   * quantities are compared using UCUM, and decimals are compared to anything by primitive value.
+   * When the index is for FHIRPath equality, these are compared with everything
+   */
+  private class EqualityIndex {
+    private boolean fhirpath;
+    private List<Base> items = new ArrayList<>();
+    private List<Integer> keys = new ArrayList<>();
+    private Map<Integer, List<Integer>> buckets = new HashMap<>();
+    private List<Integer> special = new ArrayList<>();
+
+    private EqualityIndex(boolean fhirpath) {
+      this.fhirpath = fhirpath;
+    }
+
+    private EqualityIndex(boolean fhirpath, List<Base> list) {
+      this(fhirpath);
+      for (Base item : list) {
+        add(item);
       }
     }
-    return false;
+
+    private void add(Base item) {
+      int i = items.size();
+      items.add(item);
+      if (isSpecial(item)) {
+        keys.add(null);
+        special.add(i);
+      } else {
+        Integer key = item.hashDeep();
+        keys.add(key);
+        List<Integer> bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<>();
+          buckets.put(key, bucket);
+        }
+        bucket.add(i);
+      }
+    }
+
+    private boolean isSpecial(Base item) {
+      return fhirpath && (item instanceof Quantity || item instanceof DecimalType);
+    }
+
+    /**
+     * true if test(indexed item, item) is true for any item in the index
+     */
+    private boolean contains(Base item, BiPredicate<Base, Base> test) {
+      if (isSpecial(item)) {
+        for (Base t : items) {
+          if (test.test(t, item)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      List<Integer> bucket = buckets.get(item.hashDeep());
+      if (bucket != null) {
+        for (int i : bucket) {
+          if (test.test(items.get(i), item)) {
+            return true;
+          }
+        }
+      }
+      for (int i : special) {
+        if (test.test(items.get(i), item)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * the indexes after i of the items that might be equal to the item at i, in order
+     */
+    private List<Integer> candidatesAfter(int i) {
+      List<Integer> result = new ArrayList<>();
+      if (keys.get(i) == null) {
+        for (int j = i + 1; j < items.size(); j++) {
+          result.add(j);
+        }
+      } else {
+        List<Integer> bucket = buckets.get(keys.get(i));
+        int b = 0;
+        int s = 0;
+        while (b < bucket.size() || s < special.size()) {
+          int j;
+          if (s == special.size() || (b < bucket.size() && bucket.get(b) < special.get(s))) {
+            j = bucket.get(b++);
+          } else {
+            j = special.get(s++);
+          }
+          if (j > i) {
+            result.add(j);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * the outcome of the first doEquals(later item, item at i) that isn't false, in the order of the collection
+     */
+    private Boolean equalsLater(int i) {
+      for (int j : candidatesAfter(i)) {
+        Boolean eq = doEquals(items.get(j), items.get(i));
+        if (eq == null || eq == true) {
+          return eq;
+        }
+      }
+      return false;
+    }
   }
 
 
@@ -5039,18 +5213,7 @@ public class FHIRPathEngine {
 
 
   private List<Base> funcUnion(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
-    List<Base> result = new ArrayList<Base>();
-    for (Base item : focus) {
-      if (!doContains(result, item)) {
-        result.add(item);
-      }
-    }
-    for (Base item : execute(context, baseToList(context.thisItem), exp.getParameters().get(0), true)) {
-      if (!doContains(result, item)) {
-        result.add(item);
-      }
-    }
-    return result;
+    return opUnion(focus, execute(context, baseToList(context.thisItem), exp.getParameters().get(0), true), exp);
   }
 
   private List<Base> funcCombine(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
@@ -5067,9 +5230,12 @@ public class FHIRPathEngine {
   private List<Base> funcIntersect(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
     List<Base> result = new ArrayList<Base>();
     List<Base> other = execute(context, baseToList(context.thisItem), exp.getParameters().get(0), true);
+    EqualityIndex index = new EqualityIndex(true);
+    EqualityIndex others = new EqualityIndex(true, other);
 
     for (Base item : focus) {
-      if (!doContains(result, item) && doContains(other, item)) {
+      if (!index.contains(item, this::isEqual) && others.contains(item, this::isEqual)) {
+        index.add(item);
         result.add(item);
       }
     }
@@ -5079,9 +5245,10 @@ public class FHIRPathEngine {
   private List<Base> funcExclude(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
     List<Base> result = new ArrayList<Base>();
     List<Base> other = execute(context, focus, exp.getParameters().get(0), true);
+    EqualityIndex others = new EqualityIndex(true, other);
 
     for (Base item : focus) {
-      if (!doContains(other, item)) {
+      if (!others.contains(item, this::isEqual)) {
         result.add(item);
       }
     }
@@ -5268,6 +5435,7 @@ public class FHIRPathEngine {
     List<Base> current = new ArrayList<Base>();
     current.addAll(focus);
     List<Base> added = new ArrayList<Base>();
+    EqualityIndex index = new EqualityIndex(false);
     boolean more = true;
     while (more) {
       added.clear();
@@ -5280,13 +5448,8 @@ public class FHIRPathEngine {
       more = false;
       current.clear();
       for (Base b : added) {
-        boolean isnew = true;
-        for (Base t : result) {
-          if (b.equalsDeep(t)) {
-            isnew = false;
-          }
-        }
-        if (isnew) {
+        if (!index.contains(b, (t, item) -> item.equalsDeep(t))) {
+          index.add(b);
           result.add(b);
           current.add(b);
           more = true;
@@ -5324,15 +5487,13 @@ public class FHIRPathEngine {
     }
 
     boolean distinct = true;
+    EqualityIndex index = new EqualityIndex(true, focus);
     for (int i = 0; i < focus.size(); i++) {
-      for (int j = i+1; j < focus.size(); j++) {
-        Boolean eq = doEquals(focus.get(j), focus.get(i));
-        if (eq == null) {
-          return new ArrayList<Base>();
-        } else if (eq == true) {
-          distinct = false;
-          break;
-        }
+      Boolean eq = index.equalsLater(i);
+      if (eq == null) {
+        return new ArrayList<Base>();
+      } else if (eq == true) {
+        distinct = false;
       }
     }
     return makeBoolean(distinct);
@@ -5343,15 +5504,9 @@ public class FHIRPathEngine {
     List<Base> target = execute(context, focus, exp.getParameters().get(0), true);
 
     boolean valid = true;
+    EqualityIndex index = new EqualityIndex(false, focus);
     for (Base item : target) {
-      boolean found = false;
-      for (Base t : focus) {
-        if (Base.compareDeep(item, t, false)) {
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
+      if (!index.contains(item, (t, i) -> Base.compareDeep(i, t, false))) {
         valid = false;
         break;
       }
@@ -5366,15 +5521,9 @@ public class FHIRPathEngine {
     List<Base> target = execute(context, focus, exp.getParameters().get(0), true);
 
     boolean valid = true;
+    EqualityIndex index = new EqualityIndex(false, target);
     for (Base item : focus) {
-      boolean found = false;
-      for (Base t : target) {
-        if (Base.compareDeep(item, t, false)) {
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
+      if (!index.contains(item, (t, i) -> Base.compareDeep(i, t, false))) {
         valid = false;
         break;
       }
@@ -5654,18 +5803,12 @@ public class FHIRPathEngine {
     }
 
     List<Base> result = new ArrayList<Base>();
+    EqualityIndex index = new EqualityIndex(true, focus);
     for (int i = 0; i < focus.size(); i++) {
-      boolean found = false;
-      for (int j = i+1; j < focus.size(); j++) {
-        Boolean eq = doEquals(focus.get(j), focus.get(i));
-        if (eq == null)
-          return new ArrayList<Base>();
-        else if (eq == true) {
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
+      Boolean eq = index.equalsLater(i);
+      if (eq == null)
+        return new ArrayList<Base>();
+      else if (eq == false) {
         result.add(focus.get(i));
       }
     }
@@ -6864,5 +7007,21 @@ public class FHIRPathEngine {
   public void setEmitSQLonFHIRWarning(boolean emitSQLonFHIRWarning) {
     this.emitSQLonFHIRWarning = emitSQLonFHIRWarning;
   }
+
+  public FHIRPathExpressionCache getExpressionCache() {
+    return expressionCache;
+  }
+
+  /**
+   * If an expression cache is provided, parse(String) and parseAndCheck() will get the parsed 
+   * (or checked) expressions from the cache instead of parsing the expression every time 
+   * they're called. Each call gets its own copy of the cached tree, so the host can check 
+   * or change it 
+   * 
+   * @param expressionCache - usually FHIRPathExpressionCache.getInstance()
+   */
+  public void setExpressionCache(FHIRPathExpressionCache expressionCache) {
+    this.expressionCache = expressionCache;
+  }
   
 }
@@ -0,0 +1,196 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe cache of parsed and type checked FHIRPath expressions that can 
+ * be shared between FHIRPathEngine instances (see FHIRPathEngine.setExpressionCache).
+ *
+ * Parsing the same expressions again and again is a significant cost when validating
+ * or transforming many resources, and the parsed trees do not depend on the content
+ * they are evaluated against.
+ *
+ * Expressions are keyed by their text and the context type they are checked against 
+ * (none, for parsed trees), along with the double quotes setting and, for checked trees, 
+ * the FHIR version. A parse only depends on the host services if it resolved a custom 
+ * function; only then is the class of the host services added to the key (instances of 
+ * the same class are assumed to provide the same functions). Checked trees that depend 
+ * on the host services (custom functions, or constants that aren't built in) are not 
+ * cached. The cache doesn't keep references to engines or host services
+ *
+ * Checking an expression sets the types on the nodes, so the cache doesn't hand out
+ * the trees it holds: each caller gets its own copy
+ *
+ * When the cache is full, the oldest entries are dropped first.
+ */
+public class FHIRPathExpressionCache {
+
+  public static final int DEFAULT_MAX_SIZE = 20000;
+
+  private static final FHIRPathExpressionCache INSTANCE = new FHIRPathExpressionCache(DEFAULT_MAX_SIZE);
+
+  /**
+   * The settings that change the result, and the expression
+   */
+  private static class Key {
+    private final boolean allowDoubleQuotes;
+    private final String version;
+    private final String context;
+    private final String hostServices;
+    private final String path;
+    private final int hash;
+
+    private Key(boolean allowDoubleQuotes, String version, String context, String hostServices, String path) {
+      this.allowDoubleQuotes = allowDoubleQuotes;
+      this.version = version;
+      this.context = context;
+      this.hostServices = hostServices;
+      this.path = path;
+      this.hash = Objects.hash(allowDoubleQuotes, version, context, hostServices, path);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return allowDoubleQuotes == other.allowDoubleQuotes && Objects.equals(version, other.version) && Objects.equals(context, other.context) 
+          && Objects.equals(hostServices, other.hostServices) && path.equals(other.path);
+    }
+  }
+
+  /**
+   * Stands in for a parsed tree that used custom functions; the tree itself is under the host services key 
+   */
+  private static final ExpressionNode CUSTOM = new ExpressionNode(0);
+
+  private final Map<Key, ExpressionNode> cache = new ConcurrentHashMap<>();
+  private final Queue<Key> order = new ConcurrentLinkedQueue<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private volatile int maxSize;
+
+  public FHIRPathExpressionCache(int maxSize) {
+    super();
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the process wide cache
+   */
+  public static FHIRPathExpressionCache getInstance() {
+    return INSTANCE;
+  }
+
+  public ExpressionNode parse(FHIRPathEngine engine, String path) throws FHIRLexer.FHIRLexerException {
+    Key key = new Key(engine.isAllowDoubleQuotes(), null, null, null, path);
+    ExpressionNode node = cache.get(key);
+    if (node == CUSTOM) {
+      node = cache.get(new Key(engine.isAllowDoubleQuotes(), null, null, hostServicesKey(engine), path));
+    }
+    if (node != null) {
+      hits.incrementAndGet();
+      return node.copy();
+    }
+    misses.incrementAndGet();
+    node = engine.parse(path, null);
+    if (engine.usesCustomFunctions(node)) {
+      put(new Key(engine.isAllowDoubleQuotes(), null, null, hostServicesKey(engine), path), node);
+      put(key, CUSTOM);
+    } else {
+      put(key, node);
+    }
+    return node.copy();
+  }
+
+  /**
+   * Parse the expression and check it against the context (see FHIRPathEngine.check()). The 
+   * tree that is returned has the types set on it 
+   */
+  public ExpressionNode check(FHIRPathEngine engine, Object appContext, String resourceType, String context, String path) throws FHIRLexer.FHIRLexerException {
+    Key key = new Key(engine.isAllowDoubleQuotes(), engine.getWorker().getVersion(), resourceType+"|"+context, null, path);
+    ExpressionNode node = cache.get(key);
+    if (node != null) {
+      hits.incrementAndGet();
+      return node.copyWithTypes();
+    }
+    node = parse(engine, path);
+    engine.check(appContext, resourceType, context, node);
+    if (!engine.usesHostServices(node)) {
+      put(key, node);
+    }
+    return node.copyWithTypes();
+  }
+
+  private String hostServicesKey(FHIRPathEngine engine) {
+    return engine.getHostServices() == null ? "" : engine.getHostServices().getClass().getName();
+  }
+
+  private void put(Key key, ExpressionNode node) {
+    if (cache.putIfAbsent(key, node) == null) {
+      order.add(key);
+      while (cache.size() > maxSize) {
+        Key oldest = order.poll();
+        if (oldest == null) {
+          break;
+        }
+        cache.remove(oldest);
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public void clear() {
+    cache.clear();
+    order.clear();
+  }
+
+  public void resetStatistics() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+
+  public String report() {
+    long h = hits.get();
+    long m = misses.get();
+    long total = h + m;
+    return "FHIRPath expression cache: "+cache.size()+" expressions, "+h+" hits, "+m+" misses ("+(total == 0 ? 0 : (h * 100) / total)+"% hit rate), "+evictions.get()+" evictions";
+  }
+}
@@ -0,0 +1,361 @@
+package org.hl7.fhir.r5.formats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the same JSON as JsonCreatorDirect, but as UTF-8 bytes straight to the output stream,
+ * without an OutputStreamWriter or the intermediate strings for quoting and escaping. The
+ * escaping is done as the characters are encoded, and everything is written through a
+ * scratch buffer that is reused by the next creator on the same thread once finish() is called.
+ *
+ * Like JsonCreatorDirect, this preserves decimal formatting
+ */
+public class JsonCreatorStream implements JsonCreator {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+  private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+  private OutputStream stream;
+  private boolean pretty;
+  private boolean comments;
+  private boolean named;
+  private boolean[] valued = new boolean[32];
+  private int depth;
+  private int indent;
+  private List<String> commentList = new ArrayList<>();
+  private byte[] buffer;
+  private int pos;
+
+  public JsonCreatorStream(OutputStream stream, boolean pretty, boolean comments) {
+    super();
+    this.stream = stream;
+    this.pretty = pretty;
+    this.comments = pretty && comments;
+    // if another creator on this thread is still using the buffer (e.g. nested composing), this one gets its own
+    this.buffer = BUFFERS.get();
+    if (buffer == null) {
+      buffer = new byte[BUFFER_SIZE];
+    } else {
+      BUFFERS.set(null);
+    }
+  }
+
+  @Override
+  public void comment(String content) {
+    if (comments) {
+      commentList.add(content);
+    }
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    checkState();
+    write('{');
+    stepIn();
+    push();
+  }
+
+  private void commitComments() throws IOException {
+    if (comments) {
+      for (String s : commentList) {
+        writeAscii("// ");
+        writeString(s, false);
+        writeAscii("\r\n");
+        writeIndent();
+      }
+      commentList.clear();
+    }
+  }
+
+  public void stepIn() throws IOException {
+    if (pretty) {
+      indent++;
+      writeAscii("\r\n");
+      writeIndent();
+    }
+  }
+
+  public void stepOut() throws IOException {
+    if (pretty) {
+      indent--;
+      writeAscii("\r\n");
+      writeIndent();
+    }
+  }
+
+  private void checkState() throws IOException {
+    commitComments();
+    if (named) {
+      writeAscii(pretty ? " : " : ":");
+      named = false;
+    }
+    if (depth > 0 && valued[depth - 1]) {
+      write(',');
+      if (pretty) {
+        writeAscii("\r\n");
+        writeIndent();
+      }
+      valued[depth - 1] = false;
+    }
+  }
+
+  private void push() {
+    if (depth > 0) {
+      valued[depth - 1] = true;
+    }
+    if (depth == valued.length) {
+      valued = Arrays.copyOf(valued, depth * 2);
+    }
+    valued[depth++] = false;
+  }
+
+  private void setValued() {
+    if (depth > 0) {
+      valued[depth - 1] = true;
+    }
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    stepOut();
+    write('}');
+    depth--;
+  }
+
+  @Override
+  public void nullValue() throws IOException {
+    checkState();
+    writeAscii("null");
+    setValued();
+  }
+
+  @Override
+  public void name(String name) throws IOException {
+    checkState();
+    write('"');
+    writeString(name, false);
+    write('"');
+    named = true;
+  }
+
+  @Override
+  public void value(String value) throws IOException {
+    checkState();
+    write('"');
+    writeString(value, true);
+    write('"');
+    setValued();
+  }
+
+  @Override
+  public void value(Boolean value) throws IOException {
+    checkState();
+    if (value == null)
+      writeAscii("null");
+    else if (value.booleanValue())
+      writeAscii("true");
+    else
+      writeAscii("false");
+    setValued();
+  }
+
+  @Override
+  public void value(BigDecimal value) throws IOException {
+    checkState();
+    if (value == null)
+      writeAscii("null");
+    else
+      writeAscii(value.toString());
+    setValued();
+  }
+
+  @Override
+  public void valueNum(String value) throws IOException {
+    checkState();
+    if (value == null)
+      writeAscii("null");
+    else
+      writeString(value, false);
+    setValued();
+  }
+
+  @Override
+  public void value(Integer value) throws IOException {
+    checkState();
+    if (value == null)
+      writeAscii("null");
+    else
+      writeInt(value.intValue());
+    setValued();
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    checkState();
+    write('[');
+    push();
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    write(']');
+    depth--;
+  }
+
+  /**
+   * writes anything that is still buffered to the stream, and returns the buffer for reuse. The creator can't be used after this
+   */
+  @Override
+  public void finish() throws IOException {
+    flushBuffer();
+    stream.flush();
+    BUFFERS.set(buffer);
+    buffer = null;
+  }
+
+  @Override
+  public void link(String href) {
+    // not used
+  }
+
+  @Override
+  public void anchor(String name) {
+    // not used
+  }
+
+  @Override
+  public void externalLink(String string) {
+    // not used
+  }
+
+  // -- byte level output ------------------------------------------------------
+
+  private void flushBuffer() throws IOException {
+    if (pos > 0) {
+      stream.write(buffer, 0, pos);
+      pos = 0;
+    }
+  }
+
+  private void ensure(int count) throws IOException {
+    if (pos + count > buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  private void write(char c) throws IOException {
+    if (pos == buffer.length) {
+      flushBuffer();
+    }
+    buffer[pos++] = (byte) c;
+  }
+
+  private void writeAscii(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      write(s.charAt(i));
+    }
+  }
+
+  private void writeIndent() throws IOException {
+    for (int i = 0; i < indent; i++) {
+      write(' ');
+      write(' ');
+    }
+  }
+
+  private void writeInt(int value) throws IOException {
+    if (value == Integer.MIN_VALUE) {
+      writeAscii(Integer.toString(value));
+      return;
+    }
+    ensure(11);
+    if (value < 0) {
+      buffer[pos++] = '-';
+      value = -value;
+    }
+    int start = pos;
+    do {
+      buffer[pos++] = (byte) ('0' + value % 10);
+      value = value / 10;
+    } while (value > 0);
+    for (int i = start, j = pos - 1; i < j; i++, j--) {
+      byte b = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = b;
+    }
+  }
+
+  /**
+   * Encodes the string as UTF-8. If escape is true, the string is escaped the same as Utilities.escapeJson
+   */
+  private void writeString(String s, boolean escape) throws IOException {
+    if (s == null) {
+      return;
+    }
+    int len = s.length();
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (!escape || (c >= 32 && c != '"' && c != '\\')) {
+          write(c);
+        } else if (c == '\r') {
+          writeAscii("\\r");
+        } else if (c == '\n') {
+          writeAscii("\\n");
+        } else if (c == '\t') {
+          writeAscii("\\t");
+        } else if (c == '"') {
+          writeAscii("\\\"");
+        } else if (c == '\\') {
+          writeAscii("\\\\");
+        } else {
+          writeUnicodeEscape(c);
+        }
+      } else if (escape && isEscapedWhitespace(c)) {
+        writeUnicodeEscape(c);
+      } else if (c < 0x800) {
+        ensure(2);
+        buffer[pos++] = (byte) (0xC0 | (c >> 6));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        ensure(4);
+        buffer[pos++] = (byte) (0xF0 | (cp >> 18));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | (cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate - same replacement as the UTF-8 OutputStreamWriter
+        write('?');
+      } else {
+        ensure(3);
+        buffer[pos++] = (byte) (0xE0 | (c >> 12));
+        buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  private void writeUnicodeEscape(char c) throws IOException {
+    ensure(6);
+    buffer[pos++] = '\\';
+    buffer[pos++] = 'u';
+    buffer[pos++] = HEX[(c >> 12) & 0xF];
+    buffer[pos++] = HEX[(c >> 8) & 0xF];
+    buffer[pos++] = HEX[(c >> 4) & 0xF];
+    buffer[pos++] = HEX[c & 0xF];
+  }
+
+  /**
+   * the non-ascii characters that Utilities.isWhitespace() is true for
+   */
+  private boolean isEscapedWhitespace(char c) {
+    return c == '\u0085' || c == '\u00A0' || c == '\u1680' || (c >= '\u2000' && c <= '\u200A') || c == '\u2028' || c == '\u2029' || c == '\u202F' || c == '\u205F' || c == '\u3000';
+  }
+}
@@ -193,19 +193,20 @@ public abstract class JsonParserBase extends ParserBase implements IParser {
    */
   @Override
   public void compose(OutputStream stream, Resource resource) throws IOException {
-    OutputStreamWriter osw = new OutputStreamWriter(stream, "UTF-8");
+    OutputStreamWriter osw = null;
     if (style == OutputStyle.CANONICAL) {
+      osw = new OutputStreamWriter(stream, "UTF-8");
       json = new JsonCreatorCanonical(osw);
-    } else if (style == OutputStyle.PRETTY) {
-      json = new JsonCreatorDirect(osw, true, false);
     } else {
-      json = new JsonCreatorDirect(osw, false, false); // use this instead of Gson because this preserves decimal formatting
+      json = new JsonCreatorStream(stream, style == OutputStyle.PRETTY, false); // use this instead of Gson because this preserves decimal formatting
     }
     json.beginObject();
     composeResource(resource);
     json.endObject();
     json.finish();
-    osw.flush();
+    if (osw != null) {
+      osw.flush();
+    }
   }
 
   /**
@@ -219,19 +220,20 @@ public abstract class JsonParserBase extends ParserBase implements IParser {
   
   @Override
   public void compose(OutputStream stream, DataType type, String rootName) throws IOException {
-    OutputStreamWriter osw = new OutputStreamWriter(stream, "UTF-8");
+    OutputStreamWriter osw = null;
     if (style == OutputStyle.CANONICAL) {
+      osw = new OutputStreamWriter(stream, "UTF-8");
       json = new JsonCreatorCanonical(osw);
-    } else if (style == OutputStyle.PRETTY) {
-      json = new JsonCreatorDirect(osw, true, false);
     } else {
-      json = new JsonCreatorDirect(osw, false, false); // use this instead of Gson because this preserves decimal formatting
+      json = new JsonCreatorStream(stream, style == OutputStyle.PRETTY, false); // use this instead of Gson because this preserves decimal formatting
     }
     json.beginObject();
     composeTypeInner(type);
     json.endObject();
     json.finish();
-    osw.flush();
+    if (osw != null) {
+      osw.flush();
+    }
   }
   
   /* -- json routines --------------------------------------------------- */
@@ -382,8 +382,37 @@ public abstract class Base implements Serializable, IBase, IElement {
   
 	public boolean equalsShallow(Base other) {
 	  return other != null;
-  }  
-  
+  }
+
+  /**
+   * A hash of the content that is consistent with equalsDeep and compareDeep: content that is
+   * equal always has the same hashDeep (the other way around is not true). This works the same
+   * for the model classes and the element model, so that collections of either can be indexed
+   * by hashDeep instead of comparing every item with every other item.
+   *
+   * Empty items and property names don't contribute, and the order of repeating elements doesn't
+   * matter. Dates, times, numbers and xhtml can have different representations of the same value,
+   * so all of them hash the same
+   */
+  public int hashDeep() {
+    if (isPrimitive()) {
+      String v = primitiveValue();
+      if (Utilities.noString(v) || isDateTime() || "+-.0123456789".indexOf(v.charAt(0)) > -1 || "xhtml".equals(fhirType())) {
+        return 1;
+      }
+      return v.trim().hashCode();
+    }
+    int result = 0;
+    for (Property p : children()) {
+      for (Base v : p.getValues()) {
+        if (v != null && !v.isEmpty()) {
+          result += Integer.rotateLeft(v.hashDeep() * 0x9E3779B1, 15);
+        }
+      }
+    }
+    return result;
+  }
+
   public static boolean compareDeep(String s1, String s2, boolean allowNull) {
     if (allowNull) {
       boolean noLeft = s1 == null || Utilities.noString(s1);
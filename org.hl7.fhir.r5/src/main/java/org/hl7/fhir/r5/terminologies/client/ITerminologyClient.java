@@ -39,6 +39,7 @@ import org.hl7.fhir.utilities.ToolingClientLogger;
 
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface ITerminologyClient {
 
@@ -54,6 +55,8 @@ public interface ITerminologyClient {
   ValueSet expandValueset(ValueSet vs, Parameters p) throws FHIRException;
   Parameters validateCS(Parameters pin) throws FHIRException;
   Parameters validateVS(Parameters pin) throws FHIRException;
+  CompletableFuture<Parameters> validateCSAsync(Parameters pin);
+  CompletableFuture<Parameters> validateVSAsync(Parameters pin);
   Parameters subsumes(Parameters pin) throws FHIRException;
   ITerminologyClient setTimeoutFactor(int i) throws FHIRException;
   ToolingClientLogger getLogger();
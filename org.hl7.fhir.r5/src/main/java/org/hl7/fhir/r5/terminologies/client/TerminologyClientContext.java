@@ -2,12 +2,21 @@ package org.hl7.fhir.r5.terminologies.client;
 
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CapabilityStatement;
+import org.hl7.fhir.r5.model.Parameters;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.TerminologyCapabilities.TerminologyCapabilitiesCodeSystemComponent;
 import org.hl7.fhir.r5.model.TerminologyCapabilities.TerminologyCapabilitiesExpansionParameterComponent;
@@ -52,15 +61,48 @@ public class TerminologyClientContext {
   
   private Map<String, TerminologyClientContextUseCount> useCounts = new HashMap<>();
   private boolean isTxCaching;
-  private final Set<String> cached = new HashSet<>();
+  private final Set<String> cached = ConcurrentHashMap.newKeySet();
   private boolean master;
   private String cacheId;
 
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  private static ExecutorService blockingCalls;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+  private final Map<String, CompletableFuture<Parameters>> pending = new ConcurrentHashMap<>();
+
   protected TerminologyClientContext(ITerminologyClient client, String cacheId, boolean master) {
+    this(client, cacheId, master, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * @param maxInFlight how many asynchronous calls can be waiting on this server at once
+   */
+  protected TerminologyClientContext(ITerminologyClient client, String cacheId, boolean master, int maxInFlight) {
     super();
     this.client = client;
     this.cacheId = cacheId;
     this.master = master;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  /**
+   * Clients that have no non-blocking transport (R2, R3, R4) run the blocking call for validateCSAsync 
+   * and validateVSAsync on these threads rather than on the common fork-join pool. The threads are daemons, 
+   * and there's no limit here, since the calls to each server are already limited by maxInFlight
+   */
+  public static synchronized Executor getBlockingCallExecutor() {
+    if (blockingCalls == null) {
+      AtomicInteger count = new AtomicInteger();
+      blockingCalls = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "tx-client-"+count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return blockingCalls;
   }
 
   public Map<String, TerminologyClientContextUseCount> getUseCounts() {
@@ -192,6 +234,86 @@ public class TerminologyClientContext {
     return false;
   }
 
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * $validate-code on the server, without blocking. 
+   * 
+   * If the same request (by cache key) is already in flight, the caller gets the answer to that 
+   * request instead of asking again. No more than maxInFlight calls go to the server at once; the 
+   * rest queue here until one of them finishes
+   * 
+   * @param key the cache key for the request (or null if there isn't one - then it's never shared)
+   * @param valueSet true for ValueSet/$validate-code, false for CodeSystem/$validate-code
+   */
+  public CompletableFuture<Parameters> validateAsync(String key, boolean valueSet, Parameters pin) {
+    if (key == null) {
+      return schedule(valueSet, pin);
+    }
+    CompletableFuture<Parameters> future = new CompletableFuture<>();
+    CompletableFuture<Parameters> existing = pending.putIfAbsent(key, future);
+    if (existing != null) {
+      return existing;
+    }
+    schedule(valueSet, pin).whenComplete((p, e) -> {
+      if (e != null) {
+        future.completeExceptionally(e);
+      } else {
+        future.complete(p);
+      }
+      pending.remove(key, future);
+    });
+    return future;
+  }
+
+  private CompletableFuture<Parameters> schedule(boolean valueSet, Parameters pin) {
+    CompletableFuture<Parameters> future = new CompletableFuture<>();
+    Runnable call = () -> {
+      CompletableFuture<Parameters> c;
+      try {
+        c = valueSet ? client.validateVSAsync(pin) : client.validateCSAsync(pin);
+      } catch (Exception e) {
+        c = CompletableFuture.failedFuture(e);
+      }
+      c.whenComplete((p, e) -> {
+        if (e != null) {
+          future.completeExceptionally(e);
+        } else {
+          future.complete(p);
+        }
+        release();
+      });
+    };
+    if (inFlight.tryAcquire()) {
+      call.run();
+    } else {
+      waiting.add(call);
+      // in case everything in flight finished before the call was queued
+      if (inFlight.tryAcquire()) {
+        release();
+      }
+    }
+    return future;
+  }
+
+  /**
+   * a call has finished - its place goes to the next queued call, if there is one 
+   */
+  private void release() {
+    Runnable next = waiting.poll();
+    if (next != null) {
+      next.run();
+    } else {
+      inFlight.release();
+      // in case a call was queued while the place was being given back
+      if (!waiting.isEmpty() && inFlight.tryAcquire()) {
+        release();
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return client.getAddress();
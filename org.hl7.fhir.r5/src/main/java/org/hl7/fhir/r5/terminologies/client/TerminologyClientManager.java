@@ -99,6 +99,7 @@ public class TerminologyClientManager {
   private String usage;
 
   private String monitorServiceURL;
+  private int maxInFlight = TerminologyClientContext.DEFAULT_MAX_IN_FLIGHT;
 
   public TerminologyClientManager(ITerminologyClientFactory factory, String cacheId) {
     super();
@@ -116,6 +117,7 @@ public class TerminologyClientManager {
     serverMap.putAll(other.serverMap);
     resMap.putAll(other.resMap);
     monitorServiceURL = other.monitorServiceURL;
+    maxInFlight = other.maxInFlight;
     factory = other.factory;
     usage = other.usage;
   }
@@ -210,7 +212,7 @@ public class TerminologyClientManager {
     TerminologyClientContext client = serverMap.get(server);
     if (client == null) {
       try {
-        client = new TerminologyClientContext(factory.makeClient("id"+(serverList.size()+1), server, getMasterClient().getUserAgent(), getMasterClient().getLogger()), cacheId, false);
+        client = new TerminologyClientContext(factory.makeClient("id"+(serverList.size()+1), server, getMasterClient().getUserAgent(), getMasterClient().getLogger()), cacheId, false, maxInFlight);
       } catch (URISyntaxException e) {
         throw new TerminologyServiceException(e);
       }
@@ -316,7 +318,7 @@ public class TerminologyClientManager {
   }
 
   public TerminologyClientContext setMasterClient(ITerminologyClient client) {
-    TerminologyClientContext details = new TerminologyClientContext(client, cacheId, true);
+    TerminologyClientContext details = new TerminologyClientContext(client, cacheId, true, maxInFlight);
     details.setTxCache(cache);
     serverList.clear();
     serverList.add(details);
@@ -414,6 +416,18 @@ public class TerminologyClientManager {
     return usage;
   }
 
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * How many asynchronous calls can be waiting on each server at once. This is fixed when the 
+   * client for a server is created, so set it before the servers are set up
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
   public void setUsage(String usage) {
     this.usage = usage;
   }
@@ -451,7 +465,7 @@ public class TerminologyClientManager {
       TerminologyClientContext client = serverMap.get(server);
       if (client == null) {
         try {
-          client = new TerminologyClientContext(factory.makeClient("id"+(serverList.size()+1), server, getMasterClient().getUserAgent(), getMasterClient().getLogger()), cacheId, false);
+          client = new TerminologyClientContext(factory.makeClient("id"+(serverList.size()+1), server, getMasterClient().getUserAgent(), getMasterClient().getLogger()), cacheId, false, maxInFlight);
         } catch (URISyntaxException e) {
           throw new TerminologyServiceException(e);
         }
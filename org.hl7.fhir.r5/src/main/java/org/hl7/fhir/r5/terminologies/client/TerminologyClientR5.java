@@ -4,6 +4,7 @@ import java.net.URISyntaxException;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /*
   Copyright (c) 2011+, HL7, Inc.
@@ -147,6 +148,16 @@ public class TerminologyClientR5 implements ITerminologyClient {
     return client.operateType(ValueSet.class, "validate-code", pin);
   }
 
+  @Override
+  public CompletableFuture<Parameters> validateCSAsync(Parameters pin) {
+    return client.operateTypeAsync(CodeSystem.class, "validate-code", pin);
+  }
+
+  @Override
+  public CompletableFuture<Parameters> validateVSAsync(Parameters pin) {
+    return client.operateTypeAsync(ValueSet.class, "validate-code", pin);
+  }
+
   @Override
   public ITerminologyClient setTimeoutFactor(int i) {
     client.setTimeoutFactor(i);
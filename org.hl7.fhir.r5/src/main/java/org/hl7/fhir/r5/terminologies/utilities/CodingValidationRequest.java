@@ -1,8 +1,10 @@
 package org.hl7.fhir.r5.terminologies.utilities;
 
+import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
 
 public class CodingValidationRequest {
   private Coding coding;
@@ -10,6 +12,8 @@ public class CodingValidationRequest {
   private CacheToken cacheToken;
   private String vs;
   private ValueSet vsObj;
+  private CodeableConcept codeableConcept;
+  private ValidationOptions options;
 
   public CodingValidationRequest(Coding coding) {
     super();
@@ -28,6 +32,19 @@ public class CodingValidationRequest {
     this.vsObj = vsObj;
   }
 
+  /**
+   * A codeable concept to validate against a value set. This kind of request can only be used with 
+   * IWorkerContext.validateCodeBatch(options, codes), which validates each request against its own value set
+   * 
+   * @param codeableConcept
+   * @param vsObj
+   */
+  public CodingValidationRequest(CodeableConcept codeableConcept, ValueSet vsObj) {
+    super();
+    this.codeableConcept = codeableConcept;
+    this.vsObj = vsObj;
+  }
+
   public String getVs() {
     return vs;
   }
@@ -48,6 +65,25 @@ public class CodingValidationRequest {
     return coding;
   }
 
+  public CodeableConcept getCodeableConcept() {
+    return codeableConcept;
+  }
+
+  public boolean isCodeableConcept() {
+    return codeableConcept != null;
+  }
+
+  /**
+   * @return the options for this request, if they are different to the options for the batch
+   */
+  public ValidationOptions getOptions() {
+    return options;
+  }
+
+  public void setOptions(ValidationOptions options) {
+    this.options = options;
+  }
+
   public boolean hasResult() {
     return result != null;
   }
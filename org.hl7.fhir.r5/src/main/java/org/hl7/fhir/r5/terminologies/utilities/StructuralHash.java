@@ -0,0 +1,132 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Property;
+import org.hl7.fhir.r5.model.Resource;
+
+/**
+ * A 128 bit structural hash of FHIR content, used by the terminology cache to key
+ * requests without having to serialise the ValueSet, Parameters etc to JSON first.
+ *
+ * The hash is canonical: it is computed from the element names and primitive values,
+ * not from any serialised form. Repeating elements are combined in order: the
+ * cached results refer to codings etc by index (e.g. issue paths like coding[1]), 
+ * and expansions follow the include order, so the same content in a different 
+ * order must not share a cache entry.
+ *
+ * The hash of a resource can be memoised in its user data (see hashMemoised). As
+ * with the other user data caches, this assumes that the resource is not changed
+ * once it is being used for terminology operations. Access to the memo is 
+ * synchronised on the resource, since the same resources are used from several threads. 
+ */
+public class StructuralHash {
+
+  public static final String USER_DATA_HASH = "tx.structural-hash";
+
+  private static final long SEED1 = 0x6a09e667f3bcc908L;
+  private static final long SEED2 = 0xbb67ae8584caa73bL;
+
+  private long h1;
+  private long h2;
+
+  public StructuralHash() {
+    super();
+    h1 = SEED1;
+    h2 = SEED2;
+  }
+
+  public StructuralHash add(String s) {
+    if (s == null) {
+      combine(0, 0);
+    } else {
+      long a = 0xcbf29ce484222325L;
+      long b = 0x9e3779b97f4a7c15L ^ s.length();
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        a = (a ^ c) * 0x100000001b3L;
+        b = (b + c) * 0xff51afd7ed558ccdL;
+      }
+      combine(a, b);
+    }
+    return this;
+  }
+
+  public StructuralHash add(boolean value) {
+    combine(value ? 1 : 2, value ? 2 : 1);
+    return this;
+  }
+
+  public StructuralHash add(Base value) {
+    return add(value == null ? null : hash(value));
+  }
+
+  /**
+   * add a hash that has already been computed
+   */
+  public StructuralHash add(long[] h) {
+    if (h == null) {
+      combine(0, 0);
+    } else {
+      combine(h[0], h[1]);
+    }
+    return this;
+  }
+
+  /**
+   * add a resource, using the hash in the resource's user data if it has been computed already
+   */
+  public StructuralHash addMemoised(Resource value) {
+    return add(value == null ? null : hashMemoised(value));
+  }
+
+  /**
+   * @return the hash as 32 hex characters
+   */
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", h1, h2);
+  }
+
+  public static long[] hashMemoised(Resource value) {
+    synchronized (value) {
+      long[] h = (long[]) value.getUserData(USER_DATA_HASH);
+      if (h == null) {
+        h = hash(value);
+        value.setUserData(USER_DATA_HASH, h);
+      }
+      return h;
+    }
+  }
+
+  public static long[] hash(Base value) {
+    StructuralHash sh = new StructuralHash();
+    sh.add(value.fhirType());
+    if (value.isPrimitive()) {
+      sh.add(value.primitiveValue());
+    }
+    for (Property p : value.children()) {
+      if (p.hasValues()) {
+        sh.add(p.getName());
+        sh.combine(p.getValues().size(), p.getValues().size());
+        for (Base v : p.getValues()) {
+          sh.add(hash(v));
+        }
+      }
+    }
+    return new long[] { sh.h1, sh.h2 };
+  }
+
+  private void combine(long a, long b) {
+    h1 = mix(h1 ^ a);
+    h2 = mix(h2 + b) ^ h1;
+  }
+
+  /**
+   * the splitmix64 finaliser
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -38,6 +38,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -125,17 +133,27 @@ public class TerminologyCache {
   private static final String CACHE_FILE_EXTENSION = ".cache";
   private static final String CAPABILITY_STATEMENT_TITLE = ".capabilityStatement";
   private static final String TERMINOLOGY_CAPABILITIES_TITLE = ".terminologyCapabilities";
+  private static final String USER_DATA_ESSENCE_HASH = "tx.structural-hash.essence";
   private static final String FIXED_CACHE_VERSION = "4"; // last change: change the way tx.fhir.org handles expansions
 
 
   private SystemNameKeyGenerator systemNameKeyGenerator = new SystemNameKeyGenerator();
 
+  /**
+   * builds the text form of a request - this is only needed when the entry is 
+   * persisted, or looked up in the persisted entries
+   */
+  private interface RequestBuilder {
+    String build() throws IOException;
+  }
+
   public class CacheToken {
     @Getter
     private String name;
-    private String key;
     @Getter
+    private String key; // the structural hash of the request
     private String request;
+    private RequestBuilder requestBuilder;
     @Accessors(fluent = true)
     @Getter
     private boolean hasVersion;
@@ -147,6 +165,21 @@ public class TerminologyCache {
       else if (!systemName.equals(name))
         name = NAME_FOR_NO_SYSTEM;
     }
+
+    /**
+     * @return the full text of the request, as persisted in the cache files
+     */
+    public synchronized String getRequest() {
+      if (request == null && requestBuilder != null) {
+        try {
+          request = requestBuilder.build();
+        } catch (IOException e) {
+          throw new Error(e);
+        }
+        requestBuilder = null;
+      }
+      return request;
+    }
   }
 
   public static class SubsumesResult {
@@ -237,39 +270,67 @@ public class TerminologyCache {
     private SubsumesResult s;
   }
 
+  /**
+   * Each named cache is a stripe: reads go straight to the concurrent map, and 
+   * writers only lock the named cache they are changing
+   */
   private class NamedCache {
     private String name; 
-    private List<CacheEntry> list = new ArrayList<CacheEntry>(); // persistent entries
-    private Map<String, CacheEntry> map = new HashMap<String, CacheEntry>();
+    private List<CacheEntry> list = new ArrayList<CacheEntry>(); // persistent entries - guarded by writeLock
+    private Map<String, CacheEntry> map = new ConcurrentHashMap<String, CacheEntry>(); // by CacheToken.key
+    private Map<String, CacheEntry> byRequest = new ConcurrentHashMap<String, CacheEntry>(); // persistent entries by their (trimmed) request text
+    private ReentrantLock writeLock = new ReentrantLock();
   }
 
+  private static final long SAVE_DELAY_MS = 500;
+  private static final Set<TerminologyCache> PENDING_SAVES = ConcurrentHashMap.newKeySet();
+  private static ScheduledExecutorService saver;
 
-  private Object lock;
   private String folder;
-  @Getter private int requestCount;
-  @Getter private int hitCount;
-  @Getter private int networkCount;
-  private Map<String, CapabilityStatement> capabilityStatementCache = new HashMap<>();
-  private Map<String, TerminologyCapabilities> terminologyCapabilitiesCache = new HashMap<>();
-  private Map<String, NamedCache> caches = new HashMap<String, NamedCache>();
-  private Map<String, SourcedValueSetEntry> vsCache = new HashMap<>();
-  private Map<String, String> serverMap = new HashMap<>();
+  private AtomicInteger requestCount = new AtomicInteger();
+  private AtomicInteger hitCount = new AtomicInteger();
+  private AtomicInteger networkCount = new AtomicInteger();
+  private AtomicLong contentionCount = new AtomicLong();
+  private AtomicLong contentionTime = new AtomicLong();
+  private Map<String, CapabilityStatement> capabilityStatementCache = new ConcurrentHashMap<>();
+  private Map<String, TerminologyCapabilities> terminologyCapabilitiesCache = new ConcurrentHashMap<>();
+  private Map<String, NamedCache> caches = new ConcurrentHashMap<String, NamedCache>();
+  private Map<String, SourcedValueSetEntry> vsCache = Collections.synchronizedMap(new HashMap<>()); // values can be null
+  private Map<String, String> serverMap = new HashMap<>(); // guarded by itself
+  private Set<NamedCache> dirty = ConcurrentHashMap.newKeySet();
+  private TerminologyCacheLog log; // if the folder has been converted to the binary format
+  private AtomicBoolean saveScheduled = new AtomicBoolean();
   @Getter @Setter private static boolean noCaching;
 
   @Getter @Setter private static boolean cacheErrors;
 
-
-  // use lock from the context
+  /**
+   * if this is true, changes to the persistent caches are written to disk by a background 
+   * thread that batches up the changes, rather than re-writing the cache file on the 
+   * validation thread every time an entry is added. This is faster, but changes made in the 
+   * last moments before the process crashes are lost, and it's not safe when more than one 
+   * process uses the same cache folder. 
+   * 
+   * Use save() to force pending changes to disk
+   */
+  @Getter @Setter private static boolean backgroundSaving = false;
+
+
+  /**
+   * @deprecated the lock is not used - the cache manages its own concurrency. Use TerminologyCache(folder)
+   */
+  @Deprecated
   public TerminologyCache(Object lock, String folder) throws FileNotFoundException, IOException, FHIRException {
+    this(folder);
+  }
+
+  public TerminologyCache(String folder) throws FileNotFoundException, IOException, FHIRException {
     super();
-    this.lock = lock;
     if (folder == null) {
       folder = Utilities.path("[tmp]", "default-tx-cache");
     }
     this.folder = folder;
-    requestCount = 0;
-    hitCount = 0;
-    networkCount = 0;
+    savePending(folder);
 
     
     File f = ManagedFileAccess.file(folder);
@@ -280,6 +341,9 @@ public class TerminologyCache {
       throw new IOException("Unable to create terminology cache at "+folder);
     }
     checkVersion();      
+    if (TerminologyCacheLog.exists(folder)) {
+      log = new TerminologyCacheLog(folder);
+    }
     load();
   }
 
@@ -298,34 +362,50 @@ public class TerminologyCache {
   }
 
   public String getServerId(String address) throws IOException  {
-    if (serverMap.containsKey(address)) {
-      return serverMap.get(address);
-    }
-    String id = address.replace("http://", "").replace("https://", "").replace("/", ".");
-    int i = 1;
-    while (serverMap.containsValue(id)) {
-      i++;
-      id =  address.replace("https:", "").replace("https:", "").replace("/", ".")+i;
-    }
-    serverMap.put(address, id);
-    if (folder != null) {
-      IniFile ini = new IniFile(Utilities.path(folder, "servers.ini"));
-      ini.setStringProperty("servers", id, address, null);
-      ini.save();
+    synchronized (serverMap) {
+      if (serverMap.containsKey(address)) {
+        return serverMap.get(address);
+      }
+      String id = address.replace("http://", "").replace("https://", "").replace("/", ".");
+      int i = 1;
+      while (serverMap.containsValue(id)) {
+        i++;
+        id =  address.replace("https:", "").replace("https:", "").replace("/", ".")+i;
+      }
+      serverMap.put(address, id);
+      if (folder != null) {
+        IniFile ini = new IniFile(Utilities.path(folder, "servers.ini"));
+        ini.setStringProperty("servers", id, address, null);
+        ini.save();
+      }
+      return id;
     }
-    return id;
   }
   
   public void unload() {
     // not useable after this is called
+    save();
     caches.clear();
     vsCache.clear();
+    if (log != null) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        System.out.println("error closing terminology cache log: "+e.getMessage());
+      }
+      log = null;
+    }
   }
   
   private void clear() throws IOException {
+    if (log != null) {
+      log.close();
+      log = null;
+    }
     Utilities.clearDirectory(folder);
     caches.clear();
     vsCache.clear();
+    dirty.clear();
   }
   
   public boolean hasCapabilityStatement(String address) {
@@ -363,54 +443,78 @@ public class TerminologyCache {
 
 
   public CacheToken generateValidationToken(ValidationOptions options, Coding code, ValueSet vs, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (code.hasSystem()) {
-        ct.setName(code.getSystem());
-        ct.hasVersion = code.hasVersion();
-      }
-      else
-        ct.name = NAME_FOR_NO_SYSTEM;
-      nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-
-      if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())
-        +"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";
-      } else if (options.getVsAsUrl()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+extracted(json, vs)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      } else {
+    CacheToken ct = new CacheToken();
+    if (code.hasSystem()) {
+      ct.setName(code.getSystem());
+      ct.hasVersion = code.hasVersion();
+    }
+    else
+      ct.name = NAME_FOR_NO_SYSTEM;
+    nameCacheToken(vs, ct);
+
+    StructuralHash sh = new StructuralHash().add("validate-coding").add(code);
+    if (vs != null && vs.hasUrl() && vs.hasVersion()) {
+      sh.add("url").add(vs.getUrl()).add(vs.getVersion());
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
+        return "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())
+        +"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}\r\n";
+      };
+    } else if (options.getVsAsUrl()) {
+      sh.add("vs").addMemoised(vs);
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
+        return "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+extracted(json, vs)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+      };
+    } else {
+      sh.add("essence").add(vs == null ? null : essenceHash(vs));
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
         ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsc == null ? "null" : extracted(json, vsc))+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      }
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+        return "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsc == null ? "null" : extracted(json, vsc))+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+      };
     }
+    ct.key = sh.add(options == null ? null : options.toJson()).add(expParameters).toString();
+    return ct;
   }
 
   public CacheToken generateValidationToken(ValidationOptions options, Coding code, String vsUrl, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (code.hasSystem()) {
-        ct.setName(code.getSystem());
-        ct.hasVersion = code.hasVersion();
-      } else {
-        ct.name = NAME_FOR_NO_SYSTEM;
-      }
-      ct.setName(vsUrl);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
+    CacheToken ct = new CacheToken();
+    if (code.hasSystem()) {
+      ct.setName(code.getSystem());
+      ct.hasVersion = code.hasVersion();
+    } else {
+      ct.name = NAME_FOR_NO_SYSTEM;
+    }
+    ct.setName(vsUrl);
+
+    ct.key = new StructuralHash().add("validate-coding-url").add(code).add(vsUrl).add(options == null ? null : options.toJson()).add(expParameters).toString();
+    ct.requestBuilder = () -> {
+      JsonParser json = newJsonParser();
+      return "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+    };
+    return ct;
+  }
 
-      ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+  private JsonParser newJsonParser() {
+    JsonParser json = new JsonParser();
+    json.setOutputStyle(OutputStyle.PRETTY);
+    return json;
+  }
+
+  /**
+   * the hash of the parts of the value set that are used in a request (see getVSEssense). 
+   * This is memoised in the value set, since the same value sets are used over and over 
+   * (synchronised on the value set, as in StructuralHash.hashMemoised)
+   */
+  private long[] essenceHash(ValueSet vs) {
+    synchronized (vs) {
+      long[] h = (long[]) vs.getUserData(USER_DATA_ESSENCE_HASH);
+      if (h == null) {
+        h = StructuralHash.hash(getVSEssense(vs));
+        vs.setUserData(USER_DATA_ESSENCE_HASH, h);
+      }
+      return h;
     }
   }
 
@@ -425,32 +529,39 @@ public class TerminologyCache {
   }
 
   public CacheToken generateValidationToken(ValidationOptions options, CodeableConcept code, ValueSet vs, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      for (Coding c : code.getCoding()) {
-        if (c.hasSystem()) {
-          ct.setName(c.getSystem());
-          ct.hasVersion = c.hasVersion();
-        }
+    CacheToken ct = new CacheToken();
+    for (Coding c : code.getCoding()) {
+      if (c.hasSystem()) {
+        ct.setName(c.getSystem());
+        ct.hasVersion = c.hasVersion();
       }
-      nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-      if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+
-            "\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";      
-      } else if (vs == null) { 
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";        
-      } else {
+    }
+    nameCacheToken(vs, ct);
+
+    StructuralHash sh = new StructuralHash().add("validate-codeableConcept").add(code);
+    if (vs != null && vs.hasUrl() && vs.hasVersion()) {
+      sh.add("url").add(vs.getUrl()).add(vs.getVersion());
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
+        return "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+
+            "\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}\r\n";      
+      };
+    } else if (vs == null) { 
+      sh.add("none");
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
+        return "{\"code\" : "+json.composeString(code, "codeableConcept")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";        
+      };
+    } else {
+      sh.add("essence").add(essenceHash(vs));
+      ct.requestBuilder = () -> {
+        JsonParser json = newJsonParser();
         ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"valueSet\" :"+extracted(json, vsc)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      }
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+        return "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"valueSet\" :"+extracted(json, vsc)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+      };
     }
+    ct.key = sh.add(options == null ? null : options.toJson()).add(expParameters).toString();
+    return ct;
   }
 
   public ValueSet getVSEssense(ValueSet vs) {
@@ -468,19 +579,15 @@ public class TerminologyCache {
   public CacheToken generateExpandToken(ValueSet vs, boolean hierarchical) {
     CacheToken ct = new CacheToken();
     nameCacheToken(vs, ct);
+    StructuralHash sh = new StructuralHash().add("expand").add(hierarchical);
     if (vs.hasUrl() && vs.hasVersion()) {
-      ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\"}\r\n";      
+      sh.add("url").add(vs.getUrl()).add(vs.getVersion());
+      ct.requestBuilder = () -> "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\"}\r\n";      
     } else {
-      ValueSet vsc = getVSEssense(vs);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      try {
-        ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"valueSet\" :"+extracted(json, vsc)+"}\r\n";
-      } catch (IOException e) {
-        throw new Error(e);
-      }
+      sh.add("essence").add(essenceHash(vs));
+      ct.requestBuilder = () -> "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"valueSet\" :"+extracted(newJsonParser(), getVSEssense(vs))+"}\r\n";
     }
-    ct.key = String.valueOf(hashJson(ct.request));
+    ct.key = sh.toString();
     return ct;
   }
 
@@ -520,33 +627,58 @@ public class TerminologyCache {
     NamedCache nc = caches.get(cacheName);
 
     if (nc == null) {
-      nc = new NamedCache();
-      nc.name = cacheName;
-      caches.put(nc.name, nc);
+      nc = caches.computeIfAbsent(cacheName, n -> {
+        NamedCache t = new NamedCache();
+        t.name = n;
+        return t;
+      });
     }
     return nc;
   }
 
   public ValueSetExpansionOutcome getExpansion(CacheToken cacheToken) {
-    synchronized (lock) {
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
-      if (e == null)
-        return null;
-      else
-        return e.e;
-    }
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = getEntry(nc, cacheToken);
+    if (e == null)
+      return null;
+    else
+      return e.e;
   }
 
   public void cacheExpansion(CacheToken cacheToken, ValueSetExpansionOutcome res, boolean persistent) {
-    synchronized (lock) {      
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = new CacheEntry();
-      e.request = cacheToken.request;
-      e.persistent = persistent;
-      e.e = res;
-      store(cacheToken, persistent, nc, e);
-    }    
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = new CacheEntry();
+    e.persistent = persistent;
+    e.e = res;
+    store(cacheToken, persistent, nc, e);
+  }
+
+  /**
+   * Entries are found by the token key. Entries that were loaded from the cache files 
+   * (or that are still in the binary log) are only known by their request text, so 
+   * the text is only built if there's persisted entries to look in, and the entry is 
+   * then remembered against the key
+   */
+  private CacheEntry getEntry(NamedCache nc, CacheToken cacheToken) {
+    CacheEntry e = nc.map.get(cacheToken.key);
+    if (e == null && (log != null || !nc.byRequest.isEmpty())) {
+      String request = cacheToken.getRequest().trim();
+      e = nc.byRequest.get(request);
+      if (e == null && log != null) {
+        try {
+          String res = log.lookup(nc.name, request);
+          if (res != null) {
+            e = getCacheEntry(request, res.trim());
+          }
+        } catch (IOException ex) {
+          System.out.println("error reading terminology cache log: "+ex.getMessage());
+        }
+      }
+      if (e != null) {
+        nc.map.putIfAbsent(cacheToken.key, e);
+      }
+    }
+    return e;
   }
 
   public void store(CacheToken cacheToken, boolean persistent, NamedCache nc, CacheEntry e) {
@@ -561,18 +693,50 @@ public class TerminologyCache {
       return;
     }
 
-    boolean n = nc.map.containsKey(cacheToken.key);
-    nc.map.put(cacheToken.key, e);
     if (persistent) {
-      if (n) {
-        for (int i = nc.list.size()- 1; i>= 0; i--) {
-          if (nc.list.get(i).request.equals(e.request)) {
-            nc.list.remove(i);
+      e.request = cacheToken.getRequest().trim();
+    }
+    lockNamedCache(nc);
+    try {
+      nc.map.put(cacheToken.key, e);
+      if (persistent && log != null) {
+        appendToLog(nc, e);
+      } else if (persistent) {
+        if (nc.byRequest.put(e.request, e) != null) {
+          for (int i = nc.list.size()- 1; i>= 0; i--) {
+            if (nc.list.get(i).request.equals(e.request)) {
+              nc.list.remove(i);
+            }
           }
         }
+        nc.list.add(e);
+        if (backgroundSaving) {
+          scheduleSave(nc);
+        } else {
+          save(nc);
+        }
       }
-      nc.list.add(e);
-      save(nc);  
+    } finally {
+      nc.writeLock.unlock();
+    }
+  }
+
+  private void appendToLog(NamedCache nc, CacheEntry e) {
+    try {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      log.append(nc.name, e.request, composeResult(e, json));
+    } catch (IOException ex) {
+      System.out.println("error saving "+nc.name+" to terminology cache log: "+ex.getMessage());
+    }
+  }
+
+  private void lockNamedCache(NamedCache nc) {
+    if (!nc.writeLock.tryLock()) {
+      contentionCount.incrementAndGet();
+      long t = System.nanoTime();
+      nc.writeLock.lock();
+      contentionTime.addAndGet(System.nanoTime() - t);
     }
   }
 
@@ -580,38 +744,110 @@ public class TerminologyCache {
     if (cacheToken.key == null) {
       return null;
     }
-    synchronized (lock) {
-      requestCount++;
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
-      if (e == null) {
-        networkCount++;
-        return null;
-      } else {
-        hitCount++;
-        return e.v;
-      }
+    requestCount.incrementAndGet();
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = getEntry(nc, cacheToken);
+    if (e == null) {
+      networkCount.incrementAndGet();
+      return null;
+    } else {
+      hitCount.incrementAndGet();
+      return e.v;
     }
   }
 
   public void cacheValidation(CacheToken cacheToken, ValidationResult res, boolean persistent) {
     if (cacheToken.key != null) {
-      synchronized (lock) {      
-        NamedCache nc = getNamedCache(cacheToken);
-        CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
-        e.persistent = persistent;
-        e.v = res;
-        store(cacheToken, persistent, nc, e);
-      }    
+      NamedCache nc = getNamedCache(cacheToken);
+      CacheEntry e = new CacheEntry();
+      e.persistent = persistent;
+      e.v = res;
+      store(cacheToken, persistent, nc, e);
     }
   }
 
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  public int getNetworkCount() {
+    return networkCount.get();
+  }
+
+  /**
+   * @return the number of times a thread storing an entry had to wait for another thread to finish with the same named cache
+   */
+  public long getContentionCount() {
+    return contentionCount.get();
+  }
+
+  /**
+   * @return the total time (in nanoseconds) threads have waited to store entries 
+   */
+  public long getContentionTime() {
+    return contentionTime.get();
+  }
 
   // persistence
 
-  public void save() {
+  private void scheduleSave(NamedCache nc) {
+    dirty.add(nc);
+    PENDING_SAVES.add(this);
+    if (saveScheduled.compareAndSet(false, true)) {
+      getSaver().schedule(() -> save(), SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getSaver() {
+    if (saver == null) {
+      saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "TerminologyCache-Saver");
+        t.setDaemon(true);
+        return t;
+      });
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> savePending(null)));
+    }
+    return saver;
+  }
 
+  /**
+   * make sure that any pending writes to the folder have been completed, so that
+   * a new cache on the same folder sees them (or all folders, if folder is null)
+   */
+  private static void savePending(String folder) {
+    for (TerminologyCache tc : PENDING_SAVES) {
+      if (folder == null || folder.equals(tc.folder)) {
+        tc.save();
+      }
+    }
+  }
+
+  /**
+   * Write any pending changes to the persistent caches to disk
+   */
+  public void save() {
+    saveScheduled.set(false);
+    PENDING_SAVES.remove(this);
+    if (log != null) {
+      try {
+        log.force();
+      } catch (IOException e) {
+        System.out.println("error saving terminology cache log: "+e.getMessage());
+      }
+    }
+    for (NamedCache nc : dirty) {
+      dirty.remove(nc);
+      lockNamedCache(nc);
+      try {
+        save(nc);
+      } finally {
+        nc.writeLock.unlock();
+      }
+    }
   }
 
   private <K extends Resource> void save(K resource, String title) {
@@ -643,75 +879,7 @@ public class TerminologyCache {
       for (CacheEntry ce : nc.list) {
         sw.write(ce.request.trim());
         sw.write(BREAK+"\r\n");
-        if (ce.e != null) {
-          sw.write("e: {\r\n");
-          if (ce.e.isFromServer())
-            sw.write("  \"from-server\" : true,\r\n");
-          if (ce.e.getValueset() != null)
-            sw.write("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
-          sw.write("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
-        } else if (ce.s != null) {
-          sw.write("s: {\r\n");
-          sw.write("  \"result\" : "+ce.s.result+"\r\n}\r\n");
-        } else {
-          sw.write("v: {\r\n");
-          boolean first = true;
-          if (ce.v.getDisplay() != null) {            
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
-          }
-          if (ce.v.getCode() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
-          }
-          if (ce.v.getSystem() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
-          }
-          if (ce.v.getVersion() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
-          }
-          if (ce.v.getSeverity() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
-          }
-          if (ce.v.getMessage() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
-          }
-          if (ce.v.getErrorClass() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
-          }
-          if (ce.v.getDefinition() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
-          }
-          if (ce.v.getStatus() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
-          }
-          if (ce.v.getServer() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
-          }
-          if (ce.v.isInactive()) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"inactive\" : true");
-          }
-          if (ce.v.getUnknownSystems() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
-          }
-          if (ce.v.getIssues() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            OperationOutcome oo = new OperationOutcome();
-            oo.setIssue(ce.v.getIssues());
-            sw.write("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
-          }
-          sw.write("\r\n}\r\n");
-        }
+        sw.write(composeResult(ce, json));
         sw.write(ENTRY_MARKER+"\r\n");
       }      
       sw.close();
@@ -720,6 +888,107 @@ public class TerminologyCache {
     }
   }
 
+  private String composeResult(CacheEntry ce, JsonParser json) throws IOException {
+    StringBuilder b = new StringBuilder();
+    if (ce.e != null) {
+      b.append("e: {\r\n");
+      if (ce.e.isFromServer())
+        b.append("  \"from-server\" : true,\r\n");
+      if (ce.e.getValueset() != null)
+        b.append("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
+      b.append("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
+    } else if (ce.s != null) {
+      b.append("s: {\r\n");
+      b.append("  \"result\" : "+ce.s.result+"\r\n}\r\n");
+    } else {
+      b.append("v: {\r\n");
+      boolean first = true;
+      if (ce.v.getDisplay() != null) {            
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
+      }
+      if (ce.v.getCode() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
+      }
+      if (ce.v.getSystem() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
+      }
+      if (ce.v.getVersion() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
+      }
+      if (ce.v.getSeverity() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
+      }
+      if (ce.v.getMessage() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
+      }
+      if (ce.v.getErrorClass() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
+      }
+      if (ce.v.getDefinition() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
+      }
+      if (ce.v.getStatus() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
+      }
+      if (ce.v.getServer() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
+      }
+      if (ce.v.isInactive()) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"inactive\" : true");
+      }
+      if (ce.v.getUnknownSystems() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        b.append("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
+      }
+      if (ce.v.getIssues() != null) {
+        if (first) first = false; else b.append(",\r\n");
+        OperationOutcome oo = new OperationOutcome();
+        oo.setIssue(ce.v.getIssues());
+        b.append("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
+      }
+      b.append("\r\n}\r\n");
+    }
+    return b.toString();
+  }
+
+  /**
+   * Convert a terminology cache folder from the .cache files to the binary log format 
+   * (see TerminologyCacheLog). Once converted, the .cache files for the named caches are 
+   * no longer read or written (they are left in place)
+   *  
+   * @param folder
+   * @return the number of entries converted
+   */
+  public static int convertToBinary(String folder) throws IOException {
+    if (TerminologyCacheLog.exists(folder)) {
+      throw new FHIRException("The terminology cache at "+folder+" has already been converted");
+    }
+    TerminologyCache tc = new TerminologyCache(folder);
+    int c = 0;
+    try (TerminologyCacheLog log = new TerminologyCacheLog(folder)) {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      for (NamedCache nc : tc.caches.values()) {
+        for (CacheEntry ce : nc.list) {
+          log.append(nc.name, ce.request, tc.composeResult(ce, json));
+          c++;
+        }
+      }
+    }
+    return c;
+  }
+
   private boolean isCapabilityCache(String fn) {
     if (fn == null) {
       return false;
@@ -822,9 +1091,9 @@ public class TerminologyCache {
           String request = s.substring(0, j);
           String p = s.substring(j + BREAK.length() + 1).trim();
 
-          CacheEntry cacheEntry = getCacheEntry(request, p);
+          CacheEntry cacheEntry = getCacheEntry(request.trim(), p);
 
-          nc.map.put(String.valueOf(hashJson(cacheEntry.request)), cacheEntry);
+          nc.byRequest.put(cacheEntry.request, cacheEntry);
           nc.list.add(cacheEntry);
         }
         caches.put(nc.name, nc);
@@ -848,7 +1117,7 @@ public class TerminologyCache {
         try {
           if (isCapabilityCache(fn)) {
             loadCapabilityCache(fn);
-          } else {
+          } else if (log == null) {
             loadNamedCache(fn);
           }
         } catch (FHIRException e) {
@@ -942,12 +1211,11 @@ public class TerminologyCache {
   }
 
   public void removeCS(String url) {
-    synchronized (lock) {
-      String name = getSystemNameKeyGenerator().getNameForSystem(url);
-      if (caches.containsKey(name)) {
-        caches.remove(name);
-      }
-    }   
+    String name = getSystemNameKeyGenerator().getNameForSystem(url);
+    NamedCache nc = caches.remove(name);
+    if (nc != null) {
+      dirty.remove(nc);
+    }
   }
 
   public String getFolder() {
@@ -996,84 +1264,76 @@ public class TerminologyCache {
       return;
     }
     try {
-      if (svs == null) {
-        vsCache.put(canonical, null);
-      } else {
+      SourcedValueSetEntry entry = null;
+      if (svs != null) {
         String uuid = Utilities.makeUuidLC();
         String fn = "vs-"+uuid+".json";
         new JsonParser().compose(ManagedFileAccess.outStream(Utilities.path(folder, fn)), svs.getVs());
-        vsCache.put(canonical, new SourcedValueSetEntry(svs.getServer(), fn));
+        entry = new SourcedValueSetEntry(svs.getServer(), fn);
       }    
-      org.hl7.fhir.utilities.json.model.JsonObject j = new org.hl7.fhir.utilities.json.model.JsonObject();
-      for (String k : vsCache.keySet()) {
-        SourcedValueSetEntry sve = vsCache.get(k);
-        if (sve == null) {
-          j.add(k, new JsonNull());
-        } else {
-          org.hl7.fhir.utilities.json.model.JsonObject e = new org.hl7.fhir.utilities.json.model.JsonObject();
-          e.set("server", sve.getServer());
-          if (sve.getFilename() != null) {
-            e.set("filename", sve.getFilename());
+      synchronized (vsCache) {
+        vsCache.put(canonical, entry);
+        org.hl7.fhir.utilities.json.model.JsonObject j = new org.hl7.fhir.utilities.json.model.JsonObject();
+        for (String k : vsCache.keySet()) {
+          SourcedValueSetEntry sve = vsCache.get(k);
+          if (sve == null) {
+            j.add(k, new JsonNull());
+          } else {
+            org.hl7.fhir.utilities.json.model.JsonObject e = new org.hl7.fhir.utilities.json.model.JsonObject();
+            e.set("server", sve.getServer());
+            if (sve.getFilename() != null) {
+              e.set("filename", sve.getFilename());
+            }
+            j.add(k, e);
           }
-          j.add(k, e);
         }
+        org.hl7.fhir.utilities.json.parser.JsonParser.compose(j, ManagedFileAccess.file(Utilities.path(folder, "vs-externals.json")), true);
       }
-      org.hl7.fhir.utilities.json.parser.JsonParser.compose(j, ManagedFileAccess.file(Utilities.path(folder, "vs-externals.json")), true);
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
   public CacheToken generateSubsumesToken(ValidationOptions options, Coding parent, Coding child, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (parent.hasSystem()) {
-        ct.setName(parent.getSystem());
-      }
-      if (child.hasSystem()) {
-        ct.setName(child.getSystem());
-      }
-      ct.hasVersion = parent.hasVersion() || child.hasVersion();
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-      ct.request = "{\"op\": \"subsumes\", \"parent\" : "+json.composeString(parent, "code")+", \"child\" :"+json.composeString(child, "code")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+    CacheToken ct = new CacheToken();
+    if (parent.hasSystem()) {
+      ct.setName(parent.getSystem());
+    }
+    if (child.hasSystem()) {
+      ct.setName(child.getSystem());
     }
+    ct.hasVersion = parent.hasVersion() || child.hasVersion();
+    ct.key = new StructuralHash().add("subsumes").add(parent).add(child).add(options == null ? null : options.toJson()).add(expParameters).toString();
+    ct.requestBuilder = () -> {
+      JsonParser json = newJsonParser();
+      return "{\"op\": \"subsumes\", \"parent\" : "+json.composeString(parent, "code")+", \"child\" :"+json.composeString(child, "code")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+    };
+    return ct;
   }
 
   public Boolean getSubsumes(CacheToken cacheToken) {
    if (cacheToken.key == null) {
      return null;
    }
-   synchronized (lock) {
-     requestCount++;
-     NamedCache nc = getNamedCache(cacheToken);
-     CacheEntry e = nc.map.get(cacheToken.key);
-     if (e == null) {
-       networkCount++;
-       return null;
-     } else {
-       hitCount++;
-       return e.s.result;
-     }
+   requestCount.incrementAndGet();
+   NamedCache nc = getNamedCache(cacheToken);
+   CacheEntry e = getEntry(nc, cacheToken);
+   if (e == null) {
+     networkCount.incrementAndGet();
+     return null;
+   } else {
+     hitCount.incrementAndGet();
+     return e.s.result;
    }
-   
   }
 
   public void cacheSubsumes(CacheToken cacheToken, Boolean b, boolean persistent) {
     if (cacheToken.key != null) {
-      synchronized (lock) {      
-        NamedCache nc = getNamedCache(cacheToken);
-        CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
-        e.persistent = persistent;
-        e.s = new SubsumesResult(b);
-        store(cacheToken, persistent, nc, e);
-      }    
+      NamedCache nc = getNamedCache(cacheToken);
+      CacheEntry e = new CacheEntry();
+      e.persistent = persistent;
+      e.s = new SubsumesResult(b);
+      store(cacheToken, persistent, nc, e);
     }
   }
 
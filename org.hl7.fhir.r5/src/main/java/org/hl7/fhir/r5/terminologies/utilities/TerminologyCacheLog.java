@@ -0,0 +1,400 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+
+/**
+ * An alternative on-disk format for the terminology cache, for large caches where
+ * parsing all the .cache files at start up takes too long.
+ *
+ * There are two files:
+ *
+ *  * tx-cache.log: an append only log of entries (name, request, result). Later
+ *    entries for the same name + request replace earlier ones
+ *  * tx-cache.idx: an open addressing hash table of 64bit hash of name + request -> offset
+ *    in the log
+ *
+ * Both files are memory mapped, and nothing is read until it is looked up.
+ *
+ * The log is the record; the index can always be rebuilt from it. The index header records 
+ * how much of the log it covers, and this is only written once an append (or a grow) is 
+ * complete, so if the process stops part way through, the index is rebuilt from the log 
+ * the next time it is opened.
+ *
+ * The result is stored in the same text form as the .cache files, so the content
+ * is the same whichever format is used. The .cache format remains the default
+ * (it's the format used for the version controlled test caches); use
+ * TerminologyCache.convertToBinary() to convert a folder to this format.
+ */
+public class TerminologyCacheLog implements Closeable {
+
+  public static final String LOG_FILE = "tx-cache.log";
+  public static final String INDEX_FILE = "tx-cache.idx";
+
+  private static final int LOG_MAGIC = 0x4654584C; // FTXL
+  private static final int INDEX_MAGIC = 0x46545849; // FTXI
+  private static final int LOG_VERSION = 1;
+  private static final int INDEX_VERSION = 2;
+  private static final int LOG_HEADER_SIZE = 8;
+  private static final int INDEX_HEADER_SIZE = 24; // magic, version, capacity, count, log size covered
+  private static final int SLOT_SIZE = 16;
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private RandomAccessFile logRaf;
+  private RandomAccessFile indexRaf;
+  private FileChannel logChannel;
+  private FileChannel indexChannel;
+  private MappedByteBuffer logMap;
+  private MappedByteBuffer indexMap;
+  private int capacity;
+  private int count;
+  private long logSize;
+  private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+  /**
+   * @return true if the folder has a log (the index is rebuilt if it's missing)
+   */
+  public static boolean exists(String folder) throws IOException {
+    return ManagedFileAccess.file(Utilities.path(folder, LOG_FILE)).exists();
+  }
+
+  public TerminologyCacheLog(String folder) throws IOException {
+    super();
+    File lf = ManagedFileAccess.file(Utilities.path(folder, LOG_FILE));
+    File xf = ManagedFileAccess.file(Utilities.path(folder, INDEX_FILE));
+    boolean exists = lf.exists() && lf.length() > 0;
+    logRaf = new RandomAccessFile(lf, "rw");
+    indexRaf = new RandomAccessFile(xf, "rw");
+    logChannel = logRaf.getChannel();
+    indexChannel = indexRaf.getChannel();
+    if (exists) {
+      logSize = logChannel.size();
+      ByteBuffer hdr = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      logChannel.read(hdr, 0);
+      if (logSize < LOG_HEADER_SIZE || hdr.getInt(0) != LOG_MAGIC || hdr.getInt(4) != LOG_VERSION) {
+        throw new FHIRException("The terminology cache log "+lf.getAbsolutePath()+" is not valid");
+      }
+      if (!openIndex()) {
+        rebuildIndex();
+      }
+    } else {
+      logRaf.setLength(0);
+      ByteBuffer hdr = ByteBuffer.allocate(LOG_HEADER_SIZE);
+      hdr.putInt(LOG_MAGIC).putInt(LOG_VERSION).flip();
+      logChannel.write(hdr, 0);
+      logSize = LOG_HEADER_SIZE;
+      capacity = INITIAL_CAPACITY;
+      count = 0;
+      indexMap = createIndex(capacity);
+      indexMap.putLong(16, logSize);
+    }
+    logMap = logChannel.map(MapMode.READ_ONLY, 0, logSize);
+  }
+
+  /**
+   * @return false if the index is missing, from an older version, or doesn't cover the whole log
+   */
+  private boolean openIndex() throws IOException {
+    if (indexChannel.size() < INDEX_HEADER_SIZE) {
+      return false;
+    }
+    ByteBuffer hdr = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+    while (hdr.hasRemaining()) {
+      if (indexChannel.read(hdr, hdr.position()) < 0) {
+        return false;
+      }
+    }
+    if (hdr.getInt(0) != INDEX_MAGIC || hdr.getInt(4) != INDEX_VERSION || hdr.getLong(16) != logSize) {
+      return false;
+    }
+    int cap = hdr.getInt(8);
+    if (cap <= 0 || indexChannel.size() < INDEX_HEADER_SIZE + (long) cap * SLOT_SIZE) {
+      return false;
+    }
+    capacity = cap;
+    count = hdr.getInt(12);
+    indexMap = indexChannel.map(MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    return true;
+  }
+
+  /**
+   * Rebuild the index by reading the log. A record at the end of the log that 
+   * was cut short is dropped
+   */
+  private void rebuildIndex() throws IOException {
+    capacity = INITIAL_CAPACITY;
+    count = 0;
+    indexMap = createIndex(capacity);
+    long pos = LOG_HEADER_SIZE;
+    long end = logChannel.size();
+    while (pos < end) {
+      long len = recordLength(pos, end);
+      if (len < 0) {
+        break;
+      }
+      String[] rec = readRecord(pos);
+      addToIndex(hash(rec[0], rec[1]), rec[0], rec[1], pos);
+      pos = pos + len;
+    }
+    if (pos < end) {
+      logRaf.setLength(pos);
+    }
+    logSize = pos;
+    indexMap.putLong(16, logSize);
+  }
+
+  /**
+   * @return the length of the record at pos, or -1 if it doesn't end before end
+   */
+  private long recordLength(long pos, long end) throws IOException {
+    long p = pos;
+    ByteBuffer len = ByteBuffer.allocate(4);
+    for (int i = 0; i < 3; i++) {
+      if (p + 4 > end) {
+        return -1;
+      }
+      len.clear();
+      readFully(len, p);
+      int l = len.getInt(0);
+      if (l < 0 || p + 4 + l > end) {
+        return -1;
+      }
+      p = p + 4 + l;
+    }
+    return p - pos;
+  }
+
+  /**
+   * Make an empty index. The file is only ever made longer, never truncated, since a 
+   * file can't be truncated while it is mapped on some platforms (Windows). The size 
+   * of the log covered is -1 until the caller sets it
+   */
+  private MappedByteBuffer createIndex(int cap) throws IOException {
+    long size = INDEX_HEADER_SIZE + (long) cap * SLOT_SIZE;
+    if (size > Integer.MAX_VALUE) {
+      throw new FHIRException("The terminology cache index is too large");
+    }
+    if (indexRaf.length() < size) {
+      indexRaf.setLength(size);
+    }
+    MappedByteBuffer map = indexChannel.map(MapMode.READ_WRITE, 0, size);
+    for (int i = INDEX_HEADER_SIZE; i < size; i = i + 8) {
+      map.putLong(i, 0);
+    }
+    map.putInt(0, INDEX_MAGIC);
+    map.putInt(4, INDEX_VERSION);
+    map.putInt(8, cap);
+    map.putInt(12, 0);
+    map.putLong(16, -1);
+    return map;
+  }
+
+  /**
+   * @return the result text that was stored for the name + request, or null if there isn't one
+   */
+  public String lookup(String name, String request) throws IOException {
+    String req = request.trim();
+    long hash = hash(name, req);
+    rwLock.readLock().lock();
+    try {
+      int slot = (int) Long.remainderUnsigned(hash, capacity);
+      while (true) {
+        long h = indexMap.getLong(slotPos(slot));
+        if (h == 0) {
+          return null;
+        }
+        if (h == hash) {
+          String[] rec = readRecord(indexMap.getLong(slotPos(slot) + 8));
+          if (rec[0].equals(name) && rec[1].equals(req)) {
+            return rec[2];
+          }
+        }
+        slot = (slot + 1) % capacity;
+      }
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  public void append(String name, String request, String result) throws IOException {
+    String req = request.trim();
+    long hash = hash(name, req);
+    rwLock.writeLock().lock();
+    try {
+      long offset = writeRecord(name, req, result);
+      addToIndex(hash, name, req, offset);
+      indexMap.putLong(16, logSize);
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  private void addToIndex(long hash, String name, String req, long offset) throws IOException {
+    if ((count + 1) * 2 > capacity) {
+      grow();
+    }
+    int slot = (int) Long.remainderUnsigned(hash, capacity);
+    while (true) {
+      long h = indexMap.getLong(slotPos(slot));
+      if (h == 0) {
+        indexMap.putLong(slotPos(slot) + 8, offset);
+        indexMap.putLong(slotPos(slot), hash);
+        count++;
+        indexMap.putInt(12, count);
+        return;
+      }
+      if (h == hash) {
+        String[] rec = readRecord(indexMap.getLong(slotPos(slot) + 8));
+        if (rec[0].equals(name) && rec[1].equals(req)) {
+          indexMap.putLong(slotPos(slot) + 8, offset);
+          return;
+        }
+      }
+      slot = (slot + 1) % capacity;
+    }
+  }
+
+  public int size() {
+    rwLock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      rwLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * write all changes to disk
+   */
+  public void force() throws IOException {
+    rwLock.writeLock().lock();
+    try {
+      logChannel.force(false);
+      indexMap.force();
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    rwLock.writeLock().lock();
+    try {
+      indexMap.force();
+      logChannel.close();
+      indexChannel.close();
+      logRaf.close();
+      indexRaf.close();
+    } finally {
+      rwLock.writeLock().unlock();
+    }
+  }
+
+  private int slotPos(int slot) {
+    // createIndex() makes sure that the index fits in a mapped buffer 
+    return Math.toIntExact(INDEX_HEADER_SIZE + (long) slot * SLOT_SIZE);
+  }
+
+  private void grow() throws IOException {
+    int oldCapacity = capacity;
+    long[] hashes = new long[oldCapacity];
+    long[] offsets = new long[oldCapacity];
+    for (int i = 0; i < oldCapacity; i++) {
+      hashes[i] = indexMap.getLong(slotPos(i));
+      offsets[i] = indexMap.getLong(slotPos(i) + 8);
+    }
+    // the new table is written over the old one in place. Until the caller records the
+    // log size again, the index is marked as not covering the log, so it's rebuilt if this doesn't finish
+    indexMap = createIndex(Math.multiplyExact(oldCapacity, 2));
+    capacity = oldCapacity * 2;
+    for (int i = 0; i < oldCapacity; i++) {
+      if (hashes[i] != 0) {
+        int slot = (int) Long.remainderUnsigned(hashes[i], capacity);
+        while (indexMap.getLong(slotPos(slot)) != 0) {
+          slot = (slot + 1) % capacity;
+        }
+        indexMap.putLong(slotPos(slot) + 8, offsets[i]);
+        indexMap.putLong(slotPos(slot), hashes[i]);
+      }
+    }
+    indexMap.putInt(12, count);
+  }
+
+  private long writeRecord(String name, String request, String result) throws IOException {
+    byte[] n = name.getBytes(StandardCharsets.UTF_8);
+    byte[] q = request.getBytes(StandardCharsets.UTF_8);
+    byte[] r = result.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buf = ByteBuffer.allocate(12 + n.length + q.length + r.length);
+    buf.putInt(n.length).put(n).putInt(q.length).put(q).putInt(r.length).put(r).flip();
+    long offset = logSize;
+    while (buf.hasRemaining()) {
+      logChannel.write(buf, logSize + buf.position());
+    }
+    logSize = logSize + buf.limit();
+    if (logMap != null && logSize > logMap.capacity() + logMap.capacity() / 2 + 1024 * 1024) {
+      logMap = logChannel.map(MapMode.READ_ONLY, 0, logSize);
+    }
+    return offset;
+  }
+
+  private String[] readRecord(long offset) throws IOException {
+    String[] res = new String[3];
+    if (logMap != null && offset < logMap.capacity()) {
+      // records are always mapped whole 
+      ByteBuffer buf = logMap.duplicate();
+      buf.position((int) offset);
+      for (int i = 0; i < 3; i++) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        res[i] = new String(b, StandardCharsets.UTF_8);
+      }
+    } else {
+      // appended since the log was last mapped
+      long pos = offset;
+      for (int i = 0; i < 3; i++) {
+        ByteBuffer len = ByteBuffer.allocate(4);
+        readFully(len, pos);
+        ByteBuffer b = ByteBuffer.allocate(len.getInt(0));
+        readFully(b, pos + 4);
+        res[i] = new String(b.array(), StandardCharsets.UTF_8);
+        pos = pos + 4 + b.capacity();
+      }
+    }
+    return res;
+  }
+
+  private void readFully(ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      if (logChannel.read(buf, pos + buf.position()) < 0) {
+        throw new IOException("Unexpected end of terminology cache log");
+      }
+    }
+  }
+
+  /**
+   * 64 bit FNV-1a of the name and request. 0 is reserved for empty slots
+   */
+  private long hash(String name, String request) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      h = (h ^ name.charAt(i)) * 0x100000001b3L;
+    }
+    h = (h ^ '|') * 0x100000001b3L;
+    for (int i = 0; i < request.length(); i++) {
+      h = (h ^ request.charAt(i)) * 0x100000001b3L;
+    }
+    return h == 0 ? 1 : h;
+  }
+}
@@ -4,6 +4,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -70,6 +72,7 @@ import org.hl7.fhir.utilities.graphql.Fragment;
 import org.hl7.fhir.utilities.graphql.GraphQLResponse;
 import org.hl7.fhir.utilities.graphql.IGraphQLEngine;
 import org.hl7.fhir.utilities.graphql.IGraphQLStorageServices;
+import org.hl7.fhir.utilities.graphql.IGraphQLStorageServices.ReferenceLookup;
 import org.hl7.fhir.utilities.graphql.IGraphQLStorageServices.ReferenceResolution;
 import org.hl7.fhir.utilities.graphql.NameValue;
 import org.hl7.fhir.utilities.graphql.NumberValue;
@@ -231,6 +234,20 @@ public class GraphQLEngine implements IGraphQLEngine {
     }
   }
   
+  /**
+   * a reference that has a place in the output, but hasn't been resolved yet (see batchReferences)
+   */
+  private static class PendingReference {
+    private Resource context;
+    private Reference ref;
+    private Field field;
+    private ObjectValue target;
+    private Argument arg;
+    private ObjectValue obj;
+    private boolean inheritedList;
+    private String suffix;
+  }
+
   private IWorkerContext context;
   
   public GraphQLEngine(IWorkerContext context) {
@@ -263,9 +280,24 @@ public class GraphQLEngine implements IGraphQLEngine {
    */
   private IGraphQLStorageServices services;
 
+  /**
+   * if true, the references are resolved a level at a time: all the references found at one level 
+   * of the output are passed to the services together (lookupMany), and then the next level is processed. 
+   * The resolved references, reverse reference lists and searches are also kept for the rest of the 
+   * request, so the same lookup isn't made twice
+   */
+  private boolean batchReferences;
+
   // internal stuff 
   private Map<String, Argument> workingVariables = new HashMap<String, Argument>();
 
+  // cached for the duration of a request (when batching), so the same resource isn't looked up over and over 
+  private Map<String, ReferenceResolution> resolvedReferences = new HashMap<>();
+  private Map<Resource, String> contextKeys = new IdentityHashMap<>();
+  private Map<String, List<IBaseResource>> listResults = new HashMap<>();
+  private Map<String, Bundle> searchResults = new HashMap<>();
+  private List<PendingReference> pendingReferences = new ArrayList<>();
+
   private FHIRPathEngine fpe;
 
   private ExpressionNode magicExpression;
@@ -278,6 +310,11 @@ public class GraphQLEngine implements IGraphQLEngine {
     magicExpression = new ExpressionNode(0);
 
     output = new GraphQLResponse();
+    resolvedReferences.clear();
+    contextKeys.clear();
+    listResults.clear();
+    searchResults.clear();
+    pendingReferences.clear();
 
     Operation op = null;
     // todo: initial conditions
@@ -299,6 +336,7 @@ public class GraphQLEngine implements IGraphQLEngine {
       processSearch(output, op.getSelectionSet(), false, "");
     else
       processObject(focus, focus, output, op.getSelectionSet(), false, "");
+    resolvePendingReferences();
   }
 
   private boolean checkBooleanDirective(Directive dir) throws EGraphQLException {
@@ -637,18 +675,7 @@ public class GraphQLEngine implements IGraphQLEngine {
     if (services == null)
       throw new EGraphQLException("Resource Referencing services not provided");
 
-    Reference ref = (Reference) source;
-    ReferenceResolution res = services.lookup(appInfo, context, ref);
-    if (res != null) {
-      if (targetTypeOk(field.getArguments(), res.getTarget())) {
-        Argument arg = target.addField(field.getAlias() + suffix, listStatus(field, inheritedList));
-        ObjectValue obj = new ObjectValue();
-        arg.addValue(obj);
-        processObject((Resource)res.getTargetContext(), (Base) res.getTarget(), obj, field.getSelectionSet(), inheritedList, suffix);
-      }
-    }
-    else if (!hasArgument(field.getArguments(), "optional", "true"))
-      throw new EGraphQLException("Unable to resolve reference to "+ref.getReference());
+    resolveReference(context, (Reference) source, field, target, inheritedList, suffix);
   }
 
   private void processCanonicalReference(Resource context, Base source, Field field, ObjectValue target, boolean inheritedList, String suffix) throws EGraphQLException, FHIRException {
@@ -657,8 +684,36 @@ public class GraphQLEngine implements IGraphQLEngine {
     if (services == null)
       throw new EGraphQLException("Resource Referencing services not provided");
 
-    Reference ref = new Reference(source.primitiveValue());
-    ReferenceResolution res = services.lookup(appInfo, context, ref);
+    resolveReference(context, new Reference(source.primitiveValue()), field, target, inheritedList, suffix);
+  }
+
+  private void resolveReference(Resource context, Reference ref, Field field, ObjectValue target, boolean inheritedList, String suffix) throws EGraphQLException, FHIRException {
+    String key = batchReferences ? referenceKey(context, ref) : null;
+    if (key != null && !resolvedReferences.containsKey(key)) {
+      // hold the place in the output, and resolve it along with the other references at this level 
+      PendingReference pr = new PendingReference();
+      pr.context = context;
+      pr.ref = ref;
+      pr.field = field;
+      pr.target = target;
+      pr.inheritedList = inheritedList;
+      pr.suffix = suffix;
+      pr.arg = target.addField(field.getAlias() + suffix, listStatus(field, inheritedList));
+      pr.obj = new ObjectValue();
+      pr.arg.addValue(pr.obj);
+      pendingReferences.add(pr);
+      return;
+    }
+
+    ReferenceResolution res;
+    if (key == null) {
+      res = services.lookup(appInfo, context, ref);
+    } else if (resolvedReferences.containsKey(key)) {
+      res = resolvedReferences.get(key);
+    } else {
+      res = services.lookup(appInfo, context, ref);
+      resolvedReferences.put(key, res);
+    }
     if (res != null) {
       if (targetTypeOk(field.getArguments(), res.getTarget())) {
         Argument arg = target.addField(field.getAlias() + suffix, listStatus(field, inheritedList));
@@ -671,6 +726,78 @@ public class GraphQLEngine implements IGraphQLEngine {
       throw new EGraphQLException("Unable to resolve reference to "+ref.getReference());
   }
 
+  /**
+   * the key that a resolved reference is cached under. Local (#) references depend on the 
+   * resource they are in, so they aren't cached (or batched). Relative references are resolved 
+   * against the resource they are in, so they're keyed by its base, if it has one, or else by 
+   * the resource itself
+   */
+  private String referenceKey(Resource context, Reference ref) {
+    if (!ref.hasReference() || ref.getReference().startsWith("#"))
+      return null;
+    if (Utilities.isAbsoluteUrl(ref.getReference()))
+      return ref.getReference();
+    if (context != null && context.getIdElement().hasBaseUrl())
+      return context.getIdElement().getBaseUrl()+"/"+ref.getReference();
+    String ck = contextKeys.get(context);
+    if (ck == null) {
+      ck = "#"+contextKeys.size();
+      contextKeys.put(context, ck);
+    }
+    return ck+"|"+ref.getReference();
+  }
+
+  private void resolvePendingReferences() throws EGraphQLException, FHIRException {
+    while (!pendingReferences.isEmpty()) {
+      List<PendingReference> level = pendingReferences;
+      pendingReferences = new ArrayList<>();
+
+      Map<String, ReferenceLookup> lookups = new LinkedHashMap<>();
+      for (PendingReference pr : level) {
+        String key = referenceKey(pr.context, pr.ref);
+        if (!resolvedReferences.containsKey(key) && !lookups.containsKey(key))
+          lookups.put(key, new ReferenceLookup(pr.context, pr.ref));
+      }
+      if (!lookups.isEmpty()) {
+        List<ReferenceResolution> results = services.lookupMany(appInfo, new ArrayList<>(lookups.values()));
+        if (results == null || results.size() != lookups.size())
+          throw new EGraphQLException("Reference resolution services returned "+(results == null ? "no" : results.size())+" results for "+lookups.size()+" references");
+        int i = 0;
+        for (String key : lookups.keySet())
+          resolvedReferences.put(key, results.get(i++));
+      }
+
+      // processing the resolved resources may find the references for the next level 
+      for (PendingReference pr : level) {
+        ReferenceResolution res = resolvedReferences.get(referenceKey(pr.context, pr.ref));
+        if (res != null && targetTypeOk(pr.field.getArguments(), res.getTarget()))
+          processObject((Resource)res.getTargetContext(), (Base) res.getTarget(), pr.obj, pr.field.getSelectionSet(), pr.inheritedList, pr.suffix);
+        else {
+          pr.arg.getValues().remove(pr.obj);
+          if (pr.arg.getValues().isEmpty())
+            pr.target.getFields().remove(pr.arg);
+          if (res == null && !hasArgument(pr.field.getArguments(), "optional", "true"))
+            throw new EGraphQLException("Unable to resolve reference to "+pr.ref.getReference());
+        }
+      }
+    }
+  }
+
+  /**
+   * the key that the results of a reverse reference query are cached under
+   */
+  private String queryKey(String type, List<Argument> params) throws EGraphQLException {
+    StringBuilder b = new StringBuilder();
+    b.append(type);
+    for (Argument p : params) {
+      b.append("|");
+      b.append(p.getName());
+      for (Value v : resolveValues(p))
+        b.append("="+v.toString());
+    }
+    return b.toString();
+  }
+
   private ArgumentListStatus listStatus(Field field, boolean isList) {
     if (field.hasDirective("singleton"))
       return ArgumentListStatus.SINGLETON;
@@ -699,7 +826,15 @@ public class GraphQLEngine implements IGraphQLEngine {
     params.add(arg);
     arg.setName(getSingleValue(parg));
     arg.addValue(new StringValue(source.fhirType()+"/"+source.getIdPart()));
-    services.listResources(appInfo, field.getName().substring(0, field.getName().length() - 4), params, list);
+    String type = field.getName().substring(0, field.getName().length() - 4);
+    String key = batchReferences ? queryKey(type, params) : null;
+    if (key != null && listResults.containsKey(key))
+      list.addAll(listResults.get(key));
+    else {
+      services.listResources(appInfo, type, params, list);
+      if (key != null)
+        listResults.put(key, new ArrayList<>(list));
+    }
     arg = null;
     ObjectValue obj = null;
 
@@ -732,7 +867,16 @@ public class GraphQLEngine implements IGraphQLEngine {
     params.add(arg);
     arg.setName(getSingleValue(parg));
     arg.addValue(new StringValue(source.fhirType()+"/"+source.getIdPart()));
-    Bundle bnd = (Bundle) services.search(appInfo, field.getName().substring(0, field.getName().length()-10), params);
+    String type = field.getName().substring(0, field.getName().length()-10);
+    String key = batchReferences ? queryKey(type, params) : null;
+    Bundle bnd;
+    if (key != null && searchResults.containsKey(key))
+      bnd = searchResults.get(key);
+    else {
+      bnd = (Bundle) services.search(appInfo, type, params);
+      if (key != null)
+        searchResults.put(key, bnd);
+    }
     Base bndWrapper = new SearchWrapper(field.getName(), bnd);
     arg = target.addField(field.getAlias()+suffix, listStatus(field, false));
     ObjectValue obj = new ObjectValue();
@@ -898,6 +1042,14 @@ public class GraphQLEngine implements IGraphQLEngine {
     this.services = services;
   }
 
+  public boolean isBatchReferences() {
+    return batchReferences;
+  }
+
+  public void setBatchReferences(boolean batchReferences) {
+    this.batchReferences = batchReferences;
+  }
+
 
   //
 //{ GraphQLSearchWrapper }
@@ -42,6 +42,7 @@ import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRLexer;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.ExpressionNodeWithOffset;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.IEvaluationContext;
@@ -101,6 +102,7 @@ public class LiquidEngine implements IEvaluationContext {
     engine = new FHIRPathEngine(context);
     engine.setHostServices(this);
     engine.setLiquidMode(true);
+    engine.setExpressionCache(FHIRPathExpressionCache.getInstance());
   }
 
   public ILiquidEngineIncludeResolver getIncludeResolver() {
@@ -53,6 +53,8 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -344,15 +346,11 @@ public class FHIRToolingClient extends FHIRBaseToolingClient {
 
   public <T extends Resource> Parameters operateType(Class<T> resourceClass, String name, Parameters params) {
     recordUse();
-    boolean complex = false;
-    for (ParametersParameterComponent p : params.getParameter())
-      complex = complex || !(p.getValue() instanceof PrimitiveType);
+    boolean complex = isComplex(params);
     String ps = "";
     try {
       if (!complex)
-        for (ParametersParameterComponent p : params.getParameter())
-          if (p.getValue() instanceof PrimitiveType)
-            ps += p.getName() + "=" + Utilities.encodeUri(((PrimitiveType) p.getValue()).asStringValue()) + "&";
+        ps = simpleParameters(params);
       ResourceRequest<T> result;
       URI url = resourceAddress.resolveOperationURLFromClass(resourceClass, name, ps);
       if (complex) {
@@ -362,22 +360,81 @@ public class FHIRToolingClient extends FHIRBaseToolingClient {
       } else {
         result = client.issueGetResourceRequest(url, withVer(getPreferredResourceFormat(), "4.0"), generateHeaders(), "GET " + resourceClass.getName() + "/$" + name, timeoutLong);
       }
-      if (result.isUnsuccessfulRequest()) {
-        throw new EFhirClientException("Server returned error code " + result.getHttpStatus(), (OperationOutcome) result.getPayload());
-      }
-      if (result.getPayload() instanceof Parameters) {
-        return (Parameters) result.getPayload();
-      } else {
-        Parameters p_out = new Parameters();
-        p_out.addParameter().setName("return").setResource(result.getPayload());
-        return p_out;
-      }
+      return operationResult(result);
     } catch (Exception e) {
       handleException("Error performing tx5 operation '"+name+": "+e.getMessage()+"' (parameters = \"" + ps+"\")", e);  		
     }
     return null;
   }
 
+  /**
+   * As for operateType, but the call doesn't block; errors are reported through the future. 
+   * 
+   * The calls are queued on the shared http client, so many operations can be in flight at once. 
+   * It's up to the caller to limit how many are sent to the one server
+   */
+  public <T extends Resource> CompletableFuture<Parameters> operateTypeAsync(Class<T> resourceClass, String name, Parameters params) {
+    recordUse();
+    boolean complex = isComplex(params);
+    String ps = "";
+    CompletableFuture<ResourceRequest<T>> result;
+    try {
+      if (!complex)
+        ps = simpleParameters(params);
+      URI url = resourceAddress.resolveOperationURLFromClass(resourceClass, name, ps);
+      if (complex) {
+        byte[] body = ByteUtils.resourceToByteArray(params, false, isJson(getPreferredResourceFormat()));
+        result = client.issuePostRequestAsync(url, body, withVer(getPreferredResourceFormat(), "4.0"), generateHeaders(),
+            "POST " + resourceClass.getName() + "/$" + name, timeoutLong);
+      } else {
+        result = client.issueGetResourceRequestAsync(url, withVer(getPreferredResourceFormat(), "4.0"), generateHeaders(), "GET " + resourceClass.getName() + "/$" + name, timeoutLong);
+      }
+    } catch (Exception e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    final String fps = ps;
+    return result.handle((r, t) -> {
+      try {
+        if (t != null) {
+          Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+          throw cause instanceof Exception ? (Exception) cause : new FHIRException(cause);
+        }
+        return operationResult(r);
+      } catch (Exception e) {
+        handleException("Error performing tx5 operation '"+name+": "+e.getMessage()+"' (parameters = \"" + fps+"\")", e);
+        return null;
+      }
+    });
+  }
+
+  private boolean isComplex(Parameters params) {
+    boolean complex = false;
+    for (ParametersParameterComponent p : params.getParameter())
+      complex = complex || !(p.getValue() instanceof PrimitiveType);
+    return complex;
+  }
+
+  private String simpleParameters(Parameters params) {
+    String ps = "";
+    for (ParametersParameterComponent p : params.getParameter())
+      if (p.getValue() instanceof PrimitiveType)
+        ps += p.getName() + "=" + Utilities.encodeUri(((PrimitiveType) p.getValue()).asStringValue()) + "&";
+    return ps;
+  }
+
+  private <T extends Resource> Parameters operationResult(ResourceRequest<T> result) {
+    if (result.isUnsuccessfulRequest()) {
+      throw new EFhirClientException("Server returned error code " + result.getHttpStatus(), (OperationOutcome) result.getPayload());
+    }
+    if (result.getPayload() instanceof Parameters) {
+      return (Parameters) result.getPayload();
+    } else {
+      Parameters p_out = new Parameters();
+      p_out.addParameter().setName("return").setResource(result.getPayload());
+      return p_out;
+    }
+  }
+
   public Bundle transaction(Bundle batch) {
     recordUse();
     Bundle transactionResult = null;
@@ -12,6 +12,7 @@ import org.hl7.fhir.utilities.ToolingClientLogger;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class Client {
@@ -82,6 +83,17 @@ public class Client {
     return executeFhirRequest(request, resourceFormat, headers, message, retryCount, timeout);
   }
 
+  public <T extends Resource> CompletableFuture<ResourceRequest<T>> issueGetResourceRequestAsync(URI resourceUri,
+                                                                                              String resourceFormat,
+                                                                                              Headers headers,
+                                                                                              String message,
+                                                                                              long timeout) throws IOException {
+    Request.Builder request = new Request.Builder()
+      .url(resourceUri.toURL());
+
+    return executeFhirRequestAsync(request, resourceFormat, headers, message, retryCount, timeout);
+  }
+
   public int tester(int trytry) {
     return 5;
   }
@@ -133,6 +145,21 @@ public class Client {
     return executeFhirRequest(request, resourceFormat, headers, message, retryCount, timeout);
   }
 
+  public <T extends Resource> CompletableFuture<ResourceRequest<T>> issuePostRequestAsync(URI resourceUri,
+                                                                                       byte[] payload,
+                                                                                       String resourceFormat,
+                                                                                       Headers headers,
+                                                                                       String message,
+                                                                                       long timeout) throws IOException {
+    if (payload == null) throw new EFhirClientException("POST requests require a non-null payload");
+    RequestBody body = RequestBody.create(MediaType.parse(resourceFormat + ";charset=" + DEFAULT_CHARSET), payload);
+    Request.Builder request = new Request.Builder()
+      .url(resourceUri.toURL())
+      .post(body);
+
+    return executeFhirRequestAsync(request, resourceFormat, headers, message, retryCount, timeout);
+  }
+
   public boolean issueDeleteRequest(URI resourceUri) throws IOException {
     Request.Builder request = new Request.Builder()
       .url(resourceUri.toURL())
@@ -208,4 +235,20 @@ public class Client {
       .withTimeout(timeout, TimeUnit.MILLISECONDS)
       .execute();
   }
+
+  public <T extends Resource> CompletableFuture<ResourceRequest<T>> executeFhirRequestAsync(Request.Builder request,
+                                                                                           String resourceFormat,
+                                                                                           Headers headers,
+                                                                                           String message,
+                                                                                           int retryCount,
+                                                                                           long timeout) {
+    return new FhirRequestBuilder(request, base)
+      .withLogger(fhirLoggingInterceptor)
+      .withResourceFormat(resourceFormat)
+      .withRetryCount(retryCount)
+      .withMessage(message)
+      .withHeaders(headers == null ? new Headers.Builder().build() : headers)
+      .withTimeout(timeout, TimeUnit.MILLISECONDS)
+      .executeAsync();
+  }
 }
@@ -19,6 +19,7 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class FhirRequestBuilder {
@@ -230,6 +231,35 @@ public class FhirRequestBuilder {
     return new ResourceRequest<T>(resource, response.code(), getLocationHeader(response.headers()));
   }
 
+  /**
+   * As for {@link FhirRequestBuilder#execute()}, but the call is queued on the shared {@link OkHttpClient} instead of 
+   * blocking the calling thread. The calls share the connection pool, so calls to the same server use the same 
+   * connections (multiplexed over HTTP/2 where the server supports it). The future is completed on an OkHttp thread
+   */
+  public <T extends Resource> CompletableFuture<ResourceRequest<T>> executeAsync() {
+    formatHeaders(httpRequest, resourceFormat, headers);
+    CompletableFuture<ResourceRequest<T>> future = new CompletableFuture<>();
+    getHttpClient().newCall(httpRequest.build()).enqueue(new Callback() {
+      @Override
+      public void onFailure(@Nonnull Call call, @Nonnull IOException e) {
+        future.completeExceptionally(e);
+      }
+
+      @Override
+      public void onResponse(@Nonnull Call call, @Nonnull Response response) {
+        try {
+          T resource = unmarshalReference(response, resourceFormat);
+          future.complete(new ResourceRequest<T>(resource, response.code(), getLocationHeader(response.headers())));
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        } finally {
+          response.close();
+        }
+      }
+    });
+    return future;
+  }
+
   public Bundle executeAsBatch() throws IOException {
     formatHeaders(httpRequest, resourceFormat, null);
     Response response = getHttpClient().newCall(httpRequest.build()).execute();
@@ -1,5 +1,6 @@
 package org.hl7.fhir.r5.utils.sql;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.hl7.fhir.r5.model.Base;
@@ -7,5 +8,14 @@ import org.hl7.fhir.r5.model.Base;
 public interface Provider {
   List<Base> fetch(String resourceType);
 
+  /**
+   * The runner reads the resources through this, one at a time, and doesn't keep them once
+   * they've been evaluated. Providers that have a lot of resources should override this to
+   * read them as they are needed, instead of all at once through fetch()
+   */
+  default Iterator<Base> iterate(String resourceType) {
+    return fetch(resourceType).iterator();
+  }
+
   Base resolveReference(Base rootResource, String ref, String specifiedResourceType);
 }
@@ -1,8 +1,17 @@
 package org.hl7.fhir.r5.utils.sql;
 
 import java.math.BigDecimal;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.net.util.Base64;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -10,6 +19,7 @@ import org.hl7.fhir.exceptions.PathEngineException;
 import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.CollectionStatus;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.IEvaluationContext;
@@ -33,8 +43,9 @@ public class Runner implements IEvaluationContext {
   private Storage storage;
   private List<String> prohibitedNames = new ArrayList<String>();
   private FHIRPathEngine fpe;
+  private int threads = 1;
+  private int batchSize = 1000;
 
-  private String resourceName;
   private List<ValidationMessage> issues;
 
 
@@ -64,74 +75,220 @@ public class Runner implements IEvaluationContext {
     return prohibitedNames;
   }
 
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * The number of threads to evaluate the view on (default 1). When this is more than 1, resources are 
+   * evaluated in batches on a pool of threads, each with its own FHIRPath engine, and the rows are added 
+   * to the storage on the calling thread, in the order the provider returned the resources. 
+   * 
+   * Provider.resolveReference() and Storage.getKeyFor*Resource() are called on the pool threads, 
+   * so they must be thread safe
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * the number of resources evaluated together on one thread (default 1000). At most 2 batches per 
+   * thread are held in memory at once
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
   public void execute(JsonObject viewDefinition) {
     execute("$", viewDefinition);
   }
 
   public void execute(String path, JsonObject viewDefinition) {
-    if (context == null) {
-      throw new FHIRException("No context provided");
-    }
-    fpe = new FHIRPathEngine(context);
-    fpe.setHostServices(this);
-    fpe.setEmitSQLonFHIRWarning(true);
+    start();
     if (viewDefinition == null) {
       throw new FHIRException("No viewDefinition provided");
     }
+    issues = new ArrayList<>();
+    String resourceName = validate(path, viewDefinition);
+    List<JsonObject> views = new ArrayList<>();
+    views.add(viewDefinition);
+    evaluate(resourceName, views);
+  }
+
+  /**
+   * Execute several views in one pass over the data: the resources of each type are read 
+   * from the provider once, and evaluated against all the views for that type. The 
+   * stores for the views on a type are all open at the same time.
+   * 
+   * All the views are validated before any of them are evaluated
+   */
+  public void execute(List<JsonObject> viewDefinitions) {
+    start();
+    if (viewDefinitions == null || viewDefinitions.isEmpty()) {
+      throw new FHIRException("No viewDefinition provided");
+    }
+    issues = new ArrayList<>();
+    Map<String, List<JsonObject>> byType = new LinkedHashMap<>();
+    int i = 0;
+    for (JsonObject vd : viewDefinitions) {
+      String resourceName = validate("$["+i+"]", vd);
+      if (!byType.containsKey(resourceName)) {
+        byType.put(resourceName, new ArrayList<>());
+      }
+      byType.get(resourceName).add(vd);
+      i++;
+    }
+    for (String resourceName : byType.keySet()) {
+      evaluate(resourceName, byType.get(resourceName));
+    }
+  }
+
+  private void start() {
+    if (context == null) {
+      throw new FHIRException("No context provided");
+    }
+    fpe = makeEngine();
     if (provider == null) {
       throw new FHIRException("No provider provided");
     }
     if (storage == null) {
       throw new FHIRException("No storage provided");
     }
+  }
+
+  private String validate(String path, JsonObject viewDefinition) {
     Validator validator = new Validator(context, fpe, prohibitedNames, storage.supportsArrays(), storage.supportsComplexTypes(), storage.needsName());
     validator.checkViewDefinition(path, viewDefinition);
-    issues = validator.getIssues();
+    issues.addAll(validator.getIssues());
     validator.dump();
     validator.check();
-    resourceName = validator.getResourceName();
-    evaluate(viewDefinition);
+    return validator.getResourceName();
   }
 
-  private void evaluate(JsonObject vd) {
-    Store store = storage.createStore(vd.asString("name"), (List<Column>) vd.getUserData("columns"));
+  private FHIRPathEngine makeEngine() {
+    FHIRPathEngine engine = new FHIRPathEngine(context);
+    engine.setHostServices(this);
+    engine.setEmitSQLonFHIRWarning(true);
+    engine.setExpressionCache(FHIRPathExpressionCache.getInstance());
+    return engine;
+  }
 
-    List<Base> data = provider.fetch(resourceName);
+  private void evaluate(String resourceName, List<JsonObject> views) {
+    List<Store> stores = new ArrayList<>();
+    for (JsonObject vd : views) {
+      stores.add(storage.createStore(vd.asString("name"), (List<Column>) vd.getUserData("columns")));
+    }
 
-    for (Base b : data) {
-      boolean ok = true;
-      for (JsonObject w : vd.getJsonObjects("where")) {
-        String expr = w.asString("path");
-        ExpressionNode node = fpe.parse(expr);
-        boolean pass = fpe.evaluateToBoolean(null, b, b, b, node);
-        if (!pass) {
-          ok = false;
-          break;
-        }  
+    Iterator<Base> data = provider.iterate(resourceName);
+    if (threads <= 1) {
+      while (data.hasNext()) {
+        Base b = data.next();
+        for (int i = 0; i < views.size(); i++) {
+          List<List<Cell>> rows = new ArrayList<>();
+          evaluateResource(fpe, views.get(i), b, rows);
+          for (List<Cell> row : rows) {
+            storage.addRow(stores.get(i), row);
+          }
+        }
       }
-      if (ok) {
-        List<List<Cell>> rows = new ArrayList<>();
-        rows.add(new ArrayList<Cell>());
+    } else {
+      evaluateParallel(views, stores, data);
+    }
+    for (Store store : stores) {
+      storage.finish(store);
+    }
+  }
 
-        for (JsonObject select : vd.getJsonObjects("select")) {
-          executeSelect(select, b, rows);
+  private void evaluateParallel(List<JsonObject> views, List<Store> stores, Iterator<Base> data) {
+    ThreadLocal<FHIRPathEngine> engines = ThreadLocal.withInitial(this::makeEngine);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    Deque<Future<List<List<List<Cell>>>>> pending = new ArrayDeque<>();
+    try {
+      while (data.hasNext()) {
+        List<Base> batch = new ArrayList<>();
+        while (batch.size() < batchSize && data.hasNext()) {
+          batch.add(data.next());
         }
-        for (List<Cell> row : rows) {
-          storage.addRow(store, row);
+        pending.add(pool.submit(() -> {
+          FHIRPathEngine engine = engines.get();
+          // the rows for each view
+          List<List<List<Cell>>> rows = new ArrayList<>();
+          for (int i = 0; i < views.size(); i++) {
+            rows.add(new ArrayList<>());
+          }
+          for (Base b : batch) {
+            for (int i = 0; i < views.size(); i++) {
+              evaluateResource(engine, views.get(i), b, rows.get(i));
+            }
+          }
+          return rows;
+        }));
+        if (pending.size() >= threads * 2) {
+          addRows(stores, pending.remove());
         }
       }
+      while (!pending.isEmpty()) {
+        addRows(stores, pending.remove());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void addRows(List<Store> stores, Future<List<List<List<Cell>>>> batch) {
+    List<List<List<Cell>>> rows;
+    try {
+      rows = batch.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else {
+        throw new FHIRException(e.getCause());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FHIRException("Interrupted evaluating the view", e);
+    }
+    for (int i = 0; i < stores.size(); i++) {
+      for (List<Cell> row : rows.get(i)) {
+        storage.addRow(stores.get(i), row);
+      }
+    }
+  }
+
+  /**
+   * add the rows for the resource to rows, if it meets the where criteria. The FHIRPath expressions 
+   * were all parsed by the validator, so nothing is parsed here
+   */
+  private void evaluateResource(FHIRPathEngine fpe, JsonObject vd, Base b, List<List<Cell>> rows) {
+    for (JsonObject w : vd.getJsonObjects("where")) {
+      ExpressionNode node = (ExpressionNode) w.getUserData("path");
+      boolean pass = fpe.evaluateToBoolean(null, b, b, b, node);
+      if (!pass) {
+        return;
+      }  
+    }
+    List<List<Cell>> resRows = new ArrayList<>();
+    resRows.add(new ArrayList<Cell>());
+
+    for (JsonObject select : vd.getJsonObjects("select")) {
+      executeSelect(fpe, select, b, resRows);
     }
-    storage.finish(store);
+    rows.addAll(resRows);
   }
   
-  private void executeSelect(JsonObject select, Base b, List<List<Cell>> rows) {
+  private void executeSelect(FHIRPathEngine fpe, JsonObject select, Base b, List<List<Cell>> rows) {
     List<Base> focus = new ArrayList<>();
     
     if (select.has("forEach")) {
-      focus.addAll(executeForEach(select, b));
+      focus.addAll(executeForEach(fpe, select, b));
     } else if (select.has("forEachOrNull")) {
       
-      focus.addAll(executeForEachOrNull(select, b));  
+      focus.addAll(executeForEachOrNull(fpe, select, b));  
       if (focus.isEmpty()) {
         List<Column> columns = (List<Column>) select.getUserData("columns");
         for (List<Cell> row : rows) {
@@ -159,20 +316,20 @@ public class Runner implements IEvaluationContext {
       List<List<Cell>> rowsToAdd = cloneRows(tempRows);  
 
       for (JsonObject column : select.getJsonObjects("column")) {
-        executeColumn(column, f, rowsToAdd);
+        executeColumn(fpe, column, f, rowsToAdd);
       }
 
       for (JsonObject sub : select.getJsonObjects("select")) {
-        executeSelect(sub, f, rowsToAdd);
+        executeSelect(fpe, sub, f, rowsToAdd);
       }
       
-      executeUnionAll(select.getJsonObjects("unionAll"), f, rowsToAdd);
+      executeUnionAll(fpe, select.getJsonObjects("unionAll"), f, rowsToAdd);
       
       rows.addAll(rowsToAdd);
     }
   }
 
-  private void executeUnionAll(List<JsonObject> unionList,  Base b, List<List<Cell>> rows) {
+  private void executeUnionAll(FHIRPathEngine fpe, List<JsonObject> unionList,  Base b, List<List<Cell>> rows) {
     if (unionList.isEmpty()) {
       return;
     }
@@ -183,7 +340,7 @@ public class Runner implements IEvaluationContext {
     for (JsonObject union : unionList) {
       List<List<Cell>> tempRows = new ArrayList<>();
       tempRows.addAll(sourceRows);      
-      executeSelect(union, b, tempRows);
+      executeSelect(fpe, union, b, tempRows);
       rows.addAll(tempRows);
     }
   }
@@ -204,21 +361,21 @@ public class Runner implements IEvaluationContext {
     return list;
   }
 
-  private List<Base> executeForEach(JsonObject focus, Base b) {
+  private List<Base> executeForEach(FHIRPathEngine fpe, JsonObject focus, Base b) {
     ExpressionNode n = (ExpressionNode) focus.getUserData("forEach");
     List<Base> result = new ArrayList<>();
     result.addAll(fpe.evaluate(b, n));
     return result;  
   }
 
-  private List<Base> executeForEachOrNull(JsonObject focus, Base b) {
+  private List<Base> executeForEachOrNull(FHIRPathEngine fpe, JsonObject focus, Base b) {
     ExpressionNode n = (ExpressionNode) focus.getUserData("forEachOrNull");
     List<Base> result = new ArrayList<>();
     result.addAll(fpe.evaluate(b, n));
     return result;  
   }
 
-  private void executeColumn(JsonObject column, Base b, List<List<Cell>> rows) {
+  private void executeColumn(FHIRPathEngine fpe, JsonObject column, Base b, List<List<Cell>> rows) {
     ExpressionNode n = (ExpressionNode) column.getUserData("path");
     List<Base> bl2 = new ArrayList<>();
     if (b != null) {
@@ -0,0 +1,614 @@
+package org.hl7.fhir.r5.utils.sql;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+
+/**
+ * Writes each view to a columnar file ([name].fcol) in a folder.
+ *
+ * The rows are written in row groups of rowGroupSize rows. Within a row group, the values of each
+ * column are written together (a column chunk), in an encoding that depends on the column kind:
+ *
+ *  - Integer: 4 byte integers
+ *  - DateTime: 8 byte milliseconds since the epoch
+ *  - Boolean: 1 byte
+ *  - Binary: length prefixed bytes
+ *  - String, Time, Decimal: length prefixed UTF-8 (decimals are kept as text, so the precision isn't lost),
+ *    or, when the chunk has few distinct values (e.g. codes and systems), a dictionary of the distinct
+ *    values followed by 1 or 2 byte indexes into it
+ *
+ * Nulls aren't written; a chunk that has nulls starts with a bitmap of the rows that have a value.
+ *
+ * The footer has the columns, and for each row group, the location, encoding, null count, and min
+ * and max of each column chunk, so that readers can skip row groups without reading them. The file
+ * ends with the offset of the footer, and the magic number. See ColumnarFile for a reader.
+ *
+ * Like SQLite, this doesn't support arrays or complex types, so each cell has at most one value
+ */
+public class StorageColumnar implements Storage {
+
+  public static final String EXTENSION = ".fcol";
+  public static final int DEFAULT_ROW_GROUP_SIZE = 100000;
+
+  private static final byte[] MAGIC = "FHIRCOL".getBytes(StandardCharsets.US_ASCII);
+  private static final int FORMAT_VERSION = 1;
+  private static final int TRAILER_SIZE = 8 + 7;
+  private static final int MAX_DICTIONARY_SIZE = 65536;
+
+  public static final byte ENCODING_PLAIN = 0;
+  public static final byte ENCODING_DICTIONARY = 1;
+
+  /**
+   * Where a column chunk is in the file, and what's in it
+   */
+  public static class ColumnChunk {
+    private long offset;
+    private int length;
+    private byte encoding;
+    private int nullCount;
+    private Object min;
+    private Object max;
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public byte getEncoding() {
+      return encoding;
+    }
+
+    public int getNullCount() {
+      return nullCount;
+    }
+
+    /**
+     * @return the smallest value in the chunk (Integer, Long, Boolean or String), or null if there are no values, or it's a binary column
+     */
+    public Object getMin() {
+      return min;
+    }
+
+    /**
+     * @return the largest value in the chunk (Integer, Long, Boolean or String), or null if there are no values, or it's a binary column
+     */
+    public Object getMax() {
+      return max;
+    }
+  }
+
+  private static class RowGroup {
+    private long offset;
+    private int rowCount;
+    private ColumnChunk[] chunks;
+  }
+
+  public static class ColumnarStore extends Store {
+    private File file;
+    private OutputStream out;
+    private long position;
+    private List<Column> columns;
+    private Map<String, Integer> indexes = new HashMap<>();
+    private List<List<Object>> buffers = new ArrayList<>();
+    private int rowCount;
+    private List<RowGroup> rowGroups = new ArrayList<>();
+
+    protected ColumnarStore(String name, File file, List<Column> columns) {
+      super(name);
+      this.file = file;
+      this.columns = columns;
+      for (int i = 0; i < columns.size(); i++) {
+        indexes.put(columns.get(i).getName(), i);
+        buffers.add(new ArrayList<>());
+      }
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+      out.write(bytes);
+      position = position + bytes.length;
+    }
+  }
+
+  private String folder;
+  private int rowGroupSize;
+
+  public StorageColumnar(String folder) {
+    this(folder, DEFAULT_ROW_GROUP_SIZE);
+  }
+
+  public StorageColumnar(String folder, int rowGroupSize) {
+    super();
+    this.folder = folder;
+    this.rowGroupSize = rowGroupSize;
+  }
+
+  public int getRowGroupSize() {
+    return rowGroupSize;
+  }
+
+  @Override
+  public boolean supportsArrays() {
+    return false;
+  }
+
+  @Override
+  public boolean supportsComplexTypes() {
+    return false;
+  }
+
+  @Override
+  public boolean needsName() {
+    return true;
+  }
+
+  @Override
+  public Store createStore(String name, List<Column> columns) {
+    try {
+      for (Column column : columns) {
+        if (column.getKind() == ColumnKind.Complex) {
+          throw new FHIRException("The columnar storage does not handle complexes (column "+column.getName()+")");
+        }
+      }
+      ColumnarStore store = new ColumnarStore(name, ManagedFileAccess.file(Utilities.path(folder, name+EXTENSION)), columns);
+      store.out = new BufferedOutputStream(ManagedFileAccess.outStream(store.file));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      store.write(bytes.toByteArray());
+      return store;
+    } catch (IOException e) {
+      throw new FHIRException(e);
+    }
+  }
+
+  @Override
+  public void addRow(Store store, List<Cell> cells) {
+    ColumnarStore cs = (ColumnarStore) store;
+    Object[] row = new Object[cs.columns.size()];
+    for (Cell cell : cells) {
+      Integer i = cs.indexes.get(cell.getColumn().getName());
+      if (i == null) {
+        throw new FHIRException("The column "+cell.getColumn().getName()+" is not in the view "+cs.getName());
+      }
+      if (cell.getValues().size() > 1) {
+        throw new FHIRException("The column "+cell.getColumn().getName()+" has multiple values, but the columnar storage does not support arrays");
+      }
+      row[i] = cell.getValues().isEmpty() ? null : value(cs.columns.get(i).getKind(), cell.getValues().get(0));
+    }
+    for (int i = 0; i < row.length; i++) {
+      cs.buffers.get(i).add(row[i]);
+    }
+    cs.rowCount++;
+    if (cs.rowCount >= rowGroupSize) {
+      try {
+        writeRowGroup(cs);
+      } catch (IOException e) {
+        throw new FHIRException(e);
+      }
+    }
+  }
+
+  private Object value(ColumnKind kind, Value value) {
+    if (value == null) {
+      return null;
+    }
+    switch (kind) {
+    case Integer: return value.getValueInt();
+    case DateTime: return value.getValueDate() == null ? null : Long.valueOf(value.getValueDate().getTime());
+    case Boolean: return value.getValueBoolean();
+    case Binary: return value.getValueBinary();
+    default: return value.getValueString();
+    }
+  }
+
+  private void writeRowGroup(ColumnarStore cs) throws IOException {
+    RowGroup rg = new RowGroup();
+    rg.offset = cs.position;
+    rg.rowCount = cs.rowCount;
+    rg.chunks = new ColumnChunk[cs.columns.size()];
+    for (int i = 0; i < cs.columns.size(); i++) {
+      rg.chunks[i] = writeChunk(cs, cs.columns.get(i).getKind(), cs.buffers.get(i));
+      cs.buffers.get(i).clear();
+    }
+    cs.rowGroups.add(rg);
+    cs.rowCount = 0;
+  }
+
+  private ColumnChunk writeChunk(ColumnarStore cs, ColumnKind kind, List<Object> values) throws IOException {
+    ColumnChunk chunk = new ColumnChunk();
+    chunk.offset = cs.position;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    List<Object> present = new ArrayList<>();
+    byte[] bitmap = new byte[(values.size() + 7) / 8];
+    for (int r = 0; r < values.size(); r++) {
+      Object v = values.get(r);
+      if (v == null) {
+        chunk.nullCount++;
+      } else {
+        bitmap[r / 8] |= 1 << (r % 8);
+        present.add(v);
+      }
+    }
+    if (chunk.nullCount > 0) {
+      out.write(bitmap);
+    }
+
+    switch (kind) {
+    case Integer:
+      for (Object v : present) {
+        out.writeInt((Integer) v);
+        chunk.min = chunk.min == null || (Integer) v < (Integer) chunk.min ? v : chunk.min;
+        chunk.max = chunk.max == null || (Integer) v > (Integer) chunk.max ? v : chunk.max;
+      }
+      break;
+    case DateTime:
+      for (Object v : present) {
+        out.writeLong((Long) v);
+        chunk.min = chunk.min == null || (Long) v < (Long) chunk.min ? v : chunk.min;
+        chunk.max = chunk.max == null || (Long) v > (Long) chunk.max ? v : chunk.max;
+      }
+      break;
+    case Boolean:
+      for (Object v : present) {
+        out.writeBoolean((Boolean) v);
+        chunk.min = chunk.min == null || !((Boolean) v) ? v : chunk.min;
+        chunk.max = chunk.max == null || (Boolean) v ? v : chunk.max;
+      }
+      break;
+    case Binary:
+      for (Object v : present) {
+        writeBytes(out, (byte[]) v);
+      }
+      break;
+    default:
+      Map<String, Integer> dictionary = new LinkedHashMap<>();
+      for (Object v : present) {
+        String s = (String) v;
+        if (!dictionary.containsKey(s)) {
+          dictionary.put(s, dictionary.size());
+          if (dictionary.size() > MAX_DICTIONARY_SIZE) {
+            break;
+          }
+        }
+        chunk.min = chunk.min == null || compare(kind, s, (String) chunk.min) < 0 ? s : chunk.min;
+        chunk.max = chunk.max == null || compare(kind, s, (String) chunk.max) > 0 ? s : chunk.max;
+      }
+      if (!present.isEmpty() && dictionary.size() <= present.size() / 2 && dictionary.size() <= MAX_DICTIONARY_SIZE) {
+        chunk.encoding = ENCODING_DICTIONARY;
+        out.writeInt(dictionary.size());
+        for (String s : dictionary.keySet()) {
+          writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+        }
+        int width = dictionary.size() <= 256 ? 1 : 2;
+        out.writeByte(width);
+        for (Object v : present) {
+          int index = dictionary.get((String) v);
+          if (width == 1) {
+            out.writeByte(index);
+          } else {
+            out.writeShort(index);
+          }
+        }
+      } else {
+        chunk.encoding = ENCODING_PLAIN;
+        // the min and max weren't finished if the dictionary got too big
+        for (Object v : present) {
+          String s = (String) v;
+          writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+          chunk.min = compare(kind, s, (String) chunk.min) < 0 ? s : chunk.min;
+          chunk.max = compare(kind, s, (String) chunk.max) > 0 ? s : chunk.max;
+        }
+      }
+    }
+    out.flush();
+    chunk.length = bytes.size();
+    cs.write(bytes.toByteArray());
+    return chunk;
+  }
+
+  private int compare(ColumnKind kind, String s1, String s2) {
+    if (kind == ColumnKind.Decimal) {
+      return new BigDecimal(s1).compareTo(new BigDecimal(s2));
+    } else {
+      return s1.compareTo(s2);
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  @Override
+  public void finish(Store store) {
+    ColumnarStore cs = (ColumnarStore) store;
+    try {
+      if (cs.rowCount > 0) {
+        writeRowGroup(cs);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(cs.columns.size());
+      for (Column column : cs.columns) {
+        out.writeUTF(column.getName());
+        out.writeUTF(column.getKind().name());
+        out.writeUTF(column.getType() == null ? "" : column.getType());
+      }
+      out.writeInt(cs.rowGroups.size());
+      for (RowGroup rg : cs.rowGroups) {
+        out.writeLong(rg.offset);
+        out.writeInt(rg.rowCount);
+        for (int i = 0; i < rg.chunks.length; i++) {
+          ColumnChunk chunk = rg.chunks[i];
+          out.writeLong(chunk.offset);
+          out.writeInt(chunk.length);
+          out.writeByte(chunk.encoding);
+          out.writeInt(chunk.nullCount);
+          writeStatistic(out, cs.columns.get(i).getKind(), chunk.min);
+          writeStatistic(out, cs.columns.get(i).getKind(), chunk.max);
+        }
+      }
+      out.writeLong(cs.position);
+      out.write(MAGIC);
+      out.flush();
+      cs.write(bytes.toByteArray());
+      cs.out.close();
+    } catch (IOException e) {
+      throw new FHIRException(e);
+    }
+  }
+
+  private void writeStatistic(DataOutputStream out, ColumnKind kind, Object value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      switch (kind) {
+      case Integer:
+        out.writeInt((Integer) value);
+        break;
+      case DateTime:
+        out.writeLong((Long) value);
+        break;
+      case Boolean:
+        out.writeBoolean((Boolean) value);
+        break;
+      default:
+        writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  @Override
+  public String getKeyForSourceResource(Base res) {
+    return res.getIdBase();
+  }
+
+  @Override
+  public String getKeyForTargetResource(Base res) {
+    return res.fhirType()+"/"+res.getIdBase();
+  }
+
+  /**
+   * Reads a file written by StorageColumnar. Only the footer is read when the file is opened;
+   * the column chunks are read as they are asked for
+   */
+  public static class ColumnarFile {
+    private File file;
+    private List<Column> columns = new ArrayList<>();
+    private List<RowGroup> rowGroups = new ArrayList<>();
+
+    private ColumnarFile(File file) {
+      this.file = file;
+    }
+
+    public static ColumnarFile open(File file) throws IOException {
+      ColumnarFile res = new ColumnarFile(file);
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+        long length = raf.length();
+        if (length < MAGIC.length + 4 + TRAILER_SIZE) {
+          throw new IOException("The file "+file.getAbsolutePath()+" is not a columnar view file");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        raf.readFully(magic);
+        int version = raf.readInt();
+        raf.seek(length - TRAILER_SIZE);
+        long footerOffset = raf.readLong();
+        byte[] endMagic = new byte[MAGIC.length];
+        raf.readFully(endMagic);
+        if (!Arrays.equals(magic, MAGIC) || !Arrays.equals(endMagic, MAGIC)) {
+          throw new IOException("The file "+file.getAbsolutePath()+" is not a columnar view file");
+        }
+        if (version != FORMAT_VERSION) {
+          throw new IOException("The file "+file.getAbsolutePath()+" is format version "+version+", not "+FORMAT_VERSION);
+        }
+        if (footerOffset < MAGIC.length + 4 || footerOffset > length - TRAILER_SIZE) {
+          throw new IOException("The columnar view file "+file.getAbsolutePath()+" is corrupt");
+        }
+        byte[] footer = new byte[(int) (length - TRAILER_SIZE - footerOffset)];
+        raf.seek(footerOffset);
+        raf.readFully(footer);
+        res.readFooter(new DataInputStream(new ByteArrayInputStream(footer)));
+      }
+      return res;
+    }
+
+    private void readFooter(DataInputStream in) throws IOException {
+      int cc = in.readInt();
+      for (int i = 0; i < cc; i++) {
+        String name = in.readUTF();
+        ColumnKind kind = ColumnKind.valueOf(in.readUTF());
+        String type = in.readUTF();
+        columns.add(new Column(name, false, "".equals(type) ? null : type, kind));
+      }
+      int rgc = in.readInt();
+      for (int i = 0; i < rgc; i++) {
+        RowGroup rg = new RowGroup();
+        rg.offset = in.readLong();
+        rg.rowCount = in.readInt();
+        rg.chunks = new ColumnChunk[cc];
+        for (int j = 0; j < cc; j++) {
+          ColumnChunk chunk = new ColumnChunk();
+          chunk.offset = in.readLong();
+          chunk.length = in.readInt();
+          chunk.encoding = in.readByte();
+          chunk.nullCount = in.readInt();
+          chunk.min = readStatistic(in, columns.get(j).getKind());
+          chunk.max = readStatistic(in, columns.get(j).getKind());
+          rg.chunks[j] = chunk;
+        }
+        rowGroups.add(rg);
+      }
+    }
+
+    private Object readStatistic(DataInputStream in, ColumnKind kind) throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      switch (kind) {
+      case Integer: return in.readInt();
+      case DateTime: return in.readLong();
+      case Boolean: return in.readBoolean();
+      default: return readString(in);
+      }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+      byte[] b = new byte[in.readInt()];
+      in.readFully(b);
+      return b;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+      return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    public List<Column> getColumns() {
+      return columns;
+    }
+
+    public int getRowGroupCount() {
+      return rowGroups.size();
+    }
+
+    public int getRowCount(int rowGroup) {
+      return rowGroups.get(rowGroup).rowCount;
+    }
+
+    public long getRowCount() {
+      long res = 0;
+      for (RowGroup rg : rowGroups) {
+        res = res + rg.rowCount;
+      }
+      return res;
+    }
+
+    public ColumnChunk getChunk(int rowGroup, int column) {
+      return rowGroups.get(rowGroup).chunks[column];
+    }
+
+    /**
+     * @return the values of the column in the row group, one per row (null if the row has no value).
+     * The values are Integer, Long (DateTime), Boolean, byte[] (Binary) or String
+     */
+    public List<Object> readColumn(int rowGroup, int column) throws IOException {
+      RowGroup rg = rowGroups.get(rowGroup);
+      ColumnChunk chunk = rg.chunks[column];
+      byte[] bytes = new byte[chunk.length];
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+        raf.seek(chunk.offset);
+        raf.readFully(bytes);
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      byte[] bitmap = null;
+      if (chunk.nullCount > 0) {
+        bitmap = new byte[(rg.rowCount + 7) / 8];
+        in.readFully(bitmap);
+      }
+      int count = rg.rowCount - chunk.nullCount;
+      List<Object> present = new ArrayList<>(count);
+      ColumnKind kind = columns.get(column).getKind();
+      switch (kind) {
+      case Integer:
+        for (int i = 0; i < count; i++) {
+          present.add(in.readInt());
+        }
+        break;
+      case DateTime:
+        for (int i = 0; i < count; i++) {
+          present.add(in.readLong());
+        }
+        break;
+      case Boolean:
+        for (int i = 0; i < count; i++) {
+          present.add(in.readBoolean());
+        }
+        break;
+      case Binary:
+        for (int i = 0; i < count; i++) {
+          present.add(readBytes(in));
+        }
+        break;
+      default:
+        if (chunk.encoding == ENCODING_DICTIONARY) {
+          String[] dictionary = new String[in.readInt()];
+          for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(in);
+          }
+          int width = in.readByte();
+          for (int i = 0; i < count; i++) {
+            present.add(dictionary[width == 1 ? in.readUnsignedByte() : in.readUnsignedShort()]);
+          }
+        } else {
+          for (int i = 0; i < count; i++) {
+            present.add(readString(in));
+          }
+        }
+      }
+
+      List<Object> res = new ArrayList<>(rg.rowCount);
+      int p = 0;
+      for (int r = 0; r < rg.rowCount; r++) {
+        if (bitmap == null || (bitmap[r / 8] & (1 << (r % 8))) != 0) {
+          res.add(present.get(p));
+          p++;
+        } else {
+          res.add(null);
+        }
+      }
+      return res;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package org.hl7.fhir.r5.utils.sql;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.r5.model.Base;
 import org.hl7.fhir.utilities.json.model.JsonArray;
@@ -13,8 +15,21 @@ import org.hl7.fhir.utilities.json.model.JsonString;
 
 public class StorageJson implements Storage {
 
+  public static class JsonStore extends Store {
+    private JsonArray rows = new JsonArray();
+
+    protected JsonStore(String name) {
+      super(name);
+    }
+
+    public JsonArray getRows() {
+      return rows;
+    }
+  }
+
   private String name; 
   private JsonArray rows;
+  private Map<String, JsonArray> allRows = new HashMap<>();
   
   @Override
   public boolean supportsArrays() {
@@ -23,15 +38,17 @@ public class StorageJson implements Storage {
 
   @Override
   public Store createStore(String name, List<Column> columns) {
+    JsonStore store = new JsonStore(name);
     this.name = name;
-    this.rows = new JsonArray();
-    return new Store(name); // we're not doing anything with this
+    this.rows = store.getRows();
+    allRows.put(name, store.getRows());
+    return store;
   }
 
   @Override
   public void addRow(Store store, List<Cell> cells) {
     JsonObject row = new JsonObject();
-    rows.add(row);
+    ((JsonStore) store).getRows().add(row);
     for (Cell cell : cells) {
       if (cell.getValues().size() == 0) {
         row.add(cell.getColumn().getName(), new JsonNull());
@@ -71,10 +88,20 @@ public class StorageJson implements Storage {
     return name;
   }
 
+  /**
+   * @return the rows of the last view that was executed
+   */
   public JsonArray getRows() {
     return rows;
   }
 
+  /**
+   * @return the rows of the named view, when several views were executed together
+   */
+  public JsonArray getRows(String name) {
+    return allRows.get(name);
+  }
+
   @Override
   public boolean supportsComplexTypes() {
     return true;
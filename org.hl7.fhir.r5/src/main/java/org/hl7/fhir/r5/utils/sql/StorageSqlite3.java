@@ -2,8 +2,13 @@ package org.hl7.fhir.r5.utils.sql;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.SQLType;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.model.Base;
@@ -13,6 +18,7 @@ public class StorageSqlite3 implements Storage {
   
   public static class SQLiteStore extends Store {
     private PreparedStatement p;
+    private int pending; // rows added to the batch, and not yet executed
 
     protected SQLiteStore(String name, PreparedStatement p) {
       super(name);
@@ -27,12 +33,36 @@ public class StorageSqlite3 implements Storage {
   
   private Connection conn;
   private int nextKey = 0;
+  private int batchSize;
+  private int openStores;
+  private boolean autoCommit;
+  private Map<String, String> pragmas; // the settings before bulk loading started, to put back when it's finished
   
   public StorageSqlite3(Connection conn) {
     super();
     this.conn = conn;
   }
 
+  /**
+   * Bulk load mode: rows are added to the database in batches of batchSize, each batch 
+   * in a transaction of its own (committing the pending rows for all the open stores). 
+   * The connection is set up for bulk loading (no rollback journal, no syncing to disk), 
+   * so if the process stops part way through, the database may be corrupt, and should 
+   * be deleted.
+   * 
+   * Auto-commit is turned off, and the connection settings are changed, until all the stores 
+   * are finished
+   */
+  public StorageSqlite3(Connection conn, int batchSize) {
+    super();
+    this.conn = conn;
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
   @Override
   public Store createStore(String name, List<Column> columns) {
     try {
@@ -47,10 +77,14 @@ public class StorageSqlite3 implements Storage {
         values.append("?");
       }
       b.append(", PRIMARY KEY (ViewRowKey))\r\n");
+      if (batchSize > 0 && openStores == 0) {
+        startBulkLoad();
+      }
       conn.createStatement().execute(b.toString());
 
       String isql = "Insert into "+name+" (ViewRowKey, "+fields.toString()+") values (?, "+values.toString()+")";
       PreparedStatement psql = conn.prepareStatement(isql);
+      openStores++;
       return new SQLiteStore(name, psql);
     } catch (Exception e) {
       throw new FHIRException(e);
@@ -71,51 +105,114 @@ public class StorageSqlite3 implements Storage {
     return null;
   }
 
+  private static final String[] BULK_LOAD_PRAGMAS = { "journal_mode", "synchronous", "temp_store", "cache_size" };
+
+  private void startBulkLoad() throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+      pragmas = new LinkedHashMap<>();
+      for (String name : BULK_LOAD_PRAGMAS) {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA "+name)) {
+          if (rs.next()) {
+            pragmas.put(name, rs.getString(1));
+          }
+        }
+      }
+      stmt.execute("PRAGMA journal_mode = OFF");
+      stmt.execute("PRAGMA synchronous = OFF");
+      stmt.execute("PRAGMA temp_store = MEMORY");
+      stmt.execute("PRAGMA cache_size = -65536"); // 64MB
+    }
+    autoCommit = conn.getAutoCommit();
+    conn.setAutoCommit(false);
+  }
+
   @Override
   public void addRow(Store store, List<Cell> cells) {
     try {
       SQLiteStore sqls = (SQLiteStore) store;
       PreparedStatement p = sqls.getP();
-      p.setInt(1, ++nextKey);
-      for (int i = 0; i < cells.size(); i++) {
-        Cell c = cells.get(i);
-        switch (c.getColumn().getKind()) {
-        case Null: 
-          p.setNull(i+2, java.sql.Types.NVARCHAR);
-        case Binary:
-          p.setBytes(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueBinary());
-          break;
-        case Boolean:
-          p.setBoolean(i+2, c.getValues().size() == 0 ? false : c.getValues().get(0).getValueBoolean().booleanValue());
-          break;
-        case DateTime:
-          p.setDate(i+2, c.getValues().size() == 0 ? null : new java.sql.Date(c.getValues().get(0).getValueDate().getTime()));
-          break;
-        case Decimal:
-          p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
-          break;
-        case Integer:
-          p.setInt(i+2, c.getValues().size() == 0 ? 0 : c.getValues().get(0).getValueInt().intValue());
-          break;
-        case String:
-          p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
-          break;
-        case Time:
-          p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
-          break;    
-        case Complex: throw new FHIRException("SQLite runner does not handle complexes");
+      setValues(p, cells);
+      if (batchSize > 0) {
+        p.addBatch();
+        sqls.pending++;
+        if (sqls.pending >= batchSize) {
+          p.executeBatch();
+          sqls.pending = 0;
+          conn.commit();
         }
+      } else {
+        p.execute();
       }
-      p.execute();
     } catch (Exception e) {
       throw new FHIRException(e);
     }
     
   }
 
+  private void setValues(PreparedStatement p, List<Cell> cells) throws SQLException {
+    p.setInt(1, ++nextKey);
+    for (int i = 0; i < cells.size(); i++) {
+      Cell c = cells.get(i);
+      switch (c.getColumn().getKind()) {
+      case Null: 
+        p.setNull(i+2, java.sql.Types.NVARCHAR);
+      case Binary:
+        p.setBytes(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueBinary());
+        break;
+      case Boolean:
+        p.setBoolean(i+2, c.getValues().size() == 0 ? false : c.getValues().get(0).getValueBoolean().booleanValue());
+        break;
+      case DateTime:
+        p.setDate(i+2, c.getValues().size() == 0 ? null : new java.sql.Date(c.getValues().get(0).getValueDate().getTime()));
+        break;
+      case Decimal:
+        p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
+        break;
+      case Integer:
+        p.setInt(i+2, c.getValues().size() == 0 ? 0 : c.getValues().get(0).getValueInt().intValue());
+        break;
+      case String:
+        p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
+        break;
+      case Time:
+        p.setString(i+2, c.getValues().size() == 0 ? null : c.getValues().get(0).getValueString());
+        break;    
+      case Complex: throw new FHIRException("SQLite runner does not handle complexes");
+      }
+    }
+  }
+
   @Override
   public void finish(Store store) {
-    // nothing
+    try {
+      SQLiteStore sqls = (SQLiteStore) store;
+      if (batchSize > 0) {
+        if (sqls.pending > 0) {
+          sqls.getP().executeBatch();
+          sqls.pending = 0;
+        }
+        conn.commit();
+      }
+      sqls.getP().close();
+      openStores--;
+      if (batchSize > 0 && openStores == 0) {
+        finishBulkLoad();
+      }
+    } catch (Exception e) {
+      throw new FHIRException(e);
+    }
+  }
+
+  private void finishBulkLoad() throws SQLException {
+    // the journal mode can't be changed inside a transaction
+    conn.setAutoCommit(true);
+    try (Statement stmt = conn.createStatement()) {
+      for (String name : pragmas.keySet()) {
+        stmt.execute("PRAGMA "+name+" = "+pragmas.get(name));
+      }
+    }
+    pragmas = null;
+    conn.setAutoCommit(autoCommit);
   }
 
   @Override
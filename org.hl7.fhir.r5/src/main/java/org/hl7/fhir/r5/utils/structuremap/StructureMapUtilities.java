@@ -46,6 +46,7 @@ import org.hl7.fhir.r5.elementmodel.Property;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRLexer;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.CollectionStatus;
 import org.hl7.fhir.r5.fhirpath.FHIRLexer.FHIRLexerException;
@@ -120,6 +121,7 @@ public class StructureMapUtilities {
     this.pkp = pkp;
     fpe = new FHIRPathEngine(worker);
     fpe.setHostServices(new FHIRPathHostServices(this));
+    fpe.setExpressionCache(FHIRPathExpressionCache.getInstance());
     profileUtilities = new ProfileUtilities(worker, null, null);
   }
 
@@ -129,6 +131,7 @@ public class StructureMapUtilities {
     this.services = services;
     fpe = new FHIRPathEngine(worker);
     fpe.setHostServices(new FHIRPathHostServices(this));
+    fpe.setExpressionCache(FHIRPathExpressionCache.getInstance());
     profileUtilities = new ProfileUtilities(worker, null, null);
   }
 
@@ -137,6 +140,7 @@ public class StructureMapUtilities {
     this.worker = worker;
     fpe = new FHIRPathEngine(worker);
     fpe.setHostServices(new FHIRPathHostServices(this));
+    fpe.setExpressionCache(FHIRPathExpressionCache.getInstance());
     profileUtilities = new ProfileUtilities(worker, null, null);
 
   }
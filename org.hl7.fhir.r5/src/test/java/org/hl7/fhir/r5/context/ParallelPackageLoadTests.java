@@ -0,0 +1,81 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ParallelPackageLoadTests {
+
+  private static final String URL = "http://example.org/fhir/ValueSet/";
+
+  private NpmPackage makePackage(boolean broken) throws IOException {
+    NpmPackage npm = NpmPackage.empty();
+    npm.addFile("package", "package.json", "{\"name\":\"example.fhir.test\",\"version\":\"1.0.0\",\"fhirVersions\":[\"5.0.0\"]}".getBytes(StandardCharsets.UTF_8), "package.json");
+    for (int i = 0; i < 50; i++) {
+      ValueSet vs = new ValueSet();
+      vs.setId("vs"+i);
+      // several versions of the same value set, so the order they're registered in matters
+      vs.setUrl(URL+(i % 10));
+      vs.setVersion("1.0."+i);
+      vs.setStatus(PublicationStatus.ACTIVE);
+      vs.getCompose().addInclude().setSystem("http://example.org/fhir/CodeSystem/cs"+i);
+      npm.addFile("package", "ValueSet-vs"+i+".json", new JsonParser().composeBytes(vs), "ValueSet");
+
+      CodeSystem cs = new CodeSystem();
+      cs.setId("cs"+i);
+      cs.setUrl("http://example.org/fhir/CodeSystem/cs"+i);
+      cs.setStatus(PublicationStatus.ACTIVE);
+      cs.setContent(CodeSystemContentMode.COMPLETE);
+      cs.addConcept().setCode("a"+i);
+      npm.addFile("package", "CodeSystem-cs"+i+".json", new JsonParser().composeBytes(cs), "CodeSystem");
+    }
+    if (broken) {
+      npm.addFile("package", "ValueSet-vs7.json", "{\"resourceType\":\"ValueSet\",".getBytes(StandardCharsets.UTF_8), "ValueSet");
+    }
+    return npm;
+  }
+
+  private SimpleWorkerContext load(NpmPackage npm, boolean parallel) throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    context.setParallelLoading(parallel);
+    Assertions.assertEquals(100, context.loadFromPackage(npm, null));
+    return context;
+  }
+
+  @Test
+  public void testSameAsSequential() throws IOException {
+    NpmPackage npm = makePackage(false);
+    SimpleWorkerContext seq = load(npm, false);
+    SimpleWorkerContext par = load(npm, true);
+
+    List<ValueSet> sl = seq.fetchResourcesByType(ValueSet.class);
+    List<ValueSet> pl = par.fetchResourcesByType(ValueSet.class);
+    Assertions.assertEquals(sl.size(), pl.size());
+    for (int i = 0; i < sl.size(); i++) {
+      Assertions.assertTrue(sl.get(i).equalsDeep(pl.get(i)));
+    }
+    for (int i = 0; i < 10; i++) {
+      Assertions.assertEquals(seq.fetchResource(ValueSet.class, URL+i).getVersion(), par.fetchResource(ValueSet.class, URL+i).getVersion());
+    }
+    Assertions.assertEquals(seq.fetchResourcesByType(CodeSystem.class).size(), par.fetchResourcesByType(CodeSystem.class).size());
+    Assertions.assertEquals(seq.getLoadedPackages(), par.getLoadedPackages());
+  }
+
+  @Test
+  public void testErrorIsReported() throws IOException {
+    NpmPackage npm = makePackage(true);
+    FHIRException seq = Assertions.assertThrows(FHIRException.class, () -> load(npm, false));
+    FHIRException par = Assertions.assertThrows(FHIRException.class, () -> load(npm, true));
+    Assertions.assertEquals(seq.getMessage(), par.getMessage());
+  }
+}
@@ -0,0 +1,107 @@
+package org.hl7.fhir.r5.context;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResidentResourceSetTests {
+
+  private static final String URL = "http://example.org/fhir/ValueSet/";
+
+  private final Map<String, Integer> loads = new HashMap<>();
+
+  private class TestProxy extends CanonicalResourceProxy {
+
+    public TestProxy(String id) {
+      super("ValueSet", id, URL+id, "1.0.0", null, null, null);
+    }
+
+    @Override
+    public CanonicalResource loadResource() throws FHIRException {
+      loads.merge(getId(), 1, Integer::sum);
+      ValueSet vs = new ValueSet();
+      vs.setId(getId());
+      vs.setUrl(getUrl());
+      vs.setVersion(getVersion());
+      return vs;
+    }
+
+    @Override
+    public long getSize() {
+      return 100;
+    }
+  }
+
+  private CanonicalResourceManager<ValueSet> makeManager(ResidentResourceSet rs) {
+    CanonicalResourceManager<ValueSet> mgr = new CanonicalResourceManager<>(false, false);
+    mgr.setResidentSet(rs);
+    for (String id : new String[] { "a", "b", "c", "d" }) {
+      mgr.register(new TestProxy(id), null);
+    }
+    return mgr;
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    ResidentResourceSet rs = new ResidentResourceSet(300);
+    CanonicalResourceManager<ValueSet> mgr = makeManager(rs);
+
+    Assertions.assertEquals("a", mgr.get(URL+"a").getId());
+    Assertions.assertEquals("b", mgr.get(URL+"b").getId());
+    Assertions.assertEquals("c", mgr.get(URL+"c").getId());
+    Assertions.assertEquals("a", mgr.get(URL+"a").getId()); // b is now the least recently used
+    Assertions.assertEquals("d", mgr.get(URL+"d").getId());
+    Assertions.assertEquals(3, rs.getCount());
+    Assertions.assertEquals(300, rs.getSize());
+    Assertions.assertEquals(1, rs.getEvictions());
+
+    // b was dropped, and is loaded again
+    Assertions.assertEquals("b", mgr.get(URL+"b").getId());
+    Assertions.assertEquals(2, loads.get("b"));
+    Assertions.assertEquals(1, loads.get("a"));
+    Assertions.assertEquals(4, rs.getLoads());
+    Assertions.assertEquals(1, rs.getReloads());
+    Assertions.assertEquals(1, rs.getHits());
+  }
+
+  @Test
+  public void testPinnedIsNotEvicted() {
+    ResidentResourceSet rs = new ResidentResourceSet(200);
+    CanonicalResourceManager<ValueSet> mgr = makeManager(rs);
+
+    mgr.get(URL+"a");
+    Assertions.assertTrue(mgr.pin(URL+"a"));
+    mgr.get(URL+"b");
+    mgr.get(URL+"c");
+    mgr.get(URL+"d");
+    mgr.get(URL+"a");
+    Assertions.assertEquals(1, loads.get("a"));
+
+    mgr.unpin(URL+"a");
+    mgr.get(URL+"b");
+    mgr.get(URL+"c");
+    mgr.get(URL+"a");
+    Assertions.assertEquals(2, loads.get("a"));
+  }
+
+  @Test
+  public void testDirectResourcesAreNotTracked() {
+    ResidentResourceSet rs = new ResidentResourceSet(100);
+    CanonicalResourceManager<ValueSet> mgr = makeManager(rs);
+    ValueSet vs = new ValueSet();
+    vs.setId("e");
+    vs.setUrl(URL+"e");
+    mgr.see(vs, null);
+
+    mgr.get(URL+"a");
+    mgr.get(URL+"b");
+    Assertions.assertSame(vs, mgr.get(URL+"e"));
+    Assertions.assertEquals(1, rs.getCount());
+  }
+}
@@ -14,6 +14,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Stream;
 
+import org.hl7.fhir.r5.model.Bundle;
 import org.hl7.fhir.r5.model.CapabilityStatement;
 import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
@@ -25,6 +26,7 @@ import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.terminologies.validation.ValueSetValidator;
@@ -286,6 +288,34 @@ public class SimpleWorkerContextTests {
     Mockito.verify(context).validateOnServer(terminologyClientContext, valueSet, pIn, validationOptions);
   }
 
+  @Test
+  public void testValidateCodeBatchOnServer() throws IOException {
+    ValidationOptions validationOptions = new ValidationOptions(FhirPublication.R5).withGuessSystem().withVersionFlexible(false).withNoClient();
+    ValueSet valueSet = new ValueSet();
+    List<CodingValidationRequest> requests = new ArrayList<>();
+    requests.add(new CodingValidationRequest(new Coding("http://loinc.org", "1234-5", null), valueSet));
+    requests.add(new CodingValidationRequest(new CodeableConcept(new Coding("http://loinc.org", "2345-6", null)), valueSet));
+
+    Mockito.doReturn(cacheToken).when(terminologyCache).generateValidationToken(eq(validationOptions), any(Coding.class), eq(valueSet), eq(expParameters));
+    Mockito.doReturn(cacheToken).when(terminologyCache).generateValidationToken(eq(validationOptions), any(CodeableConcept.class), eq(valueSet), eq(expParameters));
+    Mockito.doNothing().when(context).addServerValidationParameters(any(), any(), any(), any());
+
+    Bundle response = new Bundle();
+    response.addEntry().setResource(new Parameters());
+    response.addEntry().setResource(new Parameters());
+    Mockito.doReturn(response).when(terminologyClient).validateBatch(any());
+    Mockito.doReturn(expectedValidationResult).when(context).processValidationResult(any(), any(), any());
+
+    context.validateCodeBatch(validationOptions, requests);
+
+    for (CodingValidationRequest request : requests) {
+      assertEquals(expectedValidationResult, request.getResult());
+    }
+    Mockito.verify(terminologyClient).validateBatch(argThat(batch -> batch.getEntry().size() == 2));
+    Mockito.verify(context, times(0)).validateOnServer(any(), any(), any(), any());
+    Mockito.verify(terminologyCache, times(2)).cacheValidation(cacheToken, expectedValidationResult, true);
+  }
+
   @Test
   public void testExpandValueSetWithCache() throws IOException {
 
@@ -2,6 +2,7 @@ package org.hl7.fhir.r5.context;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -11,6 +12,7 @@ import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -29,7 +31,9 @@ import org.hl7.fhir.r5.model.Parameters;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.StructuralHash;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCacheLog;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
@@ -162,6 +166,108 @@ public class TerminologyCacheTests implements ResourceLoaderTests {
     deleteTempCacheDirectory(tempCacheDirectory);
   }
 
+  @Test
+  public void testConcurrentCacheAccess() throws IOException, InterruptedException {
+    Path tempCacheDirectory = createTempCacheDirectory();
+    TerminologyCache terminologyCache = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    ValueSet valueSet = new ValueSet();
+    valueSet.setUrl("dummyValueSetURL");
+
+    List<Thread> threads = IntStream.range(0, 8).mapToObj(t -> new Thread(() -> {
+      for (int i = 0; i < 50; i++) {
+        Coding coding = new Coding().setSystem("http://acme.org/cs"+(i % 3)).setCode("code"+t+"-"+i);
+        TerminologyCache.CacheToken token = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters());
+        terminologyCache.cacheValidation(token, new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "msg"+t+"-"+i, null), true);
+        assertEquals("msg"+t+"-"+i, terminologyCache.getValidation(token).getMessage());
+      }
+    })).collect(Collectors.toList());
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(400, terminologyCache.getRequestCount());
+    assertEquals(400, terminologyCache.getHitCount());
+
+    // a new cache on the same folder sees everything that was written
+    TerminologyCache terminologyCacheB = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    Coding coding = new Coding().setSystem("http://acme.org/cs1").setCode("code3-1");
+    assertEquals("msg3-1", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())).getMessage());
+    deleteTempCacheDirectory(tempCacheDirectory);
+  }
+
+  @Test
+  public void testBinaryCacheConversion() throws IOException {
+    Path tempCacheDirectory = createTempCacheDirectory();
+    ValueSet valueSet = new ValueSet();
+    valueSet.setUrl("dummyValueSetURL");
+    Coding coding1 = new Coding().setSystem("http://acme.org/cs").setCode("code1");
+    Coding coding2 = new Coding().setSystem("http://acme.org/cs").setCode("code2");
+
+    TerminologyCache terminologyCacheA = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    terminologyCacheA.cacheValidation(terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters()), 
+      new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "msg1", null), true);
+    TerminologyCache.CacheToken expansionToken = terminologyCacheA.generateExpandToken(valueSet, true);
+    terminologyCacheA.cacheExpansion(expansionToken, new ValueSetExpansionOutcome(valueSet), true);
+    terminologyCacheA.unload();
+
+    assertEquals(2, TerminologyCache.convertToBinary(tempCacheDirectory.toString()));
+
+    // entries are read from the log, and new entries are added to it
+    TerminologyCache terminologyCacheB = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    assertEquals("msg1", terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters())).getMessage());
+    assertEquals("dummyValueSetURL", terminologyCacheB.getExpansion(terminologyCacheB.generateExpandToken(valueSet, true)).getValueset().getUrl());
+    assertNull(terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters())));
+    terminologyCacheB.cacheValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters()), 
+      new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "msg2", null), true);
+    terminologyCacheB.unload();
+
+    TerminologyCache terminologyCacheC = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    assertEquals("msg2", terminologyCacheC.getValidation(terminologyCacheC.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters())).getMessage());
+    terminologyCacheC.unload();
+
+    // the index is rebuilt from the log if it's lost, and a record that was cut short is dropped
+    Files.delete(tempCacheDirectory.resolve(TerminologyCacheLog.INDEX_FILE));
+    Files.write(tempCacheDirectory.resolve(TerminologyCacheLog.LOG_FILE), new byte[] { 0, 0, 0, 10, 'a', 'b' }, StandardOpenOption.APPEND);
+    TerminologyCache terminologyCacheD = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+    assertEquals("msg1", terminologyCacheD.getValidation(terminologyCacheD.generateValidationToken(CacheTestUtils.validationOptions, coding1, valueSet, new Parameters())).getMessage());
+    assertEquals("msg2", terminologyCacheD.getValidation(terminologyCacheD.generateValidationToken(CacheTestUtils.validationOptions, coding2, valueSet, new Parameters())).getMessage());
+    terminologyCacheD.unload();
+    deleteTempCacheDirectory(tempCacheDirectory);
+  }
+
+  @Test
+  public void testStructuralHash() {
+    CodeableConcept cc1 = new CodeableConcept().addCoding(new Coding("http://acme.org/cs1", "code1", null)).addCoding(new Coding("http://acme.org/cs2", "code2", null));
+    CodeableConcept cc2 = new CodeableConcept().addCoding(new Coding("http://acme.org/cs2", "code2", null)).addCoding(new Coding("http://acme.org/cs1", "code1", null));
+    CodeableConcept cc3 = new CodeableConcept().addCoding(new Coding("http://acme.org/cs1", "code2", null)).addCoding(new Coding("http://acme.org/cs2", "code1", null));
+
+    String h1 = new StructuralHash().add(cc1).toString();
+    assertEquals(32, h1.length());
+    assertEquals(h1, new StructuralHash().add(cc1.copy()).toString());
+    // order matters, since cached issues refer to the codings by index
+    assertNotEquals(h1, new StructuralHash().add(cc2).toString());
+    assertNotEquals(h1, new StructuralHash().add(cc3).toString());
+  }
+
+  @Test
+  public void testCacheTokenUsesStructuralKey() throws IOException {
+    TerminologyCache terminologyCache = createTerminologyCache();
+    ValueSet valueSet = new ValueSet();
+    valueSet.getCompose().addInclude().setSystem("http://acme.org/cs1");
+    valueSet.getCompose().addInclude().setSystem("http://acme.org/cs2");
+    CodeableConcept cc1 = new CodeableConcept().addCoding(new Coding("http://acme.org/cs1", "code1", null)).addCoding(new Coding("http://acme.org/cs2", "code2", null));
+    CodeableConcept cc2 = new CodeableConcept().addCoding(new Coding("http://acme.org/cs2", "code2", null)).addCoding(new Coding("http://acme.org/cs1", "code1", null));
+
+    terminologyCache.cacheValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, cc1, valueSet, new Parameters()), 
+      new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "msg1", null), false);
+    // same content, different order
+    assertEquals("msg1", terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, cc2, valueSet, new Parameters())).getMessage());
+    // the request text is still available for the persisted form 
+    assertTrue(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, cc1, valueSet, new Parameters()).getRequest().contains("code1"));
+  }
+
   private void assertCanonicalResourceEquals(CanonicalResource a, CanonicalResource b) {
     assertTrue(a.equalsDeep(b));
   }
@@ -0,0 +1,129 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.utilities.TextFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkerContextSnapshotTests {
+
+  private static final String VS_URL = "http://example.org/fhir/ValueSet/test";
+  private static final String CS_URL = "http://example.org/fhir/CodeSystem/test";
+
+  @TempDir
+  File folder;
+
+  private SimpleWorkerContext makeContext() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    PackageInformation pi = new PackageInformation("example.fhir.test", "1.0.0", "5.0.0", new Date(), "test", "http://example.org/fhir", "http://example.org/fhir/web");
+
+    ValueSet vs = new ValueSet();
+    vs.setId("test");
+    vs.setUrl(VS_URL);
+    vs.setVersion("1.0.0");
+    vs.setStatus(PublicationStatus.ACTIVE);
+    vs.getCompose().addInclude().setSystem(CS_URL);
+    vs.setWebPath("http://example.org/fhir/web/ValueSet-test.html");
+    context.cacheResourceFromPackage(vs, pi);
+
+    CodeSystem cs = new CodeSystem();
+    cs.setId("test");
+    cs.setUrl(CS_URL);
+    cs.setVersion("1.0.0");
+    cs.setStatus(PublicationStatus.ACTIVE);
+    cs.setContent(CodeSystemContentMode.COMPLETE);
+    cs.addConcept().setCode("a").setDisplay("A");
+    cs.addConcept().setCode("b").setDisplay("B");
+    context.cacheResourceFromPackage(cs, pi);
+    return context;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    SimpleWorkerContext context = makeContext();
+    File file = new File(folder, "context.snapshot");
+    context.saveSnapshot(file, "test-key");
+
+    WorkerContextSnapshot snapshot = WorkerContextSnapshot.open(file);
+    Assertions.assertTrue(snapshot.isCurrent());
+    Assertions.assertEquals("test-key", snapshot.getKey());
+    Assertions.assertEquals(2, snapshot.getEntries().size());
+
+    SimpleWorkerContext loaded = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromSnapshot(snapshot, null);
+    ValueSet vs = loaded.fetchResource(ValueSet.class, VS_URL);
+    Assertions.assertNotNull(vs);
+    Assertions.assertTrue(vs.equalsDeep(context.fetchResource(ValueSet.class, VS_URL)));
+    Assertions.assertEquals("http://example.org/fhir/web/ValueSet-test.html", vs.getWebPath());
+    Assertions.assertEquals("example.fhir.test#1.0.0", vs.getSourcePackage().getVID());
+
+    CodeSystem cs = loaded.fetchCodeSystem(CS_URL);
+    Assertions.assertNotNull(cs);
+    Assertions.assertTrue(cs.equalsDeep(context.fetchCodeSystem(CS_URL)));
+  }
+
+  @Test
+  public void testCorruptResource() throws IOException {
+    File file = new File(folder, "context.snapshot");
+    makeContext().saveSnapshot(file);
+
+    // the first resource starts straight after the header
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(16);
+      int b = raf.read();
+      raf.seek(16);
+      raf.write(b ^ 0xFF);
+    }
+    WorkerContextSnapshot snapshot = WorkerContextSnapshot.open(file);
+    SimpleWorkerContext loaded = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromSnapshot(snapshot, null);
+    Assertions.assertThrows(FHIRException.class, () -> loaded.fetchResource(ValueSet.class, VS_URL));
+  }
+
+  @Test
+  public void testChecksum() throws IOException {
+    File pf = new File(folder, "package");
+    pf.mkdirs();
+    TextFile.stringToFile("{\"name\":\"example.fhir.a\",\"version\":\"1.0.0\"}", new File(pf, "package.json"));
+    File archive = new File(folder, "package.fpa");
+    TextFile.bytesToFile(new byte[64], archive);
+    Map<String, String> sources = new HashMap<>();
+    sources.put("example.fhir.a#1.0.0", pf.getAbsolutePath());
+    sources.put("example.fhir.b#1.0.0", archive.getAbsolutePath());
+    List<String> packages = Arrays.asList("example.fhir.a#1.0.0", "example.fhir.b#1.0.0");
+    String checksum = WorkerContextSnapshot.checksum(packages, sources);
+    Assertions.assertEquals(checksum, WorkerContextSnapshot.checksum(packages, sources));
+
+    // a change to the package.json of a package in a folder
+    TextFile.stringToFile("{\"name\":\"example.fhir.a\",\"version\":\"1.0.0\",\"date\":\"2024\"}", new File(pf, "package.json"));
+    String changed = WorkerContextSnapshot.checksum(packages, sources);
+    Assertions.assertNotEquals(checksum, changed);
+
+    // a change to the index of a package in an archive (the trailer has the index CRC)
+    try (RandomAccessFile raf = new RandomAccessFile(archive, "rw")) {
+      raf.seek(60);
+      raf.writeInt(0x12345678);
+    }
+    Assertions.assertNotEquals(changed, WorkerContextSnapshot.checksum(packages, sources));
+  }
+
+  @Test
+  public void testNotASnapshot() throws IOException {
+    File file = new File(folder, "context.snapshot");
+    TextFile.stringToFile("{\"resourceType\":\"Patient\"}", file);
+    Assertions.assertThrows(IOException.class, () -> WorkerContextSnapshot.open(file));
+  }
+}
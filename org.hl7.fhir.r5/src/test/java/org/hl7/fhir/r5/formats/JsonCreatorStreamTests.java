@@ -0,0 +1,78 @@
+package org.hl7.fhir.r5.formats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class JsonCreatorStreamTests {
+
+  private static final String[] VALUES = {
+      "", "plain", "quote \" and \\ slash", "cr\r lf\n tab\t", "control \u0001 \u000B \u001F",
+      "latin \u00E9 \u00FC", "nbsp\u00A0 nel\u0085 em\u2003 line\u2028 ideo\u3000", "cjk \u4E2D\u6587", "emoji \uD83D\uDE00", "bad \uD83D surrogate",
+      "long "+new String(new char[10000]).replace('\0', '\u00E9')
+  };
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void testSameAsDirect(boolean pretty) throws IOException {
+    ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    OutputStreamWriter osw = new OutputStreamWriter(direct, StandardCharsets.UTF_8);
+    write(new JsonCreatorDirect(osw, pretty, false));
+    osw.flush();
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    write(new JsonCreatorStream(stream, pretty, false));
+    Assertions.assertEquals(new String(direct.toByteArray(), StandardCharsets.UTF_8), new String(stream.toByteArray(), StandardCharsets.UTF_8));
+
+    // the second time around, the buffer is reused
+    stream = new ByteArrayOutputStream();
+    write(new JsonCreatorStream(stream, pretty, false));
+    Assertions.assertArrayEquals(direct.toByteArray(), stream.toByteArray());
+  }
+
+  private void write(JsonCreator json) throws IOException {
+    json.beginObject();
+    json.name("resourceType");
+    json.value("Basic");
+    json.name("values");
+    json.beginArray();
+    for (String s : VALUES) {
+      json.value(s);
+    }
+    json.nullValue();
+    json.endArray();
+    json.name("numbers");
+    json.beginArray();
+    json.value(Integer.valueOf(0));
+    json.value(Integer.valueOf(-1234567));
+    json.value(Integer.valueOf(Integer.MIN_VALUE));
+    json.value(new BigDecimal("1.50"));
+    json.valueNum("1e-7");
+    json.value(Boolean.TRUE);
+    json.value((Boolean) null);
+    json.endArray();
+    json.name("nested");
+    json.beginObject();
+    json.name("empty");
+    json.beginObject();
+    json.endObject();
+    json.name("list");
+    json.beginArray();
+    json.beginObject();
+    json.name("a");
+    json.value("b");
+    json.endObject();
+    json.beginObject();
+    json.endObject();
+    json.endArray();
+    json.endObject();
+    json.endObject();
+    json.finish();
+  }
+}
@@ -0,0 +1,117 @@
+package org.hl7.fhir.r5.sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.r5.utils.sql.Provider;
+import org.hl7.fhir.r5.utils.sql.Runner;
+import org.hl7.fhir.r5.utils.sql.StorageJson;
+import org.hl7.fhir.utilities.json.model.JsonArray;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RunnerTests {
+
+  private static final int COUNT = 2500;
+
+  private static final String VIEW = "{\"resource\":\"Patient\",\"name\":\"patient_names\","+
+     "\"where\":[{\"path\":\"active\"}],"+
+     "\"select\":[{\"column\":[{\"name\":\"id\",\"path\":\"id\"}]},{\"forEach\":\"name\",\"column\":[{\"name\":\"family\",\"path\":\"family\"}]}]}";
+
+  private static final String ACTIVE_VIEW = "{\"resource\":\"Patient\",\"name\":\"patient_active\","+
+     "\"select\":[{\"column\":[{\"name\":\"id\",\"path\":\"id\"},{\"name\":\"active\",\"path\":\"active\"}]}]}";
+
+  /**
+   * makes the patients as they are read, so they're never all in memory at once
+   */
+  private class StreamingProvider implements Provider {
+
+    @Override
+    public List<Base> fetch(String resourceType) {
+      throw new Error("The runner should not fetch all the resources");
+    }
+
+    @Override
+    public Iterator<Base> iterate(String resourceType) {
+      return new Iterator<Base>() {
+        private int i = 0;
+
+        @Override
+        public boolean hasNext() {
+          return i < COUNT;
+        }
+
+        @Override
+        public Base next() {
+          Patient p = new Patient();
+          p.setId("p"+i);
+          p.setActive(i % 3 != 0);
+          p.addName().setFamily("family"+i);
+          if (i % 5 == 0) {
+            p.addName().setFamily("other"+i);
+          }
+          i++;
+          return p;
+        }
+      };
+    }
+
+    @Override
+    public Base resolveReference(Base rootResource, String ref, String specifiedResourceType) {
+      return null;
+    }
+  }
+
+  private Runner makeRunner(int threads, StorageJson store) {
+    Runner runner = new Runner();
+    runner.setContext(TestingUtilities.getSharedWorkerContext());
+    runner.setProvider(new StreamingProvider());
+    runner.setThreads(threads);
+    runner.setBatchSize(100);
+    runner.setStorage(store);
+    return runner;
+  }
+
+  private JsonArray run(int threads) throws IOException {
+    StorageJson store = new StorageJson();
+    makeRunner(threads, store).execute(JsonParser.parseObject(VIEW));
+    return store.getRows();
+  }
+
+  @Test
+  public void testParallelIsSameAsSequential() throws IOException {
+    JsonArray seq = run(1);
+    JsonArray par = run(4);
+
+    int expected = 0;
+    for (int i = 0; i < COUNT; i++) {
+      if (i % 3 != 0) {
+        expected = expected + (i % 5 == 0 ? 2 : 1);
+      }
+    }
+    Assertions.assertEquals(expected, seq.size().intValue());
+    Assertions.assertEquals(JsonParser.compose(seq), JsonParser.compose(par));
+    JsonObject first = (JsonObject) par.get(0);
+    Assertions.assertEquals("p1", first.asString("id"));
+    Assertions.assertEquals("family1", first.asString("family"));
+  }
+
+  @Test
+  public void testOnePass() throws IOException {
+    StorageJson store = new StorageJson();
+    List<JsonObject> views = new ArrayList<>();
+    views.add(JsonParser.parseObject(VIEW));
+    views.add(JsonParser.parseObject(ACTIVE_VIEW));
+    makeRunner(4, store).execute(views);
+
+    Assertions.assertEquals(JsonParser.compose(run(1)), JsonParser.compose(store.getRows("patient_names")));
+    Assertions.assertEquals(COUNT, store.getRows("patient_active").size().intValue());
+  }
+}
@@ -0,0 +1,108 @@
+package org.hl7.fhir.r5.sql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.r5.utils.sql.ColumnKind;
+import org.hl7.fhir.r5.utils.sql.Provider;
+import org.hl7.fhir.r5.utils.sql.Runner;
+import org.hl7.fhir.r5.utils.sql.StorageColumnar;
+import org.hl7.fhir.r5.utils.sql.StorageColumnar.ColumnChunk;
+import org.hl7.fhir.r5.utils.sql.StorageColumnar.ColumnarFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class StorageColumnarTests {
+
+  private static final int COUNT = 2500;
+
+  private static final String VIEW = "{\"resource\":\"Patient\",\"name\":\"patients\","+
+     "\"select\":[{\"column\":[{\"name\":\"id\",\"path\":\"id\"},{\"name\":\"gender\",\"path\":\"gender\"},"+
+     "{\"name\":\"active\",\"path\":\"active\"},{\"name\":\"birthDate\",\"path\":\"birthDate\"}]}]}";
+
+  private class TestProvider implements Provider {
+
+    @Override
+    public List<Base> fetch(String resourceType) {
+      List<Base> list = new ArrayList<>();
+      for (int i = 0; i < COUNT; i++) {
+        Patient p = new Patient();
+        p.setId("p"+String.format("%04d", i));
+        p.setGender(i % 2 == 0 ? AdministrativeGender.FEMALE : AdministrativeGender.MALE);
+        p.setActive(i % 3 == 0);
+        if (i % 10 != 0) {
+          p.setBirthDateElement(new DateType("1990-01-"+String.format("%02d", i % 28 + 1)));
+        }
+        list.add(p);
+      }
+      return list;
+    }
+
+    @Override
+    public Base resolveReference(Base rootResource, String ref, String specifiedResourceType) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    String folder = ManagedFileAccess.fromPath(Files.createTempDirectory("columnar")).getAbsolutePath();
+    Runner runner = new Runner();
+    runner.setContext(TestingUtilities.getSharedWorkerContext());
+    runner.setProvider(new TestProvider());
+    runner.setStorage(new StorageColumnar(folder, 1000));
+    runner.execute(JsonParser.parseObject(VIEW));
+
+    File file = ManagedFileAccess.file(Utilities.path(folder, "patients"+StorageColumnar.EXTENSION));
+    ColumnarFile cf = ColumnarFile.open(file);
+    Assertions.assertEquals(4, cf.getColumns().size());
+    Assertions.assertEquals(3, cf.getRowGroupCount());
+    Assertions.assertEquals(COUNT, cf.getRowCount());
+    Assertions.assertEquals(500, cf.getRowCount(2));
+
+    int id = 0;
+    int gender = 1;
+    int active = 2;
+    int birthDate = 3;
+    Assertions.assertEquals(ColumnKind.Boolean, cf.getColumns().get(active).getKind());
+    Assertions.assertEquals(ColumnKind.DateTime, cf.getColumns().get(birthDate).getKind());
+
+    // the codes are dictionary encoded, the ids aren't
+    ColumnChunk chunk = cf.getChunk(1, gender);
+    Assertions.assertEquals(StorageColumnar.ENCODING_DICTIONARY, chunk.getEncoding());
+    Assertions.assertEquals("female", chunk.getMin());
+    Assertions.assertEquals("male", chunk.getMax());
+    chunk = cf.getChunk(1, id);
+    Assertions.assertEquals(StorageColumnar.ENCODING_PLAIN, chunk.getEncoding());
+    Assertions.assertEquals("p1000", chunk.getMin());
+    Assertions.assertEquals("p1999", chunk.getMax());
+    Assertions.assertEquals(100, cf.getChunk(1, birthDate).getNullCount());
+
+    List<Object> ids = cf.readColumn(1, id);
+    List<Object> genders = cf.readColumn(1, gender);
+    List<Object> actives = cf.readColumn(1, active);
+    List<Object> dates = cf.readColumn(1, birthDate);
+    for (int r = 0; r < 1000; r++) {
+      int i = 1000 + r;
+      Assertions.assertEquals("p"+i, ids.get(r));
+      Assertions.assertEquals(i % 2 == 0 ? "female" : "male", genders.get(r));
+      Assertions.assertEquals(i % 3 == 0, actives.get(r));
+      if (i % 10 == 0) {
+        Assertions.assertNull(dates.get(r));
+      } else {
+        Assertions.assertEquals(new DateType("1990-01-"+String.format("%02d", i % 28 + 1)).getValue().getTime(), dates.get(r));
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package org.hl7.fhir.r5.terminologies.client;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r5.model.Parameters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class TerminologyClientContextTests {
+
+  private static final String RESULT = "{\"resourceType\":\"Parameters\",\"parameter\":[{\"name\":\"result\",\"valueBoolean\":true}]}";
+
+  private MockWebServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger current = new AtomicInteger();
+  private final AtomicInteger most = new AtomicInteger();
+
+  @BeforeEach
+  public void setup() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        requests.incrementAndGet();
+        most.accumulateAndGet(current.incrementAndGet(), Math::max);
+        Thread.sleep(100);
+        current.decrementAndGet();
+        return new MockResponse().setHeader("Content-Type", "application/fhir+json").setBody(RESULT);
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private TerminologyClientContext makeContext() throws URISyntaxException {
+    return makeContext(TerminologyClientContext.DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  private TerminologyClientContext makeContext(int maxInFlight) throws URISyntaxException {
+    return new TerminologyClientContext(new TerminologyClientR5("tx", server.url("/tx").toString(), "test"), null, true, maxInFlight);
+  }
+
+  private Parameters params(String code) {
+    Parameters p = new Parameters();
+    p.addParameter("url", "http://hl7.org/fhir/ValueSet/administrative-gender");
+    p.addParameter("system", "http://hl7.org/fhir/administrative-gender");
+    p.addParameter("code", code);
+    return p;
+  }
+
+  @Test
+  public void testIdenticalCallsAreCoalesced() throws Exception {
+    TerminologyClientContext tc = makeContext();
+    List<CompletableFuture<Parameters>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(tc.validateAsync("male", true, params("male")));
+    }
+    for (CompletableFuture<Parameters> f : futures) {
+      Assertions.assertTrue(f.get(10, TimeUnit.SECONDS).getParameterBool("result"));
+    }
+    Assertions.assertEquals(1, requests.get());
+
+    // once it's finished, the same call goes to the server again
+    Assertions.assertTrue(tc.validateAsync("male", true, params("male")).get(10, TimeUnit.SECONDS).getParameterBool("result"));
+    Assertions.assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testCallsInFlightAreLimited() throws Exception {
+    TerminologyClientContext tc = makeContext(2);
+    List<CompletableFuture<Parameters>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(tc.validateAsync(i % 2 == 0 ? null : "code"+i, false, params("code"+i)));
+    }
+    for (CompletableFuture<Parameters> f : futures) {
+      Assertions.assertTrue(f.get(10, TimeUnit.SECONDS).getParameterBool("result"));
+    }
+    Assertions.assertEquals(8, requests.get());
+    Assertions.assertTrue(most.get() <= 2, "Too many calls in flight: "+most.get());
+  }
+}
@@ -854,6 +854,43 @@ public class CanonicalResourceManagerTests {
     Assertions.assertEquals("2", mrm.get("http://url/ValueSet/234", "4.0.2", pvl2).getName());
   }
 
+  @Test
+  public void testResolutionAfterChange() {
+    // resolutions are remembered, so check that they are forgotten when the content changes
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(false, false);
+    ValueSet vs1 = new ValueSet();
+    vs1.setId("2345");
+    vs1.setUrl("http://url/ValueSet/234");
+    vs1.setVersion("4.0.1");
+    vs1.setName("1");
+    mrm.see(vs1, new PackageInformation("pid.one", "1.0.0", "4.0.1", new Date()));
+
+    List<String> pvl = new ArrayList<>();
+    pvl.add("pid.two#1.0.0");
+    Assertions.assertEquals("1", mrm.get("http://url/ValueSet/234", "4.0").getName());
+    Assertions.assertEquals("1", mrm.get("http://url/ValueSet/234", "4.0", pvl).getName());
+    Assertions.assertNull(mrm.get("http://url/ValueSet/234", "4.0.2"));
+
+    ValueSet vs2 = new ValueSet();
+    vs2.setId("2346");
+    vs2.setUrl("http://url/ValueSet/234");
+    vs2.setVersion("4.0.2");
+    vs2.setName("2");
+    mrm.see(vs2, new PackageInformation("pid.two", "1.0.0", "4.0.1", new Date()));
+
+    Assertions.assertEquals("2", mrm.get("http://url/ValueSet/234", "4.0").getName());
+    Assertions.assertEquals("2", mrm.get("http://url/ValueSet/234", "4.0", pvl).getName());
+    Assertions.assertEquals("2", mrm.get("http://url/ValueSet/234", "4.0.2").getName());
+
+    // changing the list afterwards doesn't change what was remembered
+    pvl.set(0, "pid.one#1.0.0");
+    Assertions.assertEquals("1", mrm.get("http://url/ValueSet/234", "4.0", pvl).getName());
+
+    mrm.drop("2346");
+    Assertions.assertEquals("1", mrm.get("http://url/ValueSet/234", "4.0").getName());
+    Assertions.assertNull(mrm.get("http://url/ValueSet/234", "4.0.2"));
+  }
+
   @Test
   public void testSupplements() {
     CanonicalResourceManager<CodeSystem> mrm = new CanonicalResourceManager<>(true, false);
@@ -927,4 +964,142 @@ public class CanonicalResourceManagerTests {
     sl = mrm.getSupplements("http://url/CodeSystem/s234");
     Assertions.assertEquals(0, sl.size());
   }
+
+  @Test
+  public void testLayered() {
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(false, false);
+    ValueSet vs1 = new ValueSet();
+    vs1.setId("2345");
+    vs1.setUrl("http://url/ValueSet/234");
+    vs1.setVersion("4.0.1");
+    base.see(vs1, new PackageInformation("pid.one", "1.0.0", "4.0.1", new Date()));
+    ValueSet vs2 = new ValueSet();
+    vs2.setId("2346");
+    vs2.setUrl("http://url/ValueSet/235");
+    vs2.setVersion("1.0.0");
+    base.see(vs2, null);
+
+    CanonicalResourceManager<ValueSet> layer1 = new CanonicalResourceManager<>(false, false);
+    layer1.layerOver(base);
+    CanonicalResourceManager<ValueSet> layer2 = new CanonicalResourceManager<>(false, false);
+    layer2.layerOver(base);
+
+    // everything in the base is found in the layers
+    Assertions.assertEquals(2, layer1.size());
+    Assertions.assertTrue(layer1.has("http://url/ValueSet/234"));
+    Assertions.assertEquals(vs1, layer1.get("http://url/ValueSet/234"));
+    Assertions.assertEquals(vs1, layer1.get("http://url/ValueSet/234", "4.0"));
+    Assertions.assertEquals(vs2, layer1.get("http://url/ValueSet/235", "1.0.0"));
+    Assertions.assertEquals("pid.one", layer1.getPackageInfo("http://url/ValueSet/234", null).getId());
+
+    // what is seen in a layer is only in that layer
+    ValueSet vs3 = new ValueSet();
+    vs3.setId("2347");
+    vs3.setUrl("http://url/ValueSet/236");
+    vs3.setVersion("1.0.0");
+    layer1.see(vs3, null);
+    Assertions.assertEquals(3, layer1.size());
+    Assertions.assertEquals(vs3, layer1.get("http://url/ValueSet/236"));
+    Assertions.assertEquals(3, layer1.getList().size());
+    Assertions.assertEquals(2, layer2.size());
+    Assertions.assertNull(layer2.get("http://url/ValueSet/236"));
+    Assertions.assertEquals(2, base.size());
+    Assertions.assertNull(base.get("http://url/ValueSet/236"));
+
+    // a layer can have its own version of a resource in the base
+    ValueSet vs4 = new ValueSet();
+    vs4.setId("2348");
+    vs4.setUrl("http://url/ValueSet/235");
+    vs4.setVersion("2.0.0");
+    layer2.see(vs4, null);
+    Assertions.assertEquals(vs4, layer2.get("http://url/ValueSet/235"));
+    Assertions.assertEquals(vs2, layer2.get("http://url/ValueSet/235", "1.0.0"));
+    Assertions.assertEquals(2, layer2.getForUrl("http://url/ValueSet/235").size());
+    Assertions.assertEquals(vs2, base.get("http://url/ValueSet/235"));
+    Assertions.assertEquals(vs2, layer1.get("http://url/ValueSet/235"));
+  }
+
+  private ValueSet makeValueSet(String id, String url, String version) {
+    ValueSet vs = new ValueSet();
+    vs.setId(id);
+    vs.setUrl(url);
+    vs.setVersion(version);
+    return vs;
+  }
+
+  private void checkSameAs(CanonicalResourceManager<ValueSet> flat, CanonicalResourceManager<ValueSet> layer, String url) {
+    Assertions.assertEquals(flat.get(url), layer.get(url));
+    for (String v : new String[] { "1.0", "1.0.0", "2.0", "2.0.0", "3.0", "3.0.0" }) {
+      Assertions.assertEquals(flat.get(url, v), layer.get(url, v), v);
+    }
+    Assertions.assertEquals(flat.size(), layer.size());
+    Assertions.assertEquals(flat.getList(), layer.getList());
+    Assertions.assertEquals(flat.getForUrl(url), layer.getForUrl(url));
+  }
+
+  @Test
+  public void testLayeredVersions() {
+    String url = "http://url/ValueSet/234";
+    ValueSet vs1 = makeValueSet("2345", url, "1.0.0");
+    ValueSet vs2 = makeValueSet("2346", url, "2.0.0");
+    ValueSet vs3 = makeValueSet("2347", url, "3.0.0");
+
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(false, false);
+    base.see(vs2, null);
+    CanonicalResourceManager<ValueSet> flat = new CanonicalResourceManager<>(false, false);
+    flat.see(vs2, null);
+    CanonicalResourceManager<ValueSet> layer = new CanonicalResourceManager<>(false, false);
+    layer.layerOver(base);
+
+    // an older version in the layer doesn't hide the newer one in the base 
+    layer.see(vs1, null);
+    flat.see(vs1, null);
+    Assertions.assertEquals(vs2, layer.get(url));
+    Assertions.assertEquals(vs1, layer.get(url, "1.0"));
+    checkSameAs(flat, layer, url);
+
+    // a newer one does
+    layer.see(vs3, null);
+    flat.see(vs3, null);
+    Assertions.assertEquals(vs3, layer.get(url));
+    checkSameAs(flat, layer, url);
+
+    // dropping something in the base only hides it from the layer 
+    layer.drop("2346");
+    flat.drop("2346");
+    Assertions.assertNull(layer.get(url, "2.0"));
+    checkSameAs(flat, layer, url);
+    layer.drop("2347");
+    flat.drop("2347");
+    Assertions.assertEquals(vs1, layer.get(url));
+    checkSameAs(flat, layer, url);
+    Assertions.assertEquals(1, base.size());
+    Assertions.assertEquals(vs2, base.get(url));
+    Assertions.assertEquals(vs2, base.get(url, "2.0"));
+  }
+
+  @Test
+  public void testLayeredTerminology() {
+    String url = "http://url/ValueSet/234";
+    ValueSet core = makeValueSet("2345", url, "4.0.1");
+    ValueSet tho = makeValueSet("2346", url, "3.0.0");
+    PackageInformation corePackage = new PackageInformation("hl7.fhir.r4.core", "4.0.1", "4.0.1", new Date());
+    PackageInformation thoPackage = new PackageInformation("hl7.terminology.r4", "5.0.0", "4.0.1", new Date());
+
+    CanonicalResourceManager<ValueSet> base = new CanonicalResourceManager<>(true, false);
+    base.see(core, corePackage);
+    CanonicalResourceManager<ValueSet> flat = new CanonicalResourceManager<>(true, false);
+    flat.see(core, corePackage);
+    CanonicalResourceManager<ValueSet> layer = new CanonicalResourceManager<>(true, false);
+    layer.layerOver(base);
+
+    // the terminology package replaces the core one, in the layer 
+    layer.see(tho, thoPackage);
+    flat.see(tho, thoPackage);
+    Assertions.assertEquals(tho, layer.get(url));
+    Assertions.assertNull(layer.get(url, "4.0.1"));
+    checkSameAs(flat, layer, url);
+    Assertions.assertEquals(core, base.get(url));
+    Assertions.assertEquals(1, base.getList().size());
+  }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package org.hl7.fhir.r5.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.elementmodel.StringPool;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+public class ElementMemoryTests {
+
+  @Test
+  public void testStringPool() {
+    String s1 = new String("final");
+    String s2 = new String("final");
+    assertSame(StringPool.intern(s1), StringPool.intern(s2));
+    String l = Utilities.padLeft("", 'x', StringPool.MAX_LENGTH + 1);
+    assertSame(l, StringPool.intern(l));
+  }
+
+  @Test
+  public void testSideTableFields() throws IOException {
+    Element e = new Element("status");
+    assertFalse(e.isNull());
+    assertFalse(e.hasComments());
+    assertNull(e.getExplicitType());
+    e.setNull(true);
+    e.setRequired(true);
+    e.setExplicitType("code");
+    e.getComments().add("a comment");
+    assertTrue(e.isNull());
+    assertTrue(e.isRequired());
+    assertFalse(e.isProhibited());
+    assertEquals("code", e.getExplicitType());
+
+    Element c = (Element) e.copy();
+    assertTrue(c.isNull());
+    assertTrue(c.isRequired());
+    assertEquals("code", c.getExplicitType());
+    assertEquals("a comment", c.getComments().get(0));
+    assertFalse(c.hasParentForValidator());
+  }
+
+  /**
+   * Memory benchmark: builds a ~100MB bundle of observations, parses it to an element
+   * tree, and reports the heap used by the tree. Disabled because of the time and memory
+   * it takes - run it by hand with a large heap (e.g. -Xmx4g)
+   */
+  @Test
+  @Disabled
+  public void testLargeBundleMemory() throws IOException {
+    File f = ManagedFileAccess.file(Utilities.path("[tmp]", "element-memory-bundle.json"));
+    int count = writeBundle(f, 100 * 1024 * 1024);
+
+    Runtime rt = Runtime.getRuntime();
+    TestingUtilities.getSharedWorkerContext();
+    gc();
+    long before = rt.totalMemory() - rt.freeMemory();
+    long t = System.currentTimeMillis();
+    Element e;
+    try (InputStream src = new FileInputStream(f)) {
+      e = Manager.parseSingle(TestingUtilities.getSharedWorkerContext(), src, FhirFormat.JSON);
+    }
+    t = System.currentTimeMillis() - t;
+    gc();
+    long after = rt.totalMemory() - rt.freeMemory();
+    int nodes = e.countDescendents();
+    System.out.println("Bundle: "+Utilities.describeSize(f.length())+", "+count+" entries, "+nodes+" elements, parsed in "+t+"ms");
+    System.out.println("Heap used by element tree: "+Utilities.describeSize(after - before)+" ("+((after - before) / nodes)+" bytes/element)");
+    assertEquals(count, e.getChildren("entry").size());
+    f.delete();
+  }
+
+  private void gc() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+  }
+
+  private int writeBundle(File f, long size) throws IOException {
+    int count = 0;
+    try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(ManagedFileAccess.outStream(f), StandardCharsets.UTF_8))) {
+      w.write("{\"resourceType\" : \"Bundle\", \"type\" : \"collection\", \"entry\" : [\n");
+      long written = 0;
+      while (written < size) {
+        String entry = (count == 0 ? "" : ",\n")+"{\"fullUrl\" : \"http://example.org/Observation/o"+count+"\", \"resource\" : {\"resourceType\" : \"Observation\", \"id\" : \"o"+count+"\", "+
+          "\"status\" : \"final\", \"category\" : [{\"coding\" : [{\"system\" : \"http://terminology.hl7.org/CodeSystem/observation-category\", \"code\" : \"vital-signs\"}]}], "+
+          "\"code\" : {\"coding\" : [{\"system\" : \"http://loinc.org\", \"code\" : \"8867-4\", \"display\" : \"Heart rate\"}]}, "+
+          "\"subject\" : {\"reference\" : \"Patient/p"+(count % 1000)+"\"}, \"effectiveDateTime\" : \"2024-01-"+(10 + count % 20)+"T10:00:00Z\", "+
+          "\"valueQuantity\" : {\"value\" : "+(50 + count % 100)+", \"unit\" : \"beats/minute\", \"system\" : \"http://unitsofmeasure.org\", \"code\" : \"/min\"}}}";
+        w.write(entry);
+        written = written + entry.length();
+        count++;
+      }
+      w.write("\n]}\n");
+    }
+    return count;
+  }
+}
@@ -14,7 +14,9 @@ import org.hl7.fhir.exceptions.PathEngineException;
 import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRLexer.FHIRLexerException;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.IEvaluationContext;
 import org.hl7.fhir.r5.fhirpath.FHIRPathUtilityClasses.FunctionDetails;
@@ -104,6 +106,14 @@ public class FHIRPathTests {
     }
   }
 
+  public class CustomFunctionServices extends FHIRPathTestEvaluationServices {
+
+    @Override
+    public FunctionDetails resolveFunction(FHIRPathEngine engine, String functionName) {
+      return "custom".equals(functionName) ? new FunctionDetails("a custom function", 0, 0) : null;
+    }
+  }
+
   private static FHIRPathEngine fp;
   private final Map<String, Base> resources = new HashMap<String, Base>();
 
@@ -334,4 +344,58 @@ public class FHIRPathTests {
     assertEquals(1, results.size());
     assertEquals("123", results.get(0).toString());
   }
+
+  @Test
+  public void testExpressionCache() {
+    FHIRPathExpressionCache cache = new FHIRPathExpressionCache(10);
+    FHIRPathEngine engine = new FHIRPathEngine(TestingUtilities.getSharedWorkerContext());
+    engine.setExpressionCache(cache);
+    ExpressionNode n1 = engine.parse("Patient.name.given");
+    ExpressionNode n2 = engine.parse("Patient.name.given");
+    // each caller gets its own copy, since checking the expression changes it
+    Assertions.assertNotSame(n1, n2);
+    assertEquals(n1.toString(), n2.toString());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // the host services only matter when the expression uses a custom function, and then by class
+    FHIRPathEngine other = new FHIRPathEngine(TestingUtilities.getSharedWorkerContext());
+    other.setExpressionCache(cache);
+    other.setHostServices(new CustomFunctionServices());
+    other.parse("Patient.name.given");
+    assertEquals(2, cache.getHits());
+    engine.setHostServices(new CustomFunctionServices());
+    engine.parse("Patient.name.custom()");
+    other.parse("Patient.name.custom()");
+    assertEquals(3, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    engine.setHostServices(null);
+    Assertions.assertThrows(FHIRLexerException.class, () -> engine.parse("Patient.name.custom()"));
+    assertEquals(3, cache.getMisses());
+
+    // checked trees are keyed by the context type, and come with their types
+    ExpressionNode c1 = engine.parseAndCheck(null, "Patient", "Patient", "name.given");
+    ExpressionNode c2 = engine.parseAndCheck(null, "Patient", "Patient", "name.given");
+    Assertions.assertNotSame(c1, c2);
+    Assertions.assertNotNull(c2.getTypes());
+    assertEquals(c1.getTypes().describe(), c2.getTypes().describe());
+    assertEquals(4, cache.getHits());
+    assertEquals(4, cache.getMisses());
+    Assertions.assertNull(engine.parse("name.given").getTypes());
+    assertEquals(5, cache.getHits());
+
+    FHIRPathExpressionCache small = new FHIRPathExpressionCache(2);
+    engine.setExpressionCache(small);
+    engine.parse("Patient.name.given");
+    engine.setAllowDoubleQuotes(true);
+    engine.parse("Patient.name.given");
+    engine.parse("Patient.name.family");
+    assertEquals(3, small.getMisses());
+    assertEquals(2, small.size());
+    assertEquals(1, small.getEvictions());
+
+    Patient input = new Patient();
+    input.addName().addGiven("Peter");
+    assertEquals("Peter", engine.evaluateToString(input, "Patient.name.given"));
+  }
 }
\ No newline at end of file
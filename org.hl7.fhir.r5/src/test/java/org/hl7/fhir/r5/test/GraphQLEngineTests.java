@@ -20,6 +20,7 @@ import org.hl7.fhir.r5.model.Bundle.BundleLinkComponent;
 import org.hl7.fhir.r5.model.Bundle.LinkRelationTypes;
 import org.hl7.fhir.r5.model.Bundle.SearchEntryMode;
 import org.hl7.fhir.r5.model.DomainResource;
+import org.hl7.fhir.r5.model.ListResource;
 import org.hl7.fhir.r5.model.Resource;
 import org.hl7.fhir.r5.test.utils.CompareUtilities;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
@@ -40,6 +41,9 @@ import org.xml.sax.SAXException;
 
 public class GraphQLEngineTests implements IGraphQLStorageServices {
 
+  private int lookupCount;
+  private int lookupManyCount;
+
   public static Stream<Arguments> data() throws IOException, ParserConfigurationException, SAXException  {
     Document tests = XMLUtil.parseToDom(TestingUtilities.loadTestResource("r5", "graphql", "manifest.xml"));
     Element test = XMLUtil.getFirstChild(tests.getDocumentElement());
@@ -68,12 +72,14 @@ public class GraphQLEngineTests implements IGraphQLStorageServices {
 
     Resource parsedResource =  stream != null ? new XmlParser().parse(stream) : null;
 
-    testResource(name, parsedResource, output, source, operation);
+    testResource(name, parsedResource, output, source, operation, false);
+    testResource(name, parsedResource, output, source, operation, true);
   }
 
-  private void testResource(String id, Resource resource, String output, String source, String operation) throws IOException, EGraphEngine, EGraphQLException {
+  private void testResource(String id, Resource resource, String output, String source, String operation, boolean batch) throws IOException, EGraphEngine, EGraphQLException {
     GraphQLEngine gql = new GraphQLEngine(TestingUtilities.getSharedWorkerContext());
     gql.setServices(this);
+    gql.setBatchReferences(batch);
     if (resource != null)
       gql.setFocus(resource);
     gql.setGraphQL(Parser.parse(TestingUtilities.loadTestResource("r5", "graphql", source)));
@@ -120,7 +126,49 @@ public class GraphQLEngineTests implements IGraphQLStorageServices {
     //Rather than duplicate the entire resource we modify the ID with a _history path
     parsedResource.setId("example/_history/1");
 
-    testResource("testReferenceReverseHistory", parsedResource, output, source, null);
+    testResource("testReferenceReverseHistory", parsedResource, output, source, null, false);
+  }
+
+  private String executeList(boolean batch) throws IOException, EGraphEngine, EGraphQLException {
+    ListResource list = new ListResource();
+    list.setId("example");
+    for (int i = 0; i < 6; i++) {
+      list.addEntry().getItem().setReference(i % 3 == 2 ? "Patient/example-xds" : "Patient/example");
+    }
+    list.addEntry().getItem().setReference("Patient/unknown");
+
+    lookupCount = 0;
+    lookupManyCount = 0;
+    GraphQLEngine gql = new GraphQLEngine(TestingUtilities.getSharedWorkerContext());
+    gql.setServices(this);
+    gql.setBatchReferences(batch);
+    gql.setFocus(list);
+    gql.setGraphQL(Parser.parse("{ id entry { item { reference resource(optional : true) { id active } } } }"));
+    gql.execute();
+    StringBuilder str = new StringBuilder();
+    gql.getOutput().setWriteWrapper(false);
+    gql.getOutput().write(str, 0);
+    return str.toString();
+  }
+
+  @Test
+  public void testBatchedReferences() throws Exception {
+    String plain = executeList(false);
+    // without batching, every reference is looked up
+    Assertions.assertEquals(7, lookupCount);
+    Assertions.assertEquals(0, lookupManyCount);
+
+    // with batching, each distinct reference is only looked up once
+    String batched = executeList(true);
+    Assertions.assertEquals(3, lookupCount);
+    Assertions.assertEquals(1, lookupManyCount);
+    Assertions.assertEquals(plain, batched);
+  }
+
+  @Override
+  public List<ReferenceResolution> lookupMany(Object appInfo, List<ReferenceLookup> references) throws FHIRException {
+    lookupManyCount++;
+    return IGraphQLStorageServices.super.lookupMany(appInfo, references);
   }
 
   @Override
@@ -138,6 +186,7 @@ public class GraphQLEngineTests implements IGraphQLStorageServices {
 
   @Override
   public ReferenceResolution lookup(Object appInfo, IBaseResource context, IBaseReference reference) throws FHIRException {
+    lookupCount++;
     try {
       if (reference.getReferenceElement().isLocal()) {
         if (!(context instanceof DomainResource)) 
@@ -0,0 +1,82 @@
+package org.hl7.fhir.r5.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HashDeepTests {
+
+  private static final String PATIENT = "{\"resourceType\":\"Patient\",\"id\":\"p1\",\"active\":true,\"birthDate\":\"1974-12-25\","+
+      "\"name\":[{\"family\":\"Chalmers\",\"given\":[\"Peter\",\"James\"]},{\"family\":\"Chalmers\",\"given\":[\"Peter\",\"James\"]},{\"family\":\"Windsor\",\"given\":[\"Jim\"]}],"+
+      "\"telecom\":[{\"system\":\"phone\",\"value\":\"(03) 5555 6473\"},{\"system\":\"phone\",\"value\":\"(03) 5555 6473\",\"use\":\"work\"}]}";
+
+  private Patient model() throws IOException {
+    return (Patient) new JsonParser().parse(PATIENT);
+  }
+
+  private Element element() throws IOException {
+    return Manager.parseSingle(TestingUtilities.getSharedWorkerContext(), new ByteArrayInputStream(PATIENT.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+  }
+
+  @Test
+  public void testModel() throws IOException {
+    Patient p1 = model();
+    Patient p2 = model();
+    Assertions.assertTrue(p1.equalsDeep(p2));
+    Assertions.assertEquals(p1.hashDeep(), p2.hashDeep());
+    Assertions.assertEquals(p1.getName().get(0).hashDeep(), p1.getName().get(1).hashDeep());
+    Assertions.assertNotEquals(p1.getName().get(0).hashDeep(), p1.getName().get(2).hashDeep());
+
+    p2.getNameFirstRep().setFamily("Windsor");
+    Assertions.assertFalse(p1.equalsDeep(p2));
+    Assertions.assertNotEquals(p1.hashDeep(), p2.hashDeep());
+  }
+
+  @Test
+  public void testElementModel() throws IOException {
+    Patient p = model();
+    Element e = element();
+    Assertions.assertTrue(Base.compareDeep(p, e, false));
+    Assertions.assertEquals(p.hashDeep(), e.hashDeep());
+    Assertions.assertEquals(p.getName().get(0).hashDeep(), e.getChildren("name").get(0).hashDeep());
+  }
+
+  @Test
+  public void testEqualsDeepIsSymmetric() throws IOException {
+    // the second telecom has everything the first does, and a use as well
+    List<Element> telecoms = element().getChildren("telecom");
+    Assertions.assertFalse(telecoms.get(0).equalsDeep(telecoms.get(1)));
+    Assertions.assertFalse(telecoms.get(1).equalsDeep(telecoms.get(0)));
+  }
+
+  @Test
+  public void testFHIRPath() throws IOException {
+    FHIRPathEngine fp = new FHIRPathEngine(TestingUtilities.getSharedWorkerContext());
+    for (Base b : new Base[] { model(), element() }) {
+      Assertions.assertEquals("2", fp.evaluateToString(b, "name.distinct().count()"));
+      Assertions.assertEquals("false", fp.evaluateToString(b, "name.isDistinct()"));
+      Assertions.assertEquals("2", fp.evaluateToString(b, "telecom.distinct().count()"));
+      Assertions.assertEquals("2", fp.evaluateToString(b, "name.union(name).count()"));
+      Assertions.assertEquals("1", fp.evaluateToString(b, "name.intersect(name.where(family = 'Windsor')).count()"));
+      Assertions.assertEquals("2", fp.evaluateToString(b, "name.exclude(%resource.name.where(family = 'Windsor')).count()"));
+      Assertions.assertEquals("true", fp.evaluateToString(b, "name.where(family = 'Windsor').subsetOf(name)"));
+      Assertions.assertEquals("false", fp.evaluateToString(b, "name.where(family = 'Windsor').supersetOf(name)"));
+      Assertions.assertEquals("3", fp.evaluateToString(b, "name.given.distinct().count()"));
+    }
+    // decimals and quantities are compared by value
+    Assertions.assertEquals("1", fp.evaluateToString(model(), "(1.0).combine(1.00).combine(1).distinct().count()"));
+    Assertions.assertEquals("1", fp.evaluateToString(model(), "(1 'm').combine(1 'm').distinct().count()"));
+  }
+}
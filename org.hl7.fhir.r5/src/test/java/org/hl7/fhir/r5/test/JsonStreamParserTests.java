@@ -0,0 +1,67 @@
+package org.hl7.fhir.r5.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.formats.JsonStreamParser;
+import org.hl7.fhir.r5.model.Observation;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+public class JsonStreamParserTests {
+
+  private static NpmPackage npm;
+
+  public static Stream<Arguments> data() throws IOException {
+    npm = NpmPackage.fromPackage(TestingUtilities.loadTestResourceStream("r5", "packages", "hl7.fhir.r5.examples.tgz"));
+    List<Arguments> objects = new ArrayList<>();
+    for (String n : npm.list("package")) {
+      if (!n.contains("manifest.json") && !n.contains("xver-") && !n.contains("uml.json")  && !n.contains("package-min-ver.json") && !n.startsWith(".")) {
+        objects.add(Arguments.of(n));
+      }
+    }
+    return objects.stream();
+  }
+
+  @ParameterizedTest(name = "{index}: file {0}")
+  @MethodSource("data")
+  public void testSameAsJsonParser(String name) throws Exception {
+    byte[] b = TextFile.streamToBytes(npm.load("package", name));
+    Resource expected = new JsonParser().parse(b);
+    Resource actual = new JsonStreamParser().parse(b);
+    Assertions.assertTrue(expected.equalsDeep(actual), name);
+  }
+
+  @Test
+  public void testPrimitiveExtensions() throws Exception {
+    String src = "{\"resourceType\":\"Patient\",\"unknown\":{\"a\":[1,2]},"+
+      "\"_active\":{\"id\":\"a1\"},\"active\":true,"+
+      "\"name\":[{\"_given\":[null,{\"extension\":[{\"url\":\"http://example.org/ext\",\"valueString\":\"x\"}]}],\"given\":[\"Peter\",\"James\"]}]}";
+    Patient pat = (Patient) new JsonStreamParser().parse(src);
+    Assertions.assertTrue(pat.equalsDeep(new JsonParser().parse(src)));
+    Assertions.assertTrue(pat.getActive());
+    Assertions.assertEquals("a1", pat.getActiveElement().getId());
+    Assertions.assertEquals(2, pat.getNameFirstRep().getGiven().size());
+    Assertions.assertEquals("James", pat.getNameFirstRep().getGiven().get(1).getValue());
+    Assertions.assertEquals("x", pat.getNameFirstRep().getGiven().get(1).getExtensionString("http://example.org/ext"));
+  }
+
+  @Test
+  public void testResourceTypeNotFirst() throws Exception {
+    String src = "{\"id\":\"o1\",\"status\":\"final\",\"resourceType\":\"Observation\",\"code\":{\"text\":\"test\"},\"valueQuantity\":{\"value\":1.50}}";
+    Observation obs = (Observation) new JsonStreamParser().parse(src);
+    Assertions.assertTrue(obs.equalsDeep(new JsonParser().parse(src)));
+    Assertions.assertEquals("test", obs.getCode().getText());
+  }
+}
@@ -0,0 +1,78 @@
+package org.hl7.fhir.r5.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.conformance.profile.SnapshotIndex;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class SnapshotIndexTests {
+
+  /**
+   * Compare the results using the index with the results from scanning the snapshot. The index
+   * isn't used while a snapshot is being generated, so marking a copy as being generated makes
+   * ProfileUtilities scan it
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"Observation", "Patient", "Questionnaire", "Bundle", "Extension", "vitalsigns", "bp"})
+  public void testIndexMatchesScan(String name) {
+    IWorkerContext context = TestingUtilities.getSharedWorkerContext();
+    StructureDefinition sd = context.fetchResource(StructureDefinition.class, "http://hl7.org/fhir/StructureDefinition/"+name);
+    assertNotNull(sd);
+    StructureDefinition scanned = sd.copy();
+    scanned.setUserData("profileutils.snapshot.generating", true);
+    assertNotNull(SnapshotIndex.get(sd));
+    assertNull(SnapshotIndex.get(scanned));
+
+    ProfileUtilities pu1 = new ProfileUtilities(context, null, null);
+    ProfileUtilities pu2 = new ProfileUtilities(context, null, null);
+    for (int i = 0; i < sd.getSnapshot().getElement().size(); i++) {
+      ElementDefinition ed = sd.getSnapshot().getElement().get(i);
+      ElementDefinition eds = scanned.getSnapshot().getElement().get(i);
+      assertEquals(ids(pu2.getChildList(scanned, eds.getPath(), eds.getId())), ids(pu1.getChildList(sd, ed.getPath(), ed.getId())), ed.getId());
+      assertEquals(ids(pu2.getChildList(scanned, eds.getPath(), null)), ids(pu1.getChildList(sd, ed.getPath(), null)), ed.getId());
+      assertEquals(ids(pu2.getChildList(scanned, eds.getPath(), eds.getId(), false, true)), ids(pu1.getChildList(sd, ed.getPath(), ed.getId(), false, true)), ed.getId());
+      assertEquals(ids(pu2.getChildMap(scanned, eds).getList()), ids(pu1.getChildMap(sd, ed).getList()), ed.getId());
+      if (ed.hasSlicing()) {
+        assertEquals(ids(pu2.getSliceList(scanned, eds)), ids(pu1.getSliceList(sd, ed)), ed.getId());
+      }
+      assertSame(ed, SnapshotIndex.findById(sd, ed.getId()));
+      assertEquals(ids(SnapshotIndex.findAllByPath(scanned, eds.getPath())), ids(SnapshotIndex.findAllByPath(sd, ed.getPath())), ed.getId());
+      assertEquals(i, SnapshotIndex.indexOf(sd, ed));
+    }
+  }
+
+  @Test
+  public void testIndexRebuiltWhenSnapshotChanges() {
+    String name = "Observation";
+    IWorkerContext context = TestingUtilities.getSharedWorkerContext();
+    StructureDefinition sd = context.fetchResource(StructureDefinition.class, "http://hl7.org/fhir/StructureDefinition/"+name).copy();
+    SnapshotIndex index = SnapshotIndex.get(sd);
+    assertSame(index, SnapshotIndex.get(sd));
+    sd.getSnapshot().addElement().setId(name+".test").setPath(name+".test");
+    SnapshotIndex index2 = SnapshotIndex.get(sd);
+    assertNotSame(index, index2);
+    assertNotNull(index2.getById(name+".test"));
+  }
+
+  private List<String> ids(List<ElementDefinition> list) {
+    List<String> res = new ArrayList<>();
+    for (ElementDefinition ed : list) {
+      res.add(ed.getId());
+    }
+    return res;
+  }
+}
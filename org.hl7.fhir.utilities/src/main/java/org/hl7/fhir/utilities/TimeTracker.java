@@ -36,7 +36,7 @@ public class TimeTracker {
     globalStart = System.nanoTime();
   }
 
-  public Session start(String name) {
+  public synchronized Session start(String name) {
     Counter c = null;
     for (Counter t : records) {
       if (t.name.equals(name)) {
@@ -52,7 +52,7 @@ public class TimeTracker {
     return session;
   }
 
-  private void endSession(Session session) {
+  private synchronized void endSession(Session session) {
     sessions.remove(session);
     Counter c = null;
     for (Counter t : records) {
@@ -64,7 +64,7 @@ public class TimeTracker {
     c.length = c.length + System.nanoTime() - session.start;
   }
   
-  public String report() {
+  public synchronized String report() {
     CommaSeparatedStringBuilder b = new CommaSeparatedStringBuilder();
     for (Counter c : records) {
       if (c.count == 1) {
@@ -87,7 +87,7 @@ public class TimeTracker {
     return DurationUtil.presentDuration(System.nanoTime() - globalStart);
   }
 
-  public String milestone() {
+  public synchronized String milestone() {
     long start = milestone == 0 ? globalStart : milestone;
     milestone = System.nanoTime();
     return DurationUtil.presentDuration(milestone - start);
@@ -1,5 +1,6 @@
 package org.hl7.fhir.utilities.graphql;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /*
@@ -44,6 +45,21 @@ public interface IGraphQLStorageServices {
    */
   ReferenceResolution lookup(Object appInfo, IBaseResource context, IBaseReference reference) throws FHIRException;
 
+  /**
+   * resolve a set of references in one go. When batching references, the GraphQL engine calls this with all 
+   * the references it finds at one level of the output, without duplicates, and never with local (#) references. 
+   * Hosts that can fetch several resources at once (e.g. with a single database query) should override this
+   * 
+   * @return the resolution for each reference, in the same order (null where the reference can't be resolved) 
+   */
+  default List<ReferenceResolution> lookupMany(Object appInfo, List<ReferenceLookup> references) throws FHIRException {
+    List<ReferenceResolution> res = new ArrayList<>();
+    for (ReferenceLookup ref : references) {
+      res.add(lookup(appInfo, ref.getContext(), ref.getReference()));
+    }
+    return res;
+  }
+
   /**
    * just get the identified resource
    */
@@ -60,6 +76,25 @@ public interface IGraphQLStorageServices {
    */
   IBaseBundle search(Object appInfo, String type, List<Argument> searchParams) throws FHIRException;
 
+  class ReferenceLookup {
+    private IBaseResource context;
+    private IBaseReference reference;
+
+    public ReferenceLookup(IBaseResource context, IBaseReference reference) {
+      super();
+      this.context = context;
+      this.reference = reference;
+    }
+
+    public IBaseResource getContext() {
+      return context;
+    }
+
+    public IBaseReference getReference() {
+      return reference;
+    }
+  }
+
   class ReferenceResolution {
     private IBaseResource targetContext;
     private IBaseResource target;
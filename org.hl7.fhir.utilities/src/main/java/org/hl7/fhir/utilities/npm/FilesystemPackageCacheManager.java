@@ -110,6 +110,7 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
   private JsonArray buildInfo;
   private boolean suppressErrors;
   private boolean minimalMemory;
+  private boolean archivePackages;
 
   public static class Builder {
 
@@ -230,6 +231,19 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
     this.minimalMemory = minimalMemory;
   }
 
+  public boolean isArchivePackages() {
+    return archivePackages;
+  }
+
+  /**
+   * If this is true, packages are installed as a single package archive (see NpmPackageArchive) 
+   * along with their package.json, instead of being extracted. Packages in the cache 
+   * that have an archive are always loaded from it, whatever this is set to
+   */
+  public void setArchivePackages(boolean archivePackages) {
+    this.archivePackages = archivePackages;
+  }
+
   /**
    * do not use this in minimal memory mode
    * @param packagesFolder
@@ -263,6 +277,10 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
     j.set("date", new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
     JsonParser.compose(j, f, true);
 
+    File af = ManagedFileAccess.file(Utilities.path(path, NpmPackageArchive.FILENAME));
+    if (af.exists()) {
+      return NpmPackage.fromArchive(af);
+    }
     NpmPackage pi = minimalMemory ?  NpmPackage.fromFolderMinimal(path) : NpmPackage.fromFolder(path);
     return pi;
   }
@@ -489,7 +507,14 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
     
     String uuid = UUID.randomUUID().toString().toLowerCase();
     String tempDir = Utilities.path(cacheFolder, uuid);
-    NpmPackage npm =  NpmPackage.extractFromTgz(packageTgzInputStream, sourceDesc, tempDir, minimalMemory);
+    NpmPackage npm;
+    if (archivePackages) {
+      // read it into memory, and write the archive once we have the lock
+      npm = NpmPackage.fromPackage(packageTgzInputStream, sourceDesc);
+      Utilities.createDirectory(tempDir);
+    } else {
+      npm = NpmPackage.extractFromTgz(packageTgzInputStream, sourceDesc, tempDir, minimalMemory);
+    }
 
     if (progress) {
       log("");
@@ -518,6 +543,14 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
           } catch (Throwable t) {
             log("Unable to clear directory: "+packRoot+": "+t.getMessage()+" - this may cause problems later");
           }
+          if (archivePackages) {
+            fixPackageIdentity(npm, id, v);
+            File af = ManagedFileAccess.file(Utilities.path(tempDir, NpmPackageArchive.FILENAME));
+            NpmPackageArchive.write(npm, af);
+            npm.setSize((int) af.length());
+            Utilities.createDirectory(Utilities.path(tempDir, "package"));
+            TextFile.stringToFile(JsonParser.compose(npm.getNpm(), true), Utilities.path(tempDir, "package", "package.json"));
+          }
           Utilities.renameDirectory(tempDir, packRoot);          
 
           IniFile ini = new IniFile(Utilities.path(cacheFolder, "packages.ini"));
@@ -531,17 +564,7 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
           Utilities.clearDirectory(tempDir);
           ManagedFileAccess.file(tempDir).delete();
         }
-        if (!id.equals(npm.getNpm().asString("name")) || !v.equals(npm.getNpm().asString("version"))) {
-          if (!id.equals(npm.getNpm().asString("name"))) {
-            npm.getNpm().add("original-name", npm.getNpm().asString("name"));
-            npm.getNpm().remove("name");
-            npm.getNpm().add("name", id);
-          }
-          if (!v.equals(npm.getNpm().asString("version"))) {
-            npm.getNpm().add("original-version", npm.getNpm().asString("version"));
-            npm.getNpm().remove("version");
-            npm.getNpm().add("version", v);
-          }
+        if (fixPackageIdentity(npm, id, v) && !ManagedFileAccess.file(Utilities.path(packRoot, NpmPackageArchive.FILENAME)).exists()) {
           TextFile.stringToFile(JsonParser.compose(npm.getNpm(), true), Utilities.path(cacheFolder, id + "#" + v, "package", "package.json"));
         }
         pck = loadPackageInfo(packRoot);
@@ -561,6 +584,28 @@ public class FilesystemPackageCacheManager extends BasePackageCacheManager imple
     });
   }
 
+  /**
+   * make the package.json agree with the id and version it was installed as
+   * 
+   * @return true if the package.json was changed
+   */
+  private boolean fixPackageIdentity(NpmPackage npm, String id, String v) {
+    if (!id.equals(npm.getNpm().asString("name")) || !v.equals(npm.getNpm().asString("version"))) {
+      if (!id.equals(npm.getNpm().asString("name"))) {
+        npm.getNpm().add("original-name", npm.getNpm().asString("name"));
+        npm.getNpm().remove("name");
+        npm.getNpm().add("name", id);
+      }
+      if (!v.equals(npm.getNpm().asString("version"))) {
+        npm.getNpm().add("original-version", npm.getNpm().asString("version"));
+        npm.getNpm().remove("version");
+        npm.getNpm().add("version", v);
+      }
+      return true;
+    }
+    return false;
+  }
+
   private void log(String s) {
     if (!silent) {
       System.out.println(s);
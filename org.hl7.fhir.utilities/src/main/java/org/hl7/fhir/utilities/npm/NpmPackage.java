@@ -160,6 +160,12 @@ public class NpmPackage {
       return content;
     }
     
+    /**
+     * @return the content of the resource, wherever the package is (in a folder, an archive, or in memory)
+     */
+    public InputStream open() throws IOException {
+      return load(this);
+    }
   }
   public class IndexVersionSorter implements Comparator<JsonObject> {
 
@@ -185,6 +191,7 @@ public class NpmPackage {
     private Map<String, byte[]> content;
     private JsonObject cachedIndex;
     private File folder;
+    private NpmPackageArchive archive;
 
     public NpmPackageFolder(String folderName) {
       super();
@@ -242,6 +249,12 @@ public class NpmPackage {
             res.add(f.getName());
           }
         }
+      } else if (archive != null) {
+        for (String s : archive.listFiles(folderName)) {
+          if (!Utilities.existsInList(s, "package.json", ".index.json", ".index.db", ".oids.json", ".oids.db")) {
+            res.add(s);
+          }
+        }
       } else {
         for (String s : content.keySet()) {
           if (!Utilities.existsInList(s, "package.json", ".index.json", ".index.db", ".oids.json", ".oids.db")) {
@@ -267,6 +280,8 @@ public class NpmPackage {
         } else {
           return null;
         }
+      } else if (archive != null) {
+        return archive.fetchFile(folderName, file);
       } else {
         return content.get(file);
       }
@@ -280,6 +295,9 @@ public class NpmPackage {
         } else {
           return null;
         }
+      } else if (archive != null) {
+        byte[] b = archive.fetchFile(folderName, file);
+        return b == null ? null : ByteProvider.forBytes(b);
       } else {
         return ByteProvider.forBytes(content.get(file));
       }
@@ -288,6 +306,8 @@ public class NpmPackage {
     public boolean hasFile(String file) throws IOException {
       if (folder != null) {
         return ManagedFileAccess.file(Utilities.path(folder.getAbsolutePath(), file)).exists();
+      } else if (archive != null) {
+        return archive.hasFile(folderName, file);
       } else {
         return content.containsKey(file);
       }
@@ -301,6 +321,8 @@ public class NpmPackage {
     public void removeFile(String n) throws IOException {
       if (folder != null) {
         ManagedFileAccess.file(Utilities.path(folder.getAbsolutePath(), n)).delete();
+      } else if (archive != null) {
+        throw new IOException("Unable to remove "+n+" from "+folderName+": the package is read from an archive");
       } else {
         content.remove(n);
       }
@@ -310,6 +332,9 @@ public class NpmPackage {
     public JsonObject index() throws IOException {
       if (cachedIndex != null) {
         return cachedIndex;
+      } else if (archive != null) {
+        byte[] ij = archive.fetchFile(folderName, ".index.json");
+        return ij == null ? null : JsonParser.parseObject(ij);
       } else if (folder == null) {
         return null;
       } else {
@@ -374,6 +399,30 @@ public class NpmPackage {
     return res;
   }
 
+  /**
+   * Factory method that reads a package from a package archive (see NpmPackageArchive). Only the 
+   * indexes are read; the files are read from the archive when they are used
+   */
+  public static NpmPackage fromArchive(File file) throws IOException {
+    NpmPackage res = new NpmPackage();
+    NpmPackageArchive archive = NpmPackageArchive.open(file);
+    res.path = file.getAbsolutePath();
+    for (String name : archive.getFolderNames()) {
+      NpmPackageFolder folder = res.new NpmPackageFolder(name);
+      folder.archive = archive;
+      res.folders.put(name, folder);
+      byte[] ij = archive.fetchFile(name, ".index.json");
+      if (ij != null) {
+        folder.readIndex(JsonParser.parseObject(ij), folder.getTypes());
+      }
+    }
+    if (!archive.hasFile("package", "package.json")) {
+      throw new IOException("The package archive "+file.getAbsolutePath()+" does not contain a package.json file in /package");
+    }
+    res.npm = JsonParser.parseObject(archive.fetchFile("package", "package.json"));
+    return res;
+  }
+
   /**
    * Factory method that starts a new empty package using the given PackageGenerator to create the manifest
    */
@@ -1391,7 +1440,7 @@ public class NpmPackage {
 
   public boolean canLazyLoad() throws IOException {
     for (NpmPackageFolder folder : folders.values()) {
-      if (folder.folder == null) {        
+      if (folder.folder == null && folder.archive == null) {        
         return false;
       }
     }
@@ -1413,8 +1462,9 @@ public class NpmPackage {
 
   public InputStream load(PackageResourceInformation p) throws IOException {
     if (p.filename.startsWith("@")) {
-      String[] pl = p.filename.substring(1).split("\\/");
-      return new ByteArrayInputStream(folders.get(pl[0]).content.get(pl[1]));
+      // the folder name may have a / in it
+      int i = Math.max(p.filename.lastIndexOf('/'), p.filename.lastIndexOf('\\'));
+      return new ByteArrayInputStream(folders.get(p.filename.substring(1, i)).fetchFile(p.filename.substring(i+1)));
     } else {
       return ManagedFileAccess.inStream(p.filename);
     }
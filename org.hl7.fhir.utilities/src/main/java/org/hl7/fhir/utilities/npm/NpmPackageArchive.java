@@ -0,0 +1,268 @@
+package org.hl7.fhir.utilities.npm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.hl7.fhir.utilities.npm.NpmPackage.NpmPackageFolder;
+
+/**
+ * A package stored as a single file that can be read without extracting it.
+ *
+ * The file has the content of all the files in the package (uncompressed), followed by a
+ * central index of the folders and files, and then the offset of the index. The file is memory
+ * mapped when it's opened, and only the index is read; fetching a file is a hash lookup and a copy
+ * of its bytes.
+ *
+ * The package.json and the .index.json for each folder are included, so the package can be
+ * used straight away (see NpmPackage.fromArchive())
+ */
+public class NpmPackageArchive {
+
+  /**
+   * the name of the archive in a package cache folder (see FilesystemPackageCacheManager.setArchivePackages())
+   */
+  public static final String FILENAME = "package.fpa";
+
+  private static final byte[] MAGIC = "FHIRPKA".getBytes(StandardCharsets.US_ASCII);
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 11;
+  /**
+   * the archive ends with the offset of the index (a long) and the CRC of the index (an int)
+   */
+  public static final int TRAILER_SIZE = 12;
+
+  private static class ArchiveEntry {
+    private long offset;
+    private int length;
+    private int crc;
+  }
+
+  private File file;
+  private ByteBuffer buffer;
+  private Map<String, Map<String, ArchiveEntry>> folders = new LinkedHashMap<>();
+
+  private NpmPackageArchive(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public Set<String> getFolderNames() {
+    return folders.keySet();
+  }
+
+  public boolean hasFolder(String folder) {
+    return folders.containsKey(folder);
+  }
+
+  /**
+   * @return all the files in the folder, including the package.json and .index.json, in name order
+   */
+  public List<String> listFiles(String folder) {
+    Map<String, ArchiveEntry> files = folders.get(folder);
+    return files == null ? new ArrayList<>() : Utilities.sorted(files.keySet());
+  }
+
+  public boolean hasFile(String folder, String name) {
+    Map<String, ArchiveEntry> files = folders.get(folder);
+    return files != null && files.containsKey(name);
+  }
+
+  /**
+   * @return the content of the file, or null if there's no such file
+   */
+  public byte[] fetchFile(String folder, String name) throws IOException {
+    Map<String, ArchiveEntry> files = folders.get(folder);
+    ArchiveEntry e = files == null ? null : files.get(name);
+    if (e == null) {
+      return null;
+    }
+    byte[] content = new byte[e.length];
+    ByteBuffer b = buffer.duplicate();
+    b.position((int) e.offset);
+    b.get(content);
+    if (crc(content) != e.crc) {
+      throw new IOException("Error reading "+folder+"/"+name+" from "+file.getAbsolutePath()+": the package archive is corrupt");
+    }
+    return content;
+  }
+
+  // -- writing ------------------------------------------------------------------------------------------
+
+  /**
+   * Write the package to the file. The file is written alongside and then moved into place, so
+   * a process that is reading the old file isn't affected
+   *
+   * The package.json is written from the package manifest (npm.getNpm()), so any changes made
+   * to it are kept. The other files are written as they are found
+   */
+  public static void write(NpmPackage npm, File file) throws IOException {
+    File tmp = ManagedFileAccess.file(file.getAbsolutePath()+".tmp");
+    Map<String, Map<String, ArchiveEntry>> folders = new LinkedHashMap<>();
+
+    OutputStream stream = ManagedFileAccess.outStream(tmp);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.write(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      long offset = HEADER_SIZE;
+      for (String fn : Utilities.sorted(npm.getFolders().keySet())) {
+        NpmPackageFolder folder = npm.getFolders().get(fn);
+        Map<String, byte[]> content = new HashMap<>();
+        for (String n : folder.listFiles()) {
+          content.put(n, folder.fetchFile(n));
+        }
+        JsonObject index = folder.index();
+        if (index != null) {
+          content.put(".index.json", JsonParser.composeBytes(index));
+        }
+        if ("package".equals(fn)) {
+          content.put("package.json", JsonParser.composeBytes(npm.getNpm(), true));
+        }
+        Map<String, ArchiveEntry> files = new LinkedHashMap<>();
+        for (String n : Utilities.sorted(content.keySet())) {
+          byte[] b = content.get(n);
+          if (b != null) {
+            ArchiveEntry e = new ArchiveEntry();
+            e.offset = offset;
+            e.length = b.length;
+            e.crc = crc(b);
+            out.write(b);
+            offset = offset + b.length;
+            files.put(n, e);
+          }
+        }
+        folders.put(fn, files);
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream idx = new DataOutputStream(bytes);
+      idx.writeInt(folders.size());
+      for (String fn : folders.keySet()) {
+        idx.writeUTF(fn);
+        idx.writeInt(folders.get(fn).size());
+        for (String n : folders.get(fn).keySet()) {
+          ArchiveEntry e = folders.get(fn).get(n);
+          idx.writeUTF(n);
+          idx.writeLong(e.offset);
+          idx.writeInt(e.length);
+          idx.writeInt(e.crc);
+        }
+      }
+      idx.flush();
+      byte[] index = bytes.toByteArray();
+      out.write(index);
+      out.writeLong(offset);
+      out.writeInt(crc(index));
+      out.flush();
+    } finally {
+      stream.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // -- reading ------------------------------------------------------------------------------------------
+
+  /**
+   * Map the file and read the index
+   */
+  public static NpmPackageArchive open(File file) throws IOException {
+    NpmPackageArchive archive = new NpmPackageArchive(file);
+    FileInputStream stream = ManagedFileAccess.inStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("The package archive "+file.getAbsolutePath()+" is too large");
+      }
+      archive.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      stream.close();
+    }
+    archive.readIndex();
+    return archive;
+  }
+
+  private void readIndex() throws IOException {
+    int size = buffer.capacity();
+    if (size < HEADER_SIZE + TRAILER_SIZE) {
+      throw new IOException("The file "+file.getAbsolutePath()+" is not a package archive");
+    }
+    ByteBuffer b = buffer.duplicate();
+    byte[] magic = new byte[MAGIC.length];
+    b.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("The file "+file.getAbsolutePath()+" is not a package archive");
+    }
+    int fv = b.getInt();
+    if (fv != FORMAT_VERSION) {
+      throw new IOException("The package archive "+file.getAbsolutePath()+" is format version "+fv+", not "+FORMAT_VERSION);
+    }
+    long indexOffset = b.getLong(size - TRAILER_SIZE);
+    int indexCrc = b.getInt(size - TRAILER_SIZE + 8);
+    if (indexOffset < HEADER_SIZE || indexOffset > size - TRAILER_SIZE) {
+      throw new IOException("The package archive "+file.getAbsolutePath()+" is corrupt");
+    }
+    byte[] index = new byte[size - TRAILER_SIZE - (int) indexOffset];
+    b.position((int) indexOffset);
+    b.get(index);
+    if (crc(index) != indexCrc) {
+      throw new IOException("The package archive "+file.getAbsolutePath()+" is corrupt");
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+    try {
+      int fc = in.readInt();
+      for (int i = 0; i < fc; i++) {
+        String fn = in.readUTF();
+        Map<String, ArchiveEntry> files = new HashMap<>();
+        int c = in.readInt();
+        for (int j = 0; j < c; j++) {
+          String n = in.readUTF();
+          ArchiveEntry e = new ArchiveEntry();
+          e.offset = in.readLong();
+          e.length = in.readInt();
+          e.crc = in.readInt();
+          if (e.offset < HEADER_SIZE || e.length < 0 || e.offset + e.length > indexOffset) {
+            throw new IOException("The package archive "+file.getAbsolutePath()+" is corrupt");
+          }
+          files.put(n, e);
+        }
+        folders.put(fn, files);
+      }
+    } catch (EOFException e) {
+      throw new IOException("The package archive "+file.getAbsolutePath()+" is corrupt");
+    }
+  }
+
+  private static int crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return (int) crc.getValue();
+  }
+}
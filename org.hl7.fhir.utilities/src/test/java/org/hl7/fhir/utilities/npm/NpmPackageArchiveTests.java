@@ -0,0 +1,90 @@
+package org.hl7.fhir.utilities.npm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.hl7.fhir.utilities.TextFile;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.npm.NpmPackage.PackageResourceInformation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class NpmPackageArchiveTests {
+
+  private static final String VS1 = "{\"resourceType\":\"ValueSet\",\"id\":\"vs1\",\"url\":\"http://example.org/fhir/ValueSet/vs1\",\"version\":\"1.0.0\"}";
+  private static final String VS2 = "{\"resourceType\":\"ValueSet\",\"id\":\"vs2\",\"url\":\"http://example.org/fhir/ValueSet/vs2\",\"version\":\"1.0.0\"}";
+
+  private NpmPackage makePackage() throws IOException {
+    NpmPackage npm = NpmPackage.empty();
+    npm.addFile("package", "package.json", "{\"name\":\"example.fhir.test\",\"version\":\"1.0.0\",\"fhirVersions\":[\"5.0.0\"]}".getBytes(StandardCharsets.UTF_8), "package.json");
+    npm.addFile("package", "ValueSet-vs1.json", VS1.getBytes(StandardCharsets.UTF_8), "ValueSet");
+    npm.addFile("package", "ValueSet-vs2.json", VS2.getBytes(StandardCharsets.UTF_8), "ValueSet");
+    npm.addFile("other", "notes.txt", "some notes".getBytes(StandardCharsets.UTF_8), "other");
+    npm.indexFolder(null, npm.getFolders().get("package"));
+    return npm;
+  }
+
+  private File makeArchive() throws IOException {
+    File folder = ManagedFileAccess.fromPath(Files.createTempDirectory("npm-archive"));
+    File file = ManagedFileAccess.file(Utilities.path(folder.getAbsolutePath(), NpmPackageArchive.FILENAME));
+    NpmPackageArchive.write(makePackage(), file);
+    return file;
+  }
+
+  private String read(InputStream stream) throws IOException {
+    return new String(TextFile.streamToBytes(stream), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    NpmPackage npm = NpmPackage.fromArchive(makeArchive());
+    Assertions.assertEquals("example.fhir.test", npm.name());
+    Assertions.assertEquals("1.0.0", npm.version());
+    Assertions.assertTrue(npm.canLazyLoad());
+
+    List<PackageResourceInformation> list = npm.listIndexedResources("ValueSet");
+    Assertions.assertEquals(2, list.size());
+    for (PackageResourceInformation pri : list) {
+      Assertions.assertEquals("vs1".equals(pri.getId()) ? VS1 : VS2, read(pri.open()));
+    }
+    Assertions.assertEquals(VS2, read(npm.load("package", "ValueSet-vs2.json")));
+    Assertions.assertEquals("some notes", read(npm.load("other", "notes.txt")));
+    Assertions.assertEquals(2, npm.list("package").size());
+    Assertions.assertFalse(npm.hasFile("package", "ValueSet-vs3.json"));
+  }
+
+  @Test
+  public void testCorruptContent() throws IOException {
+    File file = makeArchive();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // the first file in the archive starts straight after the header
+      raf.seek(12);
+      raf.write('!');
+    }
+    NpmPackage npm = NpmPackage.fromArchive(file);
+    Assertions.assertThrows(IOException.class, () -> npm.load("other", "notes.txt"));
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    File file = makeArchive();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 20);
+    }
+    Assertions.assertThrows(IOException.class, () -> NpmPackage.fromArchive(file));
+  }
+
+  @Test
+  public void testNotAnArchive() throws IOException {
+    File file = makeArchive();
+    TextFile.stringToFile("{\"name\":\"example.fhir.test\",\"version\":\"1.0.0\",\"other\":\"padding\"}", file);
+    IOException e = Assertions.assertThrows(IOException.class, () -> NpmPackage.fromArchive(file));
+    Assertions.assertTrue(e.getMessage().contains("is not a package archive"));
+  }
+}
@@ -0,0 +1,399 @@
+package org.hl7.fhir.validation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.formats.IParser.OutputStyle;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.OperationOutcomeUtilities;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.hl7.fhir.validation.instance.InstanceValidator;
+
+/**
+ * Validates an NDJSON file (e.g. the output of a bulk data export) with bounded memory.
+ *
+ * One thread reads the lines, and hands them to #threads workers, each of which has its
+ * own validator. There's never more than a fixed number of lines in flight, so the memory
+ * used doesn't depend on the size of the file. The outcome for each line is written as
+ * a line of NDJSON, in the same order as the source.
+ *
+ * Each outcome records the source and the byte offset of the line in the source
+ * (operationoutcome-file = [source]@[offset]). Since the outcomes are written in order,
+ * a run that is interrupted can be resumed from the offset after the last outcome that
+ * was written - that's also reported as the run progresses.
+ *
+ * At the end, the throughput and the p50/p99 validation time for each resource type are
+ * reported.
+ */
+public class NdjsonValidator {
+
+  private static final int LINES_PER_THREAD = 16;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long PROGRESS_INTERVAL = 10000;
+
+  private ValidationEngine engine;
+  private int threads;
+
+  // shared between the reader and the workers
+  private BlockingQueue<Line> queue;
+  private Semaphore inFlight;
+  private volatile Throwable failure;
+
+  // guarded by this
+  private Map<Long, Line> pending = new HashMap<>();
+  private long nextToWrite;
+  private OutputStream output;
+  private String source;
+  private NdjsonStatistics stats;
+  private long lastProgress;
+
+  public NdjsonValidator(ValidationEngine engine) {
+    super();
+    this.engine = engine;
+    this.threads = Math.max(1, engine.getThreads());
+  }
+
+  /**
+   * Validate the lines in the source, starting at the byte offset (which must be 0, or an offset
+   * reported by an earlier run), and write the outcomes to output (which may be null)
+   */
+  public NdjsonStatistics validate(String source, long offset, OutputStream output, List<StructureDefinition> profiles) throws FHIRException, IOException, InterruptedException {
+    this.source = source;
+    this.output = output;
+    this.stats = new NdjsonStatistics(offset);
+    this.pending.clear();
+    this.nextToWrite = 0;
+    this.lastProgress = System.currentTimeMillis();
+    this.failure = null;
+    int capacity = threads * LINES_PER_THREAD;
+    queue = new ArrayBlockingQueue<>(capacity);
+    inFlight = new Semaphore(capacity);
+
+    // validators are created on this thread - creating one can load content into the context
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Worker w = new Worker(engine.getValidator(FhirFormat.JSON), profiles);
+      Thread t = new Thread(w, "ndjson-validator-"+i);
+      t.setDaemon(true);
+      workers.add(t);
+      t.start();
+    }
+    try {
+      read(offset);
+    } finally {
+      for (int i = 0; i < workers.size(); i++) {
+        queue.put(Line.END);
+      }
+      for (Thread t : workers) {
+        t.join();
+      }
+    }
+    if (failure != null) {
+      throw new FHIRException("Validation of "+source+" failed (resume from offset "+stats.getResumeOffset()+"): "+failure.getMessage(), failure);
+    }
+    stats.finish();
+    return stats;
+  }
+
+  /**
+   * The source is read a block at a time, and split into lines in the block 
+   */
+  private void read(long offset) throws IOException, InterruptedException {
+    try (FileInputStream fs = ManagedFileAccess.inStream(source)) {
+      fs.getChannel().position(offset);
+      InputStream stream = new BufferedInputStream(fs, BUFFER_SIZE);
+      byte[] block = new byte[BUFFER_SIZE];
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      long pos = offset; // the offset of the start of the block
+      long start = offset; // the offset of the start of the line
+      long seq = 0;
+      int n = stream.read(block);
+      while (n != -1 && failure == null) {
+        int from = 0;
+        for (int i = 0; i < n; i++) {
+          if (block[i] == '\n') {
+            buf.write(block, from, i - from);
+            if (buf.size() > 0 && !queueLine(seq++, start, pos + i + 1, buf)) {
+              return;
+            }
+            from = i + 1;
+            start = pos + from;
+          }
+        }
+        buf.write(block, from, n - from);
+        pos = pos + n;
+        n = stream.read(block);
+      }
+      if (buf.size() > 0 && failure == null) {
+        queueLine(seq, start, pos, buf);
+      }
+    }
+  }
+
+  /**
+   * @return false if a worker failed while waiting for space in the queue
+   */
+  private boolean queueLine(long seq, long start, long end, ByteArrayOutputStream buf) throws InterruptedException {
+    while (!inFlight.tryAcquire(1, TimeUnit.SECONDS)) {
+      if (failure != null) {
+        return false;
+      }
+    }
+    queue.put(new Line(seq, start, end, trim(buf.toByteArray())));
+    buf.reset();
+    return true;
+  }
+
+  private byte[] trim(byte[] content) {
+    int len = content.length;
+    while (len > 0 && (content[len - 1] == '\r' || content[len - 1] == ' ' || content[len - 1] == '\t')) {
+      len--;
+    }
+    if (len == content.length) {
+      return content;
+    }
+    byte[] res = new byte[len];
+    System.arraycopy(content, 0, res, 0, len);
+    return res;
+  }
+
+  /**
+   * called by the workers as each line is done. The outcomes are written in the order of the lines,
+   * so a line that finishes early waits in pending until the lines before it are done
+   */
+  private synchronized void complete(Line line) throws IOException {
+    pending.put(line.seq, line);
+    Line next = pending.remove(nextToWrite);
+    while (next != null) {
+      if (output != null) {
+        output.write(next.outcome);
+        output.write('\n');
+      }
+      stats.record(next.type, next.nanos, next.errors, next.end);
+      inFlight.release();
+      nextToWrite++;
+      next = pending.remove(nextToWrite);
+    }
+    if (System.currentTimeMillis() - lastProgress > PROGRESS_INTERVAL) {
+      lastProgress = System.currentTimeMillis();
+      if (output != null) {
+        output.flush();
+      }
+      System.out.println("  "+stats.getCount()+" resources ("+stats.getResourcesPerSecond()+"/sec), resume offset = "+stats.getResumeOffset());
+    }
+  }
+
+  private class Worker implements Runnable {
+    private InstanceValidator validator;
+    private List<StructureDefinition> profiles;
+    private JsonParser json = (JsonParser) new JsonParser().setOutputStyle(OutputStyle.NORMAL);
+
+    private Worker(InstanceValidator validator, List<StructureDefinition> profiles) {
+      super();
+      this.validator = validator;
+      this.profiles = profiles;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Line line = queue.take();
+        while (line != Line.END) {
+          if (failure == null) {
+            validate(line);
+            complete(line);
+          }
+          line = queue.take();
+        }
+      } catch (Throwable e) {
+        failure = e;
+      }
+    }
+
+    private void validate(Line line) throws IOException {
+      List<ValidationMessage> messages = new ArrayList<>();
+      long t = System.nanoTime();
+      try {
+        Element e = validator.validate(null, messages, new ByteArrayInputStream(line.content), FhirFormat.JSON, profiles);
+        line.type = e == null ? "(unknown)" : e.fhirType();
+      } catch (Exception e) {
+        line.type = "(error)";
+        messages.add(new ValidationMessage(ValidationMessage.Source.InstanceValidator, IssueType.EXCEPTION, "line", "Error validating line: "+e.getMessage(), IssueSeverity.FATAL));
+      }
+      line.nanos = System.nanoTime() - t;
+      line.content = null;
+
+      OperationOutcome op = new OperationOutcome();
+      for (ValidationMessage vm : ValidatorUtils.filterMessages(messages)) {
+        op.getIssue().add(OperationOutcomeUtilities.convertToIssue(vm, op));
+        if (vm.isError()) {
+          line.errors++;
+        }
+      }
+      ToolingExtensions.addStringExtension(op, ToolingExtensions.EXT_OO_FILE, source+"@"+line.start);
+      line.outcome = json.composeBytes(op);
+    }
+  }
+
+  private static class Line {
+    private static final Line END = new Line(-1, -1, -1, null);
+
+    private final long seq;
+    private final long start;
+    private final long end;
+    private byte[] content;
+    private String type;
+    private long nanos;
+    private int errors;
+    private byte[] outcome;
+
+    private Line(long seq, long start, long end, byte[] content) {
+      super();
+      this.seq = seq;
+      this.start = start;
+      this.end = end;
+      this.content = content;
+    }
+  }
+
+  /**
+   * A histogram of latencies, with buckets that are ~5% wide, so the percentiles are
+   * accurate to ~5% using a fixed amount of memory
+   */
+  public static class LatencyHistogram {
+    private static final double BASE = Math.log(1.05);
+    private static final int BUCKETS = 500; // 1.05^500 microseconds is way longer than anything will take
+
+    private long[] counts = new long[BUCKETS];
+    private long total;
+
+    public void record(long nanos) {
+      long micros = Math.max(1, nanos / 1000);
+      int b = (int) Math.min(BUCKETS - 1, Math.round(Math.log(micros) / BASE));
+      counts[b]++;
+      total++;
+    }
+
+    public long getCount() {
+      return total;
+    }
+
+    /**
+     * @return the latency, in microseconds, that p percent of the recorded latencies are less than or equal to
+     */
+    public long percentile(double p) {
+      if (total == 0) {
+        return 0;
+      }
+      long target = (long) Math.ceil(total * p / 100);
+      long seen = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+        seen = seen + counts[b];
+        if (seen >= Math.max(1, target)) {
+          return Math.round(Math.pow(1.05, b));
+        }
+      }
+      return Math.round(Math.pow(1.05, BUCKETS - 1));
+    }
+  }
+
+  public static class NdjsonStatistics {
+    private long startTime = System.currentTimeMillis();
+    private long endTime;
+    private long resumeOffset;
+    private long count;
+    private long errorCount;
+    private long resourcesWithErrors;
+    private LatencyHistogram all = new LatencyHistogram();
+    private Map<String, LatencyHistogram> byType = new TreeMap<>();
+
+    private NdjsonStatistics(long offset) {
+      super();
+      this.resumeOffset = offset;
+    }
+
+    private void record(String type, long nanos, int errors, long end) {
+      count++;
+      errorCount = errorCount + errors;
+      if (errors > 0) {
+        resourcesWithErrors++;
+      }
+      resumeOffset = end;
+      all.record(nanos);
+      byType.computeIfAbsent(type, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    private void finish() {
+      endTime = System.currentTimeMillis();
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getErrorCount() {
+      return errorCount;
+    }
+
+    public long getResourcesWithErrors() {
+      return resourcesWithErrors;
+    }
+
+    /**
+     * @return the offset to resume from to carry on after the last resource that was reported
+     */
+    public long getResumeOffset() {
+      return resumeOffset;
+    }
+
+    public long getResourcesPerSecond() {
+      long ms = (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+      return ms == 0 ? count : count * 1000 / ms;
+    }
+
+    public Map<String, LatencyHistogram> getByType() {
+      return byType;
+    }
+
+    public String report() {
+      StringBuilder b = new StringBuilder();
+      b.append(count+" resources, "+resourcesWithErrors+" with errors ("+errorCount+" errors), "+getResourcesPerSecond()+" resources/sec\r\n");
+      b.append("  "+Utilities.padRight("Type", ' ', 30)+Utilities.padLeft("Count", ' ', 10)+Utilities.padLeft("p50 (us)", ' ', 12)+Utilities.padLeft("p99 (us)", ' ', 12)+"\r\n");
+      for (String type : byType.keySet()) {
+        reportLine(b, type, byType.get(type));
+      }
+      reportLine(b, "(all)", all);
+      return b.toString();
+    }
+
+    private void reportLine(StringBuilder b, String type, LatencyHistogram h) {
+      b.append("  "+Utilities.padRight(type, ' ', 30)+Utilities.padLeft(Long.toString(h.getCount()), ' ', 10)+
+        Utilities.padLeft(Long.toString(h.percentile(50)), ' ', 12)+Utilities.padLeft(Long.toString(h.percentile(99)), ' ', 12)+"\r\n");
+    }
+  }
+}
@@ -2,6 +2,7 @@ package org.hl7.fhir.validation;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -20,6 +21,13 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.fhir.ucum.UcumEssenceService;
 import org.hl7.fhir.convertors.factory.VersionConvertorFactory_10_50;
@@ -35,10 +43,12 @@ import org.hl7.fhir.r5.context.ILoggingService;
 import org.hl7.fhir.r5.context.IWorkerContextManager;
 import org.hl7.fhir.r5.context.SimpleWorkerContext;
 import org.hl7.fhir.r5.context.SystemOutLoggingService;
+import org.hl7.fhir.r5.context.WorkerContextSnapshot;
 import org.hl7.fhir.r5.elementmodel.*;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.formats.FormatUtilities;
 import org.hl7.fhir.r5.formats.IParser.OutputStyle;
 import org.hl7.fhir.r5.formats.JsonParser;
@@ -105,6 +115,8 @@ import org.hl7.fhir.validation.cli.utils.QuestionnaireMode;
 import org.hl7.fhir.validation.cli.utils.SchemaValidator;
 import org.hl7.fhir.validation.cli.utils.ValidationLevel;
 import org.hl7.fhir.validation.instance.InstanceValidator;
+import org.hl7.fhir.validation.instance.StreamingBundleValidator;
+import org.hl7.fhir.validation.instance.StreamingBundleValidator.IStreamingBundleListener;
 import org.hl7.fhir.validation.instance.utils.ValidationContext;
 import org.hl7.fhir.utilities.ByteProvider;
 import org.xml.sax.SAXException;
@@ -222,6 +234,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   @Getter @Setter private HtmlInMarkdownCheck htmlInMarkdownCheck;
   @Getter @Setter private boolean allowDoubleQuotesInFHIRPath;
   @Getter @Setter private boolean checkIPSCodes;
+  @Getter @Setter private boolean batchTerminologyValidation;
   @Getter @Setter private BestPracticeWarningLevel bestPracticeLevel;
   @Getter @Setter private Locale locale;
   @Getter @Setter private List<ImplementationGuide> igs = new ArrayList<>();
@@ -235,6 +248,30 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   @Getter @Setter private IgLoader igLoader;
   @Getter @Setter private Coding jurisdiction;
 
+  /**
+   * the number of sources to validate at once when validating a list of sources.
+   * Each worker gets its own InstanceValidator and FHIRPathEngine, and they all
+   * share the worker context. 1 (the default) means validate on the calling thread
+   */
+  @Getter @Setter private int threads = 1;
+
+  /**
+   * if provided, used to run parallel validation. Otherwise, a pool of #threads
+   * is created for each call to validate(List<String>...) 
+   */
+  @Getter @Setter private ExecutorService executor;
+
+  /**
+   * if true, JSON bundles in the list of sources are validated one entry at a time 
+   * (see StreamingBundleValidator) instead of being loaded as a whole
+   */
+  @Getter @Setter private boolean streamBundles;
+
+  // if the engine was built with a context snapshot, where to save it, and what was loaded from it (if anything) 
+  private File contextSnapshotFile;
+  private String contextSnapshotKey;
+  private WorkerContextSnapshot contextSnapshot;
+
 
   private ContextUtilities cu = null;
   
@@ -248,8 +285,23 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
    * @throws IOException
    */
   public ValidationEngine(ValidationEngine other) throws FHIRException, IOException {
+    this(other, false);
+  }
+
+  /**
+   * Cloning a validation engine still copies all the definitions that are loaded. 
+   * A layered clone doesn't - it shares them with the other engine, and only keeps
+   * the packages that are loaded into it. This is much quicker, and uses much less 
+   * memory, but the other engine must not load anything else while it's in use
+   * 
+   * @param other
+   * @param layered
+   * @throws FHIRException
+   * @throws IOException
+   */
+  public ValidationEngine(ValidationEngine other, boolean layered) throws FHIRException, IOException {
     super();
-    context = new SimpleWorkerContext(other.context);
+    context = new SimpleWorkerContext(other.context, layered);
     binaries.putAll(other.binaries);
     doNative = other.doNative;
     noInvariantChecks = other.noInvariantChecks;
@@ -276,6 +328,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     htmlInMarkdownCheck = other.htmlInMarkdownCheck;
     allowDoubleQuotesInFHIRPath = other.allowDoubleQuotesInFHIRPath;
     checkIPSCodes = other.checkIPSCodes;
+    batchTerminologyValidation = other.batchTerminologyValidation;
     locale = other.locale;
     igs.addAll(other.igs);
     extensionDomains.addAll(other.extensionDomains);
@@ -283,9 +336,19 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     bundleValidationRules.addAll(other.bundleValidationRules);
     questionnaireMode = other.questionnaireMode;
     level = other.level;
-    fhirPathEngine = other.fhirPathEngine;
-    igLoader = other.igLoader;
+    if (layered) {
+      // these look things up in the context, so they can't be shared with the base
+      fhirPathEngine = new FHIRPathEngine(context);
+      fhirPathEngine.setAllowDoubleQuotes(other.fhirPathEngine != null && other.fhirPathEngine.isAllowDoubleQuotes());
+      igLoader = new IgLoader(pcm, context, version, debug);
+    } else {
+      fhirPathEngine = other.fhirPathEngine;
+      igLoader = other.igLoader;
+    }
     jurisdiction = other.jurisdiction;
+    threads = other.threads;
+    executor = other.executor;
+    streamBundles = other.streamBundles;
   }
   
   /**
@@ -304,7 +367,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
    * the validation framework in their own implementation context
    */
   @Getter @Setter private Map<String, ValidationControl> validationControl = new HashMap<>();
-  private Map<String, Boolean> resolvedUrls = new HashMap<>();
+  private Map<String, Boolean> resolvedUrls = new ConcurrentHashMap<>();
 
   private ValidationEngine()  {
 
@@ -390,6 +453,38 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     public ValidationEngine fromSource(String src) throws IOException, URISyntaxException {
       ValidationEngine engine = new ValidationEngine();
       engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService);
+      return finishLoading(engine);
+    }
+
+    /**
+     * As for fromSource(src), but the definitions are loaded from the context snapshot, if it's up 
+     * to date and was made for the same key. If it isn't, or it doesn't exist yet, the definitions are 
+     * loaded from src. Either way, once the application has loaded whatever else it needs (igs etc), 
+     * it calls saveContextSnapshot() so the snapshot is (re)written with everything in it
+     *
+     * The snapshot only helps when src is a package
+     *
+     * @param key identifies everything that will be loaded into the engine (e.g. src and the igs), so that
+     *   a snapshot with different igs in it isn't used
+     */
+    public ValidationEngine fromSource(String src, File contextSnapshot, String key) throws IOException, URISyntaxException {
+      ValidationEngine engine = new ValidationEngine();
+      WorkerContextSnapshot snapshot = engine.openContextSnapshot(src, contextSnapshot, key);
+      if (snapshot != null) {
+        engine.loadCoreDefinitions(snapshot, terminologyCachePath, userAgent, timeTracker, loggingService);
+      } else {
+        engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService);
+      }
+      finishLoading(engine);
+      if (engine.getPcm().loadPackage(src, null) != null) {
+        engine.contextSnapshotFile = contextSnapshot;
+        engine.contextSnapshotKey = key;
+        engine.contextSnapshot = snapshot;
+      }
+      return engine;
+    }
+
+    private ValidationEngine finishLoading(ValidationEngine engine) throws IOException, URISyntaxException {
       engine.getContext().setCanRunWithoutTerminology(canRunWithoutTerminologyServer);
       engine.getContext().setPackageTracker(engine);    
       if (txServer != null) {
@@ -465,6 +560,81 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       context = contextBuilder.fromDefinitions(source, ValidatorUtils.loaderForVersion(version), new PackageInformation(src, version, new Date()));
       ValidatorUtils.grabNatives(getBinaries(), source, "http://hl7.org/fhir");
     }
+    loadUcum();
+    initContext(tt);
+  }
+
+  private void loadCoreDefinitions(WorkerContextSnapshot snapshot, String terminologyCachePath, String userAgent, TimeTracker tt, ILoggingService loggingService) throws FHIRException, IOException {
+    version = snapshot.getVersion();
+    SimpleWorkerContext.SimpleWorkerContextBuilder contextBuilder = new SimpleWorkerContext.SimpleWorkerContextBuilder().withLoggingService(loggingService);
+    if (terminologyCachePath != null)
+      contextBuilder = contextBuilder.withTerminologyCachePath(terminologyCachePath);
+    if (userAgent != null) {
+      contextBuilder.withUserAgent(userAgent);
+    }
+    context = contextBuilder.fromSnapshot(snapshot, ValidatorUtils.loaderForVersion(version));
+    loadUcum();
+    initContext(tt);
+  }
+
+  /**
+   * @return the snapshot, if it exists, was made from src for the same key, and the packages it was made from haven't changed since
+   */
+  private WorkerContextSnapshot openContextSnapshot(String src, File file, String key) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    NpmPackage npm = getPcm().loadPackage(src, null);
+    if (npm == null) {
+      return null;
+    }
+    try {
+      WorkerContextSnapshot snapshot = WorkerContextSnapshot.open(file);
+      if (!snapshot.hasPackage(npm.id()+"#"+npm.version())) {
+        System.out.println("  Context snapshot "+file.getAbsolutePath()+" was not made from "+src+", so ignoring it");
+        return null;
+      }
+      if (key != null && !key.equals(snapshot.getKey())) {
+        System.out.println("  Context snapshot "+file.getAbsolutePath()+" was made with different packages, so ignoring it");
+        return null;
+      }
+      if (!snapshot.isCurrent()) {
+        System.out.println("  Context snapshot "+file.getAbsolutePath()+" is out of date, so ignoring it");
+        return null;
+      }
+      return snapshot;
+    } catch (IOException e) {
+      System.out.println("  Unable to read context snapshot "+file.getAbsolutePath()+": "+e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * If the engine was built with a context snapshot (see ValidationEngineBuilder.fromSource(src, file, key)), save 
+   * the definitions that have been loaded from packages so far, so that later runs can start from them. Call this 
+   * once the igs have been loaded. Nothing is saved if the engine was loaded from the snapshot, and nothing has 
+   * been loaded since
+   */
+  public void saveContextSnapshot() {
+    if (contextSnapshotFile != null && (contextSnapshot == null || !contextSnapshot.getLoadedPackages().containsAll(context.getLoadedPackages()))) {
+      saveContextSnapshot(contextSnapshotFile, contextSnapshotKey);
+    }
+  }
+
+  /**
+   * Save the definitions that have been loaded from packages so far, so that later runs can start from them.
+   * Snapshots are generated for all the structure definitions first. Failing to save the file is not an error
+   */
+  public void saveContextSnapshot(File file, String key) {
+    try {
+      context.saveSnapshot(file, key);
+      System.out.println("  Saved context snapshot "+file.getAbsolutePath());
+    } catch (Exception e) {
+      System.out.println("  Unable to save context snapshot "+file.getAbsolutePath()+": "+e.getMessage());
+    }
+  }
+
+  private void loadUcum() {
     // ucum-essence.xml should be in the class path. if it's not, ask about how to sort this out 
     // on https://chat.fhir.org/#narrow/stream/179167-hapi
     try {
@@ -474,7 +644,6 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     } catch (Exception e) {
       throw new FHIRException("Error loading UCUM from embedded ucum-essence.xml: "+e.getMessage(), e);
     }
-    initContext(tt);
   }
 
   protected void initContext(TimeTracker tt) throws IOException {
@@ -600,8 +769,13 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     // Ignore if it fails.The purpose of this is to make dependencies 
     // available for other resources to depend on. if it fails to load, there'll be an error if there's
     // something that should've been loaded
+    Set<SourceFile> streamed = new HashSet<>();
     for (SourceFile ref : refs) {
       if ((ref.isProcess() || all) && !ref.isKnownToBeMissing()) {
+        if (streamBundles && StreamingBundleValidator.isJsonBundle(ManagedFileAccess.file(ref.getRef()))) {
+          streamed.add(ref); // not loaded - validated in place below
+          continue;
+        }
         ref.setCnt(igLoader.loadContent(ref.getRef(), "validate", false, first));
         if (loader != null && ref.getCnt() != null) {
           try {
@@ -615,24 +789,29 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       }
     }
     
-    for (SourceFile ref : refs) {
-      if ((ref.isProcess() || all) && ref.getCnt() != null) {
-        TimeTracker.Session tts = context.clock().start("validation");
-        context.clock().milestone();
-        System.out.println("  Validate " + ref.getRef());
-        
-        try {
-          OperationOutcome outcome = validate(ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, record);
-          ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
-          System.out.println(" " + context.clock().milestone());
-          results.addEntry().setResource(outcome);
-          tts.end();
-        } catch (Exception e) {
-          System.out.println("Validation Infrastructure fail validating " + ref + ": " + e.getMessage());
-          tts.end();
-          throw new FHIRException(e);
+    if (threads > 1) {
+      validateParallel(refs, streamed, profiles, record, all, results);
+    } else {
+      for (SourceFile ref : refs) {
+        if ((ref.isProcess() || all) && (ref.getCnt() != null || streamed.contains(ref))) {
+          TimeTracker.Session tts = context.clock().start("validation");
+          context.clock().milestone();
+          System.out.println("  Validate " + ref.getRef() + (streamed.contains(ref) ? " (streaming)" : ""));
+
+          try {
+            OperationOutcome outcome = streamed.contains(ref) ? validateBundleStreaming(ref.getRef(), profiles, record, null) 
+                : validate(ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, record);
+            ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
+            System.out.println(" " + context.clock().milestone());
+            results.addEntry().setResource(outcome);
+            tts.end();
+          } catch (Exception e) {
+            System.out.println("Validation Infrastructure fail validating " + ref + ": " + e.getMessage());
+            tts.end();
+            throw new FHIRException(e);
+          }
+          ref.setProcess(false);
         }
-        ref.setProcess(false);
       }
     }
     if (asBundle)
@@ -642,6 +821,115 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   }
 
 
+  private static class ParallelValidationTask {
+    private SourceFile ref;
+    private List<ValidationMessage> messages = new ArrayList<>();
+    private Future<OperationOutcome> future;
+  }
+
+  private static class ParallelValidationWorker {
+    private InstanceValidator validator;
+    private FHIRPathEngine fpe;
+  }
+
+  /**
+   * Validate the sources across a pool of #threads workers. Each worker has its own validator 
+   * and FHIRPath engine, and a task borrows a worker for as long as it runs. The validators 
+   * are created on the calling thread (creating one can load content into the context), and the 
+   * results are collected in the order of the sources, so the output is the same as 
+   * the sequential mode. Streamed bundles are validated by a worker in their place too
+   */
+  private void validateParallel(List<SourceFile> refs, Set<SourceFile> streamed, List<String> profiles, List<ValidationRecord> record, boolean all, Bundle results) throws FHIRException, IOException, InterruptedException {
+    FhirFormat format = null;
+    for (SourceFile ref : refs) {
+      if ((ref.isProcess() || all) && ref.getCnt() != null && (format == null || ref.getCnt().getCntType() == FhirFormat.SHC)) {
+        format = ref.getCnt().getCntType();
+      }
+    }
+    BlockingQueue<ParallelValidationWorker> workers = new ArrayBlockingQueue<>(threads);
+    for (int i = 0; i < threads; i++) {
+      ParallelValidationWorker worker = new ParallelValidationWorker();
+      worker.validator = getValidator(format); // the format only matters for loading content 
+      worker.fpe = new FHIRPathEngine(context);
+      worker.fpe.setAllowDoubleQuotes(fhirPathEngine.isAllowDoubleQuotes());
+      workers.add(worker);
+    }
+    ExecutorService exec = executor != null ? executor : Executors.newFixedThreadPool(threads);
+    TimeTracker.Session tts = context.clock().start("validation");
+    context.clock().milestone();
+    try {
+      List<ParallelValidationTask> tasks = new ArrayList<>();
+      for (SourceFile ref : refs) {
+        if ((ref.isProcess() || all) && (ref.getCnt() != null || streamed.contains(ref))) {
+          boolean streaming = streamed.contains(ref);
+          System.out.println("  Validate " + ref.getRef() + (streaming ? " (streaming)" : ""));
+          ParallelValidationTask task = new ParallelValidationTask();
+          task.ref = ref;
+          task.future = exec.submit(() -> {
+            ParallelValidationWorker worker = workers.take();
+            try {
+              if (streaming) {
+                return validateBundleStreaming(worker.validator, worker.fpe, ref.getRef(), profiles, task.messages, null);
+              }
+              return validate(worker.validator, worker.fpe, ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, task.messages);
+            } finally {
+              workers.add(worker);
+            }
+          });
+          tasks.add(task);
+        }
+      }
+      for (ParallelValidationTask task : tasks) {
+        try {
+          OperationOutcome outcome = task.future.get();
+          ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, task.ref.getRef());
+          results.addEntry().setResource(outcome);
+          updateRecord(record, task.ref.getRef(), task.messages);
+        } catch (ExecutionException e) {
+          System.out.println("Validation Infrastructure fail validating " + task.ref + ": " + e.getCause().getMessage());
+          for (ParallelValidationTask t : tasks) {
+            t.future.cancel(true);
+          }
+          throw new FHIRException(e.getCause());
+        }
+        task.ref.setProcess(false);
+      }
+      System.out.println("  Validated " + tasks.size() + " sources on " + threads + " threads: " + context.clock().milestone());
+    } finally {
+      tts.end();
+      if (exec != executor) {
+        exec.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Validate a JSON bundle one entry at a time, without loading the whole bundle. 
+   * The listener (if provided) is told about the issues for each entry as it is validated
+   */
+  public OperationOutcome validateBundleStreaming(String location, List<String> profiles, List<ValidationRecord> record, IStreamingBundleListener listener) throws FHIRException, IOException, EOperationOutcome {
+    List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+    OperationOutcome outcome = validateBundleStreaming(getValidator(FhirFormat.JSON), fhirPathEngine, location, profiles, messages, listener);
+    updateRecord(record, location, messages);
+    return outcome;
+  }
+
+  private OperationOutcome validateBundleStreaming(InstanceValidator validator, FHIRPathEngine fpe, String location, List<String> profiles, List<ValidationMessage> messages, IStreamingBundleListener listener) throws FHIRException, IOException, EOperationOutcome {
+    List<ValidationMessage> entryMessages = new ArrayList<ValidationMessage>();
+    StreamingBundleValidator sbv = new StreamingBundleValidator(validator);
+    messages.addAll(sbv.validate(ManagedFileAccess.file(location), asSdList(profiles), (index, fullUrl, msgs) -> {
+      entryMessages.addAll(msgs);
+      if (listener != null) {
+        listener.entryValidated(index, fullUrl, msgs);
+      }
+    }));
+    messages.addAll(entryMessages);
+    if (showTimes) {
+      System.out.println(location + ": " + sbv.getEntryCount() + " entries");
+    }
+    return ValidatorUtils.messagesToOutcome(messages, context, fpe);
+  }
+
   public ValidatedFragments validateAsFragments(byte[] source, FhirFormat cntType, List<String> profiles, List<ValidationMessage> messages) throws FHIRException, IOException, EOperationOutcome {
     InstanceValidator validator = getValidator(cntType);
     validator.validate(null, messages, new ByteArrayInputStream(source), cntType, asSdList(profiles));
@@ -658,14 +946,24 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
 
   public OperationOutcome validate(String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationRecord> record) throws FHIRException, IOException, EOperationOutcome, SAXException {
     List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
+    OperationOutcome outcome = validate(getValidator(cntType), fhirPathEngine, location, source, cntType, profiles, messages);
+    updateRecord(record, location, messages);
+    return outcome;
+  }
+
+  private OperationOutcome validate(InstanceValidator validator, FHIRPathEngine fpe, String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationMessage> messages) throws FHIRException, IOException, EOperationOutcome, SAXException {
     if (doNative) {
       SchemaValidator.validateSchema(location, cntType, messages);
     }
-    InstanceValidator validator = getValidator(cntType);
     validator.validate(null, messages, new ByteArrayInputStream(source.getBytes()), cntType, asSdList(profiles));
     if (showTimes) {
       System.out.println(location + ": " + validator.reportTimes());
+      System.out.println("  " + FHIRPathExpressionCache.getInstance().report());
     }
+    return ValidatorUtils.messagesToOutcome(messages, context, fpe);
+  }
+
+  private void updateRecord(List<ValidationRecord> record, String location, List<ValidationMessage> messages) {
     if (record != null) {
       boolean found = false;
       for (ValidationRecord t : record) {
@@ -678,7 +976,6 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
         record.add(new ValidationRecord(location, messages));
       }
     }
-    return ValidatorUtils.messagesToOutcome(messages, context, fhirPathEngine);
   }
 
   public OperationOutcome validate(String location, byte[] source, FhirFormat cntType, List<String> profiles, IdStatus resourceIdRule, boolean anyExtensionsAllowed, BestPracticeWarningLevel bpWarnings, CheckDisplayOption displayOption) throws FHIRException, IOException, EOperationOutcome, SAXException {
@@ -877,6 +1174,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     validator.setNoUnicodeBiDiControlChars(noUnicodeBiDiControlChars);
     validator.setDoImplicitFHIRPathStringConversion(doImplicitFHIRPathStringConversion);
     validator.setCheckIPSCodes(checkIPSCodes);
+    validator.setBatchTerminologyValidation(batchTerminologyValidation);
     if (format == FhirFormat.SHC) {
       igLoader.loadIg(getIgs(), getBinaries(), SHCParser.CURRENT_PACKAGE, true);      
     }
@@ -126,6 +126,7 @@ public class ValidatorCli {
       new InstallTask(),
       new LangTransformTask(),
       new NarrativeTask(),
+      new NdjsonTask(),
       new PreloadCacheTask(),
       new ScanTask(),
       new SnapshotTask(),
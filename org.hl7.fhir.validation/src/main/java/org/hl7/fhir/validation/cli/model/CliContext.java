@@ -60,6 +60,10 @@ public class CliContext {
   private boolean disableDefaultResourceFetcher = false;
   @JsonProperty("checkIPSCodes")  
   private boolean checkIPSCodes;
+  @JsonProperty("batchTerminologyValidation")
+  private boolean batchTerminologyValidation;
+  @JsonProperty("shareDefinitions")
+  private boolean shareDefinitions;
   @JsonProperty("langTransform")
   private String langTransform = null;
   @JsonProperty("map")
@@ -78,6 +82,8 @@ public class CliContext {
   private String txLog = null;
   @JsonProperty("txCache")
   private String txCache = null;
+  @JsonProperty("contextSnapshot")
+  private String contextSnapshot = null;
   @JsonProperty("mapLog")
   private String mapLog = null;
   @JsonProperty("lang")
@@ -156,6 +162,19 @@ public class CliContext {
   @JsonProperty("watchSettleTime")
   private int watchSettleTime = 100;
   
+  @JsonProperty("threads")
+  private int threads = 1;
+  @JsonProperty("resourceMemory")
+  private int resourceMemory = 0;
+  @JsonProperty("parallelLoad")
+  private boolean parallelLoad = false;
+
+  @JsonProperty("streamBundles")
+  private boolean streamBundles = false;
+
+  @JsonProperty("ndjsonOffset")
+  private long ndjsonOffset = 0;
+
   @JsonProperty("bestPracticeLevel")
   private BestPracticeWarningLevel bestPracticeLevel = BestPracticeWarningLevel.Warning;
   
@@ -352,6 +371,28 @@ public class CliContext {
     return this;
   }
 
+  @JsonProperty("batchTerminologyValidation")
+  public boolean isBatchTerminologyValidation() {
+    return batchTerminologyValidation;
+  }
+
+  @JsonProperty("batchTerminologyValidation")
+  public CliContext setBatchTerminologyValidation(boolean batchTerminologyValidation) {
+    this.batchTerminologyValidation = batchTerminologyValidation;
+    return this;
+  }
+
+  @JsonProperty("shareDefinitions")
+  public boolean isShareDefinitions() {
+    return shareDefinitions;
+  }
+
+  @JsonProperty("shareDefinitions")
+  public CliContext setShareDefinitions(boolean shareDefinitions) {
+    this.shareDefinitions = shareDefinitions;
+    return this;
+  }
+
 
   @JsonProperty("locale")
   public String getLanguageCode() {
@@ -530,6 +571,17 @@ public class CliContext {
     return this;
   }
 
+  @JsonProperty("contextSnapshot")
+  public String getContextSnapshot() {
+    return contextSnapshot;
+  }
+
+  @JsonProperty("contextSnapshot")
+  public CliContext setContextSnapshot(String contextSnapshot) {
+    this.contextSnapshot = contextSnapshot;
+    return this;
+  }
+
   @JsonProperty("mapLog")
   public String getMapLog() {
     return mapLog;
@@ -772,6 +824,8 @@ public class CliContext {
       wantInvariantsInMessages == that.wantInvariantsInMessages &&
       allowDoubleQuotesInFHIRPath == that.allowDoubleQuotesInFHIRPath &&
       checkIPSCodes == that.checkIPSCodes &&
+      batchTerminologyValidation == that.batchTerminologyValidation &&
+      shareDefinitions == that.shareDefinitions &&
       Objects.equals(extensions, that.extensions) &&
       Objects.equals(map, that.map) &&
       Objects.equals(htmlInMarkdownCheck, that.htmlInMarkdownCheck) &&
@@ -782,6 +836,7 @@ public class CliContext {
       Objects.equals(sv, that.sv) &&
       Objects.equals(txLog, that.txLog) &&
       Objects.equals(txCache, that.txCache) &&
+      Objects.equals(contextSnapshot, that.contextSnapshot) &&
       Objects.equals(mapLog, that.mapLog) &&
       Objects.equals(lang, that.lang) &&
       Objects.equals(srcLang, that.srcLang) &&
@@ -806,15 +861,20 @@ public class CliContext {
       Objects.equals(watchMode, that.watchMode) &&
       Objects.equals(bestPracticeLevel, that.bestPracticeLevel) &&
       Objects.equals(watchScanDelay, that.watchScanDelay) &&
-      Objects.equals(watchSettleTime, that.watchSettleTime) ;
+      Objects.equals(watchSettleTime, that.watchSettleTime) &&
+      Objects.equals(threads, that.threads) &&
+      resourceMemory == that.resourceMemory &&
+      parallelLoad == that.parallelLoad &&
+      Objects.equals(streamBundles, that.streamBundles) &&
+      Objects.equals(ndjsonOffset, that.ndjsonOffset) ;
   }
 
   @Override
   public int hashCode() {
     return Objects.hash(doNative, extensions, hintAboutNonMustSupport, recursive, doDebug, assumeValidRestReferences, canDoNative, noInternalCaching, 
-            noExtensibleBindingMessages, noInvariants, displayWarnings, wantInvariantsInMessages, map, output, outputSuffix, htmlOutput, txServer, sv, txLog, txCache, mapLog, lang, srcLang, tgtLang, fhirpath, snomedCT,
-            targetVer, igs, questionnaireMode, level, profiles, sources, inputs, mode, locale, locations, crumbTrails, forPublication, showTimes, allowExampleUrls, outputStyle, jurisdiction, noUnicodeBiDiControlChars, watchMode, watchScanDelay, watchSettleTime, bestPracticeLevel,
-            htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes);
+            noExtensibleBindingMessages, noInvariants, displayWarnings, wantInvariantsInMessages, map, output, outputSuffix, htmlOutput, txServer, sv, txLog, txCache, contextSnapshot, mapLog, lang, srcLang, tgtLang, fhirpath, snomedCT,
+            targetVer, igs, questionnaireMode, level, profiles, sources, inputs, mode, locale, locations, crumbTrails, forPublication, showTimes, allowExampleUrls, outputStyle, jurisdiction, noUnicodeBiDiControlChars, watchMode, watchScanDelay, watchSettleTime, threads, resourceMemory, parallelLoad, streamBundles, ndjsonOffset, bestPracticeLevel,
+            htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes, batchTerminologyValidation, shareDefinitions);
   }
 
   @Override
@@ -841,6 +901,7 @@ public class CliContext {
       ", sv='" + sv + '\'' +
       ", txLog='" + txLog + '\'' +
       ", txCache='" + txCache + '\'' +
+      ", contextSnapshot='" + contextSnapshot + '\'' +
       ", mapLog='" + mapLog + '\'' +
       ", lang='" + lang + '\'' +
       ", srcLang='" + srcLang + '\'' +
@@ -868,10 +929,17 @@ public class CliContext {
       ", htmlInMarkdownCheck=" + htmlInMarkdownCheck +
       ", allowDoubleQuotesInFHIRPath=" + allowDoubleQuotesInFHIRPath +
       ", checkIPSCodes=" + checkIPSCodes +
+      ", batchTerminologyValidation=" + batchTerminologyValidation +
+      ", shareDefinitions=" + shareDefinitions +
       ", watchMode=" + watchMode +
       ", bestPracticeLevel=" + bestPracticeLevel +
       ", watchSettleTime=" + watchSettleTime +
       ", watchScanDelay=" + watchScanDelay +
+      ", threads=" + threads +
+      ", resourceMemory=" + resourceMemory +
+      ", parallelLoad=" + parallelLoad +
+      ", streamBundles=" + streamBundles +
+      ", ndjsonOffset=" + ndjsonOffset +
       '}';
   }
 
@@ -918,6 +986,61 @@ public class CliContext {
   }
   
 
+  @JsonProperty("threads")
+  public int getThreads() {
+    return threads;
+  }
+
+  @JsonProperty("threads")
+  public CliContext setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  @JsonProperty("resourceMemory")
+  public int getResourceMemory() {
+    return resourceMemory;
+  }
+
+  @JsonProperty("resourceMemory")
+  public CliContext setResourceMemory(int resourceMemory) {
+    this.resourceMemory = resourceMemory;
+    return this;
+  }
+
+  @JsonProperty("parallelLoad")
+  public boolean isParallelLoad() {
+    return parallelLoad;
+  }
+
+  @JsonProperty("parallelLoad")
+  public CliContext setParallelLoad(boolean parallelLoad) {
+    this.parallelLoad = parallelLoad;
+    return this;
+  }
+
+  @JsonProperty("streamBundles")
+  public boolean isStreamBundles() {
+    return streamBundles;
+  }
+
+  @JsonProperty("streamBundles")
+  public CliContext setStreamBundles(boolean streamBundles) {
+    this.streamBundles = streamBundles;
+    return this;
+  }
+
+  @JsonProperty("ndjsonOffset")
+  public long getNdjsonOffset() {
+    return ndjsonOffset;
+  }
+
+  @JsonProperty("ndjsonOffset")
+  public CliContext setNdjsonOffset(long ndjsonOffset) {
+    this.ndjsonOffset = ndjsonOffset;
+    return this;
+  }
+
   @JsonProperty("bestPracticeLevel")
   public BestPracticeWarningLevel getBestPracticeLevel() {
     return bestPracticeLevel;
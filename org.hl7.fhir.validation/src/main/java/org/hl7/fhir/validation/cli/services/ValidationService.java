@@ -1,22 +1,28 @@
 package org.hl7.fhir.validation.cli.services;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
 import org.hl7.fhir.r5.context.ContextUtilities;
+import org.hl7.fhir.r5.context.ResidentResourceSet;
 import org.hl7.fhir.r5.context.SimpleWorkerContext;
 import org.hl7.fhir.r5.context.SystemOutLoggingService;
 import org.hl7.fhir.r5.elementmodel.Element;
@@ -75,6 +81,9 @@ public class ValidationService {
   private final SessionCache sessionCache;
   private String runDate;
 
+  private boolean shareDefinitions;
+  private final Map<String, CompletableFuture<ValidationEngine>> baseEngines = new ConcurrentHashMap<>();
+
   public ValidationService() {
     sessionCache = new PassiveExpiringSessionCache();
     runDate = new SimpleDateFormat("hh:mm:ss", new Locale("en", "US")).format(new Date());
@@ -214,6 +223,9 @@ public class ValidationService {
         statusNeeded = true;
         MemoryMXBean mbean = ManagementFactory.getMemoryMXBean();
         System.out.println("Done. " + validator.getContext().clock().report()+". Memory = "+Utilities.describeSize(mbean.getHeapMemoryUsage().getUsed()+mbean.getNonHeapMemoryUsage().getUsed()));
+        if (validator.getContext().getResidentSet() != null) {
+          System.out.println("  Resources in memory: " + validator.getContext().getResidentSet().toString());
+        }
         System.out.println();
 
         PrintStream dst = null;
@@ -372,6 +384,24 @@ public class ValidationService {
 
   }
 
+  public void validateNdjson(CliContext cliContext, ValidationEngine validator) throws Exception {
+    if (cliContext.getSources().size() != 1) {
+      throw new Exception("Must have exactly one source when validating NDJSON (found " + cliContext.getSources() + ")");
+    }
+    String source = cliContext.getSources().get(0);
+    System.out.println("  Validate " + source + (cliContext.getNdjsonOffset() > 0 ? " from offset " + cliContext.getNdjsonOffset() : "") + " on " + validator.getThreads() + " threads");
+    NdjsonValidator.NdjsonStatistics stats;
+    // when resuming, the outcomes are appended to the existing output
+    try (OutputStream out = cliContext.getOutput() == null ? null : new BufferedOutputStream(new FileOutputStream(ManagedFileAccess.file(cliContext.getOutput()), cliContext.getNdjsonOffset() > 0))) {
+      stats = new NdjsonValidator(validator).validate(source, cliContext.getNdjsonOffset(), out, validator.asSdList(cliContext.getProfiles()));
+    }
+    System.out.println(stats.report());
+    if (cliContext.getOutput() != null) {
+      System.out.println("Outcomes written to " + cliContext.getOutput());
+    }
+    SystemExitManager.setError(stats.getResourcesWithErrors() > 0 ? 1 : 0);
+  }
+
   public void generateNarrative(CliContext cliContext, ValidationEngine validator) throws Exception {
     Resource r = validator.generate(cliContext.getSources().get(0), cliContext.getSv());
     System.out.println(" ...generated narrative successfully");
@@ -473,7 +503,7 @@ public class ValidationService {
       if (sessionId != null) {
         System.out.println("No such cached session exists for session id " + sessionId + ", re-instantiating validator.");
       }
-      ValidationEngine validator = buildValidationEngine(cliContext, definitions, tt);
+      ValidationEngine validator = shareDefinitions || cliContext.isShareDefinitions() ? buildLayeredValidationEngine(cliContext, definitions, tt) : buildValidationEngine(cliContext, definitions, tt);
       sessionId = sessionCache.cacheSession(validator);
     } else {
       System.out.println("Cached session exists for session id " + sessionId + ", returning stored validator session id.");
@@ -485,14 +515,97 @@ public class ValidationService {
     return new ValidationEngine.ValidationEngineBuilder();
   }
 
+  public boolean isShareDefinitions() {
+    return shareDefinitions;
+  }
+
+  /**
+   * If true, each session gets a validation engine that is a thin layer over a shared engine with the 
+   * core definitions and common packages in it, instead of a full engine of its own. Sessions with the 
+   * same version, definitions and terminology server share the same base engine, and only the igs 
+   * for the session are loaded into the session's own engine. A request can also ask for this with 
+   * -share-definitions ({@link CliContext#isShareDefinitions()})
+   */
+  public void setShareDefinitions(boolean shareDefinitions) {
+    this.shareDefinitions = shareDefinitions;
+  }
+
   @Nonnull
   protected ValidationEngine buildValidationEngine( CliContext cliContext, String definitions, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    ValidationEngine validationEngine = loadCoreDefinitions(cliContext, definitions, timeTracker, true);
+    loadIgsAndExtensions(validationEngine, cliContext, timeTracker);
+    validationEngine.saveContextSnapshot();
+    configureValidationEngine(validationEngine, cliContext, timeTracker);
+    return validationEngine;
+  }
+
+  @Nonnull
+  protected ValidationEngine buildLayeredValidationEngine(CliContext cliContext, String definitions, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    ValidationEngine validationEngine = new ValidationEngine(getBaseValidationEngine(cliContext, definitions, timeTracker), true);
+    System.out.println("  Layered over shared definitions - " + validationEngine.getContext().countAllCaches() + " resources (" + timeTracker.milestone() + ")");
+    loadIgs(validationEngine, cliContext, timeTracker);
+    configureValidationEngine(validationEngine, cliContext, timeTracker);
+    return validationEngine;
+  }
+
+  private ValidationEngine getBaseValidationEngine(CliContext cliContext, String definitions, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    String key = cliContext.getSv() + "|" + definitions + "|" + cliContext.getContextSnapshot() + "|" + cliContext.getTxServer() + "|" + cliContext.getTxLog() + "|" + cliContext.getResourceMemory() + "|" + cliContext.isDoDebug();
+    // only the first session for a key loads the definitions; others for the same key wait for it, and other keys aren't blocked
+    CompletableFuture<ValidationEngine> future = new CompletableFuture<>();
+    CompletableFuture<ValidationEngine> existing = baseEngines.putIfAbsent(key, future);
+    if (existing != null) {
+      System.out.println("  Using shared definitions for FHIR v" + cliContext.getSv() + " from " + definitions);
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        } else if (e.getCause() instanceof URISyntaxException) {
+          throw (URISyntaxException) e.getCause();
+        } else if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    try {
+      ValidationEngine base = loadCoreDefinitions(cliContext, definitions, timeTracker, false);
+      loadCommonPackages(base, cliContext, timeTracker);
+      base.saveContextSnapshot();
+      base.prepare(); // so the sessions don't generate snapshots in the shared definitions 
+      future.complete(base);
+      return base;
+    } catch (IOException | URISyntaxException | RuntimeException | Error e) {
+      // so the next session tries again
+      baseEngines.remove(key, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /**
+   * @param withIgs true if the igs will be loaded into this engine as well (so they're part of the context snapshot)
+   */
+  private ValidationEngine loadCoreDefinitions(CliContext cliContext, String definitions, TimeTracker timeTracker, boolean withIgs) throws IOException, URISyntaxException {
     System.out.print("  Load FHIR v" + cliContext.getSv() + " from " + definitions);
-    ValidationEngine validationEngine = getValidationEngineBuilder().withTHO(false).withVersion(cliContext.getSv()).withTimeTracker(timeTracker).withUserAgent(Common.getValidatorUserAgent()).fromSource(definitions);
+    ValidationEngine.ValidationEngineBuilder builder = getValidationEngineBuilder().withTHO(false).withVersion(cliContext.getSv()).withTimeTracker(timeTracker).withUserAgent(Common.getValidatorUserAgent());
+    ValidationEngine validationEngine;
+    if (cliContext.getContextSnapshot() == null) {
+      validationEngine = builder.fromSource(definitions);
+    } else {
+      String key = cliContext.getSv() + "|" + definitions + (withIgs ? "|" + String.join(",", cliContext.getIgs()) + "|" + cliContext.isRecursive() : "");
+      validationEngine = builder.fromSource(definitions, ManagedFileAccess.file(cliContext.getContextSnapshot()), key);
+    }
 
     System.out.println(" - " + validationEngine.getContext().countAllCaches() + " resources (" + timeTracker.milestone() + ")");
+    if (cliContext.getResourceMemory() > 0) {
+      validationEngine.getContext().setResidentSet(new ResidentResourceSet(cliContext.getResourceMemory() * 1024L * 1024L));
+    }
+    validationEngine.getContext().setParallelLoading(cliContext.isParallelLoad());
+    return validationEngine;
+  }
 
-    loadIgsAndExtensions(validationEngine, cliContext, timeTracker);
+  private void configureValidationEngine(ValidationEngine validationEngine, CliContext cliContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
     System.out.print("  Get set... ");
     validationEngine.setQuestionnaireMode(cliContext.getQuestionnaireMode());
     validationEngine.setLevel(cliContext.getLevel());
@@ -519,11 +632,14 @@ public class ValidationService {
     validationEngine.setDisplayWarnings(cliContext.isDisplayWarnings());
     validationEngine.setBestPracticeLevel(cliContext.getBestPracticeLevel());
     validationEngine.setCheckIPSCodes(cliContext.isCheckIPSCodes());
+    validationEngine.setBatchTerminologyValidation(cliContext.isBatchTerminologyValidation());
     validationEngine.setWantInvariantInMessage(cliContext.isWantInvariantsInMessages());
     validationEngine.setSecurityChecks(cliContext.isSecurityChecks());
     validationEngine.setCrumbTrails(cliContext.isCrumbTrails());
     validationEngine.setForPublication(cliContext.isForPublication());
     validationEngine.setShowTimes(cliContext.isShowTimes());
+    validationEngine.setThreads(cliContext.getThreads());
+    validationEngine.setStreamBundles(cliContext.isStreamBundles());
     validationEngine.setAllowExampleUrls(cliContext.isAllowExampleUrls());
     if (!cliContext.isDisableDefaultResourceFetcher()) {
       StandAloneValidatorFetcher fetcher = new StandAloneValidatorFetcher(validationEngine.getPcm(), validationEngine.getContext(), validationEngine);
@@ -535,10 +651,14 @@ public class ValidationService {
     TerminologyCache.setNoCaching(cliContext.isNoInternalCaching());
     validationEngine.prepare(); // generate any missing snapshots
     System.out.println(" go (" + timeTracker.milestone() + ")");
-    return validationEngine;
   }
 
   protected void loadIgsAndExtensions(ValidationEngine validationEngine, CliContext cliContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    loadCommonPackages(validationEngine, cliContext, timeTracker);
+    loadIgs(validationEngine, cliContext, timeTracker);
+  }
+
+  private void loadCommonPackages(ValidationEngine validationEngine, CliContext cliContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
     FhirPublication ver = FhirPublication.fromCode(cliContext.getSv());
     IgLoader igLoader = new IgLoader(validationEngine.getPcm(), validationEngine.getContext(), validationEngine.getVersion(), validationEngine.isDebug());
     igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), "hl7.terminology", false);
@@ -550,6 +670,10 @@ public class ValidationService {
     System.out.println(" - Version " + txver + " (" + timeTracker.milestone() + ")");
     validationEngine.setDebug(cliContext.isDoDebug());
     validationEngine.getContext().setLogger(new SystemOutLoggingService(cliContext.isDoDebug()));
+  }
+
+  private void loadIgs(ValidationEngine validationEngine, CliContext cliContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    IgLoader igLoader = new IgLoader(validationEngine.getPcm(), validationEngine.getContext(), validationEngine.getVersion(), validationEngine.isDebug());
     for (String src : cliContext.getIgs()) {
       igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), src, cliContext.isRecursive());
     }
@@ -0,0 +1,44 @@
+package org.hl7.fhir.validation.cli.tasks;
+
+import java.io.PrintStream;
+
+import org.hl7.fhir.utilities.TimeTracker;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.cli.model.CliContext;
+import org.hl7.fhir.validation.cli.services.ValidationService;
+import org.hl7.fhir.validation.cli.utils.Display;
+import org.hl7.fhir.validation.cli.utils.EngineMode;
+
+public class NdjsonTask extends ValidationEngineTask {
+
+  @Override
+  public String getName() {
+    return "ndjson";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "NDJSON Validation";
+  }
+
+  @Override
+  public boolean isHidden() {
+    return false;
+  }
+
+  @Override
+  public boolean shouldExecuteTask(CliContext cliContext, String[] args) {
+    return cliContext.getMode() == EngineMode.NDJSON;
+  }
+
+  @Override
+  public void printHelp(PrintStream out) {
+    Display.displayHelpDetails(out,"help/ndjson.txt");
+  }
+
+  @Override
+  public void executeTask(ValidationService validationService, ValidationEngine validationEngine, CliContext cliContext, String[] args, TimeTracker tt, TimeTracker.Session tts) throws Exception {
+    validationService.validateNdjson(cliContext, validationEngine);
+  }
+
+}
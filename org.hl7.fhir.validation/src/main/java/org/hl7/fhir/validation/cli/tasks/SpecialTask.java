@@ -3,6 +3,7 @@ package org.hl7.fhir.validation.cli.tasks;
 import java.io.File;
 import java.io.PrintStream;
 
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.utilities.TimeTracker;
 import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
 import org.hl7.fhir.validation.cli.model.CliContext;
@@ -45,6 +46,14 @@ public class SpecialTask extends StandaloneTask{
       if (ManagedFileAccess.file(target).exists()) {
         new R4R5MapTester().testMaps(target, source, filter);
       }
+    } else if ("tx-cache-binary".equals(specialMode)) {
+      final String target = Params.getParam(args, Params.TARGET);
+      if (ManagedFileAccess.file(target).exists()) {
+        int c = TerminologyCache.convertToBinary(target);
+        System.out.println("Converted "+c+" terminology cache entries in "+target);
+      } else {
+        System.out.println("Terminology cache folder "+target+" not found");
+      }
     } else {
       System.out.println("Unknown SpecialMode "+specialMode);
     }
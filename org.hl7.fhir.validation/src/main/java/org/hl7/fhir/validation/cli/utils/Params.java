@@ -54,6 +54,7 @@ public class Params {
   public static final String TERMINOLOGY = "-tx";
   public static final String TERMINOLOGY_LOG = "-txLog";
   public static final String TERMINOLOGY_CACHE = "-txCache";
+  public static final String CONTEXT_SNAPSHOT = "-context-snapshot";
   public static final String LOG = "-log";
   public static final String LANGUAGE = "-language";
   public static final String IMPLEMENTATION_GUIDE = "-ig";
@@ -93,6 +94,8 @@ public class Params {
   public static final String ALLOW_DOUBLE_QUOTES = "-allow-double-quotes-in-fhirpath";
   public static final String DISABLE_DEFAULT_RESOURCE_FETCHER = "-disable-default-resource-fetcher";
   public static final String CHECK_IPS_CODES = "-check-ips-codes";
+  public static final String TX_BATCH = "-tx-batch";
+  public static final String SHARE_DEFINITIONS = "-share-definitions";
   public static final String BEST_PRACTICE = "-best-practice";
   
   
@@ -113,6 +116,12 @@ public class Params {
   private static final String WATCH_MODE_PARAM = "-watch-mode";
   private static final String WATCH_SCAN_DELAY = "-watch-scan-delay";
   private static final String WATCH_SETTLE_TIME = "-watch-settle-time";
+  public static final String THREADS = "-threads";
+  public static final String RESOURCE_MEMORY = "-resource-memory";
+  public static final String PARALLEL_LOAD = "-parallel-load";
+  public static final String STREAM_BUNDLES = "-stream-bundles";
+  public static final String NDJSON = "-ndjson";
+  public static final String NDJSON_OFFSET = "-ndjson-offset";
 
   /**
    * Checks the list of passed in params to see if it contains the passed in param.
@@ -277,6 +286,10 @@ public class Params {
         cliContext.setDisableDefaultResourceFetcher(true);
       } else if (args[i].equals(CHECK_IPS_CODES)) {
         cliContext.setCheckIPSCodes(true);       
+      } else if (args[i].equals(TX_BATCH)) {
+        cliContext.setBatchTerminologyValidation(true);
+      } else if (args[i].equals(SHARE_DEFINITIONS)) {
+        cliContext.setShareDefinitions(true);
       } else if (args[i].equals(NO_UNICODE_BIDI_CONTROL_CHARS)) {
         cliContext.setNoUnicodeBiDiControlChars(true);
       } else if (args[i].equals(NO_INVARIANTS)) {
@@ -352,6 +365,11 @@ public class Params {
           throw new Error("Specified -txCache without indicating file");
         else
           cliContext.setTxCache(args[++i]);
+      } else if (args[i].equals(CONTEXT_SNAPSHOT)) {
+        if (i + 1 == args.length)
+          throw new Error("Specified -context-snapshot without indicating file");
+        else
+          cliContext.setContextSnapshot(args[++i]);
       } else if (args[i].equals(LOG)) {
         if (i + 1 == args.length)
           throw new Error("Specified -log without indicating file");
@@ -435,7 +453,31 @@ public class Params {
             throw new Error("Specified -watch-mode without indicating mode value");
           } else {
             cliContext.setWatchSettleTime(readInteger(WATCH_SETTLE_TIME, args[++i]));
-          }      } else if (args[i].startsWith(X)) {
+          }      } else if (args[i].equals(THREADS)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -threads without indicating the number of threads");
+        } else {
+          cliContext.setThreads(readInteger(THREADS, args[++i]));
+        }
+      } else if (args[i].equals(RESOURCE_MEMORY)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -resource-memory without indicating the size");
+        } else {
+          cliContext.setResourceMemory(readInteger(RESOURCE_MEMORY, args[++i]));
+        }
+      } else if (args[i].equals(PARALLEL_LOAD)) {
+        cliContext.setParallelLoad(true);
+      } else if (args[i].equals(STREAM_BUNDLES)) {
+        cliContext.setStreamBundles(true);
+      } else if (args[i].equals(NDJSON)) {
+        cliContext.setMode(EngineMode.NDJSON);
+      } else if (args[i].equals(NDJSON_OFFSET)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -ndjson-offset without indicating the offset");
+        } else {
+          cliContext.setNdjsonOffset(readLong(NDJSON_OFFSET, args[++i]));
+        }
+      } else if (args[i].startsWith(X)) {
         i++;
       } else if (args[i].equals(CONVERT)) {
         cliContext.setMode(EngineMode.CONVERT);
@@ -480,6 +522,13 @@ public class Params {
     return Integer.parseInt(value);
   }
 
+  private static long readLong(String name, String value) {
+    if (!Utilities.isLong(value)) {
+      throw new Error("Unable to read "+value+" provided for '"+name+"' - must be an integer");
+    }
+    return Long.parseLong(value);
+  }
+
   private static ValidatorWatchMode readWatchMode(String s) {
     if (s == null) {
       return ValidatorWatchMode.NONE;
@@ -67,6 +67,7 @@ import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.PathEngineException;
 import org.hl7.fhir.exceptions.TerminologyServiceException;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
+import org.hl7.fhir.r5.conformance.profile.SnapshotIndex;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities.SourcedChildDefinitions;
 import org.hl7.fhir.r5.context.ContextUtilities;
 import org.hl7.fhir.r5.context.IWorkerContext;
@@ -80,6 +81,7 @@ import org.hl7.fhir.r5.elementmodel.ParserBase;
 import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.fhirpath.FHIRPathExpressionCache;
 import org.hl7.fhir.r5.fhirpath.TypeDetails;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.CollectionStatus;
 import org.hl7.fhir.r5.fhirpath.FHIRLexer.FHIRLexerException;
@@ -160,6 +162,7 @@ import org.hl7.fhir.r5.model.UsageContext;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.hl7.fhir.r5.renderers.DataRenderer;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyServiceErrorClass;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.utils.BuildExtensions;
@@ -591,6 +594,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   long lastlog = 0;
   private IEvaluationContext externalHostServices;
   private boolean noExtensibleWarnings;
+  private boolean batchTerminologyValidation;
   private String serverBase;
 
   private EnableWhenEvaluator myEnableWhenEvaluator = new EnableWhenEvaluator();
@@ -622,6 +626,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     fpe = new FHIRPathEngine(context);
     validatorServices = new ValidatorHostServices();
     fpe.setHostServices(validatorServices);
+    fpe.setExpressionCache(FHIRPathExpressionCache.getInstance());
     if (theContext.getVersion().startsWith("3.0") || theContext.getVersion().startsWith("1.0"))
       fpe.setLegacyMode(true);
     source = Source.InstanceValidator;
@@ -990,6 +995,9 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     executionId = UUID.randomUUID().toString();
     baseOnly = profiles.isEmpty();
     setParents(element);
+    if (batchTerminologyValidation && !noTerminologyChecks) {
+      batchValidateCodes(element, profiles);
+    }
 
     long t = System.nanoTime();
     NodeStack stack = new NodeStack(context, null, element, validationLanguage);
@@ -2166,7 +2174,8 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   }
 
   private boolean hasExtensionSlice(StructureDefinition profile, String sliceName) {
-    for (ElementDefinition ed : profile.getSnapshot().getElement()) {
+    SnapshotIndex index = SnapshotIndex.get(profile);
+    for (ElementDefinition ed : index != null ? index.getChildrenOfPath("Extension.extension") : profile.getSnapshot().getElement()) {
       if (ed.getPath().equals("Extension.extension.url") && ed.hasFixed() && sliceName.equals(ed.getFixed().primitiveValue())) {
         return true;
       }
@@ -4326,12 +4335,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   }
 
   protected ElementDefinition findElement(StructureDefinition profile, String name) {
-    for (ElementDefinition c : profile.getSnapshot().getElement()) {
-      if (c.getPath().equals(name)) {
-        return c;
-      }
-    }
-    return null;
+    return SnapshotIndex.findByPath(profile, name);
   }
 
   @Override
@@ -4420,11 +4424,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         if (id == null)
           element = sd.getSnapshot().getElementFirstRep();
         else {
-          element = null;
-          for (ElementDefinition t : sd.getSnapshot().getElement()) {
-            if (id.equals(t.getId()))
-              element = t;
-          }
+          element = SnapshotIndex.findById(sd, id);
           if (element == null)
             throw new DefinitionException(context.formatMessage(I18nConstants.UNABLE_TO_RESOLVE_ELEMENT__IN_PROFILE_, id, p));
         }
@@ -6561,7 +6561,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         else
           ok = validateElement(valContext, errors, p, getElementByTail(p, tail), profile, checkDefn, resource, ei.getElement(), type, localStack, thisIsCodeableConcept, checkDisplay, thisExtension, pct, mode) && ok;
       }
-      int index = profile.getSnapshot().getElement().indexOf(checkDefn);
+      int index = SnapshotIndex.indexOf(profile, checkDefn);
       if (index < profile.getSnapshot().getElement().size() - 1) {
         String nextPath = profile.getSnapshot().getElement().get(index + 1).getPath();
         if (!nextPath.equals(checkDefn.getPath()) && nextPath.startsWith(checkDefn.getPath())) {
@@ -7410,12 +7410,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
           for (ElementDefinitionConstraintComponent inv : ed.getConstraint()) {
             if (inv.hasExpression()) {
               try {
+                String rt = sd.getKind() == StructureDefinitionKind.RESOURCE ? sd.getType() : "DomainResource";
                 ExpressionNode n = (ExpressionNode) inv.getUserData("validator.expression.cache");
                 if (n == null) {
-                  n = fpe.parse(FHIRPathExpressionFixer.fixExpr(inv.getExpression(), inv.getKey(), context.getVersion()));
+                  n = fpe.parseAndCheck(null, rt, ed.getPath(), FHIRPathExpressionFixer.fixExpr(inv.getExpression(), inv.getKey(), context.getVersion()));
                   inv.setUserData("validator.expression.cache", n);
+                } else {
+                  fpe.check(null, rt, ed.getPath(), n);
                 }
-                fpe.check(null, sd.getKind() == StructureDefinitionKind.RESOURCE ? sd.getType() : "DomainResource", ed.getPath(), n);
               } catch (Exception e) {
                 System.out.println("Error processing structure [" + sd.getId() + "] path " + ed.getPath() + ":" + inv.getKey() + " ('" + inv.getExpression() + "'): " + e.getMessage());
               }
@@ -7468,6 +7470,117 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   }
 
 
+  /**
+   * In batch mode, the codings and codeable concepts in the resource that are bound to a value set are 
+   * validated before the resource is walked, with the server calls for them sent as a batch, so that when 
+   * the validation gets to them, the outcomes are already in the terminology cache. The messages are still 
+   * produced as the codes are found, so they are the same, and in the same order, as without batching. 
+   * 
+   * The bindings are the ones the walk will use: from the profiles the resource is being validated against
+   * (or the base definitions if there are none). Elements that are sliced in a profile can't be matched to an 
+   * element definition without the walk, and are validated as they are found. Codings are only collected if 
+   * the code system is supported, as in checkBindings
+   */
+  private void batchValidateCodes(Element element, List<StructureDefinition> profiles) {
+    List<CodingValidationRequest> list = new ArrayList<>();
+    try {
+      List<StructureDefinition> sdl = new ArrayList<>(profiles);
+      for (Element meta : element.getChildren("meta")) {
+        for (Element p : meta.getChildren("profile")) {
+          StructureDefinition sd = context.fetchResource(StructureDefinition.class, p.primitiveValue());
+          if (sd != null && !sdl.contains(sd)) {
+            sdl.add(sd);
+          }
+        }
+      }
+      sdl.removeIf(sd -> !sd.hasSnapshot() || !element.fhirType().equals(sd.getType()));
+      collectBoundCodes(element, element.fhirType(), sdl, validationLanguage, list);
+      if (!list.isEmpty()) {
+        long t = System.nanoTime();
+        context.validateCodeBatch(baseOptions, list);
+        timeTracker.tx(t, "batch "+list.size()+" codes");
+      }
+    } catch (Exception e) {
+      // nothing - the codes will be validated one at a time as they're found
+      if (STACK_TRACE) e.printStackTrace();
+    }
+  }
+
+  /**
+   * @param path the path of the element in the profiles (e.g. Patient.address.use, where the element definition is Address.use) 
+   * @param profiles the profiles for the element. Empty if the element isn't in the resource being validated (e.g. contained resources), 
+   *   in which case the base definitions are used
+   */
+  private void collectBoundCodes(Element element, String path, List<StructureDefinition> profiles, String lang, List<CodingValidationRequest> list) {
+    if (element.isResource()) {
+      String l = element.getNamedChildValue("language", false);
+      if (!Utilities.noString(l)) {
+        lang = l;
+      }
+    }
+    ElementDefinition base = element.getProperty() == null ? null : element.getProperty().getDefinition();
+    if (base != null) {
+      Set<ValueSet> seen = new HashSet<>();
+      if (profiles.isEmpty()) {
+        collectBoundCode(element, element.getProperty().getStructure(), base, lang, list, seen);
+      } else {
+        for (StructureDefinition sd : profiles) {
+          List<ElementDefinition> defns = SnapshotIndex.findAllByPath(sd, path);
+          if (defns.isEmpty()) {
+            // not constrained by the profile
+            collectBoundCode(element, element.getProperty().getStructure(), base, lang, list, seen);
+          } else if (defns.size() == 1) {
+            collectBoundCode(element, sd, defns.get(0), lang, list, seen);
+          }
+        }
+      }
+    }
+    if (element.hasChildren()) {
+      for (Element child : element.getChildren()) {
+        if (child.isResource() || child.getProperty() == null) {
+          collectBoundCodes(child, child.fhirType(), new ArrayList<>(), lang, list);
+        } else {
+          String tail = child.getProperty().getDefinition().getPath();
+          collectBoundCodes(child, path+"."+tail.substring(tail.lastIndexOf(".") + 1), profiles, lang, list);
+        }
+      }
+    }
+  }
+
+  private void collectBoundCode(Element element, StructureDefinition sd, ElementDefinition ed, String lang, List<CodingValidationRequest> list, Set<ValueSet> seen) {
+    if (sd == null || !ed.hasBinding() || !ed.getBinding().hasValueSet() || ed.getBinding().getStrength() == BindingStrength.EXAMPLE) {
+      return;
+    }
+    ValueSet vs = resolveBindingReference(sd, ed.getBinding().getValueSet(), sd.getUrl(), sd);
+    if (vs == null || !seen.add(vs)) {
+      return;
+    }
+    CodingValidationRequest req = null;
+    if ("Coding".equals(element.fhirType())) {
+      String system = element.getNamedChildValue("system", false);
+      if (system != null && element.getNamedChildValue("code", false) != null && context.supportsSystem(system, baseOptions.getFhirVersion())) {
+        req = new CodingValidationRequest(ObjectConverter.readAsCoding(element), vs);
+      }
+    } else if ("CodeableConcept".equals(element.fhirType())) {
+      CodeableConcept cc = ObjectConverter.readAsCodeableConcept(element);
+      boolean supported = false;
+      for (Coding c : cc.getCoding()) {
+        if (isNotBlank(c.getSystem()) && context.supportsSystem(c.getSystem(), baseOptions.getFhirVersion())) {
+          supported = true;
+          break;
+        }
+      }
+      if (supported) {
+        req = new CodingValidationRequest(cc, vs);
+      }
+    }
+    if (req != null) {
+      req.setOptions(baseOptions.withLanguage(lang));
+      list.add(req);
+    }
+  }
+
+
   public ValidationResult checkCodeOnServer(NodeStack stack, ValueSet vs, String value, ValidationOptions options) {
     return checkForInactive(filterOutSpecials(stack.getLiteralPath(), vs, context.validateCode(options, value, vs)), new CodeType(value));
   }
@@ -7690,6 +7803,14 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return codingObserver.isCheckIPSCodes();
   }
 
+  public boolean isBatchTerminologyValidation() {
+    return batchTerminologyValidation;
+  }
+
+  public void setBatchTerminologyValidation(boolean batchTerminologyValidation) {
+    this.batchTerminologyValidation = batchTerminologyValidation;
+  }
+
   public void setCheckIPSCodes(boolean checkIPSCodes) {
     codingObserver.setCheckIPSCodes(checkIPSCodes);
   }
@@ -0,0 +1,677 @@
+package org.hl7.fhir.validation.instance;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.validation.IResourceValidator;
+import org.hl7.fhir.r5.utils.validation.IValidatorResourceFetcher;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+
+/**
+ * Validates a large JSON Bundle without building an element tree for the whole bundle.
+ *
+ * There are two passes over the source:
+ *
+ *  * the first pass builds a 'shell' of the bundle, where each entry resource is replaced
+ *    by a stub with just the resourceType and id, and an index of fullUrl and type/id to
+ *    those stubs. The shell is validated against the bundle profiles, so the bundle level
+ *    rules (e.g. fullUrl uniqueness) are still checked
+ *  * the second pass reads the entries one at a time, validates each entry resource on its
+ *    own, and passes the issues to the listener before moving on to the next entry. References
+ *    to other entries are resolved against the index
+ *
+ * So the memory used is proportional to the number of entries, not the size of the bundle.
+ *
+ * The source is only scanned for its structure (see JsonScanner): the shell and the entry 
+ * resources are the original text, and are parsed by the usual JSON parser, so duplicate 
+ * properties are reported as usual, and the line/column of the issues are the positions 
+ * in the source. (The shell is shorter than the source, so the positions of the issues in 
+ * the shell are mapped back to the source using the position after each stub.)
+ *
+ * Document and message bundles are validated in full as usual, since the bundle level rules
+ * for these depend on the content of the entries.
+ */
+public class StreamingBundleValidator {
+
+  public interface IStreamingBundleListener {
+    /**
+     * called as each entry has been validated. The locations of the messages are relative to the bundle
+     */
+    void entryValidated(int index, String fullUrl, List<ValidationMessage> messages);
+  }
+
+  private static final Pattern ENTRY_RESOURCE_PATH = Pattern.compile("^Bundle\\.entry\\[\\d+\\]\\.resource.*");
+
+  private IWorkerContext context;
+  private InstanceValidator validator;
+  private Map<String, String> index = new HashMap<>();
+  private List<Relocation> relocations = new ArrayList<>();
+  private int shellScanned;
+  private int shellLine;
+  private int shellCol;
+  private int entryCount;
+  private String bundleType;
+
+  public StreamingBundleValidator(InstanceValidator validator) {
+    super();
+    this.validator = validator;
+    this.context = validator.getContext();
+  }
+
+  /**
+   * @return true if the source is a JSON file that has a Bundle as the root
+   */
+  public static boolean isJsonBundle(File source) {
+    if (!source.exists() || !source.getName().toLowerCase().endsWith(".json")) {
+      return false;
+    }
+    try (JsonScanner scanner = new JsonScanner(source)) {
+      if (!scanner.beginObject()) {
+        return false;
+      }
+      String name;
+      while ((name = scanner.nextName()) != null) {
+        if ("resourceType".equals(name)) {
+          return scanner.peekValue() == '"' && "Bundle".equals(scanner.readString());
+        } else {
+          scanner.skipValue();
+        }
+      }
+      return false;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  public String getBundleType() {
+    return bundleType;
+  }
+
+  /**
+   * @return the issues at the bundle level. The issues for the entries are passed to the listener as each entry is validated
+   */
+  public List<ValidationMessage> validate(File source, List<StructureDefinition> profiles, IStreamingBundleListener listener) throws FHIRException, IOException {
+    List<ValidationMessage> messages = new ArrayList<>();
+    StringBuilder shell = scan(source);
+    IValidatorResourceFetcher fetcher = validator.getFetcher();
+    validator.setFetcher(new IndexFetcher(fetcher));
+    try {
+      if (Utilities.existsInList(bundleType, "document", "message")) {
+        try (InputStream stream = new FileInputStream(source)) {
+          validator.validate(null, messages, stream, FhirFormat.JSON, profiles);
+        }
+      } else {
+        byte[] content = shell.toString().getBytes(StandardCharsets.UTF_8);
+        shell = null;
+        validator.validate(null, messages, new ByteArrayInputStream(content), FhirFormat.JSON, profiles);
+        // the stub resources are validated properly in the second pass
+        messages.removeIf(vm -> vm.getLocation() != null && ENTRY_RESOURCE_PATH.matcher(vm.getLocation()).matches());
+        content = null;
+        relocateShell(messages);
+        relocations.clear();
+        validateEntries(source, listener);
+      }
+    } finally {
+      validator.setFetcher(fetcher);
+    }
+    return messages;
+  }
+
+  // --- pass 1 -------------------------------------------------------------------------
+
+  private StringBuilder scan(File source) throws IOException {
+    index.clear();
+    relocations.clear();
+    shellScanned = 0;
+    shellLine = 1;
+    shellCol = 1;
+    entryCount = 0;
+    bundleType = null;
+    StringBuilder shell = new StringBuilder();
+    try (JsonScanner scanner = new JsonScanner(source)) {
+      scanner.setCopy(shell);
+      if (!scanner.beginObject()) {
+        throw new IOException("The bundle is not a JSON object");
+      }
+      String name;
+      while ((name = scanner.nextName()) != null) {
+        if ("entry".equals(name) && scanner.peekValue() == '[') {
+          scanner.beginArray();
+          while (scanner.hasNextItem()) {
+            scanEntry(scanner, shell);
+          }
+        } else if ("type".equals(name) && scanner.peekValue() == '"') {
+          bundleType = scanner.readString();
+        } else {
+          scanner.skipValue();
+        }
+      }
+      scanner.skipWhitespace();
+    }
+    return shell;
+  }
+
+  private void scanEntry(JsonScanner scanner, StringBuilder shell) throws IOException {
+    entryCount++;
+    if (!scanner.beginObject()) {
+      return;
+    }
+    String fullUrl = null;
+    String stub = null;
+    String name;
+    while ((name = scanner.nextName()) != null) {
+      if ("resource".equals(name) && scanner.peekValue() == '{') {
+        stub = scanResource(scanner, shell);
+      } else if ("fullUrl".equals(name) && scanner.peekValue() == '"') {
+        fullUrl = scanner.readString();
+      } else {
+        scanner.skipValue();
+      }
+    }
+    if (stub != null && fullUrl != null) {
+      index.put(fullUrl, stub);
+    }
+  }
+
+  /**
+   * the resource is replaced in the shell by a stub, and the position after the stub 
+   * is recorded along with the position after the resource in the source
+   */
+  private String scanResource(JsonScanner scanner, StringBuilder shell) throws IOException {
+    scanner.setCopy(null);
+    String type = null;
+    String id = null;
+    scanner.beginObject();
+    String name;
+    while ((name = scanner.nextName()) != null) {
+      if ("resourceType".equals(name) && scanner.peekValue() == '"') {
+        type = scanner.readString();
+      } else if ("id".equals(name) && scanner.peekValue() == '"') {
+        id = scanner.readString();
+      } else {
+        scanner.skipValue();
+      }
+    }
+    JsonObject obj = new JsonObject();
+    if (type != null) {
+      obj.add("resourceType", type);
+    }
+    if (id != null) {
+      obj.add("id", id);
+    }
+    String stub = JsonParser.compose(obj);
+    shell.append(stub);
+    advanceShell(shell);
+    relocations.add(new Relocation(shellLine, shellCol, scanner.getLine(), scanner.getCol()));
+    scanner.setCopy(shell);
+    if (type != null && id != null) {
+      index.put(type+"/"+id, stub);
+    }
+    return stub;
+  }
+
+  /**
+   * tracks the line and column of the end of the shell, the same way as JsonScanner
+   */
+  private void advanceShell(StringBuilder shell) {
+    for (int i = shellScanned; i < shell.length(); i++) {
+      if (shell.charAt(i) == '\n') {
+        shellLine++;
+        shellCol = 1;
+      } else {
+        shellCol++;
+      }
+    }
+    shellScanned = shell.length();
+  }
+
+  /**
+   * maps the positions of issues in the shell back to the source: after a stub, the 
+   * shell is the same as the source, offset by the difference in the positions after the 
+   * stub and after the resource
+   */
+  private void relocateShell(List<ValidationMessage> messages) {
+    for (ValidationMessage vm : messages) {
+      if (vm.getLine() > 0) {
+        Relocation r = findRelocation(vm.getLine(), vm.getCol());
+        if (r != null) {
+          if (vm.getLine() == r.shellLine) {
+            vm.setCol(toInt(r.col + vm.getCol() - r.shellCol));
+          }
+          vm.setLine(toInt(r.line + vm.getLine() - r.shellLine));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the last stub that ends at or before the position in the shell
+   */
+  private Relocation findRelocation(int line, int col) {
+    int lo = 0;
+    int hi = relocations.size() - 1;
+    Relocation res = null;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      Relocation r = relocations.get(mid);
+      if (r.shellLine < line || (r.shellLine == line && r.shellCol <= col)) {
+        res = r;
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return res;
+  }
+
+  private static int toInt(long value) {
+    return value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+  }
+
+  /**
+   * The position just after a stub in the shell, and just after the resource it replaced in the source
+   */
+  private static class Relocation {
+    private final int shellLine;
+    private final int shellCol;
+    private final long line;
+    private final long col;
+
+    private Relocation(int shellLine, int shellCol, long line, long col) {
+      super();
+      this.shellLine = shellLine;
+      this.shellCol = shellCol;
+      this.line = line;
+      this.col = col;
+    }
+  }
+
+  // --- pass 2 -------------------------------------------------------------------------
+
+  private void validateEntries(File source, IStreamingBundleListener listener) throws IOException {
+    try (JsonScanner scanner = new JsonScanner(source)) {
+      scanner.beginObject();
+      String name;
+      while ((name = scanner.nextName()) != null) {
+        if ("entry".equals(name) && scanner.peekValue() == '[') {
+          scanner.beginArray();
+          int i = 0;
+          while (scanner.hasNextItem()) {
+            validateEntry(scanner, i, listener);
+            i++;
+          }
+        } else {
+          scanner.skipValue();
+        }
+      }
+    }
+  }
+
+  private void validateEntry(JsonScanner scanner, int i, IStreamingBundleListener listener) throws IOException {
+    if (!scanner.beginObject()) {
+      return;
+    }
+    String fullUrl = null;
+    StringBuilder resource = null;
+    long line = 0;
+    long col = 0;
+    String name;
+    while ((name = scanner.nextName()) != null) {
+      if ("fullUrl".equals(name) && scanner.peekValue() == '"') {
+        fullUrl = scanner.readString();
+      } else if ("resource".equals(name) && scanner.peekValue() == '{') {
+        line = scanner.getLine();
+        col = scanner.getCol();
+        resource = new StringBuilder();
+        scanner.setCopy(resource);
+        scanner.skipValue();
+        scanner.setCopy(null);
+      } else {
+        scanner.skipValue();
+      }
+    }
+    if (resource != null) {
+      List<ValidationMessage> messages = new ArrayList<>();
+      byte[] content = resource.toString().getBytes(StandardCharsets.UTF_8);
+      resource = null;
+      Element e = validator.validate(null, messages, new ByteArrayInputStream(content), FhirFormat.JSON, new ArrayList<>());
+      relocate(messages, i, e == null ? null : e.fhirType(), line, col);
+      if (listener != null) {
+        listener.entryValidated(i, fullUrl, messages);
+      }
+    }
+  }
+
+  /**
+   * the resource was validated on its own, so the paths are relative to the resource, 
+   * and the positions are relative to the start of the resource in the source 
+   */
+  private void relocate(List<ValidationMessage> messages, int i, String type, long line, long col) {
+    String prefix = "Bundle.entry["+i+"].resource";
+    for (ValidationMessage vm : messages) {
+      String loc = vm.getLocation();
+      if (loc != null && type != null && loc.startsWith(type)) {
+        vm.setLocation(prefix+loc.substring(type.length()));
+      }
+      if (vm.getLine() > 0) {
+        if (vm.getLine() == 1) {
+          vm.setCol(toInt(vm.getCol() + col - 1));
+        }
+        vm.setLine(toInt(vm.getLine() + line - 1));
+      }
+    }
+  }
+
+  /**
+   * Resolves references to the other entries in the bundle from the index built in the
+   * first pass, and passes everything else to the validator's own fetcher
+   */
+  private class IndexFetcher implements IValidatorResourceFetcher {
+
+    private IValidatorResourceFetcher next;
+
+    private IndexFetcher(IValidatorResourceFetcher next) {
+      super();
+      this.next = next;
+    }
+
+    @Override
+    public Element fetch(IResourceValidator validator, Object appContext, String url) throws FHIRException, IOException {
+      String stub = index.get(url);
+      if (stub != null) {
+        return Manager.parseSingle(context, new ByteArrayInputStream(stub.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+      }
+      return next == null ? null : next.fetch(validator, appContext, url);
+    }
+
+    @Override
+    public boolean resolveURL(IResourceValidator validator, Object appContext, String path, String url, String type, boolean canonical) throws IOException, FHIRException {
+      if (index.containsKey(url)) {
+        return true;
+      }
+      return next == null ? true : next.resolveURL(validator, appContext, path, url, type, canonical);
+    }
+
+    @Override
+    public byte[] fetchRaw(IResourceValidator validator, String url) throws IOException {
+      if (next == null) {
+        throw new IOException("Unable to fetch "+url);
+      }
+      return next.fetchRaw(validator, url);
+    }
+
+    @Override
+    public IValidatorResourceFetcher setLocale(Locale locale) {
+      if (next != null) {
+        next.setLocale(locale);
+      }
+      return this;
+    }
+
+    @Override
+    public CanonicalResource fetchCanonicalResource(IResourceValidator validator, Object appContext, String url) throws URISyntaxException {
+      return next == null ? null : next.fetchCanonicalResource(validator, appContext, url);
+    }
+
+    @Override
+    public boolean fetchesCanonicalResource(IResourceValidator validator, String url) {
+      return next != null && next.fetchesCanonicalResource(validator, url);
+    }
+
+    @Override
+    public Set<String> fetchCanonicalResourceVersions(IResourceValidator validator, Object appContext, String url) {
+      return next == null ? null : next.fetchCanonicalResourceVersions(validator, appContext, url);
+    }
+  }
+
+  /**
+   * Reads just enough of the JSON source to find the properties of interest, tracking 
+   * the line and column the same way as the JSON parser (JsonLexer), so that positions 
+   * can be mapped back to the source. If a copy is set, everything that is read is 
+   * appended to it verbatim. 
+   */
+  private static class JsonScanner implements Closeable {
+
+    private Reader reader;
+    private int peek = -2; // nothing peeked
+    private long line = 1;
+    private long col = 1; // a minified bundle is one line, so this can be more than 2GB
+    private StringBuilder copy;
+
+    private JsonScanner(File source) throws IOException {
+      super();
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8));
+      if (peek() == '\uFEFF') {
+        // the parser strips the BOM before reading, so it doesn't count
+        peek = -2;
+      }
+    }
+
+    private long getLine() {
+      return line;
+    }
+
+    private long getCol() {
+      return col;
+    }
+
+    private void setCopy(StringBuilder copy) {
+      this.copy = copy;
+    }
+
+    private int peek() throws IOException {
+      if (peek == -2) {
+        peek = reader.read();
+      }
+      return peek;
+    }
+
+    private char read() throws IOException {
+      int c = peek();
+      if (c == -1) {
+        throw error("Unexpected end of source");
+      }
+      peek = -2;
+      if (c == '\n') {
+        line++;
+        col = 1;
+      } else {
+        col++;
+      }
+      if (copy != null) {
+        copy.append((char) c);
+      }
+      return (char) c;
+    }
+
+    private IOException error(String msg) {
+      return new IOException("Error parsing JSON source: "+msg+" at Line "+line+", col "+col);
+    }
+
+    /**
+     * skips white space and comments (the parser allows comments)
+     */
+    private void skipWhitespace() throws IOException {
+      while (true) {
+        int c = peek();
+        if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+          read();
+        } else if (c == '/') {
+          read();
+          char c2 = read();
+          if (c2 == '/') {
+            while (peek() != -1 && peek() != '\n') {
+              read();
+            }
+          } else if (c2 == '*') {
+            char last = 0;
+            char ch = read();
+            while (!(last == '*' && ch == '/')) {
+              last = ch;
+              ch = read();
+            }
+          } else {
+            throw error("Unexpected content '/"+c2+"'");
+          }
+        } else {
+          return;
+        }
+      }
+    }
+
+    /**
+     * @return the first character of the next value, after skipping white space
+     */
+    private int peekValue() throws IOException {
+      skipWhitespace();
+      return peek();
+    }
+
+    /**
+     * @return false (having skipped the value) if the next value is not an object
+     */
+    private boolean beginObject() throws IOException {
+      if (peekValue() != '{') {
+        skipValue();
+        return false;
+      }
+      read();
+      return true;
+    }
+
+    /**
+     * @return the name of the next property in the object, or null at the end of the object (which is consumed)
+     */
+    private String nextName() throws IOException {
+      if (peekValue() == ',') {
+        read();
+        skipWhitespace();
+      }
+      if (peek() == '}') {
+        read();
+        return null;
+      }
+      String name = readString();
+      skipWhitespace();
+      if (read() != ':') {
+        throw error("Expected ':' after property name '"+name+"'");
+      }
+      return name;
+    }
+
+    private void beginArray() throws IOException {
+      if (peekValue() != '[') {
+        throw error("Expected '['");
+      }
+      read();
+    }
+
+    /**
+     * @return false at the end of the array (which is consumed)
+     */
+    private boolean hasNextItem() throws IOException {
+      if (peekValue() == ',') {
+        read();
+        skipWhitespace();
+      }
+      if (peek() == ']') {
+        read();
+        return false;
+      }
+      return true;
+    }
+
+    private String readString() throws IOException {
+      if (peekValue() != '"') {
+        throw error("Expected a string");
+      }
+      read();
+      StringBuilder b = new StringBuilder();
+      char c = read();
+      while (c != '"') {
+        if (c == '\\') {
+          c = read();
+          switch (c) {
+          case 'b': b.append('\b'); break;
+          case 'f': b.append('\f'); break;
+          case 'n': b.append('\n'); break;
+          case 'r': b.append('\r'); break;
+          case 't': b.append('\t'); break;
+          case 'u':
+            String hex = new String(new char[] { read(), read(), read(), read() });
+            try {
+              b.append((char) Integer.parseInt(hex, 16));
+            } catch (NumberFormatException e) {
+              throw error("Illegal unicode escape '\\u"+hex+"'");
+            }
+            break;
+          default: b.append(c);
+          }
+        } else {
+          b.append(c);
+        }
+        c = read();
+      }
+      return b.toString();
+    }
+
+    private void skipValue() throws IOException {
+      int c = peekValue();
+      if (c == '{') {
+        read();
+        while (nextName() != null) {
+          skipValue();
+        }
+      } else if (c == '[') {
+        read();
+        while (hasNextItem()) {
+          skipValue();
+        }
+      } else if (c == '"') {
+        readString();
+      } else if (c == -1 || c == ',' || c == '}' || c == ']' || c == ':') {
+        throw error("Expected a value");
+      } else {
+        // number, true, false, null (or an unquoted string)
+        while (peek() != -1 && ",}] \t\r\n/".indexOf(peek()) == -1) {
+          read();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.hl7.fhir.validation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.OperationOutcome;
+import org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.validation.NdjsonValidator.LatencyHistogram;
+import org.hl7.fhir.validation.NdjsonValidator.NdjsonStatistics;
+import org.hl7.fhir.validation.tests.utilities.TestUtilities;
+import org.junit.jupiter.api.Test;
+
+public class NdjsonValidatorTests {
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.percentile(50));
+    // 1..1000 ms
+    for (int i = 1; i <= 1000; i++) {
+      h.record(i * 1000000L);
+    }
+    assertEquals(1000, h.getCount());
+    long p50 = h.percentile(50);
+    long p99 = h.percentile(99);
+    assertTrue(p50 > 500000 * 0.95 && p50 < 500000 * 1.05, "p50 = "+p50);
+    assertTrue(p99 > 990000 * 0.95 && p99 < 990000 * 1.05, "p99 = "+p99);
+  }
+
+  @Test
+  public void testValidateNdjson() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+    engine.setThreads(4);
+
+    // every 3rd patient has an error, and there's a blank line and a line with a CR LF in the middle
+    StringBuilder b = new StringBuilder();
+    List<Long> offsets = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      if (i == 20) {
+        b.append("\n");
+      }
+      offsets.add((long) b.length());
+      b.append("{\"resourceType\":\"Patient\",\"id\":\"p"+i+"\",\"active\":"+(i % 3 == 0 ? "\"yes\"" : "true")+"}");
+      b.append(i == 30 ? "\r\n" : "\n");
+    }
+    long length = b.length();
+    Path source = Files.createTempFile("ndjson", ".ndjson");
+    try {
+      Files.write(source, b.toString().getBytes(StandardCharsets.UTF_8));
+
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      NdjsonStatistics stats = new NdjsonValidator(engine).validate(source.toString(), 0, output, new ArrayList<>());
+      assertEquals(50, stats.getCount());
+      assertEquals(17, stats.getResourcesWithErrors());
+      assertEquals(length, stats.getResumeOffset());
+      List<OperationOutcome> outcomes = readOutcomes(output);
+      assertEquals(50, outcomes.size());
+      for (int i = 0; i < 50; i++) {
+        OperationOutcome op = outcomes.get(i);
+        // in the same order as the source, whatever order they were validated in
+        assertEquals(source.toString()+"@"+offsets.get(i), ToolingExtensions.readStringExtension(op, ToolingExtensions.EXT_OO_FILE));
+        assertEquals(i % 3 == 0, hasErrors(op), "line "+i);
+      }
+
+      // resume from the start of the 40th resource
+      output = new ByteArrayOutputStream();
+      stats = new NdjsonValidator(engine).validate(source.toString(), offsets.get(40), output, new ArrayList<>());
+      assertEquals(10, stats.getCount());
+      assertEquals(length, stats.getResumeOffset());
+      List<OperationOutcome> resumed = readOutcomes(output);
+      assertEquals(10, resumed.size());
+      for (int i = 0; i < 10; i++) {
+        assertEquals(source.toString()+"@"+offsets.get(40 + i), ToolingExtensions.readStringExtension(resumed.get(i), ToolingExtensions.EXT_OO_FILE));
+        assertEquals(hasErrors(outcomes.get(40 + i)), hasErrors(resumed.get(i)));
+      }
+    } finally {
+      Files.delete(source);
+    }
+  }
+
+  private List<OperationOutcome> readOutcomes(ByteArrayOutputStream output) throws IOException {
+    List<OperationOutcome> res = new ArrayList<>();
+    for (String line : output.toString(StandardCharsets.UTF_8.name()).split("\n")) {
+      if (!line.isEmpty()) {
+        res.add((OperationOutcome) new JsonParser().parse(line));
+      }
+    }
+    return res;
+  }
+
+  private boolean hasErrors(OperationOutcome op) {
+    for (OperationOutcomeIssueComponent issue : op.getIssue()) {
+      if (issue.getSeverity() == IssueSeverity.ERROR || issue.getSeverity() == IssueSeverity.FATAL) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
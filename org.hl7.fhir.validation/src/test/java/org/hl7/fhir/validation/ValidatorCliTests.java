@@ -53,6 +53,9 @@ public class ValidatorCliTests {
   @Spy
   NarrativeTask narrativeTask;
 
+  @Spy
+  NdjsonTask ndjsonTask;
+
   @Spy
   SnapshotTask snapshotTask;
   @Spy
@@ -109,6 +112,7 @@ public class ValidatorCliTests {
           installTask,
           langTransformTask,
           narrativeTask,
+          ndjsonTask,
           preloadCacheTask,
           scanTask,
           snapshotTask,
@@ -202,6 +206,16 @@ public class ValidatorCliTests {
     Mockito.verify(validationService).generateSnapshot(same(cliContext), same(validationEngine));
   }
 
+  @Test
+  public void ndjsonTest() throws Exception {
+    final String[] args = new String[]{"-ndjson", "-ndjson-offset", "1024"};
+    CliContext cliContext = Params.loadCliContext(args);
+    ValidatorCli cli = mockValidatorCliWithService(cliContext);
+    cli.readParamsAndExecuteTask(cliContext, args);
+    Mockito.verify(validationService).determineVersion(same(cliContext));
+    Mockito.verify(validationService).validateNdjson(same(cliContext), same(validationEngine));
+  }
+
   @Test
   public void installTest() throws Exception {
     final String[] args = new String[]{"-install"};
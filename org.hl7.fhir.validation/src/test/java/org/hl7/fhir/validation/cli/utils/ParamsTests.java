@@ -3,6 +3,7 @@ package org.hl7.fhir.validation.cli.utils;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -20,6 +21,55 @@ public class ParamsTests {
     assertEquals(Locale.GERMAN, cliContext.getLocale());
   }
 
+  @Test
+  void testThreads() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-threads", "8"});
+    assertEquals(8, cliContext.getThreads());
+  }
+
+  @Test
+  void testTxBatch() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-tx-batch"});
+    assertTrue(cliContext.isBatchTerminologyValidation());
+  }
+
+  @Test
+  void testShareDefinitions() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-share-definitions"});
+    assertTrue(cliContext.isShareDefinitions());
+  }
+
+  @Test
+  void testResourceMemory() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-resource-memory", "512"});
+    assertEquals(512, cliContext.getResourceMemory());
+  }
+
+  @Test
+  void testParallelLoad() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-parallel-load"});
+    assertTrue(cliContext.isParallelLoad());
+  }
+
+  @Test
+  void testContextSnapshot() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-context-snapshot", "context.snapshot"});
+    assertEquals("context.snapshot", cliContext.getContextSnapshot());
+  }
+
+  @Test
+  void testStreamBundles() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-stream-bundles"});
+    assertTrue(cliContext.isStreamBundles());
+  }
+
+  @Test
+  void testNdjson() throws Exception {
+    CliContext cliContext = Params.loadCliContext(new String[]{"-ndjson", "-ndjson-offset", "5000000000"});
+    assertEquals(EngineMode.NDJSON, cliContext.getMode());
+    assertEquals(5000000000L, cliContext.getNdjsonOffset());
+  }
+
   @Test
   void testFhirSettingsFile() throws Exception {
     File tempFile = ManagedFileAccess.fromPath(Files.createTempFile("fhir-settings", "json"));
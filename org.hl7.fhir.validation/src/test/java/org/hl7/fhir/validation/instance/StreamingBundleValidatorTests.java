@@ -0,0 +1,68 @@
+package org.hl7.fhir.validation.instance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.tests.utilities.TestUtilities;
+import org.junit.jupiter.api.Test;
+
+public class StreamingBundleValidatorTests {
+
+  @Test
+  public void testMinifiedPositions() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+
+    // all on one line, with a bundle level issue after the entries, and an entry level issue in the second entry
+    StringBuilder b = new StringBuilder();
+    b.append("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[");
+    for (int i = 0; i < 3; i++) {
+      b.append(i == 0 ? "" : ",");
+      b.append("{\"fullUrl\":\"http://example.org/Patient/p"+i+"\",\"resource\":{\"resourceType\":\"Patient\",\"id\":\"p"+i+"\","+
+        "\"name\":[{\"family\":\"Family"+i+"\",\"given\":[\"Given"+i+"\"]}],\"active\":"+(i == 1 ? "\"yes\"" : "true")+"}}");
+    }
+    b.append("],\"bogus\":1}");
+    byte[] content = b.toString().getBytes(StandardCharsets.UTF_8);
+    Path source = Files.createTempFile("bundle", ".json");
+    try {
+      Files.write(source, content);
+
+      List<ValidationMessage> full = new ArrayList<>();
+      engine.getValidator(FhirFormat.JSON).validate(null, full, new ByteArrayInputStream(content), FhirFormat.JSON, new ArrayList<>());
+
+      List<ValidationMessage> streamed = new ArrayList<>();
+      List<ValidationMessage> entries = new ArrayList<>();
+      streamed.addAll(new StreamingBundleValidator(engine.getValidator(FhirFormat.JSON)).validate(source.toFile(), new ArrayList<>(), (index, fullUrl, msgs) -> entries.addAll(msgs)));
+      streamed.addAll(entries);
+
+      // the shell is not padded out to the size of the source, but the positions are the same as validating the whole bundle
+      checkSamePosition(full, streamed, vm -> vm.getMessage() != null && vm.getMessage().contains("bogus"));
+      checkSamePosition(full, streamed, vm -> vm.getLocation() != null && vm.getLocation().endsWith("active"));
+    } finally {
+      Files.delete(source);
+    }
+  }
+
+  private void checkSamePosition(List<ValidationMessage> full, List<ValidationMessage> streamed, Predicate<ValidationMessage> test) {
+    ValidationMessage expected = full.stream().filter(test).findFirst().orElse(null);
+    ValidationMessage actual = streamed.stream().filter(test).findFirst().orElse(null);
+    assertNotNull(expected);
+    assertNotNull(actual);
+    assertEquals(1, actual.getLine());
+    assertTrue(actual.getCol() > 1);
+    assertEquals(expected.getLine(), actual.getLine());
+    assertEquals(expected.getCol(), actual.getCol(), expected.getMessage());
+  }
+}
@@ -2,6 +2,8 @@ package org.hl7.fhir.validation.tests;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,13 +11,16 @@ import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.model.OperationOutcome;
 import org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity;
 import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
+import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
 import org.hl7.fhir.utilities.FhirPublication;
 import org.hl7.fhir.utilities.settings.FhirSettings;
 import org.hl7.fhir.utilities.tests.CacheVerificationLogger;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.validation.IgLoader;
 import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.instance.InstanceValidator;
 import org.hl7.fhir.validation.tests.utilities.TestUtilities;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -93,6 +98,65 @@ public class ValidationEngineTests {
     assertTrue(logger.verifyHasNoRequests(), "Unexpected request to TX server");
   }
 
+  @Test
+  public void testTxBatchSameMessages() throws Exception {
+    if (!TestUtilities.silent)
+      System.out.println("TestTxBatch: Validate an observation with and without -tx-batch");
+    // both engines are created before either is used, so the batched validation can't just read what the other one cached 
+    ValidationEngine ve = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    ValidationEngine veBatch = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    String src = "{\"resourceType\":\"Observation\",\"id\":\"hr\",\"status\":\"final\","+
+      "\"category\":[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/observation-category\",\"code\":\"vital-signs\"}]}],"+
+      "\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"8867-4\"},{\"system\":\"http://loinc.org\",\"code\":\"xxxx-1\"}]},"+
+      "\"subject\":{\"reference\":\"Patient/example\"},\"effectiveDateTime\":\"2020-01-01\","+
+      "\"valueQuantity\":{\"value\":60,\"unit\":\"beats/minute\",\"system\":\"http://unitsofmeasure.org\",\"code\":\"/min\"},"+
+      "\"interpretation\":[{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation\",\"code\":\"XX\"}]}]}";
+    // the vital signs profile has its own bindings for the code, so the batch has to use the profile's bindings 
+    for (String profile : new String[] { null, "http://hl7.org/fhir/StructureDefinition/vitalsigns" }) {
+      String expected = validateToString(ve, src, profile, false);
+      Assertions.assertFalse(expected.isEmpty());
+      Assertions.assertEquals(expected, validateToString(veBatch, src, profile, true), "profile = "+profile);
+    }
+  }
+
+  private String validateToString(ValidationEngine ve, String src, String profile, boolean batch) throws Exception {
+    InstanceValidator validator = ve.getValidator(FhirFormat.JSON);
+    validator.setBatchTerminologyValidation(batch);
+    List<StructureDefinition> profiles = new ArrayList<>();
+    if (profile != null) {
+      profiles.add(ve.getContext().fetchResource(StructureDefinition.class, profile));
+    }
+    List<ValidationMessage> messages = new ArrayList<>();
+    validator.validate(null, messages, new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON, profiles);
+    CommaSeparatedStringBuilder lines = new CommaSeparatedStringBuilder("\n");
+    for (ValidationMessage vm : messages) {
+      lines.append(vm.summary());
+    }
+    return lines.toString();
+  }
+
+  @Test
+  public void testLayeredSameMessages() throws Exception {
+    if (!TestUtilities.silent)
+      System.out.println("TestLayered: Validate a patient against US-Core loaded into a layer and into a flat engine");
+    ValidationEngine base = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+    ValidationEngine layer = new ValidationEngine(base, true);
+    new IgLoader(layer.getPcm(), layer.getContext(), layer.getVersion(), true).loadIg(layer.getIgs(), layer.getBinaries(), "hl7.fhir.us.core#3.1.1", false);
+    ValidationEngine flat = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", "n/a", FhirPublication.R4, "4.0.1");
+    new IgLoader(flat.getPcm(), flat.getContext(), flat.getVersion(), true).loadIg(flat.getIgs(), flat.getBinaries(), "hl7.fhir.us.core#3.1.1", false);
+    String src = "{\"resourceType\":\"Patient\",\"id\":\"pat\",\"active\":true,"+
+      "\"identifier\":[{\"system\":\"http://example.org/mrn\",\"value\":\"12345\"}],"+
+      "\"name\":[{\"family\":\"Smith\",\"given\":[\"John\"]},{\"given\":[\"Johnny\"]}],"+
+      "\"gender\":\"male\",\"birthDate\":\"1970-01-01\"}";
+    for (String profile : new String[] { null, "http://hl7.org/fhir/us/core/StructureDefinition/us-core-patient" }) {
+      String expected = validateToString(flat, src, profile, false);
+      Assertions.assertFalse(expected.isEmpty());
+      Assertions.assertEquals(expected, validateToString(layer, src, profile, false), "profile = "+profile);
+    }
+    // and the shared definitions don't see what was loaded into the layer
+    Assertions.assertNull(base.getContext().fetchResource(StructureDefinition.class, "http://hl7.org/fhir/us/core/StructureDefinition/us-core-patient"));
+  }
+
   @Test
   public void test140() throws Exception {
     if (inbuild) {